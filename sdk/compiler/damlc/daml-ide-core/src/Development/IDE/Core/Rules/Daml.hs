@@ -1046,10 +1046,11 @@ runScriptsPkg damlFile extPkg = do
             ctxIdOrErr
     scriptContextsVar <- envScriptContexts <$> getDamlServiceEnv
     liftIO $ modifyMVar_ scriptContextsVar $ pure . HashMap.insert damlFile ctxId
-    results <- forM scripts $ \(modName, script) ->
-        runScript scriptService Nothing ctxId modName script
+    -- The scripts of a package have no virtual resource to report progress to, so they run as a
+    -- single batch.
+    results <- liftIO $ SS.runScripts scriptService ctxId scripts
     -- modify result to map back to PackageId
-    pure $ Just results
+    pure $ Just $ zip [ScriptName $ LF.unExprValName script | (_, script) <- scripts] results
   where
     pkg = LF.extPackagePkg extPkg
     scripts =
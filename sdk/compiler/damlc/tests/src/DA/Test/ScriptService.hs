@@ -57,23 +57,34 @@ main = withComponentVersions $ do
             [ testGroup
                 "Without Contract keys"
                 [ withResourceCps
-                    (withScriptService LF.defaultLfVersion $ Just "V34")
+                    (withScriptService LF.defaultLfVersion (Just "V34") Nothing)
                     (testScriptService LF.defaultLfVersion)
                 ]
             , testGroup
                 "With Contract Keys"
                 [ withResourceCps
-                    (withScriptService lfVersion Nothing)
+                    (withScriptService lfVersion Nothing Nothing)
                     (testScriptServiceWithKeys lfVersion)
                 -- TODO (canton#31925) Change the feature min-bound to LF.defaultLfVersion once 2.3 becomes default
                 | Just lfVersion <- [LF.smallestStableInRange $ LF.featureVersionReq LF.featureContractKeys]
                 ]
+            , testGroup
+                "With an empty memory budget"
+                [ withResourceCps
+                    -- Every new context evicts all the others, including the root context.
+                    (withScriptService LF.defaultLfVersion (Just "V34") (Just 0))
+                    (testScriptServiceEviction LF.defaultLfVersion)
+                ]
             ]
 
-withScriptService :: ComponentVersioned => LF.Version -> Maybe String -> (SS.Handle -> IO ()) -> IO ()
-withScriptService lfVersion idePv action = do
+withScriptService :: ComponentVersioned => LF.Version -> Maybe String -> Maybe Int -> (SS.Handle -> IO ()) -> IO ()
+withScriptService lfVersion idePv memoryBudget action = do
   logger <- Logger.newStderrLogger Logger.Error "script-service"
-  let scriptConfig = SS.defaultScriptServiceConfig {SS.cnfJvmOptions = ["-Xmx200M"], SS.cnfIdeLedgerProtocolVersion = idePv}
+  let scriptConfig = SS.defaultScriptServiceConfig
+        { SS.cnfJvmOptions = ["-Xmx200M"]
+        , SS.cnfIdeLedgerProtocolVersion = idePv
+        , SS.cnfContextMemoryBudget = memoryBudget
+        }
   -- Spinning up the script service is expensive so we do it once at the beginning.
   SS.withScriptService lfVersion logger scriptConfig Nothing action
 
@@ -799,6 +810,33 @@ testScriptService lfVersion getScriptService =
         ]
     ]
 
+testScriptServiceEviction :: ComponentVersioned => LF.Version -> IO SS.Handle -> TestTree
+testScriptServiceEviction lfVersion getScriptService =
+  withResourceCps (withPackageDBAndIdeState lfVersion getScriptService) $ \getIdeState ->
+    testGroup
+      ("LF " <> LF.renderVersion lfVersion)
+      [ testCase "evicted contexts are recreated" $ do
+          -- The second run updates the root context the server evicted during the first one.
+          for_ [1 :: Int, 2] $ \n -> do
+            rs <-
+              runScriptsInModule
+                getIdeState
+                [ "module Test where",
+                  "import Daml.Script",
+                  "template T",
+                  "  with",
+                  "    p : Party",
+                  "  where",
+                  "    signatory p",
+                  "testCreate = do",
+                  "  p <- allocateParty \"p\"",
+                  "  submit p $ createCmd (T p)",
+                  "  pure " <> T.pack (show n)
+                ]
+            expectScriptSuccess rs "testCreate" $ \r ->
+              matchRegex r ("Return value: " <> T.pack (show n) <> "\n$")
+      ]
+
 testScriptServiceWithKeys :: ComponentVersioned => LF.Version -> IO SS.Handle -> TestTree
 testScriptServiceWithKeys lfVersion getScriptService =
   withResourceCps (withPackageDBAndIdeState lfVersion getScriptService) $ \getIdeState ->
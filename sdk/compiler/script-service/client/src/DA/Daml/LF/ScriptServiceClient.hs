@@ -18,6 +18,9 @@ module DA.Daml.LF.ScriptServiceClient
   , deleteCtx
   , gcCtxs
   , runLiveScript
+  , runScripts
+  , runScriptChunked
+  , LowLevel.ResultPart(..)
   , LowLevel.BackendError(..)
   , LowLevel.Error(..)
   , LowLevel.ScriptResult(..)
@@ -34,13 +37,16 @@ import Control.DeepSeq
 import Control.Exception
 import Control.Monad.Except
 import qualified Data.ByteString as BS
+import Data.Foldable (for_)
 import Data.Hashable
 import Data.IORef
 import qualified Data.Map.Strict as MS
 import Data.Maybe
 import qualified Data.Set as S
 import qualified Data.Text as T
+import Data.Traversable (for)
 import qualified Data.Yaml as Y
+import Network.GRPC.LowLevel (StatusCode(StatusResourceExhausted))
 import System.Directory
 
 import DA.Daml.Options.Types (EnableScriptService(..))
@@ -74,6 +80,8 @@ toLowLevelOpts optDamlLfVersion Options{..} =
         optGrpcMaxMessageSize = cnfGrpcMaxMessageSize optScriptServiceConfig
         optJvmOptions = cnfJvmOptions optScriptServiceConfig
         optIdeLedgerProtocolVersion = cnfIdeLedgerProtocolVersion optScriptServiceConfig
+        optContextMemoryBudget = cnfContextMemoryBudget optScriptServiceConfig
+        optWarmUpDars = cnfWarmUpDars optScriptServiceConfig
 
 data Handle = Handle
   { hLowLevelHandle :: LowLevel.Handle
@@ -87,6 +95,10 @@ data Handle = Handle
   , hContextId :: IORef LowLevel.ContextId
   -- ^ The root context id, this is mutable so that rather than mutating the context
   -- we can clone it and update the clone which allows us to safely interrupt a context update.
+  , hContexts :: IORef (MS.Map LowLevel.ContextId (Context, LowLevel.ContextId))
+  -- ^ The context each context id returned by getNewCtx was made from, and the id of the context
+  -- it stands for on the server. The latter changes when the server evicts the context to stay
+  -- within its memory budget and we recreate it.
   , hRunningHandlers :: MVar (MS.Map (LF.ModuleName, LF.ExprValName) RunInfo)
   -- ^ Track running scripts as a map between the script and all information
   -- required to cancel them or to resume from them
@@ -124,6 +136,7 @@ withScriptService ver loggerH scriptConfig mbScriptServiceJar f = do
              hConcurrencySem <- liftIO $ newQSemN (optMaxConcurrency hOptions)
              hContextLock <- liftIO newLock
              hContextId <- liftIO $ newIORef rootCtxId
+             hContexts <- liftIO $ newIORef MS.empty
              hRunningHandlers <- liftIO $ newMVar MS.empty
              f Handle {..} `finally`
                  -- Wait for gRPC requests to exit, otherwise gRPC gets very unhappy.
@@ -159,6 +172,10 @@ data ScriptServiceConfig = ScriptServiceConfig
     , cnfEvaluationTimeout :: Maybe LowLevel.TimeoutSeconds
     , cnfJvmOptions :: [String]
     , cnfIdeLedgerProtocolVersion :: Maybe String
+    , cnfContextMemoryBudget :: Maybe Int -- In MB
+    , cnfWarmUpDars :: [FilePath]
+    -- ^ DARs whose packages the server compiles once started, so that contexts loading them
+    -- do not compile them
     } deriving Show
 
 defaultScriptServiceConfig :: ScriptServiceConfig
@@ -168,6 +185,8 @@ defaultScriptServiceConfig = ScriptServiceConfig
     , cnfEvaluationTimeout = Nothing
     , cnfJvmOptions = []
     , cnfIdeLedgerProtocolVersion = Nothing
+    , cnfContextMemoryBudget = Nothing
+    , cnfWarmUpDars = []
     }
 
 readScriptServiceConfig :: IO ScriptServiceConfig
@@ -188,6 +207,8 @@ parseScriptServiceConfig conf = do
     cnfJvmOptions <- fromMaybe [] <$> queryOpt "jvm-options"
     -- First try to parse as an Int, then as a String
     cnfIdeLedgerProtocolVersion <- (fmap show <$> queryOpt @Int "protocol-version") <> queryOpt "protocol-version"
+    cnfContextMemoryBudget <- queryOpt "context-memory-budget"
+    cnfWarmUpDars <- fromMaybe [] <$> queryOpt "warm-up-dars"
     pure ScriptServiceConfig {..}
   where
     queryOpt :: Y.FromJSON t => T.Text -> Either ConfigError (Maybe t)
@@ -201,7 +222,69 @@ data Context = Context
   }
 
 getNewCtx :: Handle -> Context -> IO (Either LowLevel.BackendError LowLevel.ContextId)
-getNewCtx Handle{..} Context{..} = withLock hContextLock $ withSem hConcurrencySem $ do
+getNewCtx h ctx = do
+  res <- newServerCtx h ctx
+  for_ res $ \ctxId ->
+    atomicModifyIORef' (hContexts h) $ \ctxs -> (MS.insert ctxId (ctx, ctxId) ctxs, ())
+  pure res
+
+-- | Create a context on the server for the given context. If the server evicted the root context,
+-- start again from a new one.
+newServerCtx :: Handle -> Context -> IO (Either LowLevel.BackendError LowLevel.ContextId)
+newServerCtx h ctx = do
+  res <- updateRootCtx h ctx
+  case res of
+    Left err | LowLevel.isContextEvicted err -> runExceptT $ do
+      ExceptT $ resetRootCtx h
+      ExceptT $ updateRootCtx h ctx
+    _ -> pure res
+
+-- | Replace the root context by a new, empty one.
+resetRootCtx :: Handle -> IO (Either LowLevel.BackendError ())
+resetRootCtx Handle{..} = withLock hContextLock $ withSem hConcurrencySem $ do
+  res <- LowLevel.newCtx hLowLevelHandle
+  for res $ \rootCtxId -> mask_ $ do
+      writeIORef hLoadedPackages S.empty
+      writeIORef hLoadedModules MS.empty
+      writeIORef hContextId rootCtxId
+
+-- | Recreate a context returned by getNewCtx that the server evicted.
+recreateCtx :: Handle -> LowLevel.ContextId -> IO (Either LowLevel.BackendError LowLevel.ContextId)
+recreateCtx h ctxId = do
+  mbCtx <- MS.lookup ctxId <$> readIORef (hContexts h)
+  case mbCtx of
+    Nothing -> pure (Left (LowLevel.BErrorFail StatusResourceExhausted))
+    Just (ctx, _) -> do
+      res <- newServerCtx h ctx
+      for res $ \serverCtxId -> do
+        atomicModifyIORef' (hContexts h) $ \ctxs -> (MS.insert ctxId (ctx, serverCtxId) ctxs, ())
+        pure serverCtxId
+
+-- | The id of the context on the server that the given context id stands for.
+serverCtx :: Handle -> LowLevel.ContextId -> IO LowLevel.ContextId
+serverCtx h ctxId = maybe ctxId snd . MS.lookup ctxId <$> readIORef (hContexts h)
+
+-- | Run an action against the server side of a context. If the server evicted the context, it is
+-- recreated and the action run once more.
+withServerCtx
+  :: Handle -> LowLevel.ContextId
+  -> (r -> Bool) -- ^ Whether the result says that the context was evicted
+  -> (LowLevel.BackendError -> r) -- ^ The result if the context cannot be recreated
+  -> (LowLevel.ContextId -> IO r)
+  -> IO r
+withServerCtx h ctxId evicted failed act = do
+  res <- act =<< serverCtx h ctxId
+  if not (evicted res)
+    then pure res
+    else either (pure . failed) act =<< recreateCtx h ctxId
+
+isEvictedResult :: Either LowLevel.Error a -> Bool
+isEvictedResult = \case
+  Left (LowLevel.BackendError err) -> LowLevel.isContextEvicted err
+  _ -> False
+
+updateRootCtx :: Handle -> Context -> IO (Either LowLevel.BackendError LowLevel.ContextId)
+updateRootCtx Handle{..} Context{..} = withLock hContextLock $ withSem hConcurrencySem $ do
   loadedPackages <- readIORef hLoadedPackages
   loadedModules <- readIORef hLoadedModules
   let
@@ -235,16 +318,22 @@ getNewCtx Handle{..} Context{..} = withLock hContextLock $ withSem hConcurrencyS
       ExceptT $ LowLevel.cloneCtx hLowLevelHandle clonedRootCtxId
 
 deleteCtx :: Handle -> LowLevel.ContextId -> IO (Either LowLevel.BackendError ())
-deleteCtx Handle{..} ctxId = withSem hConcurrencySem $
-  LowLevel.deleteCtx hLowLevelHandle ctxId
+deleteCtx h@Handle{..} ctxId = withSem hConcurrencySem $ do
+  serverCtxId <- serverCtx h ctxId
+  atomicModifyIORef' hContexts $ \ctxs -> (MS.delete ctxId ctxs, ())
+  LowLevel.deleteCtx hLowLevelHandle serverCtxId
 
 gcCtxs :: Handle -> [LowLevel.ContextId] -> IO (Either LowLevel.BackendError ())
 gcCtxs Handle{..} ctxIds = withLock hContextLock $ withSem hConcurrencySem $ do
     rootCtxId <- readIORef hContextId
+    -- Forget the contexts that are collected, and keep the recreated ones of the others.
+    ctxs <- atomicModifyIORef' hContexts $ \ctxs ->
+      let kept = MS.restrictKeys ctxs (S.fromList ctxIds) in (kept, kept)
+    let serverCtxIds = [maybe ctxId snd (MS.lookup ctxId ctxs) | ctxId <- ctxIds]
     -- We never want to GC the root context so we always add that
     -- explicitly. Adding it twice is harmless so we do not check
     -- if it is already present.
-    LowLevel.gcCtxs hLowLevelHandle (rootCtxId : ctxIds)
+    LowLevel.gcCtxs hLowLevelHandle (rootCtxId : serverCtxIds)
 
 encodeModule :: LF.Version -> LF.Module -> (Hash, BS.ByteString)
 encodeModule v m = (Hash $ hash m', m')
@@ -257,7 +346,7 @@ encodeModuleWithImports v m = (Hash $ hash m', m')
 type LiveHandler = LowLevel.ScriptStatus -> IO ()
 
 runLiveScript :: Handle -> LowLevel.ContextId -> IDELogger.Logger -> LF.ModuleName -> LF.ExprValName -> LiveHandler -> IO (Either LowLevel.Error LowLevel.ScriptResult)
-runLiveScript Handle{..} ctxId logger moduleName scriptName handler = do
+runLiveScript h@Handle{..} ctxId logger moduleName scriptName handler = do
   resBarrier <- newBarrier
   stopSemaphore <- newEmptyMVar
 
@@ -287,8 +376,12 @@ runLiveScript Handle{..} ctxId logger moduleName scriptName handler = do
             signalBarrier resBarrier oldResult
           pure runningHandlers
       _ -> do
-        handlerThread <- forkIO $ withSem hConcurrencySem $ do
-          r <- try $ LowLevel.runLiveScript hLowLevelHandle ctxId moduleName scriptName logger stopSemaphore handler
+        handlerThread <- forkIO $ do
+          -- Recreating an evicted context takes a request slot of its own, so it must happen
+          -- outside of the slot of the run.
+          r <- try $ withServerCtx h ctxId isEvictedResult (Left . LowLevel.BackendError) $ \serverCtxId ->
+            withSem hConcurrencySem $
+              LowLevel.runLiveScript hLowLevelHandle serverCtxId moduleName scriptName logger stopSemaphore handler
           signalBarrier resBarrier $
             case r of
               Left ex -> Left $ LowLevel.ExceptionError ex
@@ -305,6 +398,31 @@ runLiveScript Handle{..} ctxId logger moduleName scriptName handler = do
         pure newRunningHandlers
   waitBarrier resBarrier
 
+-- | Run scripts of a context as a single batch, with as many of them running at the same time as
+-- concurrent requests are allowed. The results come in the order of the scripts. A script the
+-- batch returned no result for gets the error of the batch.
+runScripts :: Handle -> LowLevel.ContextId -> [(LF.ModuleName, LF.ExprValName)] -> IO [Either LowLevel.Error LowLevel.ScriptResult]
+runScripts h@Handle{..} ctxId scripts =
+  withServerCtx h ctxId (any isEvictedResult) (\err -> map (const (Left (LowLevel.BackendError err))) scripts) $ \serverCtxId ->
+    withSem hConcurrencySem $ do
+      resultsRef <- newIORef MS.empty
+      res <- LowLevel.runScripts hLowLevelHandle serverCtxId scripts (optMaxConcurrency hOptions) $ \script r ->
+        atomicModifyIORef' resultsRef $ \results -> (MS.insert script r results, ())
+      results <- readIORef resultsRef
+      let missing = Left $ case res of
+            Left err -> LowLevel.BackendError err
+            Right () -> LowLevel.ExceptionError $ toException $ LowLevel.ScriptServiceException "No result for the script"
+      pure [fromMaybe missing (MS.lookup script results) | script <- scripts]
+
+-- | Run a script and receive its result in chunks rather than as a single message, with only the
+-- given parts of the result, all of them if none is given.
+runScriptChunked :: Handle -> LowLevel.ContextId -> LF.ModuleName -> LF.ExprValName -> [LowLevel.ResultPart] -> IO (Either LowLevel.Error LowLevel.ScriptResult)
+runScriptChunked h@Handle{..} ctxId moduleName scriptName parts =
+  withServerCtx h ctxId isEvictedResult (Left . LowLevel.BackendError) $ \serverCtxId ->
+    withSem hConcurrencySem $
+      -- Chunks of the default size of the server.
+      LowLevel.runScriptChunked hLowLevelHandle serverCtxId moduleName scriptName parts 0
+
 newtype Hash = Hash Int deriving (Eq, Ord, NFData, Show)
 
 instance Semigroup Hash where
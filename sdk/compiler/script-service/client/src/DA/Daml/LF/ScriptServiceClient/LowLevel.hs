@@ -10,6 +10,7 @@ module DA.Daml.LF.ScriptServiceClient.LowLevel
   , findServerJar
   , Handle
   , BackendError(..)
+  , isContextEvicted
   , Error(..)
   , withScriptService
   , ContextId
@@ -21,6 +22,9 @@ module DA.Daml.LF.ScriptServiceClient.LowLevel
   , SkipValidation(..)
   , updateCtx
   , runLiveScript
+  , runScripts
+  , runScriptChunked
+  , SS.ResultPart(..)
   , SS.ScriptResult(..)
   , SS.ScriptStatus(..)
   , SS.WarningMessage(..)
@@ -53,13 +57,14 @@ import qualified Data.Conduit as C
 import Data.Conduit.Process
 import qualified Data.Conduit.Text as C.T
 import Data.Int (Int64)
+import Data.List.Extra (nubOrd)
 import Data.List.Split (splitOn)
 import qualified Data.Text as T
 import qualified Data.Text.Lazy as TL
 import qualified Data.Vector as V
 import Network.GRPC.HighLevel.Client (ClientError(..), ClientRequest(..), ClientResult(..), GRPCMethodType(..))
 import Network.GRPC.HighLevel.Generated (withGRPCClient, GRPCIOError)
-import Network.GRPC.LowLevel (ClientConfig(..), Host(..), Port(..), StatusCode(..), Arg(MaxReceiveMessageLength))
+import Network.GRPC.LowLevel (ClientConfig(..), Host(..), Port(..), StatusCode(..), Arg(MaxReceiveMessageLength), GRPCIOError(GRPCIOBadStatusCode))
 import Network.GRPC.LowLevel.Call (endpoint)
 import qualified Proto3.Suite as Proto
 import System.Directory
@@ -86,6 +91,8 @@ data Options = Options
   , optLogError :: String -> IO ()
   , optDamlLfVersion :: LF.Version
   , optIdeLedgerProtocolVersion :: Maybe String
+  , optContextMemoryBudget :: Maybe Int -- In MB
+  , optWarmUpDars :: [FilePath]
   }
 
 type TimeoutSeconds = Int64
@@ -96,7 +103,7 @@ data Handle = Handle
   }
 
 newtype ContextId = ContextId { getContextId :: Int64 }
-  deriving (NFData, Eq, Show)
+  deriving (NFData, Eq, Ord, Show)
 
 -- | If true, the script service server do not run package validations.
 newtype SkipValidation = SkipValidation { getSkipValidation :: Bool }
@@ -124,6 +131,14 @@ data BackendError
   | BErrorFail StatusCode
   deriving Show
 
+-- | Whether the server evicted the context to stay within its memory budget. An evicted context
+-- is gone for good, it must be recreated.
+isContextEvicted :: BackendError -> Bool
+isContextEvicted = \case
+  BErrorFail StatusResourceExhausted -> True
+  BErrorClient (ClientIOError (GRPCIOBadStatusCode StatusResourceExhausted _)) -> True
+  _ -> False
+
 data Error
   = ScriptError SS.ScriptError
   | BackendError BackendError
@@ -225,11 +240,24 @@ withScriptService opts@Options{..} f = do
   unless serverJarExists $
       throwIO (ScriptServiceException (optServerJar <> " does not exist."))
   validateJava
+  -- Use the class data sharing archive of the script service if it was installed next to the
+  -- jar. The JVM ignores it if it was dumped by a different JVM.
+  let cdsArchive = optServerJar -<.> "jsa"
+  cdsArchiveExists <- doesFileExist cdsArchive
+  -- Warm up with the daml-script DAR of the target LF version if it was installed next to the
+  -- jar, as in the daml-script component, in addition to the configured ones.
+  let scriptDar = takeDirectory optServerJar </> "daml-script-" <> LF.renderVersion optDamlLfVersion <> ".dar"
+  scriptDarExists <- doesFileExist scriptDar
+  let warmUpDars = nubOrd $ optWarmUpDars <> [scriptDar | scriptDarExists]
   cp <- javaProc $ concat
     [ optJvmOptions
+    , [ "-XX:SharedArchiveFile=" <> cdsArchive | cdsArchiveExists ]
+    , [ "-Xlog:cds=off" | cdsArchiveExists ]
     , ["-jar" , optServerJar]
     , ["--max-inbound-message-size=" <> show size | Just size <- [optGrpcMaxMessageSize]]
     , ["--ide-ledger-protocol-version=" <> pv | Just pv <- [optIdeLedgerProtocolVersion]]
+    , ["--context-memory-budget=" <> show budget | Just budget <- [optContextMemoryBudget]]
+    , ["--warm-up-dar=" <> dar | dar <- warmUpDars]
     ]
 
   exitExpected <- newIORef False
@@ -497,3 +525,72 @@ runLiveScript
   -> IO (Either Error SS.ScriptResult)
 runLiveScript handle context modName scriptName =
   runBiDiLive SS.scriptServiceRunLiveScript handle context (mangleScriptName modName scriptName)
+
+-- | Run a script and receive its result in chunks, which are put back together. Only the given
+-- parts of the result are sent, all of them if none is given. Each chunk holds at most the given
+-- number of steps or nodes, the server default if not positive.
+runScriptChunked
+  :: Handle -> ContextId -> LF.ModuleName -> LF.ExprValName -> [SS.ResultPart] -> Int
+  -> IO (Either Error SS.ScriptResult)
+runScriptChunked Handle{..} (ContextId ctxId) modName scriptName parts chunkSize = do
+  let start = SS.RunScriptStart ctxId (mangleScriptName modName scriptName)
+  let req = SS.RunScriptChunkedRequest
+        (Just start)
+        (fromIntegral chunkSize)
+        (V.fromList (map (Proto.Enumerated . Right) parts))
+  steps <- newIORef []
+  nodes <- newIORef []
+  outcome <- newIORef Nothing
+  response <-
+    SS.scriptServiceRunScriptChunked hClient $
+      ClientReaderRequest req (fromIntegral (optGrpcTimeout hOptions)) mempty $ \_clientCall _meta streamRecv ->
+        let loop = streamRecv >>= \case
+              Right (Just (SS.ScriptResultChunk chunkSteps chunkNodes chunkOutcome)) -> do
+                modifyIORef' steps (chunkSteps :)
+                modifyIORef' nodes (chunkNodes :)
+                forM_ chunkOutcome $ writeIORef outcome . Just
+                loop
+              _ -> pure ()
+        in loop
+  allSteps <- V.concat . reverse <$> readIORef steps
+  allNodes <- V.concat . reverse <$> readIORef nodes
+  readIORef outcome <&> \mbOutcome -> case (response, mbOutcome) of
+    (ClientReaderResponse _ StatusOk _, Just (SS.ScriptResultChunkOutcomeResult result)) ->
+      Right result { SS.scriptResultScriptSteps = allSteps, SS.scriptResultNodes = allNodes }
+    (ClientReaderResponse _ StatusOk _, Just (SS.ScriptResultChunkOutcomeError err)) ->
+      Left $ ScriptError err { SS.scriptErrorScriptSteps = allSteps, SS.scriptErrorNodes = allNodes }
+    (ClientReaderResponse _ StatusOk _, Nothing) ->
+      Left (ExceptionError (toException (ScriptServiceException "runScriptChunked got no result")))
+    (ClientReaderResponse _ status _, _) -> Left (BackendError (BErrorFail status))
+    (ClientErrorResponse err, _) -> Left (BackendError (BErrorClient err))
+
+-- | Run several scripts of a context concurrently, with at most the given number of scripts
+-- running at the same time (the number of processors of the server if not positive).
+-- The handler is called with the result of each script as soon as it completes.
+runScripts
+  :: Handle -> ContextId -> [(LF.ModuleName, LF.ExprValName)] -> Int
+  -> ((LF.ModuleName, LF.ExprValName) -> Either Error SS.ScriptResult -> IO ())
+  -> IO (Either BackendError ())
+runScripts Handle{..} (ContextId ctxId) scripts parallelism handler = do
+  let byName = [(mangleScriptName modName scriptName, (modName, scriptName)) | (modName, scriptName) <- scripts]
+  let req = SS.RunScriptsRequest ctxId (V.fromList (map fst byName)) (fromIntegral parallelism)
+  -- The batch gets the timeout of a single script for each round of scripts it runs.
+  let rounds = max 1 $ (length scripts + max 1 parallelism - 1) `div` max 1 parallelism
+  let timeout = optGrpcTimeout hOptions * fromIntegral rounds
+  response <-
+    SS.scriptServiceRunScripts hClient $
+      ClientReaderRequest req (fromIntegral timeout) mempty $ \_clientCall _meta streamRecv ->
+        let loop = streamRecv >>= \case
+              Right (Just (SS.RunScriptsResponse name (Just resp))) -> do
+                forM_ (lookup name byName) $ \script ->
+                  handler script $ case resp of
+                    SS.RunScriptsResponseResponseError err -> Left (ScriptError err)
+                    SS.RunScriptsResponseResponseResult result -> Right result
+                loop
+              Right (Just _) -> loop
+              _ -> pure ()
+        in loop
+  pure $ case response of
+    ClientReaderResponse _ StatusOk _ -> Right ()
+    ClientReaderResponse _ status _ -> Left (BErrorFail status)
+    ClientErrorResponse err -> Left (BErrorClient err)
@@ -4,12 +4,13 @@
 package com.digitalasset.daml.lf
 package script
 
-import java.util.concurrent.atomic.AtomicLong
+import java.lang.ref.WeakReference
+import java.util.concurrent.atomic.{AtomicLong, AtomicReference}
 import org.apache.pekko.stream.Materializer
 import com.daml.grpc.adapter.ExecutionSequencerFactory
-import com.digitalasset.daml.lf.data.{ImmArray, assertRight}
+import com.digitalasset.daml.lf.data.{FrontStack, ImmArray, assertRight}
 import com.digitalasset.daml.lf.data.Ref.{Identifier, ModuleName, PackageId, QualifiedName}
-import com.digitalasset.daml.lf.engine.script.{ScriptMachineLogger, ScriptTimeMode}
+import com.digitalasset.daml.lf.engine.script.{ScriptMachineLogger, ScriptMetrics, ScriptTimeMode}
 import com.digitalasset.daml.lf.engine.script.v2.Converter
 import com.digitalasset.daml.lf.engine.script.ledgerinteraction.IdeLedgerClient
 import com.digitalasset.daml.lf.language.{Ast, LanguageVersion, Util => AstUtil}
@@ -20,11 +21,12 @@ import com.digitalasset.daml.lf.validation.Validation
 import com.digitalasset.daml.lf.value.Value.ValueText
 import com.digitalasset.daml.lf.script.converter
 import com.google.protobuf.ByteString
-import com.digitalasset.daml.lf.engine.script.{Runner, Script}
+import com.digitalasset.daml.lf.engine.script.{PackageCache, Runner, Script}
 import org.slf4j.LoggerFactory
 
-import scala.concurrent.ExecutionContext
-import scala.concurrent.Future
+import scala.annotation.tailrec
+import scala.concurrent.{Await, ExecutionContext, Future}
+import scala.collection.concurrent.TrieMap
 import scala.collection.immutable.HashMap
 import scala.concurrent.duration._
 import scala.util.{Failure, Success}
@@ -38,12 +40,192 @@ object Context {
 
   private val contextCounter = new AtomicLong()
 
+  private val compilerConfig =
+    Compiler.Config(
+      allowedLanguageVersions = LanguageVersion.allLfVersions,
+      packageValidation = Compiler.FullPackageValidation,
+      profiling = Compiler.NoProfile,
+      stacktracing = Compiler.FullStackTrace,
+    )
+
+  // Default ratio between the heap used by a decoded and compiled package and the size of its
+  // archive. Archives are compact protobuf, while a loaded package holds both its decoded AST and
+  // the speedy definitions compiled from it, which takes an order of magnitude more. The default
+  // errs on the side of a larger estimate, i.e. of evicting too early rather than running out of
+  // heap. It can be tuned with --heap-to-archive-ratio.
+  val DefaultHeapToArchiveRatio: Long = 20L
+
+  /** Estimates the heap retained by the given contexts, given the ratio between the heap used by
+    * a package and the size of its archive. Packages shared by several contexts are only counted
+    * once.
+    */
+  def estimatedHeapBytes(contexts: Iterable[Context], heapToArchiveRatio: Long): Long = {
+    val packageBytes = contexts.flatMap(_.packageSizes).toMap.values.sum
+    val moduleBytes = contexts.iterator.map(_.moduleSizes).sum
+    (packageBytes + moduleBytes) * heapToArchiveRatio
+  }
+
+  // The compiled definitions of the external packages, by package id, shared by all contexts.
+  // Package ids are content hashes and all contexts use the same compiler configuration, so
+  // contexts loading the same package can use the same definitions. Entries are only weakly
+  // held, so they go away with the last context using them.
+  private val sharedPackageDefns =
+    TrieMap.empty[PackageId, WeakReference[Map[SDefinitionRef, SDefinition]]]
+
+  private def sharedDefns(pkgId: PackageId)(
+      compile: => Map[SDefinitionRef, SDefinition]
+  ): Map[SDefinitionRef, SDefinition] =
+    sharedPackageDefns.get(pkgId).flatMap(ref => Option(ref.get)) match {
+      case Some(defns) => defns
+      case None =>
+        val defns = compile
+        sharedPackageDefns.update(pkgId, new WeakReference(defns))
+        defns
+    }
+
+  private def compilePackage(
+      packageCache: Option[PackageCache],
+      interface: language.PackageInterface,
+      pkg: (PackageId, Ast.Package),
+  ): Map[SDefinitionRef, SDefinition] =
+    sharedDefns(pkg._1) {
+      assertRight(packageCache match {
+        case Some(cache) => cache.compilePackages(interface, Map(pkg), compilerConfig)
+        case None => Compiler.compilePackages(interface, Map(pkg), compilerConfig)
+      })
+    }
+
+  /** Compiles the packages of a DAR ahead of their first use, so that contexts loading them share
+    * the compiled definitions instead of compiling them. The definitions stay shared for as long
+    * as the returned value is retained.
+    */
+  def warmUp(
+      dar: archive.Dar[(PackageId, Ast.Package)],
+      packageCache: Option[PackageCache],
+  ): Seq[Map[SDefinitionRef, SDefinition]] = {
+    val packages = dar.all.toMap
+    val interface = new language.PackageInterface(AstUtil.toSignatures(packages))
+    packages.toSeq.map(compilePackage(packageCache, interface, _))
+  }
+
   def newContext(
       lfVerion: LanguageVersion,
       timeout: Duration,
       ideLedgerProtocolVersion: Runner.IdeLedgerProtocolVersion,
+      packageCache: Option[PackageCache],
   ): Context =
-    new Context(contextCounter.incrementAndGet(), lfVerion, timeout, ideLedgerProtocolVersion)
+    new Context(
+      contextCounter.incrementAndGet(),
+      lfVerion,
+      timeout,
+      ideLedgerProtocolVersion,
+      packageCache,
+    )
+
+  // Bound on the compilation of the packages or modules of an update.
+  private val CompilationTimeout: FiniteDuration = 10.minutes
+
+  // Runs `f` on every element in parallel, failing with the first exception thrown, or with a
+  // `TimeoutException` if they are not all done within `timeout`.
+  private[script] def awaitAll[A, B](as: Seq[A], timeout: FiniteDuration = CompilationTimeout)(
+      f: A => B
+  )(implicit ec: ExecutionContext): Seq[B] =
+    Await.result(Future.traverse(as)(a => Future(f(a))), timeout)
+
+  /** The identifiers referenced by the given module, found by walking its AST. References to
+    * other loaded modules use the home package id.
+    */
+  private[script] def referencedIdentifiers(module: Ast.Module): Set[Identifier] = {
+    val ids = Set.newBuilder[Identifier]
+    // Expressions can be deeply nested, so the AST is walked without recursion.
+    val todo = new java.util.ArrayDeque[Any]
+    def push(node: Any): Unit = if (node != null) todo.push(node)
+    push(module)
+    while (!todo.isEmpty) {
+      todo.pop() match {
+        case id: Identifier => val _ = ids += id
+        case array: ImmArray[_] => array.iterator.foreach(push)
+        case stack: FrontStack[_] => stack.iterator.foreach(push)
+        case product: Product => product.productIterator.foreach(push)
+        case iterable: IterableOnce[_] => iterable.iterator.foreach(push)
+        case _ => ()
+      }
+    }
+    ids.result()
+  }
+
+  /** The given modules that reference one of the given packages, directly or through other
+    * modules.
+    */
+  private[script] def modulesReferencing(
+      homePackageId: PackageId,
+      modules: Map[ModuleName, Ast.Module],
+      pkgIds: Set[PackageId],
+  ): Set[ModuleName] = {
+    val references = modules.view.mapValues(referencedIdentifiers).toMap
+    val dependents = references.toSeq
+      .flatMap { case (name, ids) =>
+        ids.iterator.collect {
+          case id if id.packageId == homePackageId && id.qualifiedName.module != name =>
+            id.qualifiedName.module -> name
+        }
+      }
+      .groupMap(_._1)(_._2)
+    @tailrec
+    def close(affected: Set[ModuleName], added: Set[ModuleName]): Set[ModuleName] = {
+      val next = added.flatMap(dependents.getOrElse(_, Seq.empty)) -- affected
+      if (next.isEmpty) affected else close(affected ++ next, next)
+    }
+    val direct = references.collect {
+      case (name, ids) if ids.exists(id => pkgIds(id.packageId)) => name
+    }.toSet
+    close(direct, direct)
+  }
+
+  /* To run a script on a daml project, we load the project as modules (daml files), and we load
+   * its dependencies as packages (DALF files). The loaded packages are also called the external
+   * packages. The home package is built dynamically from the loaded modules.
+   * In the case of `test --all`, to run the scripts from a dependency, there should not be any
+   * module to load, and packageId should be the id of the package in which we run the scripts, not
+   * the `homePackageId`.
+   *
+   * A state is immutable, so clones share it until they are updated themselves.
+   */
+  private final case class State(
+      extSignatures: Map[PackageId, Ast.PackageSignature],
+      extDefns: Map[PackageId, Map[SDefinitionRef, SDefinition]],
+      // Size of the archives of the external packages.
+      extSizes: Map[PackageId, Long],
+      modules: Map[ModuleName, Ast.Module],
+      modDefns: Map[ModuleName, Map[SDefinitionRef, SDefinition]],
+      // The serialized modules, to estimate the heap they retain.
+      moduleBytes: Map[ModuleName, ByteString],
+      // the id of the package that contains the scripts to run
+      // can be different from the home package id if we run scripts from an external package
+      packageId: PackageId,
+      // Contains all the signatures, of the external packages and the home package.
+      allSignatures: Map[PackageId, Ast.PackageSignature],
+  ) {
+    // The packages scripts run against, merged from the above on the first run after an update.
+    lazy val compiledPackages: PureCompiledPackages = {
+      val defns = (extDefns.valuesIterator.flatten ++ modDefns.valuesIterator.flatten).toMap
+      PureCompiledPackages(allSignatures, defns, compilerConfig)
+    }
+  }
+
+  private object State {
+    def empty(homePackageId: PackageId): State =
+      State(
+        extSignatures = HashMap.empty,
+        extDefns = HashMap.empty,
+        extSizes = HashMap.empty,
+        modules = HashMap.empty,
+        modDefns = HashMap.empty,
+        moduleBytes = HashMap.empty,
+        packageId = homePackageId,
+        allSignatures = HashMap.empty,
+      )
+  }
 }
 
 class Context(
@@ -51,18 +233,20 @@ class Context(
     languageVersion: LanguageVersion,
     timeout: Duration,
     ideLedgerProtocolVersion: Runner.IdeLedgerProtocolVersion,
+    packageCache: Option[PackageCache],
 ) {
+  import Context.State
+
   private[this] val logger = LoggerFactory.getLogger(this.getClass)
 
-  def devMode: Boolean = languageVersion.isDevVersion
+  private[this] val lastUsed = new AtomicLong(System.nanoTime())
 
-  private val compilerConfig =
-    Compiler.Config(
-      allowedLanguageVersions = LanguageVersion.allLfVersions,
-      packageValidation = Compiler.FullPackageValidation,
-      profiling = Compiler.NoProfile,
-      stacktracing = Compiler.FullStackTrace,
-    )
+  /** Marks the context as used, for least-recently-used eviction. */
+  def touch(): Unit = lastUsed.set(System.nanoTime())
+
+  def lastUsedNanos: Long = lastUsed.get
+
+  def devMode: Boolean = languageVersion.isDevVersion
 
   /** The package identifier to use for modules added to the context.
     * When decoding LF modules this package identifier should be used to rewrite
@@ -71,34 +255,20 @@ class Context(
     */
   val homePackageId: PackageId = PackageId.assertFromString("-homePackageId-")
 
-  /* To run a script on a daml project, we load the project as modules (daml files), and we load
-   * its dependencies as packages (DALF files). The loaded packages are also called the external
-   * packages. The home package is built dynamically from the loaded modules.
-   * In the case of `test --all`, to run the scripts from a dependency, there should not be any
-   * module to load, and packageId should be the id of the package in which we run the scripts, not
-   * the `homePackageId`.
-   */
-  private var extSignatures: Map[PackageId, Ast.PackageSignature] = HashMap.empty
-  private var extDefns: Map[SDefinitionRef, SDefinition] = HashMap.empty
-  private var modules: Map[ModuleName, Ast.Module] = HashMap.empty
-  private var modDefns: Map[ModuleName, Map[SDefinitionRef, SDefinition]] = HashMap.empty
-  // the id of the package that contains the scripts to run
-  // can be different from the home package id if we run scripts from an external package
-  private var packageId: PackageId = homePackageId
-  // Contains all the signatures, of the external packages and the home package.
-  private var allSignatures: Map[PackageId, Ast.PackageSignature] = HashMap.empty
-
-  def loadedModules(): Iterable[ModuleName] = modules.keys
-  def loadedPackages(): Iterable[PackageId] = extSignatures.keys
-
-  def cloneContext(): Context = synchronized {
-    val newCtx = Context.newContext(languageVersion, timeout, ideLedgerProtocolVersion)
-    newCtx.extSignatures = extSignatures
-    newCtx.extDefns = extDefns
-    newCtx.modules = modules
-    newCtx.modDefns = modDefns
-    newCtx.packageId = packageId
-    newCtx.allSignatures = allSignatures
+  // Updates compute the next state from the current one without holding any lock, and only
+  // install it if no other update got in first.
+  private val state = new AtomicReference(State.empty(homePackageId))
+
+  def loadedModules(): Iterable[ModuleName] = state.get.modules.keys
+  def loadedPackages(): Iterable[PackageId] = state.get.extSignatures.keys
+
+  private def packageSizes: Map[PackageId, Long] = state.get.extSizes
+  private def moduleSizes: Long = state.get.moduleBytes.values.map(_.size.toLong).sum
+
+  def cloneContext(): Context = {
+    val newCtx =
+      Context.newContext(languageVersion, timeout, ideLedgerProtocolVersion, packageCache)
+    newCtx.state.set(state.get)
     newCtx
   }
 
@@ -110,80 +280,91 @@ class Context(
       loadPackages: collection.Seq[ByteString],
       omitValidation: Boolean,
       packageMetadata: Ast.PackageMetadata,
-  ): Unit = synchronized {
+  )(implicit ec: ExecutionContext): Unit = {
+
+    val newModules = loadModules.map { module =>
+      val bytes = module.getDamlLf1
+      archive.moduleDecoder(languageVersion, homePackageId).assertFromByteString(bytes) -> bytes
+    }
+    val decodedPackages =
+      loadPackages.map(bytes => archive.ArchiveDecoder.assertFromByteString(bytes) -> bytes.size)
+
+    @tailrec
+    def loop(): Unit = {
+      val current = state.get
+      val next = updated(
+        current,
+        unloadModules,
+        newModules,
+        unloadPackages,
+        decodedPackages,
+        omitValidation,
+        packageMetadata,
+      )
+      if (!state.compareAndSet(current, next)) loop()
+    }
+    loop()
+  }
+
+  private def updated(
+      current: State,
+      unloadModules: Set[ModuleName],
+      newModules: collection.Seq[(Ast.Module, ByteString)],
+      unloadPackages: Set[PackageId],
+      decodedPackages: collection.Seq[((PackageId, Ast.Package), Int)],
+      omitValidation: Boolean,
+      packageMetadata: Ast.PackageMetadata,
+  )(implicit ec: ExecutionContext): State = {
+    var extSignatures = current.extSignatures
+    var extDefns = current.extDefns
+    var extSizes = current.extSizes
+    var modules = current.modules
+    var modDefns = current.modDefns
+    var moduleBytes = current.moduleBytes
 
-    val newModules = loadModules.map(module =>
-      archive.moduleDecoder(languageVersion, homePackageId).assertFromByteString(module.getDamlLf1)
-    )
     modules --= unloadModules
-    newModules.foreach(mod => modules += mod.name -> mod)
+    moduleBytes --= unloadModules
+    modDefns --= unloadModules
+    newModules.foreach { case (mod, bytes) =>
+      modules += mod.name -> mod
+      moduleBytes += mod.name -> bytes
+      modDefns -= mod.name
+    }
 
-    val newPackages =
-      loadPackages.map(archive.ArchiveDecoder.assertFromByteString).toMap
+    val newPackages = decodedPackages.map(_._1).toMap
+    val newSizes = decodedPackages.map { case ((pkgId, _), size) => pkgId -> size.toLong }.toMap
+    // Package ids are content hashes, so reloading a loaded package changes nothing.
+    val addedPackages = newPackages.filter { case (pkgId, _) =>
+      !extSignatures.contains(pkgId) || unloadPackages(pkgId)
+    }
+    val changedPackages = unloadPackages ++ addedPackages.keys
 
     val modulesToCompile =
-      if (unloadPackages.nonEmpty || newPackages.nonEmpty) {
-        val invalidPackages = unloadModules ++ newPackages.keys
-        val newExtSignature = extSignatures -- unloadPackages ++ AstUtil.toSignatures(newPackages)
+      if (changedPackages.nonEmpty) {
+        val newExtSignature = extSignatures -- unloadPackages ++ AstUtil.toSignatures(addedPackages)
         val interface = new language.PackageInterface(newExtSignature)
-        val newExtDefns = extDefns.view.filterKeys(sdef => !invalidPackages(sdef.packageId)) ++
-          assertRight(Compiler.compilePackages(interface, newPackages, compilerConfig))
+        val packageDefns = Context.awaitAll(addedPackages.toSeq) { pkg =>
+          pkg._1 -> Context.compilePackage(packageCache, interface, pkg)
+        }
         // we update only if we manage to compile the new packages
         extSignatures = newExtSignature
-        extDefns = newExtDefns.toMap
-        modDefns = HashMap.empty
-        modules.values
+        extDefns = extDefns -- changedPackages ++ packageDefns
+        extSizes = extSizes -- changedPackages ++ newSizes.view.filterKeys(addedPackages.contains)
+        val affected = Context.modulesReferencing(homePackageId, modules, changedPackages)
+        modDefns = modDefns.filter { case (name, _) => !affected(name) }
+        modules.values.filter(mod => affected(mod.name) || !modDefns.contains(mod.name))
       } else {
-        modDefns --= unloadModules
-        newModules
+        newModules.map(_._1)
       }
 
-    if (modules.nonEmpty) {
-      // we don't have a package id for these modules, so we use the default homePackageId
-      packageId = homePackageId
-      allSignatures = extSignatures.updated(
-        packageId,
-        AstUtil.toSignature(
-          Ast.Package(
-            modules,
-            extSignatures.keySet,
-            languageVersion,
-            packageMetadata,
-            Ast.GeneratedImports(
-              reason = "package made in com.digitalasset.daml.lf.script.Context",
-              pkgIds = Set.empty,
-            ),
-          )
-        ),
-      )
-      val pkgInterface = new language.PackageInterface(allSignatures)
-      val compiler = new Compiler(pkgInterface, compilerConfig)
-      modulesToCompile.foreach { mod =>
-        if (!omitValidation)
-          assertRight(
-            Validation
-              .checkModule(pkgInterface, packageId, mod)
-              .left
-              .map(_.pretty)
-          )
-        modDefns +=
-          mod.name -> compiler.unsafeCompileModule(packageId, mod).toMap
-      }
-    } else {
-      // the context's package is either an already loaded package or an empty package that has no module
-      val packageSig = extSignatures.find { case (_, sig) =>
-        sig.metadata.name == packageMetadata.name && sig.metadata.version == packageMetadata.version
-      }
-      packageSig match {
-        case Some((pkgId, _)) =>
-          this.packageId = pkgId
-          this.allSignatures = extSignatures
-        case None =>
-          this.packageId = homePackageId
-          this.allSignatures = extSignatures.updated(
-            packageId,
-            Ast.PackageSignature(
-              Map.empty,
+    val (packageId, allSignatures) =
+      if (modules.nonEmpty) {
+        // we don't have a package id for these modules, so we use the default homePackageId
+        val signatures = extSignatures.updated(
+          homePackageId,
+          AstUtil.toSignature(
+            Ast.Package(
+              modules,
               extSignatures.keySet,
               languageVersion,
               packageMetadata,
@@ -191,27 +372,80 @@ class Context(
                 reason = "package made in com.digitalasset.daml.lf.script.Context",
                 pkgIds = Set.empty,
               ),
-            ),
-          )
+            )
+          ),
+        )
+        val pkgInterface = new language.PackageInterface(signatures)
+        val homeId = homePackageId
+        modDefns ++= Context.awaitAll(modulesToCompile.toSeq) { mod =>
+          if (!omitValidation)
+            assertRight(
+              Validation
+                .checkModule(pkgInterface, homeId, mod)
+                .left
+                .map(_.pretty)
+            )
+          val compiler = new Compiler(pkgInterface, Context.compilerConfig)
+          mod.name -> compiler.unsafeCompileModule(homeId, mod).toMap
+        }
+        homePackageId -> signatures
+      } else {
+        // the context's package is either an already loaded package or an empty package that has
+        // no module
+        val packageSig = extSignatures.find { case (_, sig) =>
+          sig.metadata.name == packageMetadata.name &&
+          sig.metadata.version == packageMetadata.version
+        }
+        packageSig match {
+          case Some((pkgId, _)) =>
+            pkgId -> extSignatures
+          case None =>
+            homePackageId -> extSignatures.updated(
+              homePackageId,
+              Ast.PackageSignature(
+                Map.empty,
+                extSignatures.keySet,
+                languageVersion,
+                packageMetadata,
+                Ast.GeneratedImports(
+                  reason = "package made in com.digitalasset.daml.lf.script.Context",
+                  pkgIds = Set.empty,
+                ),
+              ),
+            )
+        }
       }
-    }
+
+    State(
+      extSignatures = extSignatures,
+      extDefns = extDefns,
+      extSizes = extSizes,
+      modules = modules,
+      modDefns = modDefns,
+      moduleBytes = moduleBytes,
+      packageId = packageId,
+      allSignatures = allSignatures,
+    )
   }
 
+  /** Runs the given script. Its progress can be followed through `metrics` while it runs. */
   def interpretScript(
       name: String,
       canceledByRequest: () => Boolean,
+      metrics: ScriptMetrics = new ScriptMetrics,
   )(implicit
       ec: ExecutionContext,
       esf: ExecutionSequencerFactory,
       mat: Materializer,
   ): Future[ScriptServiceResult] = {
-    val defns = extDefns ++ modDefns.values.flatten
-    val compiledPackages = PureCompiledPackages(allSignatures, defns, compilerConfig)
-    val scriptId = Identifier(packageId, QualifiedName.assertFromString(name))
+    val current = state.get
+    val compiledPackages = current.compiledPackages
+    val scriptId = Identifier(current.packageId, QualifiedName.assertFromString(name))
     val machineLogger = ScriptMachineLogger()
     val timeBomb = TimeBomb(timeout.toMillis)
     val isOverdue = timeBomb.hasExploded
     val ledgerClient = new IdeLedgerClient(compiledPackages, machineLogger, isOverdue)
+    val startedAt = System.nanoTime()
     val timeBombCanceller = timeBomb.start()
     val (resultF, ideLedgerContext) = Runner.runIdeLedgerClient(
       compiledPackages = compiledPackages,
@@ -227,6 +461,7 @@ class Context(
         else None
       },
       ideLedgerProtocolVersion = ideLedgerProtocolVersion,
+      metrics = metrics,
     )
 
     def handleFailure(e: Error) =
@@ -243,18 +478,20 @@ class Context(
         )
       )
 
-    val dummyDuration: Double = 0
+    // The speedy machine steps are not exposed by the script engine.
     val dummySteps: Int = 0
 
     resultF.transform {
       case Success(v) =>
+        val snapshot = metrics.snapshot
         Success(
           ScriptServiceSuccess(
             ideLedgerContext.ledger,
             machineLogger,
-            dummyDuration,
+            (System.nanoTime() - startedAt).toDouble / 1e9,
             dummySteps,
             Converter.castCommandExtendedValue(v).getOrElse(ValueText("Unserializable")),
+            snapshot,
           )
         )
       case Failure(e: Error) => handleFailure(e)
@@ -5,7 +5,7 @@ package com.digitalasset.daml.lf
 package script
 
 import com.digitalasset.daml.lf.data.{ImmArray, Numeric, Ref}
-import com.digitalasset.daml.lf.engine.script.ScriptMachineLogger
+import com.digitalasset.daml.lf.engine.script.{ScriptMachineLogger, ScriptMetrics}
 import com.digitalasset.daml.lf.language.Ast.{FailureCategory, PackageMetadata}
 import com.digitalasset.daml.lf.ledger._
 import com.digitalasset.daml.lf.script.api.{v1 => proto}
@@ -42,47 +42,80 @@ final class Conversions(
 
   private val coidToEventId = ledger.ledgerData.coidToNodeId ++ ptxCoidToNodeId
 
-  private val nodes =
-    ledger.ledgerData.nodeInfos.map(Function.tupled(convertNode))
+  // Nodes and steps are only converted when a requested part of the result contains them.
+  private def nodesIterator: Iterator[proto.Node] =
+    ledger.ledgerData.nodeInfos.iterator.map(Function.tupled(convertNode))
 
-  private val steps = ledger.scriptSteps.map { case (idx, step) =>
-    convertScriptStep(idx.toInt, step)
-  }
+  private def stepsIterator: Iterator[proto.ScriptStep] =
+    ledger.scriptSteps.iterator.map { case (idx, step) => convertScriptStep(idx.toInt, step) }
+
+  private def activeContracts: java.lang.Iterable[String] =
+    ledger.ledgerData.activeContracts.view
+      .map[String](coid => coidToEventId(coid).toLedgerString)
+      .asJava
+
+  /** The nodes of the ledger, in chunks of at most `size` nodes. */
+  def nodeChunks(size: Int): Iterator[Seq[proto.Node]] = nodesIterator.grouped(size)
 
-  def convertScriptResult(value: V): proto.ScriptResult = {
+  /** The steps of the script, in chunks of at most `size` steps. */
+  def stepChunks(size: Int): Iterator[Seq[proto.ScriptStep]] = stepsIterator.grouped(size)
+
+  def convertScriptResult(
+      value: V,
+      metrics: ScriptMetrics.Snapshot,
+      parts: Set[proto.ResultPart] = Conversions.AllParts,
+  ): proto.ScriptResult = {
     val builder = proto.ScriptResult.newBuilder
-      .addAllNodes(nodes.asJava)
-      .addAllScriptSteps(steps.asJava)
       .setReturnValue(convertValue(value))
+      .setMetrics(convertScriptMetrics(metrics))
       .setFinalTime(ledger.currentTime.micros)
-      .addAllActiveContracts(
-        ledger.ledgerData.activeContracts.view
-          .map[String](coid => coidToEventId(coid).toLedgerString)
-          .asJava
-      )
-    machineLogger.traceIterator.foreach { case (message, location) =>
-      builder.addTraceLog(convertSTraceMessage(message, location))
-    }
-    machineLogger.warningIterator.foreach { case (message, location) =>
-      builder.addWarnings(convertSWarningMessage(message, location))
+    if (parts(proto.ResultPart.NODES)) nodesIterator.foreach(builder.addNodes)
+    if (parts(proto.ResultPart.STEPS)) stepsIterator.foreach(builder.addScriptSteps)
+    if (parts(proto.ResultPart.ACTIVE_CONTRACTS)) builder.addAllActiveContracts(activeContracts)
+    if (parts(proto.ResultPart.TRACES))
+      machineLogger.traceIterator.foreach { case (message, location) =>
+        builder.addTraceLog(convertSTraceMessage(message, location))
+      }
+    if (parts(proto.ResultPart.WARNINGS))
+      machineLogger.warningIterator.foreach { case (message, location) =>
+        builder.addWarnings(convertSWarningMessage(message, location))
+      }
+    builder.build
+  }
+
+  def convertScriptMetrics(metrics: ScriptMetrics.Snapshot): proto.ScriptMetrics = {
+    val builder = proto.ScriptMetrics.newBuilder
+      .setInterpretationMicros(metrics.interpretationNanos / 1000)
+      .setLedgerWaitMicros(metrics.ledgerWaitNanos / 1000)
+    ScriptMetrics.BucketBoundsMicros.foreach(builder.addHistogramBoundsMicros)
+    metrics.commands.toSeq.sortBy(_._1).foreach { case (name, stats) =>
+      val cmdBuilder = proto.ScriptMetrics.Command.newBuilder
+        .setName(name)
+        .setCount(stats.count)
+        .setFailures(stats.failures)
+        .setTotalMicros(stats.totalNanos / 1000)
+        .setMaxMicros(stats.maxNanos / 1000)
+        .setBytes(stats.bytes)
+      stats.histogram.foreach(cmdBuilder.addHistogram)
+      builder.addCommands(cmdBuilder)
     }
     builder.build
   }
 
-  def convertScriptError(err: Error): proto.ScriptError = {
+  def convertScriptError(
+      err: Error,
+      parts: Set[proto.ResultPart] = Conversions.AllParts,
+  ): proto.ScriptError = {
     val builder = proto.ScriptError.newBuilder
-      .addAllNodes(nodes.asJava)
-      .addAllScriptSteps(steps.asJava)
       .setLedgerTime(ledger.currentTime.micros)
-      .addAllActiveContracts(
-        ledger.ledgerData.activeContracts.view
-          .map[String](coid => coidToEventId(coid).toLedgerString)
-          .asJava
-      )
+    if (parts(proto.ResultPart.NODES)) nodesIterator.foreach(builder.addNodes)
+    if (parts(proto.ResultPart.STEPS)) stepsIterator.foreach(builder.addScriptSteps)
+    if (parts(proto.ResultPart.ACTIVE_CONTRACTS)) builder.addAllActiveContracts(activeContracts)
 
-    machineLogger.traceIterator.foreach { case (message, location) =>
-      builder.addTraceLog(convertSTraceMessage(message, location))
-    }
+    if (parts(proto.ResultPart.TRACES))
+      machineLogger.traceIterator.foreach { case (message, location) =>
+        builder.addTraceLog(convertSTraceMessage(message, location))
+      }
 
     def setCrash(reason: String) = builder.setCrash(reason)
 
@@ -883,3 +916,12 @@ final class Conversions(
     proto.Party.newBuilder.setParty(p).build
 
 }
+
+object Conversions {
+  val AllParts: Set[proto.ResultPart] =
+    proto.ResultPart.values.iterator
+      .filter(part =>
+        part != proto.ResultPart.UNRECOGNIZED && part != proto.ResultPart.RESULT_PART_UNSPECIFIED
+      )
+      .toSet
+}
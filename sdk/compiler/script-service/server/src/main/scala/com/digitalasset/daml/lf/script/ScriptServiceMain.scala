@@ -6,18 +6,24 @@ package com.digitalasset.daml.lf.script
 import org.apache.pekko.actor.ActorSystem
 import com.daml.grpc.adapter.{PekkoExecutionSequencerPool, ExecutionSequencerFactory}
 import org.apache.pekko.stream.Materializer
+import org.apache.pekko.stream.scaladsl.Source
 
+import java.io.File
 import java.net.{InetAddress, InetSocketAddress}
+import java.util.concurrent.atomic.AtomicReference
 import java.util.logging.{Level, Logger}
 import com.digitalasset.daml.lf.archive
 import com.digitalasset.daml.lf.data.ImmArray
 import com.digitalasset.daml.lf.data.Ref
 import com.digitalasset.daml.lf.data.Ref.ModuleName
+import com.digitalasset.daml.lf.engine.script.{PackageCache, ScriptMetrics}
 import com.digitalasset.daml.lf.engine.script.Runner.IdeLedgerProtocolVersion
 import com.digitalasset.daml.lf.language.Ast
 import com.digitalasset.daml.lf.language.LanguageVersion
-import com.digitalasset.daml.lf.script.api.v1.{Map => _, _}
-import io.grpc.stub.StreamObserver
+import com.digitalasset.daml.lf.script.api.v1.{Map => _, ScriptMetrics => _, _}
+import com.digitalasset.daml.lf.speedy.SDefinition
+import com.digitalasset.daml.lf.speedy.SExpr.SDefinitionRef
+import io.grpc.stub.{ServerCallStreamObserver, StreamObserver}
 import io.grpc.{Status, StatusRuntimeException}
 import io.grpc.netty.shaded.io.grpc.netty.NettyServerBuilder
 
@@ -25,6 +31,7 @@ import java.time.Instant
 import scala.util.Random
 import scala.concurrent.{ExecutionContext, Future}
 import scala.util.{Failure, Success}
+import scala.annotation.tailrec
 import scala.collection.concurrent.TrieMap
 import scala.concurrent.duration._
 import scala.jdk.CollectionConverters._
@@ -33,6 +40,11 @@ import scala.util.control.NonFatal
 private final case class ScriptServiceConfig(
     maxInboundMessageSize: Int,
     ideLedgerProtocolVersion: IdeLedgerProtocolVersion,
+    noPackageCache: Boolean,
+    contextMemoryBudget: Long,
+    heapToArchiveRatio: Long,
+    warmUpDars: Seq[File],
+    exitAfterWarmUp: Boolean,
 )
 
 @SuppressWarnings(Array("org.wartremover.warts.NonUnitStatements"))
@@ -40,6 +52,9 @@ private object ScriptServiceConfig {
   // We default to MAXINT as we rely on the ledger to manage the message size
   val DefaultMaxInboundMessageSize: Int = Int.MaxValue
 
+  // We default to half of the heap, leaving the rest to running scripts
+  def defaultContextMemoryBudget: Long = Runtime.getRuntime.maxMemory / 2
+
   val parser = new scopt.OptionParser[ScriptServiceConfig]("script-service") {
     head("script-service")
 
@@ -57,6 +72,35 @@ private object ScriptServiceConfig {
       .text(
         s"Protocol version for the IDE Ledger to imitate. Default ${IdeLedgerProtocolVersion.latest.toString}. Currently only affects ContractKey/rollback behaviour"
       )
+    opt[Unit]("no-package-cache")
+      .action((_, c) => c.copy(noPackageCache = true))
+      .optional()
+      .text("Validate all external packages instead of using the package cache.")
+    opt[Long]("context-memory-budget")
+      .action((x, c) => c.copy(contextMemoryBudget = x * 1024 * 1024))
+      .optional()
+      .text(
+        "Optional estimated heap, in MB, that contexts may retain before the least recently used ones are evicted. Defaults to half of the maximum heap."
+      )
+    opt[Long]("heap-to-archive-ratio")
+      .action((x, c) => c.copy(heapToArchiveRatio = x))
+      .optional()
+      .text(
+        s"Optional ratio between the heap used by a loaded package and the size of its archive, used to estimate the heap retained by contexts. Defaults to ${Context.DefaultHeapToArchiveRatio}."
+      )
+    opt[File]("warm-up-dar")
+      .unbounded()
+      .action((x, c) => c.copy(warmUpDars = c.warmUpDars :+ x))
+      .optional()
+      .text(
+        "Compile the packages of the given DAR, typically the daml-script one, once the server started, so that contexts loading them do not compile them. Can be repeated."
+      )
+    opt[Unit]("exit-after-warm-up")
+      .action((_, c) => c.copy(exitAfterWarmUp = true))
+      .optional()
+      .text(
+        "Exit once the warm-up is done, instead of serving requests. Used as a training run to build a class data sharing archive."
+      )
   }
 
   def parse(args: Array[String]): Option[ScriptServiceConfig] =
@@ -65,6 +109,11 @@ private object ScriptServiceConfig {
       ScriptServiceConfig(
         maxInboundMessageSize = DefaultMaxInboundMessageSize,
         ideLedgerProtocolVersion = IdeLedgerProtocolVersion.latest,
+        noPackageCache = false,
+        contextMemoryBudget = defaultContextMemoryBudget,
+        heapToArchiveRatio = Context.DefaultHeapToArchiveRatio,
+        warmUpDars = Seq.empty,
+        exitAfterWarmUp = false,
       ),
     )
 }
@@ -85,10 +134,11 @@ object ScriptServiceMain extends App {
         new PekkoExecutionSequencerPool("ScriptServicePool")(system)
       implicit val materializer: Materializer = Materializer(system)
       implicit val ec: ExecutionContext = system.dispatcher
+      val service = new ScriptService(config)
       val server =
         NettyServerBuilder
           .forAddress(new InetSocketAddress(InetAddress.getLoopbackAddress, 0)) // any free port
-          .addService(new ScriptService(config))
+          .addService(service)
           .maxInboundMessageSize(config.maxInboundMessageSize)
           .build
       server.start()
@@ -98,6 +148,15 @@ object ScriptServiceMain extends App {
       // Bump up the log level
       Logger.getLogger("io.grpc").setLevel(Level.ALL)
 
+      if (config.exitAfterWarmUp) {
+        service.warmUp(config.warmUpDars)
+        server.shutdown()
+        system.terminate()
+        sys.exit(0)
+      }
+      // The warm-up happens after the port is printed, so that it does not delay the client.
+      Future(service.warmUp(config.warmUpDars))
+
       // Start a thread to watch stdin and terminate
       // if it closes. This makes sure we do not leave
       // this process running if the parent exits.
@@ -120,8 +179,29 @@ object ScriptService {
   private def notFoundContextError(id: Long): StatusRuntimeException =
     Status.NOT_FOUND.withDescription(s" context $id not found!").asRuntimeException
 
+  private def evictedContextError(id: Long): StatusRuntimeException =
+    Status.RESOURCE_EXHAUSTED
+      .withDescription(s" context $id was evicted to stay within the memory budget!")
+      .asRuntimeException
+
   private def throwInvalidArgument(str: String): StatusRuntimeException =
     Status.INVALID_ARGUMENT.withDescription(str).asRuntimeException
+
+  // Status updates of a running script are sent at this interval. The first one is delayed by
+  // between one and two intervals, so that scripts started together do not report in lockstep.
+  private val StatusInterval: FiniteDuration = 500.millis
+
+  private val DefaultChunkSize = 1000
+
+  private def scriptStatus(startedAt: Long, metrics: ScriptMetrics): ScriptStatus = {
+    val snapshot = metrics.snapshot
+    ScriptStatus.newBuilder
+      .setMillisecondsPassed(Instant.now.toEpochMilli - startedAt)
+      .setStartedAt(startedAt)
+      .setCommands(snapshot.commandCount)
+      .setSubmissions(snapshot.committedSubmissions)
+      .build
+  }
 }
 
 sealed abstract class ScriptStream {
@@ -156,8 +236,12 @@ object ScriptStream {
 
   final case class WithStatus(internal: StreamObserver[RunScriptResponseOrStatus])
       extends ScriptStream {
+    // Statuses are sent from a timer, which may fire once more after the script finished.
+    private[this] var finished = false
+
     override def sendFinalResponse(finalResponse: Either[ScriptError, ScriptResult]): Unit =
       internal.synchronized {
+        finished = true
         val message = finalResponse match {
           case Left(error: ScriptError) =>
             RunScriptResponseOrStatus.newBuilder.setError(error).build
@@ -175,10 +259,75 @@ object ScriptStream {
       }
 
     override def sendStatus(status: ScriptStatus): Unit = internal.synchronized {
-      val message = RunScriptResponseOrStatus.newBuilder.setStatus(status).build
-      internal.onNext(message)
+      if (!finished) {
+        val message = RunScriptResponseOrStatus.newBuilder.setStatus(status).build
+        internal.onNext(message)
+      }
+    }
+    override def sendError(t: Throwable): Unit = internal.synchronized {
+      finished = true
+      internal.onError(t)
+    }
+  }
+}
+
+/** Sends the elements of an iterator to a stream only as fast as the client reads them. Sending
+  * stops whenever the call is not ready to take more messages, and resumes from the readiness
+  * handler of the call, so that elements, which may be computed as they are pulled, do not pile
+  * up in the buffers of the transport. Elements are only pulled with the lock held.
+  */
+final class FlowControlledStream[A](internal: StreamObserver[A]) {
+  private[this] val call = internal match {
+    case call: ServerCallStreamObserver[A @unchecked] => Some(call)
+    case _ => None
+  }
+  private[this] var elements: Iterator[A] = Iterator.empty
+  private[this] var started = false
+  private[this] var finished = false
+
+  call.foreach { c =>
+    c.setOnReadyHandler(() => drain())
+    c.setOnCancelHandler(() => cancel())
+  }
+
+  val isCancelled: () => Boolean = () => call.exists(_.isCancelled)
+
+  def send(elements: Iterator[A]): Unit = synchronized {
+    if (!finished) {
+      this.elements = elements
+      started = true
+      drain()
+    }
+  }
+
+  def fail(t: Throwable): Unit = synchronized {
+    if (!finished) {
+      finished = true
+      elements = Iterator.empty
+      internal.onError(t)
+    }
+  }
+
+  private[this] def cancel(): Unit = synchronized {
+    finished = true
+    elements = Iterator.empty
+  }
+
+  private[this] def drain(): Unit = synchronized {
+    if (started && !finished) {
+      try {
+        while (!finished && call.forall(_.isReady) && elements.hasNext)
+          internal.onNext(elements.next())
+        if (!finished && !elements.hasNext) {
+          finished = true
+          internal.onCompleted()
+        }
+      } catch {
+        case NonFatal(err) =>
+          System.err.println(err)
+          fail(err)
+      }
     }
-    override def sendError(t: Throwable): Unit = internal.synchronized(internal.onError(t))
   }
 }
 
@@ -192,10 +341,58 @@ class ScriptService(config: ScriptServiceConfig)(implicit
   import ScriptService._
 
   private val contexts = TrieMap.empty[Context.ContextId, Context]
+  // Contexts evicted to stay within the memory budget, so that their use can be reported with
+  // a specific error, telling the client to recreate them.
+  private val evictedContexts = TrieMap.empty[Context.ContextId, Unit]
+
+  private val packageCache =
+    if (config.noPackageCache) None else Some(new PackageCache(PackageCache.defaultDir))
+
+  // Definitions compiled by the warm-up, retained so that they stay shared with the contexts.
+  private val warmedUp = new AtomicReference(Seq.empty[Map[SDefinitionRef, SDefinition]])
+
+  def warmUp(dars: Seq[File]): Unit =
+    dars.foreach { dar =>
+      try {
+        val startedAt = System.nanoTime()
+        val defns = Context.warmUp(archive.DarDecoder.assertReadArchiveFromFile(dar), packageCache)
+        warmedUp.updateAndGet(_ ++ defns)
+        log(s"warmed up $dar in ${(System.nanoTime() - startedAt) / 1000000}ms")
+      } catch {
+        case NonFatal(e) => log(s"failed to warm up $dar: $e")
+      }
+    }
 
   private def log(msg: String) =
     System.err.println("ScriptService: " + msg)
 
+  private def getContext(id: Context.ContextId): Option[Context] =
+    contexts.get(id).map { ctx =>
+      ctx.touch()
+      ctx
+    }
+
+  private def contextError(id: Context.ContextId): StatusRuntimeException =
+    if (evictedContexts.contains(id)) evictedContextError(id) else notFoundContextError(id)
+
+  // Evicts the least recently used contexts, other than `current`, until the estimated heap
+  // retained by all contexts fits in the budget.
+  private def enforceMemoryBudget(current: Context): Unit = synchronized {
+    @tailrec
+    def evict(others: List[Context]): Unit = others match {
+      case oldest :: rest
+          if Context.estimatedHeapBytes(current :: others, config.heapToArchiveRatio) >
+            config.contextMemoryBudget =>
+        log(s"evicting context ${oldest.contextId} to stay within the memory budget")
+        contexts -= oldest.contextId
+        evictedContexts += (oldest.contextId -> (()))
+        evict(rest)
+      case _ =>
+        ()
+    }
+    evict(contexts.values.filter(_ ne current).toList.sortBy(_.lastUsedNanos))
+  }
+
   override def runScript(
       req: RunScriptRequest,
       respObs: StreamObserver[RunScriptResponse],
@@ -235,74 +432,183 @@ class ScriptService(config: ScriptServiceConfig)(implicit
   ): Unit = {
     val scriptName = req.getScriptName
     val contextId = req.getContextId
+    val metrics = new ScriptMetrics
     val response: Future[Option[Either[ScriptError, ScriptResult]]] =
-      contexts.get(contextId) match {
+      getContext(contextId) match {
         case Some(context) =>
-          context.interpretScript(scriptName, canceledByRequest).map {
-            case error: ScriptServiceError =>
-              val scriptError =
-                new Conversions(
-                  context.homePackageId,
-                  error.ledger,
-                  error.currentSubmission.map(_.ptx),
-                  error.machineLogger,
-                  error.currentSubmission.flatMap(_.commitLocation),
-                  error.stackTrace,
-                  context.devMode,
-                )
-                  .convertScriptError(error.error)
-              Some(Left(scriptError))
-            case success: ScriptServiceSuccess =>
-              val scriptResult =
-                new Conversions(
-                  context.homePackageId,
-                  success.ledger,
-                  None,
-                  success.machineLogger,
-                  None,
-                  ImmArray.Empty,
-                  context.devMode,
-                )
-                  .convertScriptResult(success.resultValue)
-              Some(Right(scriptResult))
-          }
+          interpretScript(context, scriptName, canceledByRequest, metrics).map(Some(_))
         case None => Future.successful(None)
       }
 
-    Future {
-      val startedAt = Instant.now.toEpochMilli
+    // Statuses are sent from the scheduler rather than from a sleeping thread, so running
+    // scripts do not hold on to dispatcher threads between updates.
+    val startedAt = Instant.now.toEpochMilli
+    val statusUpdates = mat.scheduleWithFixedDelay(
+      (StatusInterval.toMillis * (1 + Random.nextDouble())).toLong.millis,
+      StatusInterval,
+      () => respStream.sendStatus(scriptStatus(startedAt, metrics)),
+    )
 
-      var millisPassed: Long = 0
-      def sleepRandom() = {
-        val delta: Long = 300 + (Random.nextDouble() * 300).toLong
-        Thread.sleep(delta)
-        millisPassed += delta
+    response.onComplete { result =>
+      statusUpdates.cancel()
+      result match {
+        case Success(None) =>
+          log(s"runScript: $contextId not found")
+          respStream.sendError(contextError(req.getContextId))
+        case Success(Some(resp)) =>
+          respStream.sendFinalResponse(resp)
+        case Failure(err) =>
+          System.err.println(err)
+          respStream.sendError(err)
       }
+    }
+  }
 
-      sleepRandom()
-      while (!response.isCompleted) {
-        respStream.sendStatus(
-          ScriptStatus.newBuilder
-            .setMillisecondsPassed(millisPassed)
-            .setStartedAt(startedAt)
-            .build
-        )
-        sleepRandom()
-      }
+  override def runScripts(
+      req: RunScriptsRequest,
+      respObs: StreamObserver[RunScriptsResponse],
+  ): Unit = {
+    val contextId = req.getContextId
+    getContext(contextId) match {
+      case None =>
+        log(s"runScripts: $contextId not found")
+        respObs.onError(contextError(contextId))
+      case Some(context) =>
+        val canceled: () => Boolean = respObs match {
+          case call: ServerCallStreamObserver[_] => () => call.isCancelled
+          case _ => () => false
+        }
+        val parallelism =
+          if (req.getParallelism > 0) req.getParallelism
+          else Runtime.getRuntime.availableProcessors
+        // All scripts of the batch share the compiled packages of the context, each of them runs
+        // against its own IDE ledger. A script failing unexpectedly gets an error response of its
+        // own, without failing the rest of the batch.
+        Source(req.getScriptNamesList.asScala.toList)
+          .mapAsyncUnordered(parallelism) { scriptName =>
+            Future
+              .delegate(interpretScript(context, scriptName, canceled, new ScriptMetrics))
+              .recover { case NonFatal(err) =>
+                System.err.println(err)
+                Left(ScriptError.newBuilder.setCrash(s"Unexpected error: $err").build)
+              }
+              .map { result =>
+                val response = RunScriptsResponse.newBuilder.setScriptName(scriptName)
+                result.fold(response.setError(_), response.setResult(_)).build
+              }
+          }
+          .runForeach(respObs.onNext)
+          .onComplete {
+            case Success(_) =>
+              respObs.onCompleted()
+            case Failure(err) =>
+              System.err.println(err)
+              respObs.onError(err)
+          }
     }
+  }
 
-    response.onComplete {
-      case Success(None) =>
-        log(s"runScript: $contextId not found")
-        respStream.sendError(notFoundContextError(req.getContextId))
-      case Success(Some(resp)) =>
-        respStream.sendFinalResponse(resp)
-      case Failure(err) =>
-        System.err.println(err)
-        respStream.sendError(err)
+  override def runScriptChunked(
+      req: RunScriptChunkedRequest,
+      respObs: StreamObserver[ScriptResultChunk],
+  ): Unit = {
+    val start = req.getStart
+    val chunkSize = if (req.getChunkSize > 0) req.getChunkSize else DefaultChunkSize
+    val parts =
+      if (req.getPartsList.asScala.forall(_ == ResultPart.RESULT_PART_UNSPECIFIED))
+        Conversions.AllParts
+      else req.getPartsList.asScala.toSet - ResultPart.RESULT_PART_UNSPECIFIED
+    getContext(start.getContextId) match {
+      case None =>
+        log(s"runScriptChunked: ${start.getContextId} not found")
+        respObs.onError(contextError(start.getContextId))
+      case Some(context) =>
+        // Must be created before returning, as the readiness handler can only be set then.
+        val stream = new FlowControlledStream(respObs)
+        context.interpretScript(start.getScriptName, stream.isCancelled).onComplete {
+          case Success(result) =>
+            try {
+              val conversions = conversionsFor(context, result)
+              val steps =
+                if (parts(ResultPart.STEPS))
+                  conversions.stepChunks(chunkSize).map { steps =>
+                    ScriptResultChunk.newBuilder.addAllScriptSteps(steps.asJava).build
+                  }
+                else Iterator.empty
+              val nodes =
+                if (parts(ResultPart.NODES))
+                  conversions.nodeChunks(chunkSize).map { nodes =>
+                    ScriptResultChunk.newBuilder.addAllNodes(nodes.asJava).build
+                  }
+                else Iterator.empty
+              val otherParts = parts - ResultPart.STEPS - ResultPart.NODES
+              // Converted once all the steps and nodes are sent, like them.
+              val last = Iterator.fill(1)(result match {
+                case error: ScriptServiceError =>
+                  ScriptResultChunk.newBuilder
+                    .setError(conversions.convertScriptError(error.error, otherParts))
+                    .build
+                case success: ScriptServiceSuccess =>
+                  ScriptResultChunk.newBuilder
+                    .setResult(
+                      conversions
+                        .convertScriptResult(success.resultValue, success.metrics, otherParts)
+                    )
+                    .build
+              })
+              stream.send(steps ++ nodes ++ last)
+            } catch {
+              case NonFatal(err) =>
+                System.err.println(err)
+                stream.fail(err)
+            }
+          case Failure(err) =>
+            System.err.println(err)
+            stream.fail(err)
+        }
     }
   }
 
+  private def conversionsFor(context: Context, result: ScriptServiceResult): Conversions =
+    result match {
+      case error: ScriptServiceError =>
+        new Conversions(
+          context.homePackageId,
+          error.ledger,
+          error.currentSubmission.map(_.ptx),
+          error.machineLogger,
+          error.currentSubmission.flatMap(_.commitLocation),
+          error.stackTrace,
+          context.devMode,
+        )
+      case success: ScriptServiceSuccess =>
+        new Conversions(
+          context.homePackageId,
+          success.ledger,
+          None,
+          success.machineLogger,
+          None,
+          ImmArray.Empty,
+          context.devMode,
+        )
+    }
+
+  private def interpretScript(
+      context: Context,
+      scriptName: String,
+      canceledByRequest: () => Boolean,
+      metrics: ScriptMetrics,
+  ): Future[Either[ScriptError, ScriptResult]] =
+    context.interpretScript(scriptName, canceledByRequest, metrics).map { result =>
+      val conversions = conversionsFor(context, result)
+      result match {
+        case error: ScriptServiceError =>
+          Left(conversions.convertScriptError(error.error))
+        case success: ScriptServiceSuccess =>
+          Right(conversions.convertScriptResult(success.resultValue, success.metrics))
+      }
+    }
+
   override def newContext(
       req: NewContextRequest,
       respObs: StreamObserver[NewContextResponse],
@@ -319,8 +625,10 @@ class ScriptService(config: ScriptServiceConfig)(implicit
           lfVersion,
           req.getEvaluationTimeout.seconds,
           config.ideLedgerProtocolVersion,
+          packageCache,
         )
         contexts += (ctx.contextId -> ctx)
+        enforceMemoryBudget(ctx)
         val response = NewContextResponse.newBuilder.setContextId(ctx.contextId).build
         respObs.onNext(response)
         respObs.onCompleted()
@@ -334,13 +642,14 @@ class ScriptService(config: ScriptServiceConfig)(implicit
       respObs: StreamObserver[CloneContextResponse],
   ): Unit = {
     val ctxId = req.getContextId
-    contexts.get(ctxId) match {
+    getContext(ctxId) match {
       case None =>
         log(s"cloneContext[$ctxId]: context not found!")
-        respObs.onError(notFoundContextError(req.getContextId))
+        respObs.onError(contextError(req.getContextId))
       case Some(ctx) =>
         val clonedCtx = ctx.cloneContext()
         contexts += (clonedCtx.contextId -> clonedCtx)
+        enforceMemoryBudget(clonedCtx)
         val response = CloneContextResponse.newBuilder.setContextId(clonedCtx.contextId).build
         respObs.onNext(response)
         respObs.onCompleted()
@@ -352,8 +661,9 @@ class ScriptService(config: ScriptServiceConfig)(implicit
       respObs: StreamObserver[DeleteContextResponse],
   ): Unit = {
     val ctxId = req.getContextId
-    if (contexts.contains(ctxId)) {
+    if (contexts.contains(ctxId) || evictedContexts.contains(ctxId)) {
       contexts -= ctxId
+      evictedContexts -= ctxId
       respObs.onNext(DeleteContextResponse.newBuilder.build)
       respObs.onCompleted()
     } else {
@@ -369,6 +679,7 @@ class ScriptService(config: ScriptServiceConfig)(implicit
       req.getContextIdsList.asScala.map(x => x: Context.ContextId).toSet
     val ctxToRemove = contexts.keySet.diff(ctxIds)
     contexts --= ctxToRemove
+    evictedContexts --= evictedContexts.keySet.diff(ctxIds)
     respObs.onNext(GCContextsResponse.newBuilder.build)
     respObs.onCompleted()
   }
@@ -381,10 +692,10 @@ class ScriptService(config: ScriptServiceConfig)(implicit
     val ctxId = req.getContextId
     val resp = UpdateContextResponse.newBuilder
 
-    contexts.get(ctxId) match {
+    getContext(ctxId) match {
       case None =>
         log(s"updateContext[${req.getContextId}]: context not found!")
-        respObs.onError(notFoundContextError(req.getContextId))
+        respObs.onError(contextError(req.getContextId))
 
       case Some(ctx) =>
         try {
@@ -431,6 +742,7 @@ class ScriptService(config: ScriptServiceConfig)(implicit
             req.getNoValidation,
             pkgMetadata,
           )
+          enforceMemoryBudget(ctx)
 
           resp.addAllLoadedModules(ctx.loadedModules().map(_.toString).asJava)
           resp.addAllLoadedPackages((ctx.loadedPackages(): Iterable[String]).asJava)
@@ -6,7 +6,11 @@ package script
 
 import com.digitalasset.daml.lf.data.ImmArray
 import com.digitalasset.daml.lf.data.Ref.Location
-import com.digitalasset.daml.lf.engine.script.{CurrentSubmission, ScriptMachineLogger}
+import com.digitalasset.daml.lf.engine.script.{
+  CurrentSubmission,
+  ScriptMachineLogger,
+  ScriptMetrics,
+}
 import com.digitalasset.daml.lf.value.Value
 
 sealed trait ScriptServiceResult extends Product with Serializable {
@@ -19,6 +23,7 @@ final case class ScriptServiceSuccess(
     duration: Double,
     steps: Int,
     resultValue: Value,
+    metrics: ScriptMetrics.Snapshot,
 ) extends ScriptServiceResult
 
 final case class ScriptServiceError(
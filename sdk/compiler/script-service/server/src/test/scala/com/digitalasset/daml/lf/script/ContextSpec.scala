@@ -0,0 +1,75 @@
+// Copyright (c) 2026 Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.digitalasset.daml.lf
+package script
+
+import com.daml.bazeltools.BazelRunfiles
+import com.digitalasset.daml.lf.archive.DarDecoder
+import com.digitalasset.daml.lf.data.Ref.{Identifier, PackageId}
+import org.scalatest.OptionValues
+import org.scalatest.freespec.AnyFreeSpec
+import org.scalatest.matchers.should.Matchers
+
+import java.nio.file.Paths
+import java.util.concurrent.CountDownLatch
+import scala.concurrent.duration.DurationInt
+import scala.concurrent.{ExecutionContext, TimeoutException}
+
+final class ContextSpec extends AnyFreeSpec with Matchers with OptionValues {
+
+  private implicit val ec: ExecutionContext = ExecutionContext.global
+
+  private val dar = DarDecoder.assertReadArchiveFromFile(
+    BazelRunfiles.rlocation(Paths.get("daml-script/runner/test-script1.dar")).toFile
+  )
+
+  private val (mainId, mainPkg) = dar.main
+
+  private val (scriptId, scriptPkg) =
+    dar.dependencies.find { case (_, pkg) => pkg.metadata.name == "daml-script" }.value
+
+  "awaitAll" - {
+    "returns the results in order" in {
+      Context.awaitAll(1 to 100)(_ * 2) shouldBe (2 to 200 by 2)
+    }
+
+    "gives up after the timeout" in {
+      val release = new CountDownLatch(1)
+      try {
+        a[TimeoutException] should be thrownBy
+          Context.awaitAll(Seq(1), 100.millis)(_ => release.await())
+      } finally release.countDown()
+    }
+  }
+
+  "modulesReferencing" - {
+    "finds the modules referencing a package" in {
+      Context.modulesReferencing(mainId, mainPkg.modules, Set(scriptId)) shouldBe
+        mainPkg.modules.keySet
+    }
+
+    "ignores packages no module references" in {
+      val unknown = PackageId.assertFromString("unknown")
+      Context.modulesReferencing(mainId, mainPkg.modules, Set(unknown)) shouldBe empty
+    }
+
+    "adds the modules referencing an affected module" in {
+      val stdlib = scriptPkg.modules.values
+        .flatMap(Context.referencedIdentifiers)
+        .map(_.packageId)
+        .find(_ != scriptId)
+        .value
+      val affected = Context.modulesReferencing(scriptId, scriptPkg.modules, Set(stdlib))
+
+      def referencing(p: Identifier => Boolean) =
+        scriptPkg.modules.values.filter(Context.referencedIdentifiers(_).exists(p)).map(_.name)
+      val direct = referencing(_.packageId == stdlib)
+      val dependents =
+        referencing(id => id.packageId == scriptId && affected(id.qualifiedName.module))
+      direct should not be empty
+      affected should contain allElementsOf direct
+      affected should contain allElementsOf dependents
+    }
+  }
+}
@@ -0,0 +1,250 @@
+// Copyright (c) 2026 Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.digitalasset.daml.lf.script
+
+import com.daml.bazeltools.BazelRunfiles
+import com.daml.grpc.adapter.{ExecutionSequencerFactory, PekkoExecutionSequencerPool}
+import com.digitalasset.daml.lf.archive.DarDecoder
+import com.digitalasset.daml.lf.engine.script.Runner.IdeLedgerProtocolVersion
+import com.digitalasset.daml.lf.script.api.v1._
+import com.google.protobuf.ByteString
+import io.grpc.inprocess.{InProcessChannelBuilder, InProcessServerBuilder}
+import io.grpc.stub.{ClientCallStreamObserver, ClientResponseObserver}
+import io.grpc.{ManagedChannel, Server, Status, StatusRuntimeException}
+import org.apache.pekko.actor.ActorSystem
+import org.apache.pekko.stream.Materializer
+import org.scalatest.BeforeAndAfterAll
+import org.scalatest.freespec.AnyFreeSpec
+import org.scalatest.matchers.should.Matchers
+
+import java.nio.file.Paths
+import java.util.concurrent.{LinkedBlockingQueue, TimeUnit}
+import java.util.zip.ZipFile
+import scala.concurrent.duration.DurationInt
+import scala.concurrent.{Await, ExecutionContext, Promise}
+import scala.jdk.CollectionConverters._
+
+final class ScriptServiceSpec extends AnyFreeSpec with Matchers with BeforeAndAfterAll {
+
+  // The main package of a DAR and the archives of all its packages.
+  private final class TestDar(path: String) {
+    private val file = BazelRunfiles.rlocation(Paths.get(path)).toFile
+
+    val (_, mainPkg) = DarDecoder.assertReadArchiveFromFile(file).main
+
+    val dalfs: List[ByteString] = {
+      val zip = new ZipFile(file)
+      try {
+        zip
+          .entries()
+          .asScala
+          .filter(_.getName.endsWith(".dalf"))
+          .map(entry => ByteString.readFrom(zip.getInputStream(entry)))
+          .toList
+      } finally zip.close()
+    }
+  }
+
+  private val testScriptDar = new TestDar("daml-script/runner/test-script1.dar")
+  private val chunkedScriptDar = new TestDar("compiler/script-service/server/chunked-script.dar")
+
+  private val system = ActorSystem("ScriptServiceSpec")
+  private implicit val ec: ExecutionContext = system.dispatcher
+  private implicit val esf: ExecutionSequencerFactory =
+    new PekkoExecutionSequencerPool("ScriptServiceSpecPool")(system)
+  private implicit val mat: Materializer = Materializer(system)
+
+  private val config = ScriptServiceConfig(
+    maxInboundMessageSize = ScriptServiceConfig.DefaultMaxInboundMessageSize,
+    ideLedgerProtocolVersion = IdeLedgerProtocolVersion.latest,
+    noPackageCache = true,
+    contextMemoryBudget = Long.MaxValue,
+    heapToArchiveRatio = Context.DefaultHeapToArchiveRatio,
+    warmUpDars = Seq.empty,
+    exitAfterWarmUp = false,
+  )
+
+  // A script service served in process, with a channel to it.
+  private final class InProcessService(config: ScriptServiceConfig) {
+    private val serverName = InProcessServerBuilder.generateName()
+    private val server: Server =
+      InProcessServerBuilder.forName(serverName).addService(new ScriptService(config)).build.start
+    private val channel: ManagedChannel = InProcessChannelBuilder.forName(serverName).build
+
+    def client = ScriptServiceGrpc.newBlockingStub(channel)
+
+    def asyncClient = ScriptServiceGrpc.newStub(channel)
+
+    // A new context, loaded with the packages of the given DAR.
+    def newContext(dar: TestDar = testScriptDar): Long = {
+      val contextId = client
+        .newContext(
+          NewContextRequest.newBuilder
+            .setLfMajor(dar.mainPkg.languageVersion.major.pretty)
+            .setLfMinor(dar.mainPkg.languageVersion.minor.pretty)
+            .setEvaluationTimeout(60)
+            .build
+        )
+        .getContextId
+      val _ = client.updateContext(
+        UpdateContextRequest.newBuilder
+          .setContextId(contextId)
+          .setUpdatePackages(
+            UpdateContextRequest.UpdatePackages.newBuilder.addAllLoadPackages(dar.dalfs.asJava)
+          )
+          .setPackageMetadata(
+            PackageMetadata.newBuilder
+              .setPackageName(dar.mainPkg.metadata.name)
+              .setPackageVersion(dar.mainPkg.metadata.version.toString)
+          )
+          .build
+      )
+      contextId
+    }
+
+    def runScripts(contextId: Long, scripts: Seq[String]): Map[String, RunScriptsResponse] =
+      client
+        .runScripts(
+          RunScriptsRequest.newBuilder
+            .setContextId(contextId)
+            .addAllScriptNames(scripts.asJava)
+            .setParallelism(2)
+            .build
+        )
+        .asScala
+        .map(response => response.getScriptName -> response)
+        .toMap
+
+    def close(): Unit = {
+      val _ = channel.shutdownNow()
+      val _ = server.shutdownNow()
+    }
+  }
+
+  private def withService[A](config: ScriptServiceConfig)(f: InProcessService => A): A = {
+    val service = new InProcessService(config)
+    try f(service)
+    finally service.close()
+  }
+
+  override protected def afterAll(): Unit = {
+    val _ = Await.result(system.terminate(), 10.seconds)
+    super.afterAll()
+  }
+
+  "runScripts" - {
+    "answers every script of the batch, even those failing unexpectedly" in
+      withService(config) { service =>
+        val scripts =
+          Seq("TestScript:myScript", "TestScript:doesNotExist", "TestScript:myOtherScript")
+        val responses = service.runScripts(service.newContext(), scripts)
+
+        responses.keySet shouldBe scripts.toSet
+        responses("TestScript:myScript").hasResult shouldBe true
+        responses("TestScript:myOtherScript").hasResult shouldBe true
+        responses("TestScript:doesNotExist").hasError shouldBe true
+      }
+  }
+
+  private def chunkedRequest(contextId: Long, parts: ResultPart*) =
+    RunScriptChunkedRequest.newBuilder
+      .setStart(
+        RunScriptStart.newBuilder
+          .setContextId(contextId)
+          .setScriptName("ChunkedScript:createMany")
+      )
+      .setChunkSize(1)
+      .addAllParts(parts.asJava)
+      .build
+
+  "runScriptChunked" - {
+    "sends the steps and then the nodes in chunks, followed by the rest of the result" in
+      withService(config) { service =>
+        val contextId = service.newContext(chunkedScriptDar)
+        val script = "ChunkedScript:createMany"
+        val full = service.runScripts(contextId, Seq(script))(script).getResult
+        val chunks = service.client.runScriptChunked(chunkedRequest(contextId)).asScala.toList
+
+        val (parts, last) = (chunks.init, chunks.last)
+        all(parts.map(chunk => chunk.getScriptStepsCount + chunk.getNodesCount)) shouldBe 1
+        parts.dropWhile(_.getScriptStepsCount > 0).forall(_.getScriptStepsCount == 0) shouldBe true
+        parts.flatMap(_.getScriptStepsList.asScala) shouldBe full.getScriptStepsList.asScala
+        parts.flatMap(_.getNodesList.asScala) shouldBe full.getNodesList.asScala
+        full.getNodesCount shouldBe 10
+
+        last.hasResult shouldBe true
+        last.getResult.getScriptStepsCount shouldBe 0
+        last.getResult.getNodesCount shouldBe 0
+        last.getResult.getActiveContractsList shouldBe full.getActiveContractsList
+      }
+
+    "only sends the requested parts" in
+      withService(config) { service =>
+        val contextId = service.newContext(chunkedScriptDar)
+        val chunks = service.client
+          .runScriptChunked(chunkedRequest(contextId, ResultPart.NODES))
+          .asScala
+          .toList
+
+        chunks.map(_.getScriptStepsCount).sum shouldBe 0
+        chunks.map(_.getNodesCount).sum shouldBe 10
+        chunks.last.getResult.getActiveContractsCount shouldBe 0
+      }
+
+    "only sends chunks as the client asks for them" in
+      withService(config) { service =>
+        val contextId = service.newContext(chunkedScriptDar)
+        val received = new LinkedBlockingQueue[ScriptResultChunk]
+        val requests = Promise[ClientCallStreamObserver[RunScriptChunkedRequest]]()
+        val completed = Promise[Unit]()
+        service.asyncClient.runScriptChunked(
+          chunkedRequest(contextId),
+          new ClientResponseObserver[RunScriptChunkedRequest, ScriptResultChunk] {
+            override def beforeStart(
+                requestStream: ClientCallStreamObserver[RunScriptChunkedRequest]
+            ): Unit = {
+              requestStream.disableAutoRequestWithInitial(1)
+              val _ = requests.success(requestStream)
+            }
+            override def onNext(chunk: ScriptResultChunk): Unit = {
+              val _ = received.add(chunk)
+            }
+            override def onError(t: Throwable): Unit = {
+              val _ = completed.failure(t)
+            }
+            override def onCompleted(): Unit = {
+              val _ = completed.success(())
+            }
+          },
+        )
+
+        Option(received.poll(60, TimeUnit.SECONDS)) should not be empty
+        Option(received.poll(500, TimeUnit.MILLISECONDS)) shouldBe empty
+        completed.isCompleted shouldBe false
+
+        Await.result(requests.future, 10.seconds).request(Int.MaxValue)
+        Await.result(completed.future, 60.seconds)
+        val expected = service.client.runScriptChunked(chunkedRequest(contextId)).asScala.size
+        received.size + 1 shouldBe expected
+      }
+  }
+
+  "contexts" - {
+    "are evicted to stay within the memory budget, and can be recreated" in
+      withService(config.copy(contextMemoryBudget = 1)) { service =>
+        val scripts = Seq("TestScript:myScript")
+        val evicted = service.newContext()
+        // Loading the packages in a second context exceeds the budget, so the first one goes.
+        val current = service.newContext()
+
+        val error = the[StatusRuntimeException] thrownBy service.runScripts(evicted, scripts)
+        error.getStatus.getCode shouldBe Status.Code.RESOURCE_EXHAUSTED
+
+        service.runScripts(current, scripts)("TestScript:myScript").hasResult shouldBe true
+        // What the client does on RESOURCE_EXHAUSTED: create the context anew.
+        val recreated = service.newContext()
+        service.runScripts(recreated, scripts)("TestScript:myScript").hasResult shouldBe true
+      }
+  }
+}
@@ -0,0 +1,162 @@
+// Copyright (c) 2026 Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.digitalasset.daml.lf.script
+
+import com.daml.bazeltools.BazelRunfiles
+import com.digitalasset.daml.lf.archive.DarDecoder
+import com.digitalasset.daml.lf.script.api.v1._
+import com.google.protobuf.ByteString
+import io.grpc.netty.shaded.io.grpc.netty.NettyChannelBuilder
+import org.scalatest.matchers.should.Matchers
+import org.scalatest.wordspec.AnyWordSpec
+
+import java.io.{BufferedReader, InputStreamReader}
+import java.nio.charset.StandardCharsets
+import java.nio.file.{Files, Path, Paths}
+import java.util.concurrent.TimeUnit
+import java.util.zip.ZipFile
+import scala.jdk.CollectionConverters._
+
+// Tracks the startup time of the script service as seen by its client: the time until it prints
+// its port, and the time until the result of a first script comes back. The service is started
+// both as is and the way the client starts it when the class data sharing archive and the
+// daml-script DAR are installed next to the jar.
+final class ScriptServiceStartupTest extends AnyWordSpec with Matchers {
+
+  private val serverJar =
+    BazelRunfiles.rlocation(Paths.get("compiler/script-service/server/script-service.jar"))
+  private val cdsArchive =
+    BazelRunfiles.rlocation(Paths.get("compiler/script-service/server/script-service.jsa"))
+  private val scriptDar =
+    BazelRunfiles.rlocation(Paths.get("daml-script/daml/daml-script.dar"))
+  private val dar =
+    BazelRunfiles.rlocation(Paths.get("daml-script/runner/test-script1.dar"))
+
+  private val (_, mainPkg) = DarDecoder.assertReadArchiveFromFile(dar.toFile).main
+  private val dalfs = {
+    val zip = new ZipFile(dar.toFile)
+    try {
+      zip
+        .entries()
+        .asScala
+        .filter(_.getName.endsWith(".dalf"))
+        .map(entry => ByteString.readFrom(zip.getInputStream(entry)))
+        .toList
+    } finally zip.close()
+  }
+
+  private def millisSince(startedAt: Long) =
+    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt)
+
+  private def readString(path: Path) =
+    new String(Files.readAllBytes(path), StandardCharsets.UTF_8)
+
+  // Starts the script service with the given JVM options and arguments, runs a first script
+  // against it, and checks the startup budget. Then waits until the server output satisfies
+  // `serverDone`, as the warm-up carries on after the port is printed.
+  private def startAndRunFirstScript(jvmOptions: Seq[String], args: Seq[String])(
+      serverDone: String => Boolean
+  ): String = {
+    val java = Paths.get(System.getProperty("java.home"), "bin", "java").toString
+    val stderr = Files.createTempFile("script-service", ".stderr")
+    val startedAt = System.nanoTime()
+    val command = Seq(java) ++ jvmOptions ++ Seq("-jar", serverJar.toString) ++ args
+    val process = new ProcessBuilder(command.asJava).redirectError(stderr.toFile).start()
+    try {
+      val stdout = new BufferedReader(new InputStreamReader(process.getInputStream))
+      val port = Iterator
+        .continually(stdout.readLine())
+        .takeWhile(_ != null)
+        .collectFirst { case line if line.startsWith("PORT=") => line.stripPrefix("PORT=").toInt }
+        .getOrElse(fail(s"script service exited before printing its port: ${readString(stderr)}"))
+      val timeToPort = millisSince(startedAt)
+
+      val channel = NettyChannelBuilder
+        .forAddress("127.0.0.1", port)
+        .usePlaintext()
+        .maxInboundMessageSize(Int.MaxValue)
+        .build()
+      try {
+        val client = ScriptServiceGrpc.newBlockingStub(channel)
+        val contextId = client
+          .newContext(
+            NewContextRequest.newBuilder
+              .setLfMajor(mainPkg.languageVersion.major.pretty)
+              .setLfMinor(mainPkg.languageVersion.minor.pretty)
+              .setEvaluationTimeout(60)
+              .build
+          )
+          .getContextId
+        client.updateContext(
+          UpdateContextRequest.newBuilder
+            .setContextId(contextId)
+            .setUpdatePackages(
+              UpdateContextRequest.UpdatePackages.newBuilder.addAllLoadPackages(dalfs.asJava)
+            )
+            .setPackageMetadata(
+              PackageMetadata.newBuilder
+                .setPackageName(mainPkg.metadata.name)
+                .setPackageVersion(mainPkg.metadata.version.toString)
+            )
+            .build
+        )
+        val response = client.runScript(
+          RunScriptRequest.newBuilder
+            .setStart(
+              RunScriptStart.newBuilder
+                .setContextId(contextId)
+                .setScriptName("TestScript:myScript")
+            )
+            .build
+        )
+        val timeToFirstResult = millisSince(startedAt)
+
+        info(s"time to port: ${timeToPort}ms, time to first result: ${timeToFirstResult}ms")
+        response.hasResult shouldBe true
+        timeToPort should be < 20000L
+        timeToFirstResult should be < 60000L
+      } finally {
+        channel.shutdownNow()
+        ()
+      }
+
+      val deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60)
+      while (!serverDone(readString(stderr)) && System.nanoTime() < deadline) Thread.sleep(100)
+      readString(stderr)
+    } finally {
+      // The script service terminates once its stdin is closed.
+      process.getOutputStream.close()
+      process.waitFor(10, TimeUnit.SECONDS)
+      process.destroyForcibly()
+      Files.deleteIfExists(stderr)
+      ()
+    }
+  }
+
+  "the script service" should {
+    "print its port and run a first script within the startup budget" in {
+      val _ = startAndRunFirstScript(Seq.empty, Seq.empty)(_ => true)
+      succeed
+    }
+
+    "use its class data sharing archive and warm up the daml-script DAR" in {
+      assume(Files.exists(cdsArchive), "no class data sharing archive on this platform")
+      val classLog = Files.createTempFile("script-service", ".classes")
+      try {
+        val serverOutput = startAndRunFirstScript(
+          Seq(s"-XX:SharedArchiveFile=$cdsArchive", s"-Xlog:class+load=info:file=$classLog"),
+          Seq(s"--warm-up-dar=$scriptDar"),
+        )(_.contains("warmed up"))
+
+        serverOutput should include(s"warmed up $scriptDar")
+        // Classes of the archive dumped at the end of the training run are loaded from its top
+        // layer, on top of the base archive of the JDK.
+        readString(classLog) should include("source: shared objects file (top)")
+      } finally {
+        Files.deleteIfExists(classLog)
+        ()
+      }
+    }
+  }
+}
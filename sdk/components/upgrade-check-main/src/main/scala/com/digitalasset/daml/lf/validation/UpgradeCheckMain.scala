@@ -3,8 +3,10 @@
 
 package com.digitalasset.daml.lf.validation
 
-import java.io.File
-import java.nio.file.Paths
+import java.io.{File, IOException}
+import java.nio.charset.StandardCharsets
+import java.nio.file.{FileAlreadyExistsException, Files, Path, Paths}
+import java.security.MessageDigest
 import com.digitalasset.daml.lf.archive.DarDecoder
 import com.digitalasset.daml.lf.archive.Dar
 import com.digitalasset.daml.lf.archive.{Error => ArchiveError}
@@ -13,7 +15,9 @@ import com.digitalasset.daml.lf.language.Ast
 import com.digitalasset.daml.lf.language.Util
 import com.digitalasset.canton.platform.apiserver.services.admin.PackageUpgradeValidator
 
-import scala.concurrent.ExecutionContext
+import scala.concurrent.{Await, ExecutionContext, Future}
+import scala.concurrent.duration.Duration
+import scala.util.Try
 import com.digitalasset.canton.logging.{LoggingContextWithTrace, NamedLoggerFactory}
 import com.digitalasset.canton.topology.TopologyManagerError
 import com.digitalasset.canton.config.CachingConfigs
@@ -24,7 +28,77 @@ final case class CouldNotReadDar(path: String, err: ArchiveError) {
   val message: String = s"Error reading DAR from ${path}: ${err.msg}"
 }
 
-case class UpgradeCheckMain(loggerFactory: NamedLoggerFactory) {
+/** On-disk record of the upgrade checks that passed.
+  *
+  * Package ids are content hashes, so once a package has been checked against its predecessor,
+  * the check does not need to be repeated by later runs of the same version of the tool. A
+  * package without predecessor in its lineage is recorded on its own, as it still goes through
+  * the checks of its dependencies.
+  *
+  * Entries are empty marker files `<dir>/<tool fingerprint>/<package id>-<predecessor id>`. The
+  * cache is best effort: any IO error is logged and treated as a cache miss.
+  */
+final class UpgradeCheckCache(val dir: Path, loggerFactory: NamedLoggerFactory) {
+  private def logger = loggerFactory.getLogger(classOf[UpgradeCheckCache])
+
+  // No entry can be trusted when the version of the validator is unknown.
+  private[this] def entry(pkgId: Ref.PackageId, predecessor: Option[Ref.PackageId]): Option[Path] =
+    UpgradeCheckCache.fingerprint.map(
+      dir.resolve(_).resolve(s"$pkgId-${predecessor.fold("none")(identity)}")
+    )
+
+  def isChecked(pkgId: Ref.PackageId, predecessor: Option[Ref.PackageId]): Boolean =
+    entry(pkgId, predecessor).exists(Files.exists(_))
+
+  def markChecked(pkgId: Ref.PackageId, predecessor: Option[Ref.PackageId]): Unit =
+    entry(pkgId, predecessor).foreach { path =>
+      try {
+        Files.createDirectories(path.getParent)
+        Files.createFile(path)
+        ()
+      } catch {
+        case _: FileAlreadyExistsException => ()
+        case e: IOException => logger.debug(s"Failed to write upgrade check cache entry $path", e)
+      }
+    }
+}
+
+object UpgradeCheckCache {
+
+  def defaultDir: Path =
+    Option(System.getenv("XDG_CACHE_HOME"))
+      .filter(_.nonEmpty)
+      .map(Paths.get(_))
+      .getOrElse(Paths.get(System.getProperty("user.home"), ".cache"))
+      .resolve("daml-upgrade-check")
+
+  // The upgrade rules depend on the version of the validator, so entries written by another
+  // version are not reused. The version is the implementation version of the validator, or else
+  // the contents of the jar it comes from. Without either, e.g. when the validator is not loaded
+  // from a jar, the cache is disabled.
+  private[validation] lazy val fingerprint: Option[String] = {
+    val validatorClass = classOf[PackageUpgradeValidator]
+    def implementationVersion =
+      Option(validatorClass.getPackage.getImplementationVersion)
+        .map(version => s"version:$version".getBytes(StandardCharsets.UTF_8))
+    def jarContents =
+      for {
+        codeSource <- Option(validatorClass.getProtectionDomain.getCodeSource)
+        jar <- Try(Paths.get(codeSource.getLocation.toURI)).toOption
+        if Files.isRegularFile(jar)
+        contents <- Try(Files.readAllBytes(jar)).toOption
+      } yield "jar:".getBytes(StandardCharsets.UTF_8) ++ contents
+    implementationVersion.orElse(jarContents).map { bytes =>
+      val digest = MessageDigest.getInstance("SHA-256").digest(bytes)
+      digest.take(16).map("%02x".format(_)).mkString
+    }
+  }
+}
+
+case class UpgradeCheckMain(
+    loggerFactory: NamedLoggerFactory,
+    cache: Option[UpgradeCheckCache] = None,
+) {
   def logger = loggerFactory.getLogger(classOf[UpgradeCheckMain])
 
   implicit val ec: ExecutionContext = ExecutionContext.global
@@ -42,10 +116,55 @@ case class UpgradeCheckMain(loggerFactory: NamedLoggerFactory) {
   val validator =
     new PackageUpgradeValidator(CachingConfigs.defaultPackageUpgradeCache, loggerFactory)
 
+  // The packages of a lineage, i.e. sharing a package name, in version order, each paired with
+  // its predecessor.
+  private def lineages(
+      packageMap: Map[Ref.PackageId, Ast.PackageSignature]
+  ): Seq[(Ref.PackageName, Seq[(Ref.PackageId, Option[Ref.PackageId])])] =
+    packageMap.toSeq
+      .groupBy { case (_, pkg) => pkg.metadata.name }
+      .toSeq
+      .sortBy(_._1)
+      .map { case (name, pkgs) =>
+        val ids =
+          pkgs.sortBy { case (pkgId, pkg) => (pkg.metadata.version, pkgId: String) }.map(_._1)
+        name -> ids.zip(None +: ids.map(Some(_)))
+      }
+
+  // Checks the packages of a lineage not already checked against their predecessor by a previous
+  // run. Other lineages are left to their own check, but stay in the vetted packages so that the
+  // dependencies of the checked packages can be resolved.
+  private def checkLineage(
+      name: Ref.PackageName,
+      lineage: Seq[(Ref.PackageId, Option[Ref.PackageId])],
+      packageMap: Map[Ref.PackageId, Ast.PackageSignature],
+  ): Either[TopologyManagerError, Unit] = {
+    val unchecked = lineage.filterNot { case (pkgId, predecessor) =>
+      cache.exists(_.isChecked(pkgId, predecessor))
+    }
+    if (unchecked.isEmpty) {
+      logger.debug(s"Upgrades of package $name already checked")
+      Right(())
+    } else {
+      logger.debug(s"Checking upgrades of package $name: ${unchecked.map(_._1).mkString(", ")}")
+      validator
+        .validateUpgrade(unchecked.map(_._1).toSet, packageMap.keySet, packageMap)
+        .map { _ =>
+          for {
+            cache <- cache
+            (pkgId, predecessor) <- unchecked
+          } cache.markChecked(pkgId, predecessor)
+        }
+    }
+  }
+
+  private def awaitAll[A, B](as: Seq[A])(f: A => B): Seq[B] =
+    Await.result(Future.traverse(as)(a => Future(f(a))), Duration.Inf)
+
   def check(paths: Array[String]): Int = {
     logger.debug(s"Called UpgradeCheckMain with paths: ${paths.toSeq.mkString("\n")}")
 
-    val (failures, dars) = paths.partitionMap(decodeDar(_))
+    val (failures, dars) = awaitAll(paths.toSeq)(decodeDar).partitionMap(identity)
     if (failures.nonEmpty) {
       failures.foreach((e: CouldNotReadDar) => logger.error(e.message))
       1
@@ -58,17 +177,15 @@ case class UpgradeCheckMain(loggerFactory: NamedLoggerFactory) {
         }
         .toMap
 
-      val validation = validator.validateUpgrade(packageMap.keySet, packageMap.keySet, packageMap)
-      validation match {
-        case Left(err: TopologyManagerError.ParticipantTopologyManagerError.Upgradeability.Error) =>
-          logger.error(s"Error while checking two DARs:\n${err.cause}")
-          1
-        case Left(err) =>
-          logger.error(s"Error while checking two DARs:\n${err.cause}")
-          1
-        case Right(()) => 0
-        case _ => 1
+      // Lineages are independent of each other, so they are checked concurrently. Errors are
+      // reported in the order of the package names, so that the output does not depend on the
+      // scheduling.
+      val validations = awaitAll(lineages(packageMap)) { case (name, lineage) =>
+        checkLineage(name, lineage, packageMap)
       }
+      val errors = validations.collect { case Left(err) => err }
+      errors.foreach(err => logger.error(s"Error while checking two DARs:\n${err.cause}"))
+      if (errors.isEmpty) 0 else 1
     }
   }
 
@@ -76,7 +193,12 @@ case class UpgradeCheckMain(loggerFactory: NamedLoggerFactory) {
 
   // DPM component logic
 
-  case class UpgradeCheckMode(onParticipant: Boolean, onCompiler: Boolean, dars: Seq[String])
+  case class UpgradeCheckMode(
+      onParticipant: Boolean,
+      onCompiler: Boolean,
+      dars: Seq[String],
+      noCache: Boolean = false,
+  )
 
   def dpmMain(args: Array[String]) = {
     @SuppressWarnings(Array("org.wartremover.warts.NonUnitStatements"))
@@ -90,6 +212,9 @@ case class UpgradeCheckMain(loggerFactory: NamedLoggerFactory) {
       opt[Unit]("both")
         .action((_, cm) => cm.copy(onParticipant = true, onCompiler = true))
         .text("Run both compiler and participant upgrade checks")
+      opt[Unit]("no-cache")
+        .action((_, cm) => cm.copy(noCache = true))
+        .text("Check all packages, including the ones already checked by a previous run")
       arg[Seq[String]]("DAR_FILE(S)")
         .text(
           ".dar files to check"
@@ -106,7 +231,10 @@ case class UpgradeCheckMain(loggerFactory: NamedLoggerFactory) {
     }
 
     // Run participant checks
-    val participantExit = if (cm.onParticipant) check(cm.dars.toArray) else 0
+    val participantExit =
+      if (!cm.onParticipant) 0
+      else if (cm.noCache) copy(cache = None).check(cm.dars.toArray)
+      else check(cm.dars.toArray)
 
     // Compiler checks require finding the damlc binary, so we must parse the DPM Resolution file
     val compilerExit = if (cm.onCompiler) {
@@ -172,7 +300,11 @@ case class UpgradeCheckMain(loggerFactory: NamedLoggerFactory) {
 
 object UpgradeCheckMain {
   lazy val default: UpgradeCheckMain = {
-    UpgradeCheckMain(NamedLoggerFactory.root)
+    val loggerFactory = NamedLoggerFactory.root
+    UpgradeCheckMain(
+      loggerFactory,
+      Some(new UpgradeCheckCache(UpgradeCheckCache.defaultDir, loggerFactory)),
+    )
   }
 }
 
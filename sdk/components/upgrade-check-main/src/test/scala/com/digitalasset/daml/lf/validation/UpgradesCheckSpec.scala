@@ -10,7 +10,7 @@ import org.scalatest.{Assertion, Inside}
 import org.scalatest.matchers.should.Matchers
 import org.scalatest.wordspec.AsyncWordSpec
 
-import java.nio.file.{Path, Paths}
+import java.nio.file.{Files, Path, Paths}
 import java.io.File
 import org.scalatest.Inspectors.forEvery
 
@@ -1363,5 +1363,48 @@ final class UpgradesCheckSpec extends AsyncWordSpec with Matchers with Inside {
         ),
       )
     }
+
+    "reuse the checks recorded by a previous run, but not the failed ones" in {
+      val cacheDir = Files.createTempDirectory("upgrade-check-cache")
+      def run(rawPaths: String*): (Int, Int) = {
+        val loggerFactory = StringLoggerFactory("")
+        val upgradeCheck = UpgradeCheckMain(
+          loggerFactory,
+          Some(new UpgradeCheckCache(cacheDir, loggerFactory)),
+        )
+        val paths = rawPaths.map(x => BazelRunfiles.rlocation(Paths.get(x)).toString)
+        val exit = upgradeCheck.check(paths.toArray)
+        exit -> loggerFactory.msgs.count(_.startsWith("Checking upgrades of package"))
+      }
+      val valid = Seq(
+        "test-common/upgrades-ValidUpgrade-v1.dar",
+        "test-common/upgrades-ValidUpgrade-v2.dar",
+      )
+      val invalid = Seq(
+        "test-common/upgrades-MissingChoice-v1.dar",
+        "test-common/upgrades-MissingChoice-v2.dar",
+      )
+
+      val cache = new UpgradeCheckCache(cacheDir, StringLoggerFactory(""))
+      def checked(rawPaths: Seq[String]) = {
+        val pkgIds = rawPaths.map(x => loadPackageId(BazelRunfiles.rlocation(Paths.get(x))))
+        pkgIds.zip(None +: pkgIds.map(Some(_))).map { case (pkgId, predecessor) =>
+          cache.isChecked(pkgId, predecessor)
+        }
+      }
+
+      UpgradeCheckCache.fingerprint should not be empty
+      val (firstExit, firstChecks) = run(valid: _*)
+      firstExit shouldBe 0
+      firstChecks should be > 0
+      checked(valid) shouldBe Seq(true, true)
+      run(valid: _*) shouldBe (0 -> 0)
+
+      val (failedExit, failedChecks) = run(invalid: _*)
+      failedExit shouldBe 1
+      failedChecks should be > 0
+      checked(invalid) shouldBe Seq(false, false)
+      run(invalid: _*) shouldBe (1 -> failedChecks)
+    }
   }
 }
@@ -0,0 +1,81 @@
+// Copyright (c) 2026 Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.digitalasset.daml.lf.engine.script
+
+import com.daml.bazeltools.BazelRunfiles
+import com.daml.grpc.adapter.{ExecutionSequencerFactory, PekkoExecutionSequencerPool}
+import com.digitalasset.daml.lf.PureCompiledPackages
+import com.digitalasset.daml.lf.archive.DarDecoder
+import com.digitalasset.daml.lf.data.Ref.{Identifier, QualifiedName}
+import com.digitalasset.daml.lf.engine.ScriptEngine.defaultCompilerConfig
+import java.nio.file.Paths
+import java.util.concurrent.TimeUnit
+import org.apache.pekko.actor.ActorSystem
+import org.apache.pekko.stream.Materializer
+import org.openjdk.jmh.annotations._
+import scala.concurrent.duration.Duration
+import scala.concurrent.{Await, ExecutionContext}
+
+// Measures the overhead of the runner per script step: the script queries the IDE ledger 10000
+// times in a row, and each query completes synchronously, so the time of a run is mostly spent
+// going from one step of the script to the next. The queries by contract id and for a disclosure
+// only differ in whether the created event blob of the contract is encoded.
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.AverageTime)) @OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 3)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+class QueryLoopBench {
+
+  private[this] var system: ActorSystem = _
+  private[this] implicit var ec: ExecutionContext = _
+  private[this] implicit var esf: ExecutionSequencerFactory = _
+  private[this] implicit var mat: Materializer = _
+
+  private[this] var compiledPackages: PureCompiledPackages = _
+  private[this] var scriptId: String => Identifier = _
+
+  @Setup(Level.Trial)
+  def setup(): Unit = {
+    system = ActorSystem("QueryLoopBench")
+    ec = system.dispatcher
+    esf = new PekkoExecutionSequencerPool("QueryLoopBenchPool")(system)
+    mat = Materializer(system)
+    val dar = DarDecoder.assertReadArchiveFromFile(
+      BazelRunfiles.rlocation(Paths.get("daml-script/runner/query-loop-script.dar")).toFile
+    )
+    compiledPackages = PureCompiledPackages.assertBuild(dar.all.toMap, defaultCompilerConfig)
+    scriptId = name => Identifier(dar.main._1, QualifiedName.assertFromString(s"QueryLoop:$name"))
+  }
+
+  @TearDown(Level.Trial)
+  def tearDown(): Unit = {
+    val _ = Await.result(system.terminate(), Duration.Inf)
+  }
+
+  @Benchmark
+  def queryLoop(): Unit = run("queryLoop")
+
+  @Benchmark
+  def queryContractIdLoop(): Unit = run("queryContractIdLoop")
+
+  @Benchmark
+  def queryDisclosureLoop(): Unit = run("queryDisclosureLoop")
+
+  private[this] def run(name: String): Unit = {
+    // Every run gets an IDE ledger of its own.
+    val run = for {
+      clients <- Runner.ideLedgerClient(compiledPackages, ScriptMachineLogger())
+      result <- Runner.run[Unit](
+        compiledPackages,
+        scriptId(name),
+        None,
+        None,
+        clients,
+        ScriptTimeMode.Static,
+      )
+    } yield result
+    val _ = Await.result(run, Duration.Inf)
+  }
+}
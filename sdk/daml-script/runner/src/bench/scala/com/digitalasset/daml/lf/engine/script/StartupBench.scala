@@ -0,0 +1,65 @@
+// Copyright (c) 2026 Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.digitalasset.daml.lf.engine.script
+
+import com.daml.bazeltools.BazelRunfiles
+import com.digitalasset.daml.lf.PureCompiledPackages
+import com.digitalasset.daml.lf.archive.{Dar, DarDecoder}
+import com.digitalasset.daml.lf.data.Ref.{Identifier, PackageId, QualifiedName}
+import com.digitalasset.daml.lf.engine.ScriptEngine.defaultCompilerConfig
+import com.digitalasset.daml.lf.language.Ast.Package
+import com.digitalasset.daml.lf.language.{PackageInterface, Util => AstUtil}
+import com.digitalasset.daml.lf.speedy.Compiler
+import com.digitalasset.daml.lf.speedy.SExpr.LfDefRef
+import java.nio.file.Paths
+import java.util.concurrent.TimeUnit
+import org.openjdk.jmh.annotations._
+
+// Measures the work done by the runner before the first script starts. The test dar depends on
+// daml-script, hence on the whole stdlib: about 50 packages, of which a script only uses a few
+// modules.
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.SingleShotTime)) @OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 5)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+class StartupBench {
+
+  private[this] var dar: Dar[(PackageId, Package)] = _
+  private[this] var scriptId: Identifier = _
+
+  // Validation is covered by the package cache, so it is left out to compare compilation only.
+  private[this] val config =
+    defaultCompilerConfig.copy(packageValidation = Compiler.NoPackageValidation)
+
+  @Setup(Level.Trial)
+  def setup(): Unit = {
+    dar = DarDecoder.assertReadArchiveFromFile(
+      BazelRunfiles.rlocation(Paths.get("daml-script/runner/test-script1.dar")).toFile
+    )
+    scriptId = Identifier(dar.main._1, QualifiedName.assertFromString("TestScript:myScript"))
+  }
+
+  @Benchmark
+  def listEager(): Int = {
+    val compiledPackages = PureCompiledPackages.assertBuild(dar.all.toMap, config)
+    RunnerMain.getScriptTests(dar, compiledPackages.pkgInterface).size
+  }
+
+  @Benchmark
+  def listSignatures(): Int =
+    RunnerMain.getScriptTests(dar, new PackageInterface(AstUtil.toSignatures(dar.all.toMap))).size
+
+  @Benchmark
+  def firstScriptEager(): Boolean =
+    lookupScript(PureCompiledPackages.assertBuild(dar.all.toMap, config))
+
+  @Benchmark
+  def firstScriptLazy(): Boolean =
+    lookupScript(LazyCompiledPackages.assertBuild(dar.all.toMap, config, None))
+
+  private[this] def lookupScript(compiledPackages: PureCompiledPackages): Boolean =
+    ScriptAction.fromIdentifier(compiledPackages, scriptId).isRight &&
+      compiledPackages.definitions.get(LfDefRef(scriptId)).isDefined
+}
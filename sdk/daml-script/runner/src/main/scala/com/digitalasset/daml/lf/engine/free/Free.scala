@@ -18,7 +18,10 @@ import scalaz.std.either._
 import scalaz.std.vector._
 import scalaz.syntax.traverse._
 
+import scala.annotation.tailrec
 import scala.concurrent.{ExecutionContext, Future}
+import scala.util.{Failure, Success, Try}
+import scala.util.control.NonFatal
 
 case class ConversionError(message: String) extends RuntimeException(message)
 final case class InterpretationError(error: SError.SError)
@@ -54,18 +57,45 @@ private[lf] object Free {
       loop(this)
     }
 
+    /** Runs the computation, answering its questions with `answer`.
+      *
+      * An answer that is already available when `answer` returns, e.g. a query of the IDE ledger,
+      * is consumed right away on the current thread, rather than through the execution context.
+      * At most `maxInlineSteps` answers are consumed in a row this way, after which the next one
+      * goes through the execution context, so that a script made of many small steps does not
+      * hold a thread of the execution context for its whole run.
+      */
     def runF[R >: Q, B <: A](
-        answer: R => Future[Result[B, R, B]]
+        answer: R => Future[Result[B, R, B]],
+        maxInlineSteps: Int = Result.MaxInlineSteps,
     )(implicit ec: ExecutionContext): Future[X] = {
-      def loop(cont: Result[X, R, B]): Future[X] =
+      // Consumes the answers already available on the current thread, and hands the first one
+      // that is not, or the one past maxInlineSteps, over to `resumeLater`.
+      @tailrec
+      def loop(cont: Result[X, R, B], inlineSteps: Int): Future[X] =
         cont match {
           case Result.Final(x) =>
             Future.fromTry(x.toTry)
           case Result.Ask(q, resume) =>
-            answer(q).flatMap(x => loop(x.transform(resume)))
+            val answered = answer(q)
+            answered.value match {
+              case Some(Success(x)) if inlineSteps < maxInlineSteps =>
+                Try(x.transform(resume)) match {
+                  case Success(next) => loop(next, inlineSteps + 1)
+                  case Failure(err) => Future.failed(err)
+                }
+              case _ =>
+                resumeLater(answered)(_.transform(resume))
+            }
         }
 
-      loop(this)
+      // Resumes the computation through the execution context, once the answer is available.
+      def resumeLater(answered: Future[Result[B, R, B]])(
+          resume: Result[B, R, B] => Result[X, R, B]
+      ): Future[X] =
+        answered.flatMap(x => loop(resume(x), 0))
+
+      loop(this, 0)
     }
   }
 
@@ -99,6 +129,36 @@ private[lf] object Free {
     }
 
     val Unit: Final[Unit] = successful(())
+
+    /** The default bound of [[Result.runF]] on the answers consumed in a row on the current thread.
+      */
+    val MaxInlineSteps: Int = 1000
+  }
+
+  /** Variants of the combinators of [[Future]] that apply their function right away when the
+    * future is already completed, instead of scheduling it on the execution context, so that the
+    * future they return is already completed too. Meant for commands that complete synchronously
+    * on some ledgers, e.g. queries of the IDE ledger, whose answers [[Result.runF]] then consumes
+    * without a round trip through the execution context.
+    */
+  implicit final class FutureNowOps[T](val future: Future[T]) extends AnyVal {
+    def transformNow[S](f: Try[T] => Try[S])(implicit ec: ExecutionContext): Future[S] =
+      future.value match {
+        case Some(result) => Future.fromTry(Try(f(result)).flatten)
+        case None => future.transform(f)
+      }
+
+    def mapNow[S](f: T => S)(implicit ec: ExecutionContext): Future[S] =
+      transformNow(_.map(f))
+
+    def flatMapNow[S](f: T => Future[S])(implicit ec: ExecutionContext): Future[S] =
+      future.value match {
+        case Some(Success(t)) =>
+          try f(t)
+          catch { case NonFatal(err) => Future.failed(err) }
+        case Some(Failure(err)) => Future.failed(err)
+        case None => future.flatMap(f)
+      }
   }
 
   import Result.Implicits._
@@ -0,0 +1,97 @@
+// Copyright (c) 2026 Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.digitalasset.daml.lf
+package engine
+package script
+
+import com.digitalasset.daml.lf.data.Ref.{ModuleName, PackageId}
+import com.digitalasset.daml.lf.language.{Ast, PackageInterface, Util => AstUtil}
+import com.digitalasset.daml.lf.speedy.{Compiler, SDefinition}
+import com.digitalasset.daml.lf.speedy.SExpr.SDefinitionRef
+
+import java.util.concurrent.ConcurrentHashMap
+import scala.collection.immutable
+
+/** Builds [[PureCompiledPackages]] whose speedy definitions are compiled on demand.
+  *
+  * Packages are validated upfront (going through the [[PackageCache]] if one is given), but a
+  * module is only compiled the first time the machine looks up one of its definitions. Scripts
+  * typically reference a small fraction of the stdlib and daml-script packages, so most of a DAR
+  * is never compiled.
+  */
+object LazyCompiledPackages {
+
+  def build(
+      packages: Map[PackageId, Ast.Package],
+      compilerConfig: Compiler.Config,
+      packageCache: Option[PackageCache],
+  ): Either[String, PureCompiledPackages] = {
+    val signatures = AstUtil.toSignatures(packages)
+    val pkgInterface = new PackageInterface(signatures)
+    PackageCache
+      .validatePackages(packageCache, pkgInterface, packages, compilerConfig)
+      .map(_ =>
+        new PureCompiledPackages(
+          signatures = signatures,
+          definitions = new Definitions(pkgInterface, packages, compilerConfig),
+          compilerConfig = compilerConfig,
+        )
+      )
+  }
+
+  def assertBuild(
+      packages: Map[PackageId, Ast.Package],
+      compilerConfig: Compiler.Config,
+      packageCache: Option[PackageCache],
+  ): PureCompiledPackages =
+    data.assertRight(build(packages, compilerConfig, packageCache))
+
+  // Definitions are compiled a module at a time, as the compiler needs the whole module to
+  // compile any of its definitions. Bulk operations (iteration, updates) force the
+  // compilation of every module.
+  private final class Definitions(
+      pkgInterface: PackageInterface,
+      packages: Map[PackageId, Ast.Package],
+      compilerConfig: Compiler.Config,
+  ) extends immutable.AbstractMap[SDefinitionRef, SDefinition] {
+
+    private[this] val compiledModules =
+      new ConcurrentHashMap[(PackageId, ModuleName), Map[SDefinitionRef, SDefinition]]()
+
+    private[this] def compileModule(
+        key: (PackageId, ModuleName)
+    ): Map[SDefinitionRef, SDefinition] = {
+      val (pkgId, modName) = key
+      packages.get(pkgId).flatMap(_.modules.get(modName)) match {
+        case Some(module) =>
+          new Compiler(pkgInterface, compilerConfig).unsafeCompileModule(pkgId, module).toMap
+        case None =>
+          Map.empty
+      }
+    }
+
+    private[this] def compiledModule(
+        pkgId: PackageId,
+        modName: ModuleName,
+    ): Map[SDefinitionRef, SDefinition] =
+      compiledModules.computeIfAbsent((pkgId, modName), compileModule(_))
+
+    private[this] lazy val forced: Map[SDefinitionRef, SDefinition] =
+      packages.iterator.flatMap { case (pkgId, pkg) =>
+        pkg.modules.keysIterator.flatMap(compiledModule(pkgId, _))
+      }.toMap
+
+    override def get(ref: SDefinitionRef): Option[SDefinition] =
+      compiledModule(ref.packageId, ref.ref.qualifiedName.module).get(ref)
+
+    override def iterator: Iterator[(SDefinitionRef, SDefinition)] =
+      forced.iterator
+
+    override def removed(ref: SDefinitionRef): Map[SDefinitionRef, SDefinition] =
+      forced.removed(ref)
+
+    override def updated[V >: SDefinition](ref: SDefinitionRef, value: V): Map[SDefinitionRef, V] =
+      forced.updated(ref, value)
+  }
+}
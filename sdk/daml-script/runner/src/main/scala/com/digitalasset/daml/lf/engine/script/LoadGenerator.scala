@@ -0,0 +1,233 @@
+// Copyright (c) 2026 Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.digitalasset.daml.lf.engine.script
+
+import org.apache.pekko.stream.Materializer
+import com.daml.grpc.adapter.ExecutionSequencerFactory
+import com.daml.timer.Delayed
+import com.digitalasset.canton.logging.NamedLoggerFactory
+import com.digitalasset.daml.lf.PureCompiledPackages
+import com.digitalasset.daml.lf.data.Ref.{Identifier, Party}
+import com.digitalasset.daml.lf.engine.script.ledgerinteraction.{
+  IdeLedgerClient,
+  ScriptLedgerClient,
+}
+import com.digitalasset.daml.lf.engine.script.v2.ledgerinteraction.{
+  ScriptLedgerClient => ScriptLedgerClientV2
+}
+import com.digitalasset.daml.lf.language.Ast.Type
+import com.digitalasset.daml.lf.transaction.{NextGenContractStateMachine => ContractStateMachine}
+import com.digitalasset.daml.lf.value.Value
+import spray.json._
+
+import java.util.UUID
+import java.util.concurrent.atomic.AtomicLong
+import scala.concurrent.duration.{DurationLong, FiniteDuration}
+import scala.concurrent.{ExecutionContext, Future}
+import scala.util.Success
+
+/** Runs a script many times concurrently, to measure the throughput of a ledger.
+  *
+  * Each of the workers runs the script over and over until the load test is over. In closed loop,
+  * a worker starts its next run as soon as the previous one completes. With a target rate, the runs
+  * are scheduled at regular intervals and each worker takes the next one due, so that the rate is
+  * kept up as long as the workers suffice.
+  *
+  * A script taking an argument is given a party: each worker allocates its own when it starts, or
+  * takes one from a pool allocated up front. On the IDE ledger, every run gets a ledger of its own,
+  * so the script has to allocate its parties itself.
+  *
+  * Every run gets a machine logger of its own, as a [[ScriptMachineLogger]] is not thread safe and
+  * keeps the warnings of the script until it is dropped.
+  */
+object LoadGenerator {
+
+  final case class Config(
+      workers: Int,
+      // The load test stops once either limit is reached.
+      runs: Option[Long],
+      duration: Option[FiniteDuration],
+      // Runs per second, closed loop if empty.
+      rate: Option[Double],
+      // The number of parties shared by the workers, one party per worker if empty.
+      partyPool: Option[Int],
+  )
+
+  final case class Report(
+      runs: Long,
+      failedRuns: Long,
+      elapsedNanos: Long,
+      // The latency of the runs, in the shape of the one of a command.
+      runStats: ScriptMetrics.CommandStats,
+      commands: ScriptMetrics.Snapshot,
+  ) {
+    private def perSecond(n: Long): Double =
+      if (elapsedNanos <= 0) 0.0 else n.toDouble * 1e9 / elapsedNanos.toDouble
+
+    def runsPerSecond: Double = perSecond(runs - failedRuns)
+
+    /** The successful `Submit` commands per second. */
+    def transactionsPerSecond: Double =
+      perSecond(commands.commands.get("Submit").fold(0L)(s => s.count - s.failures))
+
+    def render: String = {
+      def latency(stats: ScriptMetrics.CommandStats) =
+        f"mean ${stats.meanNanos / 1000}%dµs, p50 ${stats.quantileMicros(0.5)}%dµs, " +
+          f"p90 ${stats.quantileMicros(0.9)}%dµs, p99 ${stats.quantileMicros(0.99)}%dµs, " +
+          f"max ${stats.maxNanos / 1000}%dµs"
+      val header = Seq(
+        f"$runs%d runs, $failedRuns%d failed, in ${elapsedNanos / 1000000}%dms",
+        f"$runsPerSecond%.1f runs/s, $transactionsPerSecond%.1f transactions/s",
+        s"runs: ${latency(runStats)}",
+        s"ledger wait ${commands.ledgerWaitNanos / 1000000}ms, " +
+          s"interpretation ${commands.interpretationNanos / 1000000}ms",
+      )
+      val perCommand = commands.commands.toSeq.sortBy(_._1).map { case (name, stats) =>
+        s"$name: ${stats.count} (${stats.failures} failed), ${latency(stats)}"
+      }
+      (header ++ perCommand).mkString("\n")
+    }
+
+    def toJson: JsValue =
+      JsObject(
+        "runs" -> JsNumber(runs),
+        "failedRuns" -> JsNumber(failedRuns),
+        "elapsedMillis" -> JsNumber(elapsedNanos / 1000000),
+        "runsPerSecond" -> JsNumber(runsPerSecond),
+        "transactionsPerSecond" -> JsNumber(transactionsPerSecond),
+        "runP50Micros" -> JsNumber(runStats.quantileMicros(0.5)),
+        "runP90Micros" -> JsNumber(runStats.quantileMicros(0.9)),
+        "runP99Micros" -> JsNumber(runStats.quantileMicros(0.99)),
+        "metrics" -> commands.toJson,
+      )
+  }
+
+  private val RunName = "run"
+
+  private val loggerFactory: NamedLoggerFactory =
+    NamedLoggerFactory("daml-script", "Daml Script")
+
+  def run(
+      config: Config,
+      compiledPackages: PureCompiledPackages,
+      scriptId: Identifier,
+      convertInputValue: (JsValue, Type) => Either[String, Value],
+      clients: Participants[ScriptLedgerClient],
+      timeMode: ScriptTimeMode,
+  )(implicit
+      ec: ExecutionContext,
+      esf: ExecutionSequencerFactory,
+      mat: Materializer,
+  ): Future[Report] = {
+    val takesParty = ScriptAction.fromIdentifier(compiledPackages, scriptId) match {
+      case Left(err) => throw new IllegalArgumentException(err)
+      case Right(_: ScriptAction.Param) => true
+      case Right(_: ScriptAction.NoParam) => false
+    }
+    val metrics = new ScriptMetrics
+    val runMetrics = new ScriptMetrics
+
+    def runOnce(party: Option[Party]): Future[Unit] = {
+      val machineLogger = ScriptMachineLogger()
+      val runClients = clients.map {
+        case client: IdeLedgerClient => client.copy(machineLogger = machineLogger)
+        case client => client
+      }
+      val startedAt = System.nanoTime()
+      Runner
+        .run(
+          compiledPackages,
+          scriptId,
+          Some(convertInputValue),
+          party.map(p => JsString(p): JsValue),
+          runClients,
+          timeMode,
+          machineLogger,
+          metrics = metrics,
+        )
+        .transform { result =>
+          runMetrics.recordCommand(
+            RunName,
+            System.nanoTime() - startedAt,
+            failed = result.isFailure,
+            // A run also spends time interpreting the script, and the time its commands wait on
+            // the ledger is already recorded in `metrics`, classified command by command.
+            waitsOnLedger = false,
+            bytes = 0,
+          )
+          Success(())
+        }
+    }
+
+    def runWorkers(parties: Vector[Party]): Future[Long] = {
+      val startedAt = System.nanoTime()
+      val deadline = config.duration.map(startedAt + _.toNanos)
+      val nextRun = new AtomicLong(0)
+      // Takes the next run, and waits for its time with a target rate.
+      def next(): Option[Future[Unit]] = {
+        val run = nextRun.getAndIncrement()
+        val now = System.nanoTime()
+        if (config.runs.exists(run >= _) || deadline.exists(now >= _)) None
+        else
+          Some(config.rate.fold(Future.unit) { rate =>
+            val dueAt = startedAt + (run.toDouble * 1e9 / rate).toLong
+            if (dueAt <= now) Future.unit else Delayed.by((dueAt - now).nanos)(())
+          })
+      }
+      Future
+        .traverse((0 until config.workers).toVector) { worker =>
+          val party = if (parties.isEmpty) None else Some(parties(worker % parties.size))
+          def loop(): Future[Unit] =
+            next().fold(Future.unit)(_.flatMap(_ => runOnce(party)).flatMap(_ => loop()))
+          loop()
+        }
+        .map(_ => System.nanoTime() - startedAt)
+    }
+
+    for {
+      parties <-
+        if (takesParty)
+          allocateParties(config.partyPool.getOrElse(config.workers), compiledPackages, clients)
+        else Future.successful(Vector.empty)
+      elapsedNanos <- runWorkers(parties)
+    } yield {
+      val runStats =
+        runMetrics.snapshot.commands.getOrElse(RunName, ScriptMetrics.CommandStats.empty)
+      Report(
+        runs = runStats.count,
+        failedRuns = runStats.failures,
+        elapsedNanos = elapsedNanos,
+        runStats = runStats,
+        commands = metrics.snapshot,
+      )
+    }
+  }
+
+  private def allocateParties(
+      n: Int,
+      compiledPackages: PureCompiledPackages,
+      clients: Participants[ScriptLedgerClient],
+  )(implicit ec: ExecutionContext, mat: Materializer): Future[Vector[Party]] =
+    clients.default_participant match {
+      case None =>
+        Future.failed(new IllegalArgumentException("No default participant to allocate parties on"))
+      case Some(_: IdeLedgerClient) =>
+        Future.failed(
+          new IllegalArgumentException(
+            "On the IDE ledger, every run has its own ledger, so a load test script must " +
+              "allocate its parties itself and take no argument"
+          )
+        )
+      case Some(client) =>
+        val allocator = ScriptLedgerClientV2.realiseScriptLedgerClient(
+          client,
+          compiledPackages,
+          loggerFactory,
+          ContractStateMachine.Mode.Key,
+        )
+        Future.traverse((0 until n).toVector)(i =>
+          allocator.allocateParty(s"load-$i-${UUID.randomUUID()}")
+        )
+    }
+}
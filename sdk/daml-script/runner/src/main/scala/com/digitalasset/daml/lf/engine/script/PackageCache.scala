@@ -0,0 +1,202 @@
+// Copyright (c) 2026 Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.digitalasset.daml.lf
+package engine
+package script
+
+import com.digitalasset.daml.lf.data.Ref.PackageId
+import com.digitalasset.daml.lf.language.{Ast, PackageInterface, Util => AstUtil}
+import com.digitalasset.daml.lf.speedy.{Compiler, SDefinition}
+import com.digitalasset.daml.lf.speedy.SExpr.SDefinitionRef
+import com.digitalasset.daml.lf.validation.Validation
+import com.typesafe.scalalogging.StrictLogging
+
+import java.io.IOException
+import java.nio.charset.StandardCharsets
+import java.nio.file.{Files, Path, Paths, StandardCopyOption}
+import java.security.MessageDigest
+import scala.util.Try
+
+/** On-disk cache of the packages that passed validation.
+  *
+  * Package ids are content hashes, so once a package has been validated under a given compiler
+  * configuration, it does not need to be validated again by later runs. Cached packages are
+  * compiled with package validation disabled, so repeated runs over the same dependencies
+  * (typically the stdlib and daml-script packages) only pay for their compilation.
+  *
+  * Entries are files `<dir>/<config fingerprint>/<package id>` holding the package id. They are
+  * written to a temporary file and moved in place, and an entry whose content does not match its
+  * name, e.g. one left truncated by a crash, is treated as a miss and rewritten. The cache is best
+  * effort: any IO error is logged and treated as a cache miss.
+  */
+final class PackageCache(val dir: Path) extends StrictLogging {
+
+  private[script] def entry(pkgId: PackageId, compilerConfig: Compiler.Config): Path =
+    dir.resolve(PackageCache.fingerprint(compilerConfig)).resolve(pkgId)
+
+  def isValidated(pkgId: PackageId, compilerConfig: Compiler.Config): Boolean = {
+    val path = entry(pkgId, compilerConfig)
+    try {
+      Files.isRegularFile(path) &&
+      new String(Files.readAllBytes(path), StandardCharsets.UTF_8) == pkgId
+    } catch {
+      case e: IOException =>
+        logger.debug(s"Failed to read package cache entry $path", e)
+        false
+    }
+  }
+
+  private[this] def markValidated(pkgId: PackageId, compilerConfig: Compiler.Config): Unit = {
+    val path = entry(pkgId, compilerConfig)
+    try {
+      Files.createDirectories(path.getParent)
+      val tmp = Files.createTempFile(path.getParent, pkgId, ".tmp")
+      try {
+        val _ = Files.write(tmp, pkgId.getBytes(StandardCharsets.UTF_8))
+        // Replaces a corrupted entry, if any.
+        val _ = Files.move(
+          tmp,
+          path,
+          StandardCopyOption.ATOMIC_MOVE,
+          StandardCopyOption.REPLACE_EXISTING,
+        )
+      } finally {
+        val _ = Files.deleteIfExists(tmp)
+      }
+    } catch {
+      case e: IOException => logger.debug(s"Failed to write package cache entry $path", e)
+    }
+  }
+
+  /** Same as [[Compiler.compilePackages]], but skips the validation of packages already
+    * validated by a previous run, and records the newly validated ones.
+    */
+  def compilePackages(
+      pkgInterface: PackageInterface,
+      packages: Map[PackageId, Ast.Package],
+      compilerConfig: Compiler.Config,
+  ): Either[String, Map[SDefinitionRef, SDefinition]] =
+    compilerConfig.packageValidation match {
+      case Compiler.FullPackageValidation =>
+        val (validated, unvalidated) =
+          packages.partition { case (pkgId, _) => isValidated(pkgId, compilerConfig) }
+        for {
+          newDefns <- Compiler.compilePackages(pkgInterface, unvalidated, compilerConfig)
+          _ = unvalidated.keys.foreach(markValidated(_, compilerConfig))
+          cachedDefns <- Compiler.compilePackages(
+            pkgInterface,
+            validated,
+            compilerConfig.copy(packageValidation = Compiler.NoPackageValidation),
+          )
+        } yield newDefns ++ cachedDefns
+      case _ =>
+        Compiler.compilePackages(pkgInterface, packages, compilerConfig)
+    }
+
+  /** Validates the packages not validated by a previous run, and records them. */
+  def validatePackages(
+      pkgInterface: PackageInterface,
+      packages: Map[PackageId, Ast.Package],
+      compilerConfig: Compiler.Config,
+  ): Either[String, Unit] =
+    packages.foldLeft[Either[String, Unit]](Right(())) { case (acc, (pkgId, pkg)) =>
+      acc.flatMap { _ =>
+        if (isValidated(pkgId, compilerConfig))
+          Right(())
+        else
+          PackageCache
+            .validatePackage(pkgInterface, pkgId, pkg, compilerConfig)
+            .map(_ => markValidated(pkgId, compilerConfig))
+      }
+    }
+
+  def build(
+      packages: Map[PackageId, Ast.Package],
+      compilerConfig: Compiler.Config,
+  ): Either[String, PureCompiledPackages] = {
+    val signatures = AstUtil.toSignatures(packages)
+    compilePackages(new PackageInterface(signatures), packages, compilerConfig)
+      .map(PureCompiledPackages(signatures, _, compilerConfig))
+  }
+}
+
+object PackageCache {
+
+  def defaultDir: Path =
+    Option(System.getenv("XDG_CACHE_HOME"))
+      .filter(_.nonEmpty)
+      .map(Paths.get(_))
+      .getOrElse(Paths.get(System.getProperty("user.home"), ".cache"))
+      .resolve("daml-script")
+      .resolve("packages")
+
+  /** Builds the compiled packages, going through the cache if one is given. */
+  def build(
+      cache: Option[PackageCache],
+      packages: Map[PackageId, Ast.Package],
+      compilerConfig: Compiler.Config,
+  ): Either[String, PureCompiledPackages] =
+    cache match {
+      case Some(cache) => cache.build(packages, compilerConfig)
+      case None => PureCompiledPackages.build(packages, compilerConfig)
+    }
+
+  def assertBuild(
+      cache: Option[PackageCache],
+      packages: Map[PackageId, Ast.Package],
+      compilerConfig: Compiler.Config,
+  ): PureCompiledPackages =
+    data.assertRight(build(cache, packages, compilerConfig))
+
+  /** Performs the validation done by [[Compiler.compilePackages]], without compiling. */
+  def validatePackages(
+      cache: Option[PackageCache],
+      pkgInterface: PackageInterface,
+      packages: Map[PackageId, Ast.Package],
+      compilerConfig: Compiler.Config,
+  ): Either[String, Unit] =
+    (compilerConfig.packageValidation, cache) match {
+      case (Compiler.FullPackageValidation, Some(cache)) =>
+        cache.validatePackages(pkgInterface, packages, compilerConfig)
+      case (Compiler.FullPackageValidation, None) =>
+        packages.foldLeft[Either[String, Unit]](Right(())) { case (acc, (pkgId, pkg)) =>
+          acc.flatMap(_ => validatePackage(pkgInterface, pkgId, pkg, compilerConfig))
+        }
+      case _ =>
+        Right(())
+    }
+
+  private def validatePackage(
+      pkgInterface: PackageInterface,
+      pkgId: PackageId,
+      pkg: Ast.Package,
+      compilerConfig: Compiler.Config,
+  ): Either[String, Unit] =
+    for {
+      _ <- Either.cond(
+        compilerConfig.allowedLanguageVersions.contains(pkg.languageVersion),
+        (),
+        s"Disallowed language version ${pkg.languageVersion} in package $pkgId",
+      )
+      _ <- Validation.checkPackage(pkgInterface, pkgId, pkg).left.map(_.pretty)
+    } yield ()
+
+  // The validation rules depend on the version of the engine, so the fingerprint includes it
+  // alongside the compiler configuration. Development builds have no version, in which case the
+  // jar of the engine stands for it.
+  private[script] def fingerprint(compilerConfig: Compiler.Config): String = {
+    val engineVersion =
+      Option(classOf[Compiler].getPackage.getImplementationVersion).getOrElse(engineJar)
+    val digest = MessageDigest
+      .getInstance("SHA-256")
+      .digest(s"$engineVersion:$compilerConfig".getBytes(StandardCharsets.UTF_8))
+    digest.take(16).map("%02x".format(_)).mkString
+  }
+
+  private lazy val engineJar: String =
+    Try {
+      val path = Paths.get(classOf[Compiler].getProtectionDomain.getCodeSource.getLocation.toURI)
+      s"$path@${Files.getLastModifiedTime(path).toMillis}:${Files.size(path)}"
+    }.getOrElse("unknown")
+}
@@ -51,6 +51,7 @@ import scalaz.{Applicative, NonEmptyList, Traverse}
 import spray.json._
 
 import scala.concurrent.{ExecutionContext, Future}
+import scala.concurrent.duration.Duration
 
 object LfValueCodec extends ApiCodecCompressed(false, false)
 
@@ -198,8 +199,14 @@ object ScriptAction {
   def fromIdentifier(
       compiledPackages: CompiledPackages,
       scriptId: Identifier,
+  ): Either[String, ScriptAction] =
+    fromIdentifier(compiledPackages.pkgInterface, scriptId)
+
+  def fromIdentifier(
+      pkgInterface: PackageInterface,
+      scriptId: Identifier,
   ): Either[String, ScriptAction] = {
-    val script = compiledPackages.pkgInterface.lookupValue(scriptId).left.map(_.pretty)
+    val script = pkgInterface.lookupValue(scriptId).left.map(_.pretty)
     def getScriptIds(ty: Type): Either[String, ScriptIds] =
       ScriptIds.fromType(ty)
     script.flatMap {
@@ -240,6 +247,7 @@ object Runner {
       params: ApiParameters,
       tlsConfig: TlsConfiguration,
       maxInboundMessageSize: Int,
+      callTimeout: Duration,
   )(implicit
       ec: ExecutionContext,
       seq: ExecutionSequencerFactory,
@@ -277,13 +285,14 @@ object Runner {
             clientChannelConfig,
           )
         )
-    } yield GrpcLedgerClient(ledgerClient, userId, maybeAdminLedgerClient)
+    } yield GrpcLedgerClient(ledgerClient, userId, maybeAdminLedgerClient, callTimeout)
   }
   // We might want to have one config per participant at some point but for now this should be sufficient.
   def connect(
       participantParams: Participants[ApiParameters],
       tlsConfig: TlsConfiguration,
       maxInboundMessageSize: Int,
+      callTimeout: Duration = Duration.Inf,
   )(implicit
       ec: ExecutionContext,
       seq: ExecutionSequencerFactory,
@@ -291,10 +300,10 @@ object Runner {
   ): Future[Participants[GrpcLedgerClient]] = {
     for {
       defaultClient <- participantParams.default_participant.traverse(x =>
-        connectApiParameters(x, tlsConfig, maxInboundMessageSize)
+        connectApiParameters(x, tlsConfig, maxInboundMessageSize, callTimeout)
       )
       participantClients <- participantParams.participants.traverse(v =>
-        connectApiParameters(v, tlsConfig, maxInboundMessageSize)
+        connectApiParameters(v, tlsConfig, maxInboundMessageSize, callTimeout)
       )
     } yield Participants(defaultClient, participantClients, participantParams.party_participants)
   }
@@ -327,6 +336,7 @@ object Runner {
       inputValue: Option[JsValue],
       initialClients: Participants[ScriptLedgerClient],
       timeMode: ScriptTimeMode,
+      packageCache: Option[PackageCache] = None,
   )(implicit
       ec: ExecutionContext,
       esf: ExecutionSequencerFactory,
@@ -335,7 +345,7 @@ object Runner {
     val darMap = dar.all.toMap
     val majorVersion = dar.main._2.languageVersion.major
     val compiledPackages =
-      PureCompiledPackages.assertBuild(darMap, defaultCompilerConfig)
+      LazyCompiledPackages.assertBuild(darMap, defaultCompilerConfig, packageCache)
     def convert(json: JsValue, typ: Type) = {
       val pkgIface = PackageInterface(dar.all.toMap)
       Converter(majorVersion).fromJsonValue(pkgIface, typ, json)
@@ -404,6 +414,7 @@ object Runner {
       machineLogger: MachineLogger = ScriptMachineLogger(),
       canceled: () => Option[RuntimeException] = () => None,
       ideLedgerProtocolVersion: IdeLedgerProtocolVersion = IdeLedgerProtocolVersion.latest,
+      metrics: ScriptMetrics = new ScriptMetrics,
   )(implicit
       ec: ExecutionContext,
       esf: ExecutionSequencerFactory,
@@ -419,6 +430,7 @@ object Runner {
       machineLogger,
       canceled,
       ideLedgerProtocolVersion,
+      metrics,
     )._1
 
   // Same as run above but requires use of IdeLedgerClient, gives additional context back
@@ -432,6 +444,7 @@ object Runner {
       machineLogger: MachineLogger = ScriptMachineLogger(),
       canceled: () => Option[RuntimeException] = () => None,
       ideLedgerProtocolVersion: IdeLedgerProtocolVersion = IdeLedgerProtocolVersion.latest,
+      metrics: ScriptMetrics = new ScriptMetrics,
   )(implicit
       ec: ExecutionContext,
       esf: ExecutionSequencerFactory,
@@ -448,6 +461,7 @@ object Runner {
       machineLogger,
       canceled,
       ideLedgerProtocolVersion,
+      metrics,
     )
     (resultF, oIdeLedgerContext.get)
   }
@@ -462,6 +476,7 @@ object Runner {
       machineLogger: MachineLogger,
       canceled: () => Option[RuntimeException],
       ideLedgerProtocolVersion: IdeLedgerProtocolVersion,
+      metrics: ScriptMetrics,
   )(implicit
       ec: ExecutionContext,
       esf: ExecutionSequencerFactory,
@@ -488,7 +503,13 @@ object Runner {
         throw new RuntimeException(s"The script ${scriptId} requires an argument.")
     }
     val runner = new Runner(compiledPackages, scriptAction, timeMode)
-    runner.runWithClients(initialClients, machineLogger, canceled, ideLedgerProtocolVersion.csmMode)
+    runner.runWithClients(
+      initialClients,
+      machineLogger,
+      canceled,
+      ideLedgerProtocolVersion.csmMode,
+      metrics,
+    )
   }
 
   def getPackageName(compiledPackages: CompiledPackages, pkgId: PackageId): Option[String] =
@@ -521,6 +542,7 @@ private[lf] class Runner(
       machineLogger: MachineLogger = ScriptMachineLogger(),
       canceled: () => Option[RuntimeException] = () => None,
       csmMode: ContractStateMachine.Mode,
+      metrics: ScriptMetrics = new ScriptMetrics,
   )(implicit
       ec: ExecutionContext,
       esf: ExecutionSequencerFactory,
@@ -532,7 +554,8 @@ private[lf] class Runner(
       throw new IllegalArgumentException("Couldn't get daml script package name")
     ) match {
       case "daml-script" | "daml3-script" =>
-        new v2.Runner(this, initialClients, machineLogger, canceled, csmMode).getResult()
+        new v2.Runner(this, initialClients, machineLogger, canceled, csmMode, metrics)
+          .getResult()
       case pkgName =>
         throw new IllegalArgumentException(
           "Invalid daml script package name. Expected daml-script or daml3-script, got " + pkgName
@@ -31,7 +31,7 @@ import com.google.protobuf.ByteString
 
 import java.io.File
 import com.digitalasset.canton.tracing.TraceContext
-import com.digitalasset.daml.lf.language.PackageInterface
+import com.digitalasset.daml.lf.language.{PackageInterface, Util => AstUtil}
 
 import scala.util.{Failure, Success}
 
@@ -75,15 +75,18 @@ object RunnerMain {
       acc.flatMap(bs => f(nxt).map(b => bs :+ b))
     }
 
+  def metricsFile(outputFile: File): File =
+    new File(outputFile.getPath + ".metrics.json")
+
   def getScriptTests(
       dar: Dar[(PackageId, Package)],
-      compiledPackages: PureCompiledPackages,
+      pkgInterface: PackageInterface,
       excludes: Seq[String] = Seq(),
   ): Seq[Identifier] =
     dar.main._2.modules.flatMap { case (moduleName, module) =>
       module.definitions.collect(Function.unlift { case (name, _) =>
         val id = Identifier(dar.main._1, QualifiedName(moduleName, name))
-        ScriptAction.fromIdentifier(compiledPackages, id) match {
+        ScriptAction.fromIdentifier(pkgInterface, id) match {
           // We exclude generated identifiers starting with `$`.
           case Right(_: ScriptAction.NoParam)
               if !name.dottedName.startsWith("$") &&
@@ -104,16 +107,20 @@ object RunnerMain {
       _ <- Future.successful(())
 
       dar: Dar[(PackageId, Package)] = DarDecoder.assertReadArchiveFromFile(action.darPath)
-      compiledPackages = PureCompiledPackages.assertBuild(
-        dar.all.toMap,
-        defaultCompilerConfig,
-      )
 
       success <- action match {
-        case RunnerAction.RunScripts(config) => runScripts(config, dar, compiledPackages)
+        case RunnerAction.RunScripts(config) =>
+          val compiledPackages = LazyCompiledPackages.assertBuild(
+            dar.all.toMap,
+            defaultCompilerConfig,
+            config.packageCacheDir.map(new PackageCache(_)),
+          )
+          runScripts(config, dar, compiledPackages)
         case RunnerAction.ListScripts(_, jsonOutputPath) =>
           Future {
-            val scriptNames = getScriptTests(dar, compiledPackages)
+            // Listing only needs the types of the definitions, so nothing is compiled.
+            val pkgInterface = new PackageInterface(AstUtil.toSignatures(dar.all.toMap))
+            val scriptNames = getScriptTests(dar, pkgInterface)
             val scriptNamesJsVal =
               JsArray(scriptNames.map(_.qualifiedName.toString).map(JsString(_)).toVector)
             Files.write(jsonOutputPath.toPath, Seq(scriptNamesJsVal.prettyPrint).asJava)
@@ -152,6 +159,21 @@ object RunnerMain {
         case _ => Future.unit
       }
 
+      converter = (json: JsValue, typ: Type) =>
+        Converter(majorVersion)
+          .fromJsonValue(
+            pkgIface,
+            typ,
+            json,
+          )
+          .flatMap(value =>
+            // Use translator only to verify type, do not use translated value
+            new ValueTranslator(
+              compiledPackages.pkgInterface,
+              forbidLocalContractIds = true,
+            ).translateValue(typ, value).fold(err => Left(err.getMessage), _ => Right(value))
+          )
+
       runScript = (
           scriptId: Identifier,
           inputFile: Option[File],
@@ -159,6 +181,7 @@ object RunnerMain {
           convertInputValue: Option[(JsValue, Type) => Either[String, Value]],
       ) =>
         for {
+          metrics <- Future.successful(new ScriptMetrics)
           result <- Runner
             .run(
               compiledPackages,
@@ -168,6 +191,7 @@ object RunnerMain {
               clients,
               config.timeMode,
               machineLogger,
+              metrics = metrics,
             )
           result <- Future {
             outputFile.foreach { outputFile =>
@@ -180,6 +204,11 @@ object RunnerMain {
                 val _ = Files.createDirectories(outDir.toPath)
               }
               Files.write(outputFile.toPath, Seq(jsVal.prettyPrint).asJava)
+              // Per-command timings of the run, e.g. result.json.metrics.json for result.json.
+              Files.write(
+                metricsFile(outputFile).toPath,
+                Seq(metrics.snapshot.toJson.prettyPrint).asJava,
+              )
             }
             result
           }
@@ -228,7 +257,7 @@ object RunnerMain {
 
       success <- config.runMode match {
         case RunnerMainConfig.RunMode.RunExcluding(excludes) => {
-          runManyTests(getScriptTests(dar, compiledPackages, excludes))
+          runManyTests(getScriptTests(dar, compiledPackages.pkgInterface, excludes))
         }
         case RunnerMainConfig.RunMode.RunIncluding(ids) =>
           runManyTests(
@@ -239,22 +268,33 @@ object RunnerMain {
         case RunnerMainConfig.RunMode.RunSingle(scriptName, inputFile, outputFile) => {
           val scriptId: Identifier =
             Identifier(dar.main._1, QualifiedName.assertFromString(scriptName))
-          val converter = (json: JsValue, typ: Type) =>
-            Converter(majorVersion)
-              .fromJsonValue(
-                pkgIface,
-                typ,
-                json,
-              )
-              .flatMap(value =>
-                // Use translator only to verify type, do not use translated value
-                new ValueTranslator(
-                  compiledPackages.pkgInterface,
-                  forbidLocalContractIds = true,
-                ).translateValue(typ, value).fold(err => Left(err.getMessage), _ => Right(value))
-              )
           runScript(scriptId, inputFile, outputFile, Some(converter)).map(_ => true)
         }
+        case RunnerMainConfig.RunMode.RunLoad(scriptName, load) =>
+          val scriptId: Identifier =
+            Identifier(dar.main._1, QualifiedName.assertFromString(scriptName))
+          LoadGenerator
+            .run(
+              load,
+              compiledPackages,
+              scriptId,
+              converter,
+              clients,
+              config.timeMode,
+            )
+            .map { report =>
+              println(report.render)
+              config.resultMode match {
+                case RunnerMainConfig.ResultMode.Text => ()
+                case RunnerMainConfig.ResultMode.Json(path) =>
+                  val pathParent = path.getParentFile
+                  if (pathParent != null) {
+                    val _ = Files.createDirectories(pathParent.toPath)
+                  }
+                  val _ = Files.write(path.toPath, Seq(report.toJson.prettyPrint).asJava)
+              }
+              report.failedRuns == 0
+            }
 
       }
     } yield success
@@ -304,5 +344,10 @@ object RunnerMain {
       ec: ExecutionContext,
       traceContext: TraceContext,
   ): Future[Participants[ScriptLedgerClient]] =
-    Runner.connect(participantParams, config.tlsConfig, config.maxInboundMessageSize)
+    Runner.connect(
+      participantParams,
+      config.tlsConfig,
+      config.maxInboundMessageSize,
+      config.ledgerCallTimeout,
+    )
 }
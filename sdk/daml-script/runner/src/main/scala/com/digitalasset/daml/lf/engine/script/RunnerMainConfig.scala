@@ -6,6 +6,8 @@ package com.digitalasset.daml.lf.engine.script
 import java.nio.file.{Path, Paths}
 import java.io.File
 
+import scala.concurrent.duration.{Duration, DurationInt, DurationLong, FiniteDuration}
+
 import com.digitalasset.daml.lf.data.Ref
 import com.daml.tls.{TlsConfiguration, TlsConfigurationCli}
 import com.digitalasset.daml.lf.engine.script.Runner.IdeLedgerProtocolVersion
@@ -37,6 +39,10 @@ case class RunnerMainConfig(
     uploadDar: Boolean,
     resultMode: RunnerMainConfig.ResultMode,
     ideLedgerProtocolVersion: IdeLedgerProtocolVersion,
+    // None when the package cache is disabled
+    packageCacheDir: Option[Path],
+    // Time after which a call to a participant is cancelled, infinite by default.
+    ledgerCallTimeout: Duration,
 )
 
 object RunnerMainConfig {
@@ -57,8 +63,15 @@ object RunnerMainConfig {
     final case class RunIncluding(
         scriptIds: List[String]
     ) extends RunMode
+    final case class RunLoad(
+        scriptId: String,
+        load: LoadGenerator.Config,
+    ) extends RunMode
   }
 
+  // The duration of a load test when neither --load-runs nor --load-duration is given.
+  val DefaultLoadDuration: FiniteDuration = 60.seconds
+
   def parse(args: Array[String]): Option[RunnerAction] =
     for {
       intermediate <- RunnerMainConfigIntermediate.parse(args)
@@ -109,9 +122,48 @@ private[script] case class RunnerMainConfigIntermediate(
     excludeScriptNames: List[String],
     ideLedgerProtocolVersion: Option[IdeLedgerProtocolVersion],
     listScriptsJsonFile: Option[File],
+    packageCacheDir: Option[Path],
+    noPackageCache: Boolean,
+    ledgerCallTimeout: Duration,
+    loadWorkers: Option[Int],
+    loadRuns: Option[Long],
+    loadDuration: Option[FiniteDuration],
+    loadRate: Option[Double],
+    loadPartyPool: Option[Int],
 ) {
 
   def getRunMode: Either[String, RunnerMainConfig.RunMode] =
+    loadWorkers match {
+      case Some(workers) => getLoadRunMode(workers)
+      case None if List(loadRuns, loadDuration, loadRate, loadPartyPool).exists(_.isDefined) =>
+        Left("--load-runs, --load-duration, --load-rate and --load-party-pool need --load-workers")
+      case None => getScriptsRunMode
+    }
+
+  private def getLoadRunMode(workers: Int): Either[String, RunnerMainConfig.RunMode] =
+    includeScriptNames match {
+      case _ if runAll => Left("--all and --load-workers are incompatible")
+      case _ if inputFile.isDefined || outputFile.isDefined =>
+        Left("--input-file/--output-file and --load-workers are incompatible")
+      case List(scriptName) =>
+        Right(
+          RunnerMainConfig.RunMode.RunLoad(
+            scriptName,
+            LoadGenerator.Config(
+              workers = workers,
+              runs = loadRuns,
+              duration = loadDuration.orElse(
+                Option.when(loadRuns.isEmpty)(RunnerMainConfig.DefaultLoadDuration)
+              ),
+              rate = loadRate,
+              partyPool = loadPartyPool,
+            ),
+          )
+        )
+      case _ => Left("--load-workers needs a single --script-name")
+    }
+
+  private def getScriptsRunMode: Either[String, RunnerMainConfig.RunMode] =
     (
       runAll,
       includeScriptNames,
@@ -177,6 +229,10 @@ private[script] case class RunnerMainConfigIntermediate(
         uploadDar = uploadDar,
         resultMode = resultMode,
         ideLedgerProtocolVersion = pv,
+        packageCacheDir =
+          if (noPackageCache) None
+          else Some(packageCacheDir.getOrElse(PackageCache.defaultDir)),
+        ledgerCallTimeout = ledgerCallTimeout,
       )
     } yield config
 
@@ -277,7 +333,10 @@ private[script] object RunnerMainConfigIntermediate {
       .action { (t, c) =>
         c.copy(outputFile = Some(t))
       }
-      .text("Path to a file where the result of the script will be written to in JSON format.")
+      .text(
+        "Path to a file where the result of the script will be written to in JSON format. " +
+          "Per-command timings of the run are written next to it, in <file>.metrics.json."
+      )
 
     opt[String]("access-token-file")
       .action { (f, c) =>
@@ -317,7 +376,8 @@ private[script] object RunnerMainConfigIntermediate {
     opt[File]("json-test-summary")
       .action((path, c) => c.copy(resultMode = RunnerMainConfig.ResultMode.Json(path)))
       .text(
-        s"Put test summary into a file in json format. Only works when running multiple cases."
+        s"Put test summary into a file in json format. Only works when running multiple cases " +
+          "or a load test."
       )
 
     opt[IdeLedgerProtocolVersion]("ide-ledger-protocol-version")(
@@ -329,6 +389,70 @@ private[script] object RunnerMainConfigIntermediate {
         s"Protocol version for the IDE Ledger to imitate. Default ${IdeLedgerProtocolVersion.latest.toString}. Currently only affects ContractKey/rollback behaviour. Only available when using --ide-ledger"
       )
 
+    opt[String]("package-cache-dir")
+      .optional()
+      .action((f, c) => c.copy(packageCacheDir = Some(Paths.get(f))))
+      .text(
+        s"Directory in which validated packages are recorded across runs. Defaults to ${PackageCache.defaultDir}"
+      )
+
+    opt[Unit]("no-package-cache")
+      .optional()
+      .action((_, c) => c.copy(noPackageCache = true))
+      .text("Validate all packages on every run instead of using the package cache.")
+
+    opt[Long]("ledger-call-timeout")
+      .optional()
+      .action((t, c) => c.copy(ledgerCallTimeout = t.seconds))
+      .validate(t => if (t > 0) success else failure("--ledger-call-timeout must be positive"))
+      .text(
+        "Time in seconds after which a call to a participant is cancelled and fails the script. " +
+          "Defaults to no timeout."
+      )
+
+    opt[Int]("load-workers")
+      .optional()
+      .action((n, c) => c.copy(loadWorkers = Some(n)))
+      .validate(n => if (n > 0) success else failure("--load-workers must be positive"))
+      .text(
+        "Run the script given with --script-name as a load test, by that many concurrent " +
+          "workers, and report the achieved throughput and latencies. A script taking an " +
+          "argument is given a party allocated for its worker."
+      )
+
+    opt[Long]("load-runs")
+      .optional()
+      .action((n, c) => c.copy(loadRuns = Some(n)))
+      .validate(n => if (n > 0) success else failure("--load-runs must be positive"))
+      .text("Stop the load test after that many runs of the script.")
+
+    opt[Long]("load-duration")
+      .optional()
+      .action((t, c) => c.copy(loadDuration = Some(t.seconds)))
+      .validate(t => if (t > 0) success else failure("--load-duration must be positive"))
+      .text(
+        "Stop the load test after that many seconds. " +
+          s"Defaults to ${RunnerMainConfig.DefaultLoadDuration.toSeconds} without --load-runs."
+      )
+
+    opt[Double]("load-rate")
+      .optional()
+      .action((r, c) => c.copy(loadRate = Some(r)))
+      .validate(r => if (r > 0) success else failure("--load-rate must be positive"))
+      .text(
+        "Target number of runs per second of the load test. Without it, every worker starts " +
+          "its next run as soon as its previous one completes."
+      )
+
+    opt[Int]("load-party-pool")
+      .optional()
+      .action((n, c) => c.copy(loadPartyPool = Some(n)))
+      .validate(n => if (n > 0) success else failure("--load-party-pool must be positive"))
+      .text(
+        "Allocate that many parties shared by the workers of the load test, instead of one " +
+          "party per worker."
+      )
+
     help("help").text("Print this usage text")
 
     checkConfig(c => {
@@ -388,6 +512,14 @@ private[script] object RunnerMainConfigIntermediate {
       excludeScriptNames = List(),
       ideLedgerProtocolVersion = None,
       listScriptsJsonFile = None,
+      packageCacheDir = None,
+      noPackageCache = false,
+      ledgerCallTimeout = Duration.Inf,
+      loadWorkers = None,
+      loadRuns = None,
+      loadDuration = None,
+      loadRate = None,
+      loadPartyPool = None,
     )
 
   private[script] def parse(args: Array[String]): Option[RunnerMainConfigIntermediate] =
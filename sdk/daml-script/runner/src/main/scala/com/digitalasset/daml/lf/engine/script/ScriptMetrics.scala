@@ -0,0 +1,246 @@
+// Copyright (c) 2026 Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.digitalasset.daml.lf.engine.script
+
+import spray.json._
+
+import java.util.concurrent.atomic.{AtomicLong, LongAdder}
+import scala.collection.concurrent.TrieMap
+
+/** Records where a script spends its time.
+  *
+  * For every command (`Submit`, `QueryACS`, `AllocParty`, ...), the number of executions and
+  * failures, a latency histogram and the bytes exchanged with the ledger are recorded. The time
+  * between two commands, spent in speedy running the script up to its next command, is recorded
+  * as interpretation time. The latency of commands answered by a participant adds up to the ledger
+  * wait time; commands answered locally (`Sleep`, `Secp256k1Sign`, ...) are excluded from it, and
+  * so are commands that run nested scripts (`Catch`, `TryCommands`, ...), as the commands of the
+  * nested script are recorded on their own. The hits and misses of the
+  * caches of a run, e.g. of its [[v2.ConversionCache]], are recorded once the run completes.
+  * Waits for a change to become visible on a participant (vetting, party allocation, ...) are
+  * recorded by kind, with the number of polls they took. The outcome of every submission is
+  * recorded as it comes back from the ledger, committed or rejected.
+  *
+  * A single instance may be shared by several runs, in which case it aggregates them.
+  */
+final class ScriptMetrics {
+
+  import ScriptMetrics._
+
+  private[this] val commands = TrieMap.empty[String, CommandCollector]
+  private[this] val interpretationNanos = new LongAdder
+  private[this] val ledgerWaitNanos = new LongAdder
+  private[this] val caches = TrieMap.empty[String, CacheCollector]
+  private[this] val visibilityWaits = TrieMap.empty[String, WaitCollector]
+  private[this] val committedSubmissions = new LongAdder
+  private[this] val rejectedSubmissions = new LongAdder
+
+  def recordInterpretation(nanos: Long): Unit =
+    interpretationNanos.add(nanos)
+
+  def recordCommand(
+      name: String,
+      nanos: Long,
+      failed: Boolean,
+      waitsOnLedger: Boolean,
+      bytes: Long,
+  ): Unit = {
+    commands.getOrElseUpdate(name, new CommandCollector).record(nanos, failed, bytes)
+    if (waitsOnLedger) ledgerWaitNanos.add(nanos)
+  }
+
+  def recordCacheLookups(name: String, hits: Long, misses: Long): Unit =
+    caches.getOrElseUpdate(name, new CacheCollector).record(hits, misses)
+
+  def recordVisibilityWait(kind: String, polls: Int, nanos: Long, timedOut: Boolean): Unit =
+    visibilityWaits.getOrElseUpdate(kind, new WaitCollector).record(polls, nanos, timedOut)
+
+  def recordSubmission(committed: Boolean): Unit =
+    if (committed) committedSubmissions.increment() else rejectedSubmissions.increment()
+
+  def snapshot: Snapshot =
+    Snapshot(
+      commands = commands.iterator.map { case (name, c) => name -> c.snapshot }.toMap,
+      interpretationNanos = interpretationNanos.sum(),
+      ledgerWaitNanos = ledgerWaitNanos.sum(),
+      caches = caches.iterator.map { case (name, c) => name -> c.snapshot }.toMap,
+      visibilityWaits = visibilityWaits.iterator.map { case (kind, c) => kind -> c.snapshot }.toMap,
+      committedSubmissions = committedSubmissions.sum(),
+      rejectedSubmissions = rejectedSubmissions.sum(),
+    )
+}
+
+object ScriptMetrics {
+
+  /** Upper bounds, in microseconds, of the latency histogram buckets: 100µs, 250µs, 500µs,
+    * 1ms, ... up to 50s. Latencies above the last bound fall in an extra overflow bucket.
+    */
+  val BucketBoundsMicros: Vector[Long] =
+    Vector(1L, 10L, 100L, 1000L, 10000L, 100000L).flatMap(d => Vector(100 * d, 250 * d, 500 * d))
+
+  private def bucketOf(nanos: Long): Int = {
+    val micros = nanos / 1000
+    val i = BucketBoundsMicros.indexWhere(micros <= _)
+    if (i < 0) BucketBoundsMicros.size else i
+  }
+
+  final case class CommandStats(
+      count: Long,
+      failures: Long,
+      totalNanos: Long,
+      maxNanos: Long,
+      bytes: Long,
+      // One count per bucket of BucketBoundsMicros, plus the overflow bucket.
+      histogram: Vector[Long],
+  ) {
+    def meanNanos: Long = if (count == 0) 0 else totalNanos / count
+
+    /** Upper bound, in microseconds, of the bucket holding the given quantile. */
+    def quantileMicros(q: Double): Long = {
+      val rank = math.ceil(q * count.toDouble).toLong.max(1L)
+      val i = histogram.scanLeft(0L)(_ + _).indexWhere(_ >= rank) - 1
+      if (i < 0) 0L
+      else if (i < BucketBoundsMicros.size) BucketBoundsMicros(i)
+      else maxNanos / 1000
+    }
+  }
+
+  object CommandStats {
+    val empty: CommandStats =
+      CommandStats(0, 0, 0, 0, 0, Vector.fill(BucketBoundsMicros.size + 1)(0L))
+  }
+
+  final case class CacheStats(hits: Long, misses: Long) {
+    def hitRatio: Double = if (hits + misses == 0) 0.0 else hits.toDouble / (hits + misses).toDouble
+  }
+
+  final case class WaitStats(
+      waits: Long,
+      timeouts: Long,
+      polls: Long,
+      totalNanos: Long,
+      maxNanos: Long,
+  )
+
+  final case class Snapshot(
+      commands: Map[String, CommandStats],
+      interpretationNanos: Long,
+      ledgerWaitNanos: Long,
+      caches: Map[String, CacheStats],
+      visibilityWaits: Map[String, WaitStats],
+      committedSubmissions: Long,
+      rejectedSubmissions: Long,
+  ) {
+    def commandCount: Long = commands.values.map(_.count).sum
+
+    def bytes: Long = commands.values.map(_.bytes).sum
+
+    def toJson: JsValue =
+      JsObject(
+        "commandCount" -> JsNumber(commandCount),
+        "interpretationMillis" -> JsNumber(interpretationNanos / 1000000),
+        "ledgerWaitMillis" -> JsNumber(ledgerWaitNanos / 1000000),
+        "bytes" -> JsNumber(bytes),
+        "submissions" -> JsObject(
+          "committed" -> JsNumber(committedSubmissions),
+          "rejected" -> JsNumber(rejectedSubmissions),
+        ),
+        "histogramBoundsMicros" -> JsArray(BucketBoundsMicros.map(JsNumber(_))),
+        "commands" -> JsObject(commands.map { case (name, stats) =>
+          name -> JsObject(
+            "count" -> JsNumber(stats.count),
+            "failures" -> JsNumber(stats.failures),
+            "totalMicros" -> JsNumber(stats.totalNanos / 1000),
+            "meanMicros" -> JsNumber(stats.meanNanos / 1000),
+            "maxMicros" -> JsNumber(stats.maxNanos / 1000),
+            "p50Micros" -> JsNumber(stats.quantileMicros(0.5)),
+            "p99Micros" -> JsNumber(stats.quantileMicros(0.99)),
+            "bytes" -> JsNumber(stats.bytes),
+            "histogram" -> JsArray(stats.histogram.map(JsNumber(_))),
+          )
+        }),
+        "caches" -> JsObject(caches.map { case (name, stats) =>
+          name -> JsObject(
+            "hits" -> JsNumber(stats.hits),
+            "misses" -> JsNumber(stats.misses),
+            "hitRatio" -> JsNumber(stats.hitRatio),
+          )
+        }),
+        "visibilityWaits" -> JsObject(visibilityWaits.map { case (kind, stats) =>
+          kind -> JsObject(
+            "waits" -> JsNumber(stats.waits),
+            "timeouts" -> JsNumber(stats.timeouts),
+            "polls" -> JsNumber(stats.polls),
+            "totalMillis" -> JsNumber(stats.totalNanos / 1000000),
+            "maxMillis" -> JsNumber(stats.maxNanos / 1000000),
+          )
+        }),
+      )
+  }
+
+  private final class CommandCollector {
+    private[this] val count = new LongAdder
+    private[this] val failures = new LongAdder
+    private[this] val totalNanos = new LongAdder
+    private[this] val maxNanos = new AtomicLong
+    private[this] val bytes = new LongAdder
+    private[this] val buckets = Vector.fill(BucketBoundsMicros.size + 1)(new LongAdder)
+
+    def record(nanos: Long, failed: Boolean, nBytes: Long): Unit = {
+      count.increment()
+      if (failed) failures.increment()
+      totalNanos.add(nanos)
+      maxNanos.accumulateAndGet(nanos, (a: Long, b: Long) => a max b)
+      bytes.add(nBytes)
+      buckets(bucketOf(nanos)).increment()
+    }
+
+    def snapshot: CommandStats =
+      CommandStats(
+        count = count.sum(),
+        failures = failures.sum(),
+        totalNanos = totalNanos.sum(),
+        maxNanos = maxNanos.get(),
+        bytes = bytes.sum(),
+        histogram = buckets.map(_.sum()),
+      )
+  }
+
+  private final class CacheCollector {
+    private[this] val hits = new LongAdder
+    private[this] val misses = new LongAdder
+
+    def record(nHits: Long, nMisses: Long): Unit = {
+      hits.add(nHits)
+      misses.add(nMisses)
+    }
+
+    def snapshot: CacheStats = CacheStats(hits = hits.sum(), misses = misses.sum())
+  }
+
+  private final class WaitCollector {
+    private[this] val waits = new LongAdder
+    private[this] val timeouts = new LongAdder
+    private[this] val polls = new LongAdder
+    private[this] val totalNanos = new LongAdder
+    private[this] val maxNanos = new AtomicLong
+
+    def record(nPolls: Int, nanos: Long, timedOut: Boolean): Unit = {
+      waits.increment()
+      if (timedOut) timeouts.increment()
+      polls.add(nPolls.toLong)
+      totalNanos.add(nanos)
+      maxNanos.accumulateAndGet(nanos, (a: Long, b: Long) => a max b)
+    }
+
+    def snapshot: WaitStats =
+      WaitStats(
+        waits = waits.sum(),
+        timeouts = timeouts.sum(),
+        polls = polls.sum(),
+        totalNanos = totalNanos.sum(),
+        maxNanos = maxNanos.get(),
+      )
+  }
+}
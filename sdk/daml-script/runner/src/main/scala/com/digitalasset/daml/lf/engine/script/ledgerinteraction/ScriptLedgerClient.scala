@@ -9,6 +9,8 @@ import com.digitalasset.daml.lf.data.Ref
 import com.digitalasset.daml.lf.engine.script.v2.ledgerinteraction.grpcLedgerClient.AdminLedgerClient
 import com.digitalasset.daml.lf.speedy.MachineLogger
 
+import scala.concurrent.duration.Duration
+
 // Ledger clients before implementation is chosen
 sealed trait ScriptLedgerClient extends Product with Serializable
 
@@ -16,6 +18,8 @@ final case class GrpcLedgerClient(
     grpcClient: LedgerClient,
     val userId: Option[Ref.UserId],
     val grpcAdminClient: Option[AdminLedgerClient] = None,
+    // Time after which a call to the participant is cancelled.
+    callTimeout: Duration = Duration.Inf,
 ) extends ScriptLedgerClient
 
 object GrpcLedgerClient {}
@@ -0,0 +1,81 @@
+// Copyright (c) 2026 Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.digitalasset.daml.lf
+package engine
+package script
+package v2
+
+import com.daml.ledger.api.v2.{value => api}
+import com.digitalasset.canton.ledger.api.util.LfEngineToApi
+import com.digitalasset.daml.lf.data.Ref._
+import com.digitalasset.daml.lf.language.Ast
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.LongAdder
+
+/** Remembers, for the duration of a script run, what the conversions between the script and the
+  * ledger look up in the packages.
+  *
+  * A script typically touches a handful of templates and choices, but every transaction it submits
+  * looks up the signature of each exercised choice and converts the identifiers of each event. The
+  * packages of a run do not change, so each of those is only computed once.
+  */
+final class ConversionCache {
+
+  import ConversionCache._
+
+  private[this] val choices = new Memo[ChoiceKey, Either[String, Ast.TemplateChoiceSignature]]
+  private[this] val fromApiIdentifiers = new Memo[api.Identifier, Either[String, Identifier]]
+  private[this] val toApiIdentifiers = new Memo[Identifier, api.Identifier]
+
+  def lookupChoice(
+      tmplId: Identifier,
+      ifaceId: Option[Identifier],
+      choice: ChoiceName,
+  )(
+      lookup: => Either[String, Ast.TemplateChoiceSignature]
+  ): Either[String, Ast.TemplateChoiceSignature] =
+    choices((tmplId, ifaceId, choice))(lookup)
+
+  def fromApiIdentifier(id: api.Identifier): Either[String, Identifier] =
+    fromApiIdentifiers(id)(Converter.fromApiIdentifier(id))
+
+  def toApiIdentifier(id: Identifier): api.Identifier =
+    toApiIdentifiers(id)(LfEngineToApi.toApiIdentifier(id))
+
+  /** Records the hits and misses of each table of the cache. */
+  def recordTo(metrics: ScriptMetrics): Unit = {
+    choices.recordTo(metrics, "choices")
+    fromApiIdentifiers.recordTo(metrics, "fromApiIdentifiers")
+    toApiIdentifiers.recordTo(metrics, "toApiIdentifiers")
+  }
+}
+
+object ConversionCache {
+
+  private type ChoiceKey = (Identifier, Option[Identifier], ChoiceName)
+
+  // Two threads missing the same key both compute it, which is harmless as the computations are
+  // pure, and cheaper than holding a lock of the map while computing.
+  private final class Memo[K, V] {
+    private[this] val table = new ConcurrentHashMap[K, V]
+    private[this] val hits = new LongAdder
+    private[this] val misses = new LongAdder
+
+    def apply(key: K)(compute: => V): V =
+      Option(table.get(key)) match {
+        case Some(v) =>
+          hits.increment()
+          v
+        case None =>
+          misses.increment()
+          val v = compute
+          val _ = table.putIfAbsent(key, v)
+          v
+      }
+
+    def recordTo(metrics: ScriptMetrics, name: String): Unit =
+      metrics.recordCacheLookups(name, hits.sum(), misses.sum())
+  }
+}
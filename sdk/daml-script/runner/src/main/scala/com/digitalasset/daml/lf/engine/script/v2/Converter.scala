@@ -8,10 +8,10 @@ package v2
 
 import com.daml.ledger.api.v2.event.{Event, ExercisedEvent}
 import com.daml.ledger.api.v2.transaction.Transaction
+import com.daml.ledger.api.v2.{value => api}
 import com.daml.ledger.javaapi.data.{Transaction => JavaTransaction}
 import com.daml.ledger.javaapi.data.{ExercisedEvent => JavaExercisedEvent}
 import com.digitalasset.canton.tracing.TraceContext
-import com.digitalasset.canton.ledger.api.util.LfEngineToApi.toApiIdentifier
 import com.digitalasset.daml.lf.data._
 import com.digitalasset.daml.lf.data.Ref._
 import com.digitalasset.daml.lf.engine.Result.lookupHandler
@@ -36,6 +36,7 @@ object Converter extends script.ConverterMethods(StablePackagesV2) {
           Option[Identifier],
           ChoiceName,
       ) => Either[String, TemplateChoiceSignature],
+      toApiIdentifier: Identifier => api.Identifier,
       scriptIds: ScriptIds,
       tree: ScriptLedgerClient.TransactionTree,
   ): Either[String, ExtendedValue] = {
@@ -43,15 +44,20 @@ object Converter extends script.ConverterMethods(StablePackagesV2) {
       scriptIds.damlScriptModule("Daml.Script.Internal.Questions.TransactionTree", s)
     def translateTreeEvent(ev: ScriptLedgerClient.TreeEvent): Either[String, ExtendedValue] =
       ev match {
-        case ScriptLedgerClient.Created(tplId, contractId, argument, _) =>
+        // Matched by type, as extracting the event would encode its blob.
+        case created: ScriptLedgerClient.Created =>
+          val tplId = created.templateId
           Right(
             ValueVariant(
               Some(damlTree("TreeEvent")),
               Name.assertFromString("CreatedEvent"),
               record(
                 damlTree("Created"),
-                ("contractId", fromAnyContractId(scriptIds, toApiIdentifier(tplId), contractId)),
-                ("argument", fromAnyTemplate(tplId, argument)),
+                (
+                  "contractId",
+                  fromAnyContractId(scriptIds, toApiIdentifier(tplId), created.contractId),
+                ),
+                ("argument", fromAnyTemplate(tplId, created.argument)),
               ),
             )
           )
@@ -133,19 +139,20 @@ object Converter extends script.ConverterMethods(StablePackagesV2) {
       tx: Transaction,
       intendedPackageIds: List[PackageId],
       enricher: Enricher,
+      conversionCache: ConversionCache,
   )(implicit traceContext: TraceContext): Either[String, ScriptLedgerClient.TransactionTree] = {
+    val javaTx = JavaTransaction.fromProto(Transaction.toJavaProto(tx))
+
     def convEvent(
         ev: Int,
         oIntendedPackageId: Option[PackageId],
-    ): Either[String, ScriptLedgerClient.TreeEvent] = {
-      val javaTx = JavaTransaction.fromProto(Transaction.toJavaProto(tx))
-
+    ): Either[String, ScriptLedgerClient.TreeEvent] =
       javaTx.getEventsById.asScala.get(ev).toRight(s"Event id $ev does not exist").flatMap {
         event =>
           Event.fromJavaProto(event.toProtoEvent).event match {
             case Event.Event.Created(created) =>
               for {
-                tplId <- Converter.fromApiIdentifier(created.getTemplateId)
+                tplId <- conversionCache.fromApiIdentifier(created.getTemplateId)
                 cid <- ContractId.fromString(created.contractId)
                 arg <-
                   NoLoggingValueValidator
@@ -167,8 +174,8 @@ object Converter extends script.ConverterMethods(StablePackagesV2) {
               )
             case Event.Event.Exercised(exercised) =>
               for {
-                tplId <- Converter.fromApiIdentifier(exercised.getTemplateId)
-                ifaceId <- exercised.interfaceId.traverse(Converter.fromApiIdentifier)
+                tplId <- conversionCache.fromApiIdentifier(exercised.getTemplateId)
+                ifaceId <- exercised.interfaceId.traverse(conversionCache.fromApiIdentifier)
                 cid <- ContractId.fromString(exercised.contractId)
                 choice <- ChoiceName.fromString(exercised.choice)
                 intendedTplId = oIntendedPackageId
@@ -215,10 +222,9 @@ object Converter extends script.ConverterMethods(StablePackagesV2) {
               throw new RuntimeException("Unexpected empty event encountered in transaction")
           }
       }
-    }
+
     for {
-      rootEvents <- JavaTransaction
-        .fromProto(Transaction.toJavaProto(tx))
+      rootEvents <- javaTx
         .getRootNodeIds()
         .asScala
         .toList
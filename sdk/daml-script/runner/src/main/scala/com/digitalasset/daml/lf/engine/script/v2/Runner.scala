@@ -11,6 +11,7 @@ import com.daml.grpc.adapter.ExecutionSequencerFactory
 import com.digitalasset.canton.tracing.TraceContext
 import com.digitalasset.daml.lf.data.ImmArray
 import com.digitalasset.daml.lf.engine.free.Free
+import com.digitalasset.daml.lf.engine.free.Free.FutureNowOps
 import com.digitalasset.daml.lf.engine.script.Runner.IdeLedgerContext
 import com.digitalasset.daml.lf.engine.script.ledgerinteraction.{
   ScriptLedgerClient => UnversionedScriptLedgerClient
@@ -30,6 +31,7 @@ import com.digitalasset.daml.lf.script.converter.ConverterException
 import com.digitalasset.canton.logging.NamedLoggerFactory
 
 import scala.concurrent.{ExecutionContext, Future}
+import scala.util.{Failure, Success}
 
 private[lf] class Runner(
     unversionedRunner: script.Runner,
@@ -37,18 +39,24 @@ private[lf] class Runner(
     machineLogger: MachineLogger = ScriptMachineLogger(),
     canceled: () => Option[RuntimeException] = () => None,
     csmMode: ContractStateMachine.Mode = ContractStateMachine.Mode.Key,
+    metrics: ScriptMetrics = new ScriptMetrics,
 ) {
   import Free.Result
 
   private val loggerFactory: NamedLoggerFactory =
     NamedLoggerFactory("daml-script", "Daml Script")
 
+  // Shared by the clients and the commands of the run, recorded into the metrics once it completes.
+  private val conversionCache = new ConversionCache
+
   private val initialClientsV2 = initialClients.map(
     ScriptLedgerClient.realiseScriptLedgerClient(
       _,
       unversionedRunner.extendedCompiledPackages,
       loggerFactory,
       csmMode,
+      conversionCache,
+      metrics,
     )
   )
 
@@ -60,6 +68,8 @@ private[lf] class Runner(
       unversionedRunner.extendedCompiledPackages,
       loggerFactory,
       traceContext = TraceContext.empty,
+      conversionCache = conversionCache,
+      metrics = metrics,
     )
 
   private val knownPackages = ScriptF.KnownPackages(unversionedRunner.knownPackages)
@@ -103,7 +113,27 @@ private[lf] class Runner(
       ec: ExecutionContext,
       esf: ExecutionSequencerFactory,
       mat: Materializer,
-  ): Future[ExtendedValue] =
+  ): Future[ExtendedValue] = {
+    // Commands are answered one at a time, so the time between the completion of a command and
+    // the start of the next one is spent in speedy, running the script up to its next command.
+    var resumedAt = System.nanoTime()
+    def answer(cmd: ScriptF.Cmd): Future[ExtendedValue] = {
+      val startedAt = System.nanoTime()
+      metrics.recordInterpretation(startedAt - resumedAt)
+      val bytesBefore = bytesTransferred()
+      // Kept completed if the command completes synchronously, see Free.Result.runF.
+      cmd.executeWithRunner(env, this, convertLegacyExceptions).transformNow { result =>
+        resumedAt = System.nanoTime()
+        metrics.recordCommand(
+          cmd.getClass.getSimpleName,
+          resumedAt - startedAt,
+          failed = result.isFailure,
+          waitsOnLedger = Runner.waitsOnLedger(cmd, env.timeMode),
+          bytes = bytesTransferred() - bytesBefore,
+        )
+        result
+      }
+    }
     for {
       freeClosure <- scriptValue match {
         case ValueRecord(_, ImmArray((_, freeClosure: ExtendedValueClosureBlob), _)) =>
@@ -120,11 +150,23 @@ private[lf] class Runner(
         )
       result <-
         remapQ(freeExpr).runF[ScriptF.Cmd, ExtendedValue](
-          _.executeWithRunner(env, this, convertLegacyExceptions)
-            .map(Result.successful)
-            .recover { case err: RuntimeException => Result.failed(err) }
+          answer(_).transformNow {
+            case Success(value) => Success(Result.successful(value))
+            case Failure(err: RuntimeException) => Success(Result.failed(err))
+            case Failure(err) => Failure(err)
+          }
         )
+      _ = metrics.recordInterpretation(System.nanoTime() - resumedAt)
     } yield result
+  }
+
+  // Only meaningful because the commands of a script are executed sequentially.
+  private def bytesTransferred(): Long = {
+    val clients = env.clients
+    (clients.default_participant.toList ++ clients.participants.values).distinct
+      .map(_.bytesTransferred)
+      .sum
+  }
 
   // Takes something that resolves/computes to a Script X, then runs the script
   def run(comp: ExtendedValueComputationMode, convertLegacyExceptions: Boolean = true)(implicit
@@ -171,7 +213,7 @@ private[lf] class Runner(
       )
     else
       (
-        unversionedRunner.script match {
+        (unversionedRunner.script match {
           case ScriptAction.NoParam(id, _) =>
             run(ExtendedValueComputationMode.ByIdentifier(id))
           case ScriptAction.Param(id, paramType, Some(param), _) =>
@@ -180,7 +222,28 @@ private[lf] class Runner(
             Future.failed(
               new RuntimeException("impossible")
             ) // This case is caught by script.Runner, when a Param ScriptAction is called without a param
-        },
+        }).andThen { case _ => conversionCache.recordTo(metrics) },
         ideLedgerContext,
       )
 }
+
+private[lf] object Runner {
+
+  // Only the commands answered by a participant wait on the ledger. Commands answered locally
+  // (sleeping, signing, reading the wall clock, ...) do not, and neither do the commands running
+  // nested scripts, as the commands of the nested script are recorded on their own.
+  private[v2] def waitsOnLedger(cmd: ScriptF.Cmd, timeMode: ScriptTimeMode): Boolean =
+    cmd match {
+      case _: ScriptF.Submit | _: ScriptF.QueryACS | _: ScriptF.QueryContractId |
+          _: ScriptF.QueryInterface | _: ScriptF.QueryInterfaceContractId | _: ScriptF.QueryByKey |
+          _: ScriptF.QueryNByKey | _: ScriptF.AllocParty | _: ScriptF.ListKnownParties |
+          _: ScriptF.SetTime | _: ScriptF.CreateUser | _: ScriptF.GetUser | _: ScriptF.DeleteUser |
+          _: ScriptF.ListAllUsers | _: ScriptF.GrantUserRights | _: ScriptF.RevokeUserRights |
+          _: ScriptF.ListUserRights | _: ScriptF.VetPackages | _: ScriptF.UnvetPackages |
+          _: ScriptF.ListVettedPackages | _: ScriptF.ListAllPackages =>
+        true
+      // The time is only asked to the ledger in static time mode.
+      case _: ScriptF.GetTime => timeMode == ScriptTimeMode.Static
+      case _ => false
+    }
+}
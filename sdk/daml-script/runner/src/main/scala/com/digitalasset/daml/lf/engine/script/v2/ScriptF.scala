@@ -33,12 +33,16 @@ import org.apache.pekko.stream.Materializer
 import cats.data.NonEmptySet
 import com.digitalasset.daml.lf.engine.script.Converter.partyOrder
 import com.digitalasset.daml.lf.engine.refinement.Enricher
+import com.digitalasset.daml.lf.engine.free.Free.FutureNowOps
+import com.daml.timer.Delayed
 
 import java.security.{KeyFactory, SecureRandom}
 import java.security.spec.PKCS8EncodedKeySpec
 import java.time.Clock
+import java.util.concurrent.TimeUnit
 import scala.concurrent.{ExecutionContext, Future}
-import scala.util.{Failure, Success}
+import scala.concurrent.duration.Duration
+import scala.util.{Failure, Success, Try}
 
 import annotation.unused
 
@@ -71,6 +75,8 @@ object ScriptF {
       compiledPackages: CompiledPackages,
       loggerFactory: NamedLoggerFactory,
       val traceContext: TraceContext,
+      val conversionCache: ConversionCache = new ConversionCache,
+      val metrics: ScriptMetrics = new ScriptMetrics,
   ) {
     def clients = _clients
     val utcClock = Clock.systemUTC()
@@ -95,7 +101,9 @@ object ScriptF {
         ifaceId: Option[Identifier],
         choice: Name,
     ): Either[String, Ast.TemplateChoiceSignature] =
-      compiledPackages.pkgInterface.lookupChoice(tmplId, ifaceId, choice).left.map(_.pretty)
+      conversionCache.lookupChoice(tmplId, ifaceId, choice)(
+        compiledPackages.pkgInterface.lookupChoice(tmplId, ifaceId, choice).left.map(_.pretty)
+      )
 
     def lookupKeyTy(id: Identifier): Either[String, Ast.Type] =
       compiledPackages.pkgInterface.lookupTemplateKey(id) match {
@@ -369,6 +377,7 @@ object ScriptF {
           env.lookupLanguageVersion,
           submission.errorBehaviour,
         )
+        _ = env.metrics.recordSubmission(committed = submitRes.isRight)
         res <- (submitRes, submission.errorBehaviour) match {
           case (Right(_), MustFail) =>
             Future.failed(
@@ -383,6 +392,7 @@ object ScriptF {
               Converter
                 .translateTransactionTree(
                   env.lookupChoice,
+                  env.conversionCache.toApiIdentifier,
                   env.scriptIds,
                   tree,
                 )
@@ -415,37 +425,38 @@ object ScriptF {
     override def execute(
         env: Env
     )(implicit ec: ExecutionContext, mat: Materializer, esf: ExecutionSequencerFactory) =
-      for {
-        client <- Converter.toFuture(
-          env.clients
-            .getPartiesParticipant(parties)
-        )
-        acs <- client.query(parties, tplId)
-      } yield ValueList(acs.to(FrontStack).map(Converter.fromCreated(_, tplId)))
+      Converter
+        .toFuture(env.clients.getPartiesParticipant(parties))
+        .flatMapNow(_.query(parties, tplId))
+        .mapNow(acs => ValueList(acs.to(FrontStack).map(Converter.fromCreated(_, tplId))))
   }
 
   final case class QueryContractId(
       parties: NonEmptySet[Party],
       tplId: Identifier,
       cid: ContractId,
+      // Whether the created event blob is returned, it is left empty otherwise.
+      includeBlob: Boolean,
   ) extends Cmd {
     override def execute(env: Env)(implicit
         ec: ExecutionContext,
         mat: Materializer,
         esf: ExecutionSequencerFactory,
     ): Future[ExtendedValue] =
-      for {
-        client <- Converter.toFuture(env.clients.getPartiesParticipant(parties))
-        optR <- client.queryContractId(parties, tplId, cid)
-        optR_ =
-          optR.map(c =>
-            makeTuple(
-              Converter.fromAnyTemplate(tplId, c.argument),
-              Converter.fromTemplateTypeRep(c.templateId),
-              ValueText(c.blob.toHexString),
+      Converter
+        .toFuture(env.clients.getPartiesParticipant(parties))
+        .flatMapNow(_.queryContractId(parties, tplId, cid))
+        .mapNow(optR =>
+          ValueOptional(
+            optR.map(c =>
+              makeTuple(
+                Converter.fromAnyTemplate(tplId, c.argument),
+                Converter.fromTemplateTypeRep(c.templateId),
+                ValueText(if (includeBlob) c.blob.toHexString else ""),
+              )
             )
           )
-      } yield ValueOptional(optR_)
+        )
   }
 
   final case class QueryInterface(
@@ -456,18 +467,20 @@ object ScriptF {
         ec: ExecutionContext,
         mat: Materializer,
         esf: ExecutionSequencerFactory,
-    ): Future[ExtendedValue] = {
-
-      for {
-        viewType <- Converter.toFuture(env.lookupInterfaceViewTy(interfaceId))
-        client <- Converter.toFuture(env.clients.getPartiesParticipant(parties))
-        interfaces <- client.queryInterface(parties, interfaceId, viewType)
-        interfaceValues =
-          interfaces.to(FrontStack).map { case (cid, optView) =>
+    ): Future[ExtendedValue] =
+      Converter
+        .toFuture(for {
+          viewType <- env.lookupInterfaceViewTy(interfaceId)
+          client <- env.clients.getPartiesParticipant(parties)
+        } yield (viewType, client))
+        .flatMapNow { case (viewType, client) =>
+          client.queryInterface(parties, interfaceId, viewType)
+        }
+        .mapNow(interfaces =>
+          ValueList(interfaces.to(FrontStack).map { case (cid, optView) =>
             makeTuple(ValueContractId(cid), ValueOptional(optView))
-          }
-      } yield ValueList(interfaceValues)
-    }
+          })
+        )
   }
 
   final case class QueryInterfaceContractId(
@@ -479,13 +492,16 @@ object ScriptF {
         ec: ExecutionContext,
         mat: Materializer,
         esf: ExecutionSequencerFactory,
-    ): Future[ExtendedValue] = {
-      for {
-        viewType <- Converter.toFuture(env.lookupInterfaceViewTy(interfaceId))
-        client <- Converter.toFuture(env.clients.getPartiesParticipant(parties))
-        optR <- client.queryInterfaceContractId(parties, interfaceId, viewType, cid)
-      } yield ValueOptional(optR)
-    }
+    ): Future[ExtendedValue] =
+      Converter
+        .toFuture(for {
+          viewType <- env.lookupInterfaceViewTy(interfaceId)
+          client <- env.clients.getPartiesParticipant(parties)
+        } yield (viewType, client))
+        .flatMapNow { case (viewType, client) =>
+          client.queryInterfaceContractId(parties, interfaceId, viewType, cid)
+        }
+        .mapNow(ValueOptional(_))
   }
 
   final case class QueryByKey(
@@ -609,23 +625,15 @@ object ScriptF {
         mat: Materializer,
         esf: ExecutionSequencerFactory,
     ): Future[ExtendedValue] =
-      for {
-        time <- env.timeMode match {
-          case ScriptTimeMode.Static => {
-            // We don’t parametrize this by participant since this
-            // is only useful in static time mode and using the time
-            // service with multiple participants is very dodgy.
-            for {
-              client <- Converter.toFuture(env.clients.getParticipant(None))
-              t <- client.getStaticTime()
-            } yield t
-          }
-          case ScriptTimeMode.WallClock =>
-            Future {
-              Timestamp.assertFromInstant(env.utcClock.instant())
-            }
-        }
-      } yield ValueTimestamp(time)
+      (env.timeMode match {
+        case ScriptTimeMode.Static =>
+          // We don’t parametrize this by participant since this
+          // is only useful in static time mode and using the time
+          // service with multiple participants is very dodgy.
+          Converter.toFuture(env.clients.getParticipant(None)).flatMapNow(_.getStaticTime())
+        case ScriptTimeMode.WallClock =>
+          Future.fromTry(Try(Timestamp.assertFromInstant(env.utcClock.instant())))
+      }).mapNow(ValueTimestamp(_))
   }
   final case class SetTime(time: Timestamp) extends Cmd {
     override def execute(env: Env)(implicit
@@ -655,25 +663,33 @@ object ScriptF {
         ec: ExecutionContext,
         mat: Materializer,
         esf: ExecutionSequencerFactory,
-    ): Future[ExtendedValue] = Future {
-      sleepAtLeast(micros * 1000)
-      ValueUnit
-    }
+    ): Future[ExtendedValue] =
+      Sleep.sleepAtLeast(micros * 1000).map(_ => ValueUnit)
+  }
 
-    private def sleepAtLeast(totalNanos: Long) = {
-      // Thread.sleep can wake up earlier so we loop it to guarantee a minimum
-      // sleep time. We use the monotonic clock (System.nanoTime) rather than
-      // the wall clock to ensure the actual elapsed time matches the requested
-      // duration, regardless of NTP adjustments or leap seconds.
-      // Note: getTime uses the wall clock, so observed timestamps may differ
-      // slightly from the requested sleep duration due to clock drift.
+  object Sleep {
+
+    // Sleeping is delegated to the timer-utils scheduler so that a sleeping
+    // script does not hold on to a thread of the execution context.
+    // The timer may fire earlier than requested (it works at millisecond
+    // granularity on the wall clock) so we reschedule until the monotonic
+    // clock (System.nanoTime) confirms that the requested duration has
+    // elapsed, regardless of NTP adjustments or leap seconds.
+    // Note: getTime uses the wall clock, so observed timestamps may differ
+    // slightly from the requested sleep duration due to clock drift.
+    private[script] def sleepAtLeast(totalNanos: Long): Future[Unit] = {
       val t0 = System.nanoTime
-      var nanosLeft = totalNanos
-      while (nanosLeft > 0) {
-        java.util.concurrent.TimeUnit.NANOSECONDS.sleep(nanosLeft)
-        val t1 = System.nanoTime
-        nanosLeft = totalNanos - (t1 - t0)
+      def loop(): Future[Unit] = {
+        val nanosLeft = totalNanos - (System.nanoTime - t0)
+        if (nanosLeft <= 0)
+          Future.unit
+        else {
+          // round up, the timer would otherwise fire immediately for sub-millisecond waits
+          val millisLeft = (nanosLeft + 999999) / 1000000
+          Delayed.Future.by(Duration(millisLeft, TimeUnit.MILLISECONDS))(loop())
+        }
       }
+      loop()
     }
   }
 
@@ -682,7 +698,7 @@ object ScriptF {
         ec: ExecutionContext,
         mat: Materializer,
         esf: ExecutionSequencerFactory,
-    ): Future[ExtendedValue] = Future {
+    ): Future[ExtendedValue] = Future.fromTry(Try {
       // By using a deterministic PRNG and setting the seed to a fixed value each time we sign a message, we ensure
       // that secp256k1 signing uses a deterministic source of randomness and so behaves deterministically.
       val deterministicRandomSrc: SecureRandom = SecureRandom.getInstance("SHA1PRNG")
@@ -694,7 +710,7 @@ object ScriptF {
       val messageDigest = HexString.assertFromString(Utf8.sha256(message))
 
       ValueText(MessageSignatureUtil.sign(messageDigest, privateKey, deterministicRandomSrc))
-    }
+    })
   }
 
   final case class Secp256k1WithEcdsaSign(pk: String, msg: String) extends Cmd {
@@ -702,7 +718,7 @@ object ScriptF {
         ec: ExecutionContext,
         mat: Materializer,
         esf: ExecutionSequencerFactory,
-    ): Future[ExtendedValue] = Future {
+    ): Future[ExtendedValue] = Future.fromTry(Try {
       // By using a deterministic PRNG and setting the seed to a fixed value each time we sign a message, we ensure
       // that secp256k1 signing uses a deterministic source of randomness and so behaves deterministically.
       val deterministicRandomSrc: SecureRandom = SecureRandom.getInstance("SHA1PRNG")
@@ -713,7 +729,7 @@ object ScriptF {
       val message = HexString.assertFromString(msg)
 
       ValueText(MessageSignatureUtil.sign(message, privateKey, deterministicRandomSrc))
-    }
+    })
   }
 
   final case class Secp256k1GenerateKeyPair() extends Cmd {
@@ -754,6 +770,16 @@ object ScriptF {
     }
   }
 
+  private def fromUserRights(
+      env: Env,
+      rights: Option[List[UserRight]],
+  ): Either[String, ExtendedValue] =
+    Converter.fromOptional[List[UserRight]](
+      rights,
+      _.traverse(Converter.fromUserRight(env.scriptIds, _))
+        .map(xs => ValueList(xs.to(FrontStack))),
+    )
+
   final case class CreateUser(
       user: User,
       rights: List[UserRight],
@@ -764,13 +790,12 @@ object ScriptF {
         mat: Materializer,
         esf: ExecutionSequencerFactory,
     ): Future[ExtendedValue] =
-      for {
-        client <- Converter.toFuture(env.clients.getParticipant(participant))
-        res <- client.createUser(user, rights)
-        res <- Converter.toFuture(
-          Converter.fromOptional[Unit](res, _ => Right(ValueUnit))
+      Converter
+        .toFuture(env.clients.getParticipant(participant))
+        .flatMapNow(_.createUser(user, rights))
+        .flatMapNow(res =>
+          Converter.toFuture(Converter.fromOptional[Unit](res, _ => Right(ValueUnit)))
         )
-      } yield res
   }
 
   final case class GetUser(
@@ -782,20 +807,21 @@ object ScriptF {
         mat: Materializer,
         esf: ExecutionSequencerFactory,
     ): Future[ExtendedValue] =
-      for {
-        client <- Converter.toFuture(env.clients.getParticipant(participant))
-        user <- client.getUser(userId)
-        userValue <- Converter.toFuture(
-          Converter.fromOptional(user, Converter.fromUser(env.scriptIds, _))
-        )
-      } yield {
-        (participant, user.flatMap(_.primaryParty)) match {
-          case (Some(participant), Some(party)) =>
-            env.addPartyParticipantMapping(party, participant)
-          case _ =>
+      Converter
+        .toFuture(env.clients.getParticipant(participant))
+        .flatMapNow(_.getUser(userId))
+        .flatMapNow { user =>
+          Converter
+            .toFuture(Converter.fromOptional(user, Converter.fromUser(env.scriptIds, _)))
+            .mapNow { userValue =>
+              (participant, user.flatMap(_.primaryParty)) match {
+                case (Some(participant), Some(party)) =>
+                  env.addPartyParticipantMapping(party, participant)
+                case _ =>
+              }
+              userValue
+            }
         }
-        userValue
-      }
   }
 
   final case class DeleteUser(
@@ -807,13 +833,12 @@ object ScriptF {
         mat: Materializer,
         esf: ExecutionSequencerFactory,
     ): Future[ExtendedValue] =
-      for {
-        client <- Converter.toFuture(env.clients.getParticipant(participant))
-        res <- client.deleteUser(userId)
-        res <- Converter.toFuture(
-          Converter.fromOptional[Unit](res, _ => Right(ValueUnit))
+      Converter
+        .toFuture(env.clients.getParticipant(participant))
+        .flatMapNow(_.deleteUser(userId))
+        .flatMapNow(res =>
+          Converter.toFuture(Converter.fromOptional[Unit](res, _ => Right(ValueUnit)))
         )
-      } yield res
   }
 
   final case class ListAllUsers(
@@ -824,13 +849,15 @@ object ScriptF {
         mat: Materializer,
         esf: ExecutionSequencerFactory,
     ): Future[ExtendedValue] =
-      for {
-        client <- Converter.toFuture(env.clients.getParticipant(participant))
-        users <- client.listAllUsers()
-        users <- Converter.toFuture(
-          users.traverse(Converter.fromUser(env.scriptIds, _)).map(_.to(FrontStack))
+      Converter
+        .toFuture(env.clients.getParticipant(participant))
+        .flatMapNow(_.listAllUsers())
+        .flatMapNow(users =>
+          Converter.toFuture(
+            users.traverse(Converter.fromUser(env.scriptIds, _)).map(_.to(FrontStack))
+          )
         )
-      } yield ValueList(users)
+        .mapNow(ValueList(_))
   }
 
   final case class GrantUserRights(
@@ -843,17 +870,10 @@ object ScriptF {
         mat: Materializer,
         esf: ExecutionSequencerFactory,
     ): Future[ExtendedValue] =
-      for {
-        client <- Converter.toFuture(env.clients.getParticipant(participant))
-        rights <- client.grantUserRights(userId, rights)
-        rights <- Converter.toFuture(
-          Converter.fromOptional[List[UserRight]](
-            rights,
-            _.traverse(Converter.fromUserRight(env.scriptIds, _))
-              .map(xs => ValueList(xs.to(FrontStack))),
-          )
-        )
-      } yield rights
+      Converter
+        .toFuture(env.clients.getParticipant(participant))
+        .flatMapNow(_.grantUserRights(userId, rights))
+        .flatMapNow(rights => Converter.toFuture(fromUserRights(env, rights)))
   }
 
   final case class RevokeUserRights(
@@ -866,17 +886,10 @@ object ScriptF {
         mat: Materializer,
         esf: ExecutionSequencerFactory,
     ): Future[ExtendedValue] =
-      for {
-        client <- Converter.toFuture(env.clients.getParticipant(participant))
-        rights <- client.revokeUserRights(userId, rights)
-        rights <- Converter.toFuture(
-          Converter.fromOptional[List[UserRight]](
-            rights,
-            _.traverse(Converter.fromUserRight(env.scriptIds, _))
-              .map(xs => ValueList(xs.to(FrontStack))),
-          )
-        )
-      } yield rights
+      Converter
+        .toFuture(env.clients.getParticipant(participant))
+        .flatMapNow(_.revokeUserRights(userId, rights))
+        .flatMapNow(rights => Converter.toFuture(fromUserRights(env, rights)))
   }
 
   final case class ListUserRights(
@@ -888,17 +901,10 @@ object ScriptF {
         mat: Materializer,
         esf: ExecutionSequencerFactory,
     ): Future[ExtendedValue] =
-      for {
-        client <- Converter.toFuture(env.clients.getParticipant(participant))
-        rights <- client.listUserRights(userId)
-        rights <- Converter.toFuture(
-          Converter.fromOptional[List[UserRight]](
-            rights,
-            _.traverse(Converter.fromUserRight(env.scriptIds, _))
-              .map(xs => ValueList(xs.to(FrontStack))),
-          )
-        )
-      } yield rights
+      Converter
+        .toFuture(env.clients.getParticipant(participant))
+        .flatMapNow(_.listUserRights(userId))
+        .flatMapNow(rights => Converter.toFuture(fromUserRights(env, rights)))
   }
 
   final case class VetPackages(
@@ -1128,7 +1134,21 @@ object ScriptF {
           actAs <- Converter.toParties(actAs)
           tplId <- Converter.typeRepToIdentifier(tplId)
           cid <- toContractId(cid)
-        } yield QueryContractId(actAs, tplId, cid)
+        } yield QueryContractId(actAs, tplId, cid, includeBlob = true)
+      case _ => Left(s"Expected QueryContractId payload but got $v")
+    }
+
+  private def parseQueryContractIdV2(v: ExtendedValue): Either[String, QueryContractId] =
+    v match {
+      case ValueRecord(
+            _,
+            ImmArray((_, actAs), (_, tplId), (_, cid), (_, ValueBool(includeBlob))),
+          ) =>
+        for {
+          actAs <- Converter.toParties(actAs)
+          tplId <- Converter.typeRepToIdentifier(tplId)
+          cid <- toContractId(cid)
+        } yield QueryContractId(actAs, tplId, cid, includeBlob)
       case _ => Left(s"Expected QueryContractId payload but got $v")
     }
 
@@ -1450,6 +1470,7 @@ object ScriptF {
       case ("Submit", 2) => parseSubmit(v, knownPackages, env)
       case ("QueryACS", 1) => parseQueryACS(v)
       case ("QueryContractId", 1) => parseQueryContractId(v)
+      case ("QueryContractId", 2) => parseQueryContractIdV2(v)
       case ("QueryInterface", 1) => parseQueryInterface(v)
       case ("QueryInterfaceContractId", 1) => parseQueryInterfaceContractId(v)
       case ("QueryByKey", 1) => parseQueryByKey(v, env, legacyAnyContractKey = true)
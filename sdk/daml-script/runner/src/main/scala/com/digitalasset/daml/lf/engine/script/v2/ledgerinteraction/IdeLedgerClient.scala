@@ -12,7 +12,12 @@ import com.daml.grpc.adapter.ExecutionSequencerFactory
 import com.digitalasset.canton.ledger.api.PartyDetails
 import com.digitalasset.canton.user._
 import com.digitalasset.canton.ledger.localstore.InMemoryUserManagementStore
-import com.digitalasset.canton.logging.{LoggingContextWithTrace, NamedLoggerFactory, NamedLogging}
+import com.digitalasset.canton.logging.{
+  LoggerNameFromClass,
+  LoggingContextWithTrace,
+  NamedLoggerFactory,
+  NamedLogging,
+}
 import com.digitalasset.canton.tracing.TraceContext
 import com.digitalasset.daml.lf.command.{ApiCommand, ApiContractKey}
 import com.digitalasset.daml.lf.data.Ref._
@@ -21,6 +26,7 @@ import com.digitalasset.daml.lf.engine.ScriptEngine.{
   ExtendedValueComputationMode,
   runExtendedValueComputation,
 }
+import com.digitalasset.daml.lf.engine.free.Free.FutureNowOps
 import com.digitalasset.daml.lf.engine.refinement.Enricher
 import com.digitalasset.daml.lf.engine.Result.lookupHandler
 import com.digitalasset.daml.lf.interpretation.Error.ContractIdInContractKey
@@ -28,7 +34,8 @@ import com.digitalasset.daml.lf.language.Ast.PackageMetadata
 import com.digitalasset.daml.lf.language.{Ast, LanguageVersion, LookupError, Reference}
 import com.digitalasset.daml.lf.script
 import com.digitalasset.daml.lf.script.{IdeLedger, IdeLedgerRunner}
-import com.digitalasset.daml.lf.speedy.{MachineLogger, Pretty, SError}
+import com.digitalasset.daml.lf.speedy.{MachineLogger, Pretty, SDefinition, SError}
+import com.digitalasset.daml.lf.speedy.SExpr.SDefinitionRef
 import com.digitalasset.daml.lf.transaction._
 import com.digitalasset.daml.lf.transaction.{NextGenContractStateMachine => ContractStateMachine}
 import com.digitalasset.daml.lf.value.Value
@@ -37,9 +44,13 @@ import org.apache.pekko.stream.Materializer
 
 import cats.data.NonEmptySet
 
+import java.util.concurrent.atomic.AtomicReference
+
 import scala.annotation.tailrec
+import scala.collection.{immutable, mutable}
+import scala.jdk.CollectionConverters._
 import scala.concurrent.{ExecutionContext, Future}
-import scala.util.{Failure, Success}
+import scala.util.{Failure, Success, Try}
 
 // Client for the script service.
 class IdeLedgerClient(
@@ -58,24 +69,151 @@ class IdeLedgerClient(
     // across different runs of IdeLedgerClient.
     crypto.Hash.secureRandom(crypto.Hash.hashPrivateKey(s"script-service"))
 
-  private var _currentSubmission: Option[CurrentSubmission] = None
+  // The whole mutable state of the client, kept as an immutable snapshot that is replaced
+  // atomically. Readers work on a consistent snapshot without locking, and writers commit with
+  // compare-and-set, retrying against the latest snapshot if another write got in first.
+  private final case class State(
+      ledger: IdeLedger,
+      currentSubmission: Option[CurrentSubmission],
+      allocatedParties: Map[String, PartyDetails],
+      unvettedPackages: Set[PackageId],
+      compiledPackages: PureCompiledPackages,
+      preprocessor: refinement.CommandPreprocessor,
+      // Active contracts by template id, so that queries only look up the contracts of the
+      // requested templates instead of scanning the whole ACS. Kept in sync with `ledger` by
+      // `commit`, the only place contracts get created or archived.
+      activeContractsByTemplate: Map[Identifier, Set[ContractId]],
+      activeContractTemplates: Map[ContractId, Identifier],
+  ) {
+    def commit(newLedger: IdeLedger, transaction: Transaction): State = {
+      val active = newLedger.ledgerData.activeContracts
+      // Contracts created or archived in a rolled back subtree do not change the ACS, hence the
+      // checks against the new ledger.
+      val created = transaction.nodes.values.collect {
+        case create: Node.Create if active(create.coid) => create.coid -> create.templateId
+      }
+      val archived = transaction.nodes.values.collect {
+        case exe: Node.Exercise if exe.consuming && !active(exe.targetCoid) => exe.targetCoid
+      }
+      val afterArchives = archived.foldLeft((activeContractsByTemplate, activeContractTemplates)) {
+        case ((byTemplate, templates), cid) =>
+          templates.get(cid) match {
+            case Some(tmplId) =>
+              val remaining = byTemplate.getOrElse(tmplId, Set.empty[ContractId]) - cid
+              (
+                if (remaining.isEmpty) byTemplate - tmplId
+                else byTemplate.updated(tmplId, remaining),
+                templates - cid,
+              )
+            case None =>
+              (byTemplate, templates)
+          }
+      }
+      val (byTemplate, templates) = created.foldLeft(afterArchives) {
+        case ((byTemplate, templates), (cid, tmplId)) =>
+          (
+            byTemplate.updated(tmplId, byTemplate.getOrElse(tmplId, Set.empty[ContractId]) + cid),
+            templates.updated(cid, tmplId),
+          )
+      }
+      copy(
+        ledger = newLedger,
+        activeContractsByTemplate = byTemplate,
+        activeContractTemplates = templates,
+      )
+    }
 
-  def currentSubmission: Option[CurrentSubmission] = _currentSubmission
+    def withPackageView(unvettedPackages: Set[PackageId], view: PackageView): State =
+      copy(
+        unvettedPackages = unvettedPackages,
+        compiledPackages = view._1,
+        preprocessor = view._2,
+      )
+  }
 
-  private[this] var compiledPackages = originalCompiledPackages
+  private type PackageView = (PureCompiledPackages, refinement.CommandPreprocessor)
 
-  private[this] var preprocessor = makePreprocessor
+  // Given a set of disabled packages, hide all definitions from those packages from the original compiled packages
+  // Similar logic to Script-services' Context.scala, however here we make no changes on the module level, and never directly add new packages
+  // We only maintain a subset of an original known package set.
+  // Definitions are masked at lookup rather than copied, and the views are kept per set of
+  // unvetted packages, so that toggling back to a previous set reuses its warm preprocessor. The
+  // view with every package vetted is always kept, the others are evicted least recently used
+  // first.
+  private[this] val defaultPackageView: PackageView =
+    (originalCompiledPackages, makePreprocessor(originalCompiledPackages))
+
+  private[this] val packageViews =
+    new IdeLedgerClient.LruCache[Set[PackageId], PackageView](IdeLedgerClient.MaxPackageViews)
+
+  private[this] def packageView(unvettedPackages: Set[PackageId]): PackageView =
+    if (unvettedPackages.isEmpty)
+      defaultPackageView
+    else
+      packageViews.getOrElseUpdate(
+        unvettedPackages, {
+          val compiledPackages = new PureCompiledPackages(
+            signatures = originalCompiledPackages.signatures -- unvettedPackages,
+            definitions = new IdeLedgerClient.MaskedDefinitions(
+              originalCompiledPackages.definitions,
+              unvettedPackages,
+            ),
+            compilerConfig = originalCompiledPackages.compilerConfig,
+          )
+          (compiledPackages, makePreprocessor(compiledPackages))
+        },
+      )
 
-  private[this] var unvettedPackages: Set[PackageId] = Set.empty
+  // Changes the set of unvetted packages. The view of the new set is built before `update`, which
+  // only installs it, and is built again if the set changed in the meantime.
+  @tailrec
+  private[this] def updateUnvettedPackages(f: Set[PackageId] => Set[PackageId]): Unit = {
+    val current = state.get.unvettedPackages
+    val unvettedPackages = f(current)
+    val view = packageView(unvettedPackages)
+    val installed = update { snapshot =>
+      if (snapshot.unvettedPackages == current)
+        (snapshot.withPackageView(unvettedPackages, view), true)
+      else
+        (snapshot, false)
+    }
+    if (!installed) updateUnvettedPackages(f)
+  }
 
-  private[this] def makePreprocessor =
+  private[this] def makePreprocessor(compiledPackages: PureCompiledPackages) =
     new refinement.CommandPreprocessor(
       compiledPackages.pkgInterface,
       forbidLocalContractIds = true,
     )
 
+  private[this] val state = new AtomicReference(
+    State(
+      ledger = IdeLedger.initialLedger(Time.Timestamp.Epoch, csmMode),
+      currentSubmission = None,
+      allocatedParties = Map.empty,
+      unvettedPackages = Set.empty,
+      compiledPackages = originalCompiledPackages,
+      preprocessor = defaultPackageView._2,
+      activeContractsByTemplate = Map.empty,
+      activeContractTemplates = Map.empty,
+    )
+  )
+
+  // Computes the next state from the current one, until it is committed without interference.
+  // `f` is called again on the latest state after a conflict, so it must be safe to repeat.
+  @tailrec
+  private[this] def update[A](f: State => (State, A)): A = {
+    val current = state.get
+    val (next, result) = f(current)
+    if (state.compareAndSet(current, next)) result else update(f)
+  }
+
+  def currentSubmission: Option[CurrentSubmission] = state.get.currentSubmission
+
+  def ledger: IdeLedger = state.get.ledger
+
   val enricher = Enricher(
-    compiledPackages = compiledPackages,
+    compiledPackages = originalCompiledPackages,
     // Cannot load packages in GrpcLedgerClient
     loadPackage = { (_: PackageId, _: Reference) => Result.done(()) },
     addTypeInfo = true,
@@ -85,37 +223,41 @@ class IdeLedgerClient(
     loggerFactory = loggerFactory,
   )
 
-  // Given a set of disabled packages, filter out all definitions from those packages from the original compiled packages
-  // Similar logic to Script-services' Context.scala, however here we make no changes on the module level, and never directly add new packages
-  // We only maintain a subset of an original known package set.
-  private[this] def updateCompiledPackages() = {
-    compiledPackages =
-      if (!unvettedPackages.isEmpty)
-        new PureCompiledPackages(
-          signatures = originalCompiledPackages.signatures -- unvettedPackages,
-          definitions = originalCompiledPackages.definitions.filterNot { case (ref, _) =>
-            unvettedPackages(ref.packageId)
-          },
-          compilerConfig = originalCompiledPackages.compilerConfig,
-        )
-      else
-        originalCompiledPackages
-    preprocessor = makePreprocessor
-  }
-
   // Returns false if the package is unknown, leaving the packageId unmodified
-  // so later computation can throw a better formulated error
-  def packageSupportsUpgrades(packageId: PackageId): Boolean =
+  // so later computation can throw a better formulated error.
+  // Like the other helpers resolving packages, takes the packages of the snapshot the caller
+  // works on, so that a concurrent (un)vetting cannot tear the view of a single call.
+  private[this] def packageSupportsUpgrades(
+      compiledPackages: PureCompiledPackages,
+      packageId: PackageId,
+  ): Boolean =
     compiledPackages.pkgInterface.lookupPackage(packageId).isRight
 
-  private var _ledger: IdeLedger = IdeLedger.initialLedger(Time.Timestamp.Epoch, csmMode)
-  def ledger: IdeLedger = _ledger
-
-  private var allocatedParties: Map[String, PartyDetails] = Map()
+  // The active contracts of the given templates visible to one of the parties.
+  private[this] def visibleContracts(
+      snapshot: State,
+      parties: NonEmptySet[Ref.Party],
+      templateIds: Iterable[Identifier],
+  ): Seq[FatContractInstance] =
+    templateIds.toSeq
+      .flatMap(snapshot.activeContractsByTemplate.getOrElse(_, Set.empty[ContractId]))
+      .map(cid =>
+        snapshot.ledger.lookupGlobalContract(
+          actAs = Set.empty,
+          readAs = parties.toSortedSet,
+          effectiveAt = snapshot.ledger.currentTime,
+          coid = cid,
+        )
+      )
+      .collect {
+        case IdeLedger.LookupOk(contract) if parties.exists(contract.stakeholders.contains) =>
+          contract
+      }
 
   private val userManagementStore =
     new InMemoryUserManagementStore(createAdmin = false, loggerFactory)
 
+  // Each event memoizes its own blob, so that nothing outlives the contracts it was encoded for.
   private[this] def blob(contract: FatContractInstance): Bytes =
     Bytes.fromByteString(ContractInstanceCoder.encodeFatContractInstance(contract).toOption.get)
 
@@ -129,29 +271,22 @@ class IdeLedgerClient(
       ec: ExecutionContext,
       mat: Materializer,
   ): Future[Seq[ScriptLedgerClient.ActiveContract]] = {
-    val acs = ledger.query(
-      actAs = Set.empty,
-      readAs = parties.toSortedSet,
-      effectiveAt = ledger.currentTime,
-    )
-    val filtered = acs.collect {
-      case IdeLedger.LookupOk(contract)
-          if contract.templateId == templateId && parties.exists(contract.stakeholders.contains) =>
-        ScriptLedgerClient.ActiveContract(
-          contract.templateId,
-          contract.contractId,
-          contract.createArg,
-          blob(contract),
-        )
+    val filtered = visibleContracts(state.get, parties, List(templateId)).map { contract =>
+      ScriptLedgerClient.ActiveContract(
+        contract.templateId,
+        contract.contractId,
+        contract.createArg,
+      )(() => blob(contract))
     }
     Future.successful(filtered)
   }
 
   private def lookupContractInstance(
+      snapshot: State,
       parties: NonEmptySet[Ref.Party],
       cid: ContractId,
   ): Option[FatContractInstance] = {
-
+    val ledger = snapshot.ledger
     ledger.lookupGlobalContract(
       actAs = Set.empty,
       readAs = parties.toSortedSet,
@@ -184,18 +319,25 @@ class IdeLedgerClient(
       ec: ExecutionContext,
       mat: Materializer,
   ): Future[Option[ScriptLedgerClient.ActiveContract]] =
-    Future {
-      lookupContractInstance(parties, cid) match {
-        case None => None
-        case Some(contract) => {
-          val arg =
-            failResultAsConverterException(enricher.enrichContract(templateId, contract.createArg))
-          Some(ScriptLedgerClient.ActiveContract(templateId, cid, arg, blob(contract)))
-        }
+    Future.fromTry(Try(activeContract(state.get, parties, templateId, cid)))
+
+  private[this] def activeContract(
+      snapshot: State,
+      parties: NonEmptySet[Ref.Party],
+      templateId: Identifier,
+      cid: ContractId,
+  ): Option[ScriptLedgerClient.ActiveContract] =
+    lookupContractInstance(snapshot, parties, cid) match {
+      case None => None
+      case Some(contract) => {
+        val arg =
+          failResultAsConverterException(enricher.enrichContract(templateId, contract.createArg))
+        Some(ScriptLedgerClient.ActiveContract(templateId, cid, arg)(() => blob(contract)))
       }
     }
 
   private[this] def computeView(
+      compiledPackages: PureCompiledPackages,
       templateId: TypeConId,
       interfaceId: TypeConId,
       arg: Value,
@@ -209,9 +351,12 @@ class IdeLedgerClient(
       convertLegacyExceptions = false,
     ).toOption.map(ev => Converter.castCommandExtendedValue(ev).toOption.get)
 
-  private[this] def implements(templateId: TypeConId, interfaceId: TypeConId): Boolean = {
+  private[this] def implements(
+      compiledPackages: PureCompiledPackages,
+      templateId: TypeConId,
+      interfaceId: TypeConId,
+  ): Boolean =
     compiledPackages.pkgInterface.lookupInterfaceInstance(interfaceId, templateId).isRight
-  }
 
   override def queryInterface(
       parties: NonEmptySet[Ref.Party],
@@ -219,26 +364,29 @@ class IdeLedgerClient(
       viewType: Ast.Type,
   )(implicit ec: ExecutionContext, mat: Materializer): Future[Seq[(ContractId, Option[Value])]] = {
 
-    val acs: Seq[IdeLedger.LookupOk] = ledger.query(
-      actAs = Set.empty,
-      readAs = parties.toSortedSet,
-      effectiveAt = ledger.currentTime,
-    )
+    val snapshot = state.get
+    val compiledPackages = snapshot.compiledPackages
     val reversePackageIdMap = getPackageIdReverseMap()
-    val packageMap = calculatePackageMap(List(), reversePackageIdMap)
+    val packageMap = calculatePackageMap(compiledPackages, List(), reversePackageIdMap)
+    // Contracts are only looked up for the templates that implement the interface once
+    // upgraded to the preferred version of their package.
+    def upgraded(templateId: Identifier): Option[Identifier] =
+      reversePackageIdMap
+        .get(templateId.packageId)
+        .flatMap(pkg => packageMap.get(pkg.name))
+        .map(preferredPkgId => templateId.copy(pkg = preferredPkgId))
+    val implementingTemplates = snapshot.activeContractsByTemplate.keys.filter(
+      upgraded(_).exists(implements(compiledPackages, _, interfaceId))
+    )
     val res = for {
-      contract <- acs.collect {
-        case IdeLedger.LookupOk(contract) if parties.exists(contract.stakeholders.contains) =>
-          contract
-      }
-      preferredPkgId <- packageMap.get(PackageName.assertFromString(contract.packageName))
-      upgradedTemplateId = contract.templateId.copy(pkg = preferredPkgId)
-      if implements(upgradedTemplateId, interfaceId)
+      contract <- visibleContracts(snapshot, parties, implementingTemplates)
+      upgradedTemplateId <- upgraded(contract.templateId)
       enrichedCreateArg = failResultAsConverterException(
         enricher.enrichContract(upgradedTemplateId, contract.createArg)
       )
     } yield {
-      val viewOpt = computeView(upgradedTemplateId, interfaceId, enrichedCreateArg)
+      val viewOpt =
+        computeView(compiledPackages, upgradedTemplateId, interfaceId, enrichedCreateArg)
       (contract.contractId, viewOpt)
     }
     Future.successful(res)
@@ -254,11 +402,13 @@ class IdeLedgerClient(
       mat: Materializer,
   ): Future[Option[Value]] = {
 
-    lookupContractInstance(parties, cid) match {
+    val snapshot = state.get
+    lookupContractInstance(snapshot, parties, cid) match {
       case None => Future.successful(None)
       case Some(contract) =>
         val reversePackageIdMap = getPackageIdReverseMap()
-        val packageMap = calculatePackageMap(List(), reversePackageIdMap)
+        val packageMap =
+          calculatePackageMap(snapshot.compiledPackages, List(), reversePackageIdMap)
         Future.successful(
           for {
             preferredPkgId <- packageMap.get(PackageName.assertFromString(contract.packageName))
@@ -267,6 +417,7 @@ class IdeLedgerClient(
               enricher.enrichContract(upgradedTemplateId, contract.createArg)
             )
             view <- computeView(
+              snapshot.compiledPackages,
               upgradedTemplateId,
               interfaceId,
               enrichedCreateArg,
@@ -276,11 +427,11 @@ class IdeLedgerClient(
     }
   }
 
-  private[this] def preprocessKey(templateId: Identifier, key: Value)(implicit
+  private[this] def preprocessKey(snapshot: State, templateId: Identifier, key: Value)(implicit
       ec: ExecutionContext
   ): Future[GlobalKey] =
     Future(
-      preprocessor
+      snapshot.preprocessor
         .unsafePreprocessApiContractKey(Map.empty, ApiContractKey(templateId.toRef, key, 1))
         ._1
     )
@@ -301,12 +452,14 @@ class IdeLedgerClient(
       ec: ExecutionContext,
       mat: Materializer,
   ): Future[List[ScriptLedgerClient.ActiveContract]] = {
-    import cats.implicits._
+    val snapshot = state.get
     for {
-      gkey <- preprocessKey(templateId, key)
-      cids = ledger.ledgerData.activeKeys.getOrElse(gkey, Vector()).take(limit)
-      res <- cids.toList.traverse(queryContractId(parties, templateId, _))
-    } yield res.collect { case Some(contract) => contract }
+      gkey <- preprocessKey(snapshot, templateId, key)
+      cids = snapshot.ledger.ledgerData.activeKeys.getOrElse(gkey, Vector()).take(limit)
+      res <- Future.fromTry(
+        Try(cids.toList.flatMap(activeContract(snapshot, parties, templateId, _)))
+      )
+    } yield res
   }
 
   private def getTypeIdentifier(t: Ast.Type): Option[Identifier] =
@@ -613,6 +766,9 @@ class IdeLedgerClient(
 
   // unsafe version of submit that does not clear the commit.
   private def unsafeSubmit(
+      snapshot: State,
+      seed: crypto.Hash,
+      logger: MachineLogger,
       actAs: NonEmptySet[Ref.Party],
       readAs: Set[Ref.Party],
       disclosures: List[Disclosure],
@@ -624,12 +780,13 @@ class IdeLedgerClient(
     IdeLedgerRunner.Commit[IdeLedger.CommitResult],
   ] = {
     val unallocatedSubmitters: Set[Party] =
-      (actAs.toSortedSet union readAs) -- allocatedParties.values.map(_.party)
+      (actAs.toSortedSet union readAs) -- snapshot.allocatedParties.values.map(_.party)
     if (unallocatedSubmitters.nonEmpty) {
       Left(makePartiesNotAllocatedError(unallocatedSubmitters))
     } else {
       val reversePackageIdMap = getPackageIdReverseMap()
-      val packageMap = calculatePackageMap(packagePreference, reversePackageIdMap)
+      val packageMap =
+        calculatePackageMap(snapshot.compiledPackages, packagePreference, reversePackageIdMap)
       @tailrec
       def loop(
           result: IdeLedgerRunner.SubmissionResult[IdeLedger.CommitResult]
@@ -647,7 +804,8 @@ class IdeLedgerClient(
             val referencedParties: Set[Party] =
               result.richTransaction.blindingInfo.disclosure.values
                 .fold(Set.empty[Party])(_ union _)
-            val unallocatedParties = referencedParties -- allocatedParties.values.map(_.party)
+            val unallocatedParties =
+              referencedParties -- snapshot.allocatedParties.values.map(_.party)
             for {
               _ <- Either.cond(
                 unallocatedParties.isEmpty,
@@ -658,7 +816,7 @@ class IdeLedgerClient(
                 ),
               )
               // We look for inactive explicit disclosures
-              activeContracts = ledger.ledgerData.activeContracts
+              activeContracts = snapshot.ledger.ledgerData.activeContracts
               _ <- disclosures
                 .collectFirst {
                   case Disclosure(tmplId, coid, _) if !activeContracts(coid) =>
@@ -675,10 +833,17 @@ class IdeLedgerClient(
       val eitherSpeedyCommands =
         try {
           Right(
-            preprocessor.unsafePreprocessApiCommands(
+            snapshot.preprocessor.unsafePreprocessApiCommands(
               packageMap,
               commands
-                .map(toCommand(_, reversePackageIdMap.view.filterKeys(packageSupportsUpgrades(_))))
+                .map(
+                  toCommand(
+                    _,
+                    reversePackageIdMap.view.filterKeys(
+                      packageSupportsUpgrades(snapshot.compiledPackages, _)
+                    ),
+                  )
+                )
                 .to(ImmArray),
             )
           )
@@ -703,23 +868,23 @@ class IdeLedgerClient(
           .map(err => makeEmptySubmissionError(script.Error.DisclosureDecoding(err.errorMessage)))
       }
 
-      val ledgerApi = IdeLedgerRunner.ScriptLedgerApi(ledger)
+      val ledgerApi = IdeLedgerRunner.ScriptLedgerApi(snapshot.ledger)
 
       for {
         speedyCommands <- eitherSpeedyCommands
         speedyDisclosures <- eitherSpeedyDisclosures
-        translated = compiledPackages.compiler.unsafeCompile(speedyCommands)
+        translated = snapshot.compiledPackages.compiler.unsafeCompile(speedyCommands)
         result =
           IdeLedgerRunner.submit(
-            compiledPackages,
+            snapshot.compiledPackages,
             speedyDisclosures,
             ledgerApi,
             actAs.toSortedSet,
             readAs,
             translated,
             optLocation,
-            nextSeed(),
-            machineLogger,
+            seed,
+            logger,
             packageMap,
           )
         res <- loop(result)
@@ -744,102 +909,125 @@ class IdeLedgerClient(
     ScriptLedgerClient.SubmitFailure,
     (Seq[ScriptLedgerClient.CommandResult], ScriptLedgerClient.TransactionTree),
   ]] = Future {
-    synchronized {
-      unsafeSubmit(
+    import ScriptLedgerClient.SubmissionErrorBehaviour._
+    // Submissions interpret against a snapshot of the ledger, so independent submissions run in
+    // parallel. If another submission committed in the meantime, the submission is interpreted
+    // again against the new ledger. The interpretation is kept free of side effects so that it
+    // can be repeated: the seed is drawn once, whatever the number of attempts, and the trace and
+    // warnings are only passed on to the machine logger for the attempt that commits.
+    val seed = nextSeed.synchronized(nextSeed())
+    val (outcome, logs) = update { snapshot =>
+      val logs = new IdeLedgerClient.BufferedMachineLogger
+      val outcome = unsafeSubmit(
+        snapshot,
+        seed,
+        logs,
         actAs,
         readAs,
         disclosures,
         optPackagePreference.getOrElse(List()),
         commands,
         optLocation,
-      ) match {
+      )
+      val next = outcome match {
         case Right(IdeLedgerRunner.Commit(result, tx)) =>
-          val commandResultPackageIds = commands.flatMap(toCommandPackageIds(_))
-          _ledger = result.newLedger
-          val transaction = result.richTransaction.transaction
-          def convEvent(
-              id: NodeId,
-              oIntendedPackageId: Option[PackageId],
-          ): Option[ScriptLedgerClient.TreeEvent] =
-            transaction.nodes(id) match {
-              case create: Node.Create =>
-                val intendedTemplateId =
-                  oIntendedPackageId
-                    .fold(create.templateId)(intendedPackageId =>
-                      create.templateId.copy(pkg = intendedPackageId)
-                    )
-                Some(
-                  ScriptLedgerClient.Created(
-                    intendedTemplateId,
-                    create.coid,
-                    failResultAsConverterException(
-                      enricher.enrichContract(intendedTemplateId, create.arg)
-                    ),
-                    blob(create, result.richTransaction.effectiveAt),
-                  )
-                )
-              case exercise: Node.Exercise =>
-                val intendedTemplateId =
-                  oIntendedPackageId
-                    .fold(exercise.templateId)(intendedPackageId =>
-                      exercise.templateId.copy(pkg = intendedPackageId)
-                    )
-                val enrichedArg = failResultAsConverterException(
-                  enricher.enrichChoiceArgument(
-                    intendedTemplateId,
-                    exercise.interfaceId,
-                    exercise.choiceId,
-                    exercise.chosenValue,
-                  )
-                )
-                val enrichedResult = failResultAsConverterException(
-                  enricher.enrichChoiceResult(
-                    intendedTemplateId,
-                    exercise.interfaceId,
-                    exercise.choiceId,
-                    exercise.exerciseResult.get,
-                  )
-                )
-                Some(
-                  ScriptLedgerClient.Exercised(
-                    intendedTemplateId,
-                    exercise.interfaceId,
-                    exercise.targetCoid,
-                    exercise.choiceId,
-                    enrichedArg,
-                    enrichedResult,
-                    exercise.children.collect(Function.unlift(convEvent(_, None))).toList,
-                  )
-                )
-              case _: Node.Fetch | _: Node.QueryByKey | _: Node.Rollback => None
-            }
-          val tree = ScriptLedgerClient.TransactionTree(
-            transaction.roots.toList
-              .zip(commandResultPackageIds)
-              .collect(Function.unlift { case (id, pkgId) => convEvent(id, Some(pkgId)) })
-          )
-          val results = ScriptLedgerClient.transactionTreeToCommandResults(tree)
-          if (errorBehaviour == ScriptLedgerClient.SubmissionErrorBehaviour.MustFail)
-            _currentSubmission = Some(CurrentSubmission(optLocation, tx))
-          else
-            _currentSubmission = None
-          Right((results, tree))
-        case Left(IdeLedgerRunner.SubmissionError(err, tx)) =>
-          import ScriptLedgerClient.SubmissionErrorBehaviour._
-          // Some compatibility logic to keep the "steps" the same.
-          // We may consider changing this to always insert SubmissionFailed, but this requires splitting the golden files in the integration tests
+          snapshot
+            .commit(result.newLedger, result.richTransaction.transaction)
+            .copy(currentSubmission =
+              if (errorBehaviour == MustFail) Some(CurrentSubmission(optLocation, tx)) else None
+            )
+        // Some compatibility logic to keep the "steps" the same.
+        // We may consider changing this to always insert SubmissionFailed, but this requires splitting the golden files in the integration tests
+        case Left(IdeLedgerRunner.SubmissionError(_, tx)) =>
           errorBehaviour match {
             case MustSucceed =>
-              _currentSubmission = Some(CurrentSubmission(optLocation, tx))
+              snapshot.copy(currentSubmission = Some(CurrentSubmission(optLocation, tx)))
             case MustFail =>
-              _currentSubmission = None
-              _ledger = ledger.insertAssertMustFail(actAs.toSortedSet, readAs, optLocation)
+              snapshot.copy(
+                currentSubmission = None,
+                ledger =
+                  snapshot.ledger.insertAssertMustFail(actAs.toSortedSet, readAs, optLocation),
+              )
             case Try =>
-              _currentSubmission = None
-              _ledger = ledger.insertSubmissionFailed(actAs.toSortedSet, readAs, optLocation)
+              snapshot.copy(
+                currentSubmission = None,
+                ledger =
+                  snapshot.ledger.insertSubmissionFailed(actAs.toSortedSet, readAs, optLocation),
+              )
           }
-          Left(ScriptLedgerClient.SubmitFailure(err, fromIdeLedgerError(err)))
       }
+      (next, (outcome, logs))
+    }
+    // The machine logger is not thread safe, and concurrent submissions may commit together.
+    machineLogger.synchronized(logs.replayTo(machineLogger))
+    outcome match {
+      case Right(IdeLedgerRunner.Commit(result, _)) =>
+        val commandResultPackageIds = commands.flatMap(toCommandPackageIds(_))
+        val transaction = result.richTransaction.transaction
+        def convEvent(
+            id: NodeId,
+            oIntendedPackageId: Option[PackageId],
+        ): Option[ScriptLedgerClient.TreeEvent] =
+          transaction.nodes(id) match {
+            case create: Node.Create =>
+              val intendedTemplateId =
+                oIntendedPackageId
+                  .fold(create.templateId)(intendedPackageId =>
+                    create.templateId.copy(pkg = intendedPackageId)
+                  )
+              Some(
+                ScriptLedgerClient.Created(
+                  intendedTemplateId,
+                  create.coid,
+                  failResultAsConverterException(
+                    enricher.enrichContract(intendedTemplateId, create.arg)
+                  ),
+                )(() => blob(create, result.richTransaction.effectiveAt))
+              )
+            case exercise: Node.Exercise =>
+              val intendedTemplateId =
+                oIntendedPackageId
+                  .fold(exercise.templateId)(intendedPackageId =>
+                    exercise.templateId.copy(pkg = intendedPackageId)
+                  )
+              val enrichedArg = failResultAsConverterException(
+                enricher.enrichChoiceArgument(
+                  intendedTemplateId,
+                  exercise.interfaceId,
+                  exercise.choiceId,
+                  exercise.chosenValue,
+                )
+              )
+              val enrichedResult = failResultAsConverterException(
+                enricher.enrichChoiceResult(
+                  intendedTemplateId,
+                  exercise.interfaceId,
+                  exercise.choiceId,
+                  exercise.exerciseResult.get,
+                )
+              )
+              Some(
+                ScriptLedgerClient.Exercised(
+                  intendedTemplateId,
+                  exercise.interfaceId,
+                  exercise.targetCoid,
+                  exercise.choiceId,
+                  enrichedArg,
+                  enrichedResult,
+                  exercise.children.collect(Function.unlift(convEvent(_, None))).toList,
+                )
+              )
+            case _: Node.Fetch | _: Node.QueryByKey | _: Node.Rollback => None
+          }
+        val tree = ScriptLedgerClient.TransactionTree(
+          transaction.roots.toList
+            .zip(commandResultPackageIds)
+            .collect(Function.unlift { case (id, pkgId) => convEvent(id, Some(pkgId)) })
+        )
+        val results = ScriptLedgerClient.transactionTreeToCommandResults(tree)
+        Right((results, tree))
+      case Left(IdeLedgerRunner.SubmissionError(err, _)) =>
+        Left(ScriptLedgerClient.SubmitFailure(err, fromIdeLedgerError(err)))
     }
   }
 
@@ -855,9 +1043,9 @@ class IdeLedgerClient(
   override def allocateParty(partyIdHint: String)(implicit
       ec: ExecutionContext,
       mat: Materializer,
-  ) = {
-    val usedNames = allocatedParties.keySet
-    Future.fromTry(for {
+  ) = Future.fromTry(update { snapshot =>
+    val usedNames = snapshot.allocatedParties.keySet
+    val allocated = for {
       name <-
         if (partyIdHint != "") {
           // Try to allocate the given hint as party name. Will fail if the name is already taken.
@@ -875,19 +1063,24 @@ class IdeLedgerClient(
         .fromString(name)
         .fold(msg => Failure(script.Error.InvalidPartyName(name, msg)), Success(_))
 
-      // Create and store the new party.
+      // Create the new party.
       partyDetails = PartyDetails(
         party = party,
         isLocal = true,
         metadata = ObjectMeta.empty,
         identityProviderId = IdentityProviderId.Default,
       )
-      _ = allocatedParties += (name -> partyDetails)
-    } yield partyDetails.party)
-  }
+    } yield name -> partyDetails
+    // Store the new party.
+    val next = allocated.fold(
+      _ => snapshot,
+      entry => snapshot.copy(allocatedParties = snapshot.allocatedParties + entry),
+    )
+    (next, allocated.map(_._2.party))
+  })
 
   override def listKnownParties()(implicit ec: ExecutionContext, mat: Materializer) = {
-    Future.successful(allocatedParties.values.toList)
+    Future.successful(state.get.allocatedParties.values.toList)
   }
 
   override def getStaticTime()(implicit
@@ -903,10 +1096,12 @@ class IdeLedgerClient(
       esf: ExecutionSequencerFactory,
       mat: Materializer,
   ): Future[Unit] = {
-    val diff = time.micros - ledger.currentTime.micros
-    // IdeLedger only provides pass, so we have to calculate the diff.
-    // Note that IdeLedger supports going backwards in time.
-    _ledger = ledger.passTime(diff)
+    update { snapshot =>
+      val diff = time.micros - snapshot.ledger.currentTime.micros
+      // IdeLedger only provides pass, so we have to calculate the diff.
+      // Note that IdeLedger supports going backwards in time.
+      (snapshot.copy(ledger = snapshot.ledger.passTime(diff)), ())
+    }
     Future.unit
   }
 
@@ -920,7 +1115,7 @@ class IdeLedgerClient(
   ): Future[Option[Unit]] =
     userManagementStore
       .createUser(user, rights.toSet)(LoggingContextWithTrace.empty)
-      .map(_.toOption.map(_ => ()))
+      .mapNow(_.toOption.map(_ => ()))
 
   override def getUser(id: UserId)(implicit
       ec: ExecutionContext,
@@ -929,7 +1124,7 @@ class IdeLedgerClient(
   ): Future[Option[User]] =
     userManagementStore
       .getUser(id, IdentityProviderId.Default)(LoggingContextWithTrace.empty, implicitly)
-      .map(_.toOption)
+      .mapNow(_.toOption)
 
   override def deleteUser(id: UserId)(implicit
       ec: ExecutionContext,
@@ -938,7 +1133,7 @@ class IdeLedgerClient(
   ): Future[Option[Unit]] =
     userManagementStore
       .deleteUser(id, IdentityProviderId.Default)(LoggingContextWithTrace.empty)
-      .map(_.toOption)
+      .mapNow(_.toOption)
 
   override def listAllUsers()(implicit
       ec: ExecutionContext,
@@ -947,7 +1142,7 @@ class IdeLedgerClient(
   ): Future[List[User]] =
     userManagementStore
       .listUsers(None, Int.MaxValue, IdentityProviderId.Default)(LoggingContextWithTrace.empty)
-      .map(_.toOption.toList.flatMap(_.users))
+      .mapNow(_.toOption.toList.flatMap(_.users))
 
   override def grantUserRights(
       id: UserId,
@@ -959,7 +1154,7 @@ class IdeLedgerClient(
   ): Future[Option[List[UserRight]]] =
     userManagementStore
       .grantRights(id, rights.toSet, IdentityProviderId.Default)(LoggingContextWithTrace.empty)
-      .map(_.toOption.map(_.toList))
+      .mapNow(_.toOption.map(_.toList))
 
   override def revokeUserRights(
       id: UserId,
@@ -971,7 +1166,7 @@ class IdeLedgerClient(
   ): Future[Option[List[UserRight]]] =
     userManagementStore
       .revokeRights(id, rights.toSet, IdentityProviderId.Default)(LoggingContextWithTrace.empty)
-      .map(_.toOption.map(_.toList))
+      .mapNow(_.toOption.map(_.toList))
 
   override def listUserRights(id: UserId)(implicit
       ec: ExecutionContext,
@@ -980,11 +1175,12 @@ class IdeLedgerClient(
   ): Future[Option[List[UserRight]]] =
     userManagementStore
       .listUserRights(id, IdentityProviderId.Default)(LoggingContextWithTrace.empty, implicitly)
-      .map(_.toOption.map(_.toList))
+      .mapNow(_.toOption.map(_.toList))
 
   /* Generate a package name map based on package preference then highest version
    */
   def calculatePackageMap(
+      compiledPackages: PureCompiledPackages,
       packagePreference: List[PackageId],
       reverseMap: Map[PackageId, ScriptLedgerClient.ReadablePackageId],
   ): Map[PackageName, PackageId] = {
@@ -995,7 +1191,7 @@ class IdeLedgerClient(
           reverseMap
             .getOrElse(pkgId, throw new IllegalArgumentException(s"No such PackageId $pkgId"))
             .name,
-          if (packageSupportsUpgrades(pkgId)) pkgId
+          if (packageSupportsUpgrades(compiledPackages, pkgId)) pkgId
           else throw new IllegalArgumentException(s"Package $pkgId does not support Upgrades."),
         )
       )
@@ -1003,7 +1199,7 @@ class IdeLedgerClient(
     val ordering: Ordering[(PackageVersion, PackageId)] = Ordering[PackageVersion].on(_._1)
     // Map containing only highest versions of upgrades compatible packages, could be cached
     val highestVersionMap: Map[PackageName, PackageId] = getPackageIdMap()
-      .filter { case (_, pkgId) => packageSupportsUpgrades(pkgId) }
+      .filter { case (_, pkgId) => packageSupportsUpgrades(compiledPackages, pkgId) }
       .groupMapReduce(_._1.name) { case (nameVersion, packageId) =>
         (nameVersion.version, packageId)
       }(ordering.max)
@@ -1041,8 +1237,7 @@ class IdeLedgerClient(
       packageMap.getOrElse(pkg, throw new IllegalArgumentException(s"Unknown package $pkg"))
     )
 
-    unvettedPackages = unvettedPackages -- pkgIdsToVet.toSet
-    updateCompiledPackages()
+    updateUnvettedPackages(_ -- pkgIdsToVet)
   }
 
   override def waitUntilVettingVisible(
@@ -1061,8 +1256,7 @@ class IdeLedgerClient(
       packageMap.getOrElse(pkg, throw new IllegalArgumentException(s"Unknown package $pkg"))
     )
 
-    unvettedPackages = unvettedPackages ++ pkgIdsToUnvet.toSet
-    updateCompiledPackages()
+    updateUnvettedPackages(_ ++ pkgIdsToUnvet)
   }
 
   override def waitUntilUnvettingVisible(
@@ -1076,7 +1270,10 @@ class IdeLedgerClient(
       esf: ExecutionSequencerFactory,
       mat: Materializer,
   ): Future[List[ScriptLedgerClient.ReadablePackageId]] =
-    Future.successful(getPackageIdMap().filter(kv => !unvettedPackages(kv._2)).keys.toList)
+    Future.successful {
+      val unvettedPackages = state.get.unvettedPackages
+      getPackageIdMap().filter(kv => !unvettedPackages(kv._2)).keys.toList
+    }
 
   override def listAllPackages()(implicit
       ec: ExecutionContext,
@@ -1115,3 +1312,66 @@ class IdeLedgerClient(
 
   override def getParticipantUid: String = ""
 }
+
+object IdeLedgerClient {
+
+  // A map bounded to `capacity` entries, which evicts the least recently used one.
+  private[ledgerinteraction] final class LruCache[K, V](capacity: Int) {
+    private[this] val entries =
+      new java.util.LinkedHashMap[K, V](16, 0.75f, /* accessOrder = */ true) {
+        override def removeEldestEntry(eldest: java.util.Map.Entry[K, V]): Boolean =
+          size > capacity
+      }
+
+    def getOrElseUpdate(key: K, compute: => V): V =
+      synchronized {
+        Option(entries.get(key)).getOrElse {
+          val value = compute
+          val _ = entries.put(key, value)
+          value
+        }
+      }
+
+    def keys: Set[K] = synchronized(entries.keySet.asScala.toSet)
+  }
+
+  // Holds the trace and warnings of an interpretation until they are replayed to another logger.
+  private final class BufferedMachineLogger extends MachineLogger {
+    private[this] val entries = mutable.ArrayBuffer.empty[MachineLogger => Unit]
+
+    override def trace(message: String, location: Option[Location])(implicit
+        ln: LoggerNameFromClass
+    ): Unit =
+      entries += (_.trace(message, location)(ln))
+
+    override def warn(message: String, location: Option[Location])(implicit
+        ln: LoggerNameFromClass
+    ): Unit =
+      entries += (_.warn(message, location)(ln))
+
+    def replayTo(logger: MachineLogger): Unit = entries.foreach(_(logger))
+  }
+
+  // Bound on the number of distinct sets of unvetted packages whose views are retained.
+  private[ledgerinteraction] val MaxPackageViews = 16
+
+  // The definitions of `underlying` minus those of the `masked` packages. Masking is checked on
+  // lookup, so building a view does not traverse the definitions.
+  private final class MaskedDefinitions(
+      underlying: Map[SDefinitionRef, SDefinition],
+      masked: Set[PackageId],
+  ) extends immutable.AbstractMap[SDefinitionRef, SDefinition] {
+
+    override def get(ref: SDefinitionRef): Option[SDefinition] =
+      if (masked(ref.packageId)) None else underlying.get(ref)
+
+    override def iterator: Iterator[(SDefinitionRef, SDefinition)] =
+      underlying.iterator.filterNot { case (ref, _) => masked(ref.packageId) }
+
+    override def removed(ref: SDefinitionRef): Map[SDefinitionRef, SDefinition] =
+      new MaskedDefinitions(underlying.removed(ref), masked)
+
+    override def updated[V >: SDefinition](ref: SDefinitionRef, value: V): Map[SDefinitionRef, V] =
+      iterator.toMap[SDefinitionRef, V].updated(ref, value)
+  }
+}
@@ -18,6 +18,7 @@ import com.digitalasset.daml.lf.value.Value
 import com.digitalasset.daml.lf.value.Value.ContractId
 import cats.data.NonEmptySet
 import com.digitalasset.daml.lf.engine.script.{ledgerinteraction => abstractLedgers}
+import com.digitalasset.daml.lf.engine.script.v2.ConversionCache
 import com.digitalasset.canton.logging.NamedLoggerFactory
 
 import scala.concurrent.{ExecutionContext, Future}
@@ -51,8 +52,23 @@ object ScriptLedgerClient {
       templateId: Identifier,
       contractId: ContractId,
       argument: Value,
-      blob: Bytes,
-  ) extends TreeEvent
+  )(computeBlob: () => Bytes)
+      extends TreeEvent {
+    // The created event blob is only needed for explicit disclosure, and costly to encode on the
+    // IDE ledger, so it is only computed when first used. Being outside the first parameter list,
+    // it takes no part in the equality or the extraction of the event.
+    lazy val blob: Bytes = computeBlob()
+  }
+
+  object Created {
+    def apply(
+        templateId: Identifier,
+        contractId: ContractId,
+        argument: Value,
+        blob: Bytes,
+    ): Created =
+      Created(templateId, contractId, argument)(() => blob)
+  }
 
   def transactionTreeToCommandResults(tree: TransactionTree): List[CommandResult] =
     tree.rootEvents.map {
@@ -84,15 +100,20 @@ object ScriptLedgerClient {
       compiledPackages: CompiledPackages,
       loggerFactory: NamedLoggerFactory,
       csmMode: ContractStateMachine.Mode,
+      conversionCache: ConversionCache = new ConversionCache,
+      metrics: ScriptMetrics = new ScriptMetrics,
   ): ScriptLedgerClient =
     ledger match {
-      case abstractLedgers.GrpcLedgerClient(grpcClient, userId, oAdminClient) =>
+      case abstractLedgers.GrpcLedgerClient(grpcClient, userId, oAdminClient, callTimeout) =>
         new grpcLedgerClient.GrpcLedgerClient(
           grpcClient,
           userId,
           oAdminClient,
           compiledPackages,
           loggerFactory,
+          callTimeout,
+          conversionCache,
+          metrics,
         )
       case abstractLedgers.IdeLedgerClient(pureCompiledPackages, machineLogger, canceled) =>
         new IdeLedgerClient(
@@ -125,6 +146,11 @@ trait ScriptLedgerClient {
 
   protected def transport: String
 
+  /** Bytes exchanged with the ledger since the client was created, as far as the transport
+    * measures them.
+    */
+  def bytesTransferred: Long = 0L
+
   final protected def unsupportedOn(what: String) =
     Future.failed(
       new UnsupportedOperationException(
@@ -7,7 +7,7 @@ package com.digitalasset.daml.lf.engine.script.v2.ledgerinteraction
 package grpcLedgerClient
 
 import com.daml.grpc.AuthCallCredentials
-import com.daml.timer.RetryStrategy
+import com.digitalasset.daml.lf.engine.script.ScriptMetrics
 import com.digitalasset.canton.ledger.client.configuration.LedgerClientChannelConfiguration
 import com.digitalasset.canton.ledger.client.GrpcChannel
 import com.digitalasset.canton.admin.participant.{v30 => admin_participant}
@@ -25,7 +25,6 @@ import io.grpc.netty.shaded.io.grpc.netty.NettyChannelBuilder
 import io.grpc.stub.AbstractStub
 
 import java.io.{Closeable, File, FileInputStream}
-import scala.concurrent.duration.{Duration, DurationInt}
 import scala.concurrent.{ExecutionContext, Future}
 
 import cats.syntax.traverse._
@@ -175,28 +174,19 @@ class AdminLedgerClient private[grpcLedgerClient] (
   def waitUntilUnvettingVisible(
       packages: Iterable[ScriptLedgerClient.ReadablePackageId],
       onParticipantUid: String,
-      attempts: Int = 10,
-      firstWaitTime: Duration = 100.millis,
+      metrics: ScriptMetrics,
+      waitConfig: VisibilityWait.Config = VisibilityWait.DefaultConfig,
   ): Future[Unit] = for {
     packageIds <- getPackageIds(packages)
-
-    // TODO[23063]: reconsider usage of RetryStrategy
-    _ <- RetryStrategy
-      .exponentialBackoff(attempts, firstWaitTime) { (_, _) =>
-        for {
-          vettedPackages <- listVettedPackages()
-          vettedPackageIds <- vettedPackages
-            .getOrElse(onParticipantUid, Seq.empty)
-            .traverse(el => AdminLedgerClient.validateProtoString(el.packageId))
-            .map(_.toSet)
-          _ <- Future {
-            assert(
-              packageIds.toSet.intersect(vettedPackageIds).isEmpty,
-              s"Participant $participantUid does not see that $onParticipantUid unvets ${packages.mkString(",")}",
-            )
-          }
-        } yield ()
-      }
+    _ <- VisibilityWait("admin.unvetting", metrics, waitConfig) { () =>
+      vettedPackageIds(onParticipantUid).map(vettedPackageIds =>
+        Either.cond(
+          packageIds.toSet.intersect(vettedPackageIds).isEmpty,
+          (),
+          s"Participant $participantUid does not see that $onParticipantUid unvets ${packages.mkString(",")}",
+        )
+      )
+    }
   } yield ()
 
   def vetPackages(packages: Iterable[ScriptLedgerClient.ReadablePackageId]): Future[Unit] = for {
@@ -207,28 +197,28 @@ class AdminLedgerClient private[grpcLedgerClient] (
   def waitUntilVettingVisible(
       packages: Iterable[ScriptLedgerClient.ReadablePackageId],
       onParticipantUid: String,
-      attempts: Int = 10,
-      firstWaitTime: Duration = 100.millis,
+      metrics: ScriptMetrics,
+      waitConfig: VisibilityWait.Config = VisibilityWait.DefaultConfig,
   ): Future[Unit] = for {
     packageIds <- getPackageIds(packages)
-    _ <- RetryStrategy
-      .exponentialBackoff(attempts, firstWaitTime) { (_, _) =>
-        for {
-          vettedPackages <- listVettedPackages()
-          vettedPackageIds <- vettedPackages
-            .getOrElse(onParticipantUid, Seq.empty)
-            .traverse(el => AdminLedgerClient.validateProtoString(el.packageId))
-            .map(_.toSet)
-          _ <- Future {
-            assert(
-              packageIds.toSet.subsetOf(vettedPackageIds),
-              s"Participant $participantUid does not see that $onParticipantUid vets ${packages.mkString(",")}",
-            )
-          }
-        } yield ()
-      }
+    _ <- VisibilityWait("admin.vetting", metrics, waitConfig) { () =>
+      vettedPackageIds(onParticipantUid).map(vettedPackageIds =>
+        Either.cond(
+          packageIds.toSet.subsetOf(vettedPackageIds),
+          (),
+          s"Participant $participantUid does not see that $onParticipantUid vets ${packages.mkString(",")}",
+        )
+      )
+    }
   } yield ()
 
+  private[this] def vettedPackageIds(onParticipantUid: String): Future[Set[String]] = for {
+    vettedPackages <- listVettedPackages()
+    vettedPackageIds <- vettedPackages
+      .getOrElse(onParticipantUid, Seq.empty)
+      .traverse(el => AdminLedgerClient.validateProtoString(el.packageId))
+  } yield vettedPackageIds.toSet
+
   private[this] def getPackageIds(
       packages: Iterable[ScriptLedgerClient.ReadablePackageId]
   ): Future[Iterable[String]] = for {
@@ -331,25 +321,22 @@ class AdminLedgerClient private[grpcLedgerClient] (
   def waitUntilHostingVisible(
       partyId: String,
       onParticipantUids: Iterable[String],
-      attempts: Int = 10,
-      firstWaitTime: Duration = 100.millis,
+      metrics: ScriptMetrics,
+      waitConfig: VisibilityWait.Config = VisibilityWait.DefaultConfig,
   ): Future[Unit] = {
     val expectedSet = onParticipantUids.toSet
     for {
       synchronizerId <- getSynchronizerId
-      _ <- RetryStrategy
-        .exponentialBackoff(attempts, firstWaitTime) { (_, _) =>
-          for {
-            hostingParticipants <- listHostingParticipants(partyId, synchronizerId)
-            visibleSet = hostingParticipants.map(_.participantUid).toSet
-            _ <- Future {
-              assert(
-                visibleSet == expectedSet,
-                s"Participant $participantUid does not yet see that $expectedSet host $partyId but instead lists $visibleSet",
-              )
-            }
-          } yield ()
+      _ <- VisibilityWait("admin.hosting", metrics, waitConfig) { () =>
+        listHostingParticipants(partyId, synchronizerId).map { hostingParticipants =>
+          val visibleSet = hostingParticipants.map(_.participantUid).toSet
+          Either.cond(
+            visibleSet == expectedSet,
+            (),
+            s"Participant $participantUid does not yet see that $expectedSet host $partyId but instead lists $visibleSet",
+          )
         }
+      }
     } yield ()
   }
 
@@ -8,6 +8,8 @@ package grpcLedgerClient
 
 import java.time.Instant
 import java.util.UUID
+import java.util.concurrent.TimeoutException
+import java.util.concurrent.atomic.AtomicLong
 import org.apache.pekko.stream.Materializer
 import com.daml.grpc.adapter.ExecutionSequencerFactory
 import com.digitalasset.canton.ledger.api.PartyDetails
@@ -42,14 +44,14 @@ import com.daml.ledger.api.v2.transaction_filter.{
 }
 import com.daml.ledger.api.v2.transaction_filter.TransactionShape.TRANSACTION_SHAPE_LEDGER_EFFECTS
 import com.daml.ledger.api.v2.{value => api}
-import com.daml.timer.RetryStrategy
 import com.digitalasset.canton.ledger.client.LedgerClient
 import com.digitalasset.canton.logging.NamedLoggerFactory
 import com.digitalasset.daml.lf.CompiledPackages
 import com.digitalasset.daml.lf.command
 import com.digitalasset.daml.lf.data.Ref._
 import com.digitalasset.daml.lf.data.{Bytes, Ref, Time}
-import com.digitalasset.daml.lf.engine.script.v2.Converter
+import com.digitalasset.daml.lf.engine.script.ScriptMetrics
+import com.digitalasset.daml.lf.engine.script.v2.{ConversionCache, Converter}
 import com.digitalasset.daml.lf.engine.refinement.Enricher
 import com.digitalasset.daml.lf.engine.Result.lookupHandler
 import com.digitalasset.daml.lf.interpretation.Error.ContractIdInContractKey
@@ -66,7 +68,8 @@ import com.digitalasset.canton.ledger.api.util.LfEngineToApi.{
 import com.digitalasset.daml.lf.script.converter.ConverterException
 import com.digitalasset.canton.tracing.TraceContext
 import com.digitalasset.daml.lf.command.ApiContractKey
-import io.grpc.{Status, StatusRuntimeException}
+import com.daml.timer.Timeout
+import io.grpc.{Context, Status, StatusRuntimeException}
 import io.grpc.protobuf.StatusProto
 import com.google.rpc.status.{Status => GoogleStatus}
 import cats.data.NonEmptySet
@@ -75,7 +78,8 @@ import scalaz.std.list._
 import com.digitalasset.daml.lf.crypto
 
 import scala.concurrent.{ExecutionContext, Future}
-import scala.concurrent.duration.DurationInt
+import scala.concurrent.duration.{Duration, DurationInt}
+import scala.util.control.NonFatal
 
 class GrpcLedgerClient(
     val grpcClient: LedgerClient,
@@ -83,6 +87,12 @@ class GrpcLedgerClient(
     val oAdminClient: Option[AdminLedgerClient],
     val compiledPackages: CompiledPackages,
     loggerFactory: NamedLoggerFactory,
+    // Time after which a call to the participant is abandoned and cancelled.
+    callTimeout: Duration = Duration.Inf,
+    // Shared with the rest of the script run, see ScriptF.Env.
+    conversionCache: ConversionCache = new ConversionCache,
+    // Where the visibility waits of the client are recorded.
+    metrics: ScriptMetrics = new ScriptMetrics,
 ) extends ScriptLedgerClient {
   override val transport = "gRPC API"
   implicit val traceContext: TraceContext = TraceContext.empty
@@ -92,6 +102,42 @@ class GrpcLedgerClient(
     forbidLocalContractIds = true,
   )
 
+  private[this] val bytes = new AtomicLong
+
+  override def bytesTransferred: Long = bytes.get()
+
+  // Counts the serialized size of the messages exchanged with the participant.
+  private[this] def transferred[M <: scalapb.GeneratedMessage](msgs: Seq[M]): Seq[M] = {
+    bytes.addAndGet(msgs.iterator.map(_.serializedSize.toLong).sum)
+    msgs
+  }
+
+  // Runs a call to the participant in a cancellable gRPC context, cancelled once the call
+  // exceeds `callTimeout`, so that the participant stops working on calls the script gave up on.
+  private[this] def ledgerCall[T](name: String)(call: ExecutionContext => Future[T])(implicit
+      ec: ExecutionContext
+  ): Future[T] =
+    Timeout.cancellable[T](callTimeout)(
+      throw new TimeoutException(s"$name did not complete within $callTimeout")
+    ) { cancellation =>
+      val context = Context.current().withCancellation()
+      cancellation.onCancel { cause =>
+        val _ = context.cancel(cause)
+      }
+      // The continuations of the call run in the context as well, so that the calls they make to
+      // the participant are cancelled with it, and not only the first one.
+      val inContext = ExecutionContext.fromExecutor(
+        context.fixedContextExecutor((task: Runnable) => ec.execute(task)),
+        ec.reportFailure,
+      )
+      val result =
+        try context.call(() => call(inContext))
+        catch { case NonFatal(e) => Future.failed(e) }
+      // Releases the listeners the context registered on its parent.
+      result.onComplete(_ => context.close())(ExecutionContext.parasitic)
+      result
+    }
+
   val enricher = Enricher(
     compiledPackages = compiledPackages,
     // Cannot load packages in GrpcLedgerClient
@@ -232,7 +278,7 @@ class GrpcLedgerClient(
       mat: Materializer,
   ): Future[Vector[(ScriptLedgerClient.ActiveContract, Option[crypto.Hash])]] = {
     val format = templateFormat(parties, templateId, verbose = false)
-    val acsResponse =
+    val acsResponse = ledgerCall("getActiveContracts") { implicit ec =>
       grpcClient.stateService.getLedgerEndOffset().flatMap { offset =>
         grpcClient.stateService
           .getActiveContracts(
@@ -240,7 +286,9 @@ class GrpcLedgerClient(
             validAtOffset = offset,
             token = None,
           )
+          .map(transferred)
       }
+    }
     acsResponse.map(activeContracts =>
       activeContracts.toVector.map(activeContract => {
         val createdEvent = activeContract.getCreatedEvent
@@ -317,7 +365,7 @@ class GrpcLedgerClient(
       mat: Materializer,
   ): Future[Seq[(ContractId, Option[Value])]] = {
     val format = interfaceFormat(parties, interfaceId, verbose = false)
-    val acsResponse =
+    val acsResponse = ledgerCall("getActiveContracts") { implicit ec =>
       grpcClient.stateService.getLedgerEndOffset().flatMap { offset =>
         grpcClient.stateService
           .getActiveContracts(
@@ -325,7 +373,9 @@ class GrpcLedgerClient(
             validAtOffset = offset,
             token = None,
           )
+          .map(transferred)
       }
+    }
     acsResponse.map(activeContracts =>
       activeContracts.toVector.flatMap(activeContract => {
         val createdEvent = activeContract.getCreatedEvent
@@ -461,14 +511,23 @@ class GrpcLedgerClient(
         .withDisclosedContracts(ledgerDisclosures)
         .withPrefetchContractKeys(ledgerPrefetchContractKeys)
         .withPackageIdSelectionPreference(optPackagePreference.getOrElse(List.empty))
-      eResp <- grpcClient.commandService
-        .submitAndWaitForTransaction(apiCommands, TRANSACTION_SHAPE_LEDGER_EFFECTS)
+      _ = transferred(Seq(apiCommands))
+      eResp <- ledgerCall("submitAndWaitForTransaction") { implicit ec =>
+        grpcClient.commandService
+          .submitAndWaitForTransaction(apiCommands, TRANSACTION_SHAPE_LEDGER_EFFECTS)
+      }
 
       result <- eResp match {
         case Right(resp) =>
+          transferred(Seq(resp))
           for {
             tree <- Converter.toFuture(
-              Converter.fromTransaction(resp.getTransaction, commandResultPackageIds, enricher)
+              Converter.fromTransaction(
+                resp.getTransaction,
+                commandResultPackageIds,
+                enricher,
+                conversionCache,
+              )
             )
             results = ScriptLedgerClient.transactionTreeToCommandResults(tree)
           } yield Right((results, tree))
@@ -496,28 +555,31 @@ class GrpcLedgerClient(
     } yield result
   }
 
+  private[this] val partyAllocationWaitConfig =
+    VisibilityWait.DefaultConfig.copy(timeout = 1.second)
+
   override def allocateParty(partyIdHint: String)(implicit
       ec: ExecutionContext,
       mat: Materializer,
   ) =
     for {
-      party <- grpcClient.partyManagementClient
-        .allocateParty(hint = Some(partyIdHint), token = None)
-        .map(_.party)
-      // TODO[23063]: reconsider usage of RetryStrategy
-      _ <- RetryStrategy.constant(5, 200.milliseconds) { case (_, _) =>
-        for {
-          res <- grpcClient.stateService
+      party <- ledgerCall("allocateParty") { implicit ec =>
+        grpcClient.partyManagementClient
+          .allocateParty(hint = Some(partyIdHint), token = None)
+          .map(_.party)
+      }
+      _ <- VisibilityWait("ledger.partyAllocation", metrics, partyAllocationWaitConfig) { () =>
+        ledgerCall("getConnectedSynchronizers") { implicit ec =>
+          grpcClient.stateService
             .getConnectedSynchronizers(party = party, token = None)
-          _ <-
-            if (res.connectedSynchronizers.isEmpty)
-              Future.failed(
-                new java.util.concurrent.TimeoutException(
-                  "Party not allocated on any synchronizer within 1 second"
-                )
+            .map(res =>
+              Either.cond(
+                res.connectedSynchronizers.nonEmpty,
+                (),
+                s"Party $party not allocated on any synchronizer",
               )
-            else Future.unit
-        } yield ()
+            )
+        }
       }
     } yield party
 
@@ -526,10 +588,12 @@ class GrpcLedgerClient(
       mat: Materializer,
   ): Future[List[PartyDetails]] = {
     def listParties(pageToken: String): Future[List[PartyDetails]] = for {
-      response <- grpcClient.partyManagementClient.listKnownParties(
-        pageToken = pageToken,
-        pageSize = 0, // lets the server pick the page size
-      )
+      response <- ledgerCall("listKnownParties") { implicit ec =>
+        grpcClient.partyManagementClient.listKnownParties(
+          pageToken = pageToken,
+          pageSize = 0, // lets the server pick the page size
+        )
+      }
       (parties, nextPageToken) = response
       tail <- if (nextPageToken.isEmpty) Future.successful(Nil) else listParties(nextPageToken)
     } yield parties ++ tail
@@ -544,7 +608,7 @@ class GrpcLedgerClient(
   ): Future[Time.Timestamp] = {
     val timeService: TimeServiceStub = TimeServiceGrpc.stub(grpcClient.channel)
     for {
-      resp <- timeService.getTime(GetTimeRequest())
+      resp <- ledgerCall("getTime")(implicit ec => timeService.getTime(GetTimeRequest()))
       instant = Instant.ofEpochSecond(resp.getCurrentTime.seconds, resp.getCurrentTime.nanos.toLong)
     } yield Time.Timestamp.assertFromInstant(instant, java.math.RoundingMode.HALF_UP)
   }
@@ -556,13 +620,15 @@ class GrpcLedgerClient(
   ): Future[Unit] = {
     val timeService: TimeServiceStub = TimeServiceGrpc.stub(grpcClient.channel)
     for {
-      oldTime <- timeService.getTime(GetTimeRequest())
-      _ <- timeService.setTime(
-        SetTimeRequest(
-          oldTime.currentTime,
-          Some(toTimestamp(time.toInstant)),
+      oldTime <- ledgerCall("getTime")(implicit ec => timeService.getTime(GetTimeRequest()))
+      _ <- ledgerCall("setTime") { implicit ec =>
+        timeService.setTime(
+          SetTimeRequest(
+            oldTime.currentTime,
+            Some(toTimestamp(time.toInstant)),
+          )
         )
-      )
+      }
     } yield ()
   }
 
@@ -650,16 +716,22 @@ class GrpcLedgerClient(
       esf: ExecutionSequencerFactory,
       mat: Materializer,
   ): Future[Option[Unit]] =
-    grpcClient.userManagementClient.createUser(user, rights).map(_ => Some(())).recover {
-      case e: StatusRuntimeException if e.getStatus.getCode == Status.Code.ALREADY_EXISTS => None
+    ledgerCall("createUser") { implicit ec =>
+      grpcClient.userManagementClient.createUser(user, rights)
     }
+      .map(_ => Some(()))
+      .recover {
+        case e: StatusRuntimeException if e.getStatus.getCode == Status.Code.ALREADY_EXISTS => None
+      }
 
   override def getUser(id: UserId)(implicit
       ec: ExecutionContext,
       esf: ExecutionSequencerFactory,
       mat: Materializer,
   ): Future[Option[User]] =
-    grpcClient.userManagementClient.getUser(id).map(Some(_)).recover {
+    ledgerCall("getUser") { implicit ec =>
+      grpcClient.userManagementClient.getUser(id)
+    }.map(Some(_)).recover {
       case e: StatusRuntimeException if e.getStatus.getCode == Status.Code.NOT_FOUND => None
     }
 
@@ -668,7 +740,9 @@ class GrpcLedgerClient(
       esf: ExecutionSequencerFactory,
       mat: Materializer,
   ): Future[Option[Unit]] =
-    grpcClient.userManagementClient.deleteUser(id).map(Some(_)).recover {
+    ledgerCall("deleteUser") { implicit ec =>
+      grpcClient.userManagementClient.deleteUser(id)
+    }.map(Some(_)).recover {
       case e: StatusRuntimeException if e.getStatus.getCode == Status.Code.NOT_FOUND => None
     }
 
@@ -680,20 +754,21 @@ class GrpcLedgerClient(
     val pageSize = 100
 
     def listWithPageToken(pageToken: String): Future[List[User]] = {
-      grpcClient.userManagementClient
-        .listUsers(pageToken = pageToken, pageSize = pageSize)
-        .flatMap { case (users, nextPageToken) =>
-          // A note on loop termination:
-          // We terminate the loop when the nextPageToken is empty.
-          // However, we may not terminate the loop with 'users.size < pageSize', because the server
-          // does not guarantee to deliver pageSize users even if there are that many.
-          if (nextPageToken == "") Future.successful(users.toList)
-          else {
-            listWithPageToken(nextPageToken).map { more =>
-              users.toList ++ more
-            }
+      val page = ledgerCall("listUsers") { implicit ec =>
+        grpcClient.userManagementClient.listUsers(pageToken = pageToken, pageSize = pageSize)
+      }
+      page.flatMap { case (users, nextPageToken) =>
+        // A note on loop termination:
+        // We terminate the loop when the nextPageToken is empty.
+        // However, we may not terminate the loop with 'users.size < pageSize', because the server
+        // does not guarantee to deliver pageSize users even if there are that many.
+        if (nextPageToken == "") Future.successful(users.toList)
+        else {
+          listWithPageToken(nextPageToken).map { more =>
+            users.toList ++ more
           }
         }
+      }
     }
 
     listWithPageToken("") // empty-string as pageToken asks for the first page
@@ -707,9 +782,14 @@ class GrpcLedgerClient(
       esf: ExecutionSequencerFactory,
       mat: Materializer,
   ): Future[Option[List[UserRight]]] =
-    grpcClient.userManagementClient.grantUserRights(id, rights).map(_.toList).map(Some(_)).recover {
-      case e: StatusRuntimeException if e.getStatus.getCode == Status.Code.NOT_FOUND => None
+    ledgerCall("grantUserRights") { implicit ec =>
+      grpcClient.userManagementClient.grantUserRights(id, rights)
     }
+      .map(_.toList)
+      .map(Some(_))
+      .recover {
+        case e: StatusRuntimeException if e.getStatus.getCode == Status.Code.NOT_FOUND => None
+      }
 
   override def revokeUserRights(
       id: UserId,
@@ -719,8 +799,9 @@ class GrpcLedgerClient(
       esf: ExecutionSequencerFactory,
       mat: Materializer,
   ): Future[Option[List[UserRight]]] =
-    grpcClient.userManagementClient
-      .revokeUserRights(id, rights)
+    ledgerCall("revokeUserRights") { implicit ec =>
+      grpcClient.userManagementClient.revokeUserRights(id, rights)
+    }
       .map(_.toList)
       .map(Some(_))
       .recover {
@@ -732,15 +813,18 @@ class GrpcLedgerClient(
       esf: ExecutionSequencerFactory,
       mat: Materializer,
   ): Future[Option[List[UserRight]]] =
-    grpcClient.userManagementClient.listUserRights(id).map(_.toList).map(Some(_)).recover {
-      case e: StatusRuntimeException if e.getStatus.getCode == Status.Code.NOT_FOUND => None
-    }
+    ledgerCall("listUserRights")(implicit ec => grpcClient.userManagementClient.listUserRights(id))
+      .map(_.toList)
+      .map(Some(_))
+      .recover {
+        case e: StatusRuntimeException if e.getStatus.getCode == Status.Code.NOT_FOUND => None
+      }
 
   override def vetPackages(packages: List[ScriptLedgerClient.ReadablePackageId])(implicit
       ec: ExecutionContext,
       esf: ExecutionSequencerFactory,
       mat: Materializer,
-  ): Future[Unit] = {
+  ): Future[Unit] = ledgerCall("updateVettedPackages") { implicit ec =>
     grpcClient.packageManagementClient
       .updateVettedPackages(
         UpdateVettedPackagesRequest.of(
@@ -768,7 +852,7 @@ class GrpcLedgerClient(
       ec: ExecutionContext,
       esf: ExecutionSequencerFactory,
       mat: Materializer,
-  ): Future[Unit] = {
+  ): Future[Unit] = ledgerCall("updateVettedPackages") { implicit ec =>
     grpcClient.packageManagementClient
       .updateVettedPackages(
         UpdateVettedPackagesRequest.of(
@@ -791,63 +875,53 @@ class GrpcLedgerClient(
   override def waitUntilVettingVisible(
       packages: Iterable[ScriptLedgerClient.ReadablePackageId],
       onParticipantUid: String,
-  )(implicit ec: ExecutionContext): Future[Unit] = {
-    RetryStrategy.constant(25, 200.milliseconds) { case (_, _) =>
-      for {
-        vettedPackages <- listPackages(packages, onParticipantUid, "")
-        _ <-
-          if (packages.forall(vettedPackages.contains(_)))
-            Future.unit
-          else
-            Future.failed(
-              new java.util.concurrent.TimeoutException(
-                s"Not all packages on participant $onParticipantUid have been vetted within 5 seconds: $packages"
-              )
-            )
-      } yield ()
+  )(implicit ec: ExecutionContext): Future[Unit] =
+    VisibilityWait("ledger.vetting", metrics) { () =>
+      listPackages(packages, onParticipantUid, "").map { vettedPackages =>
+        Either.cond(
+          packages.forall(vettedPackages.contains(_)),
+          (),
+          s"Not all packages on participant $onParticipantUid have been vetted: $packages",
+        )
+      }
     }
-  }
 
   override def waitUntilUnvettingVisible(
       packages: Iterable[ScriptLedgerClient.ReadablePackageId],
       onParticipantUid: String,
-  )(implicit ec: ExecutionContext): Future[Unit] = {
-    RetryStrategy.constant(25, 200.milliseconds) { case (_, _) =>
-      for {
-        vettedPackages <- listPackages(packages, onParticipantUid, "")
-        _ <-
-          if (packages.forall(!vettedPackages.contains(_)))
-            Future.unit
-          else
-            Future.failed(
-              new java.util.concurrent.TimeoutException(
-                s"Not all packages on participant $onParticipantUid have been unvetted within 5 seconds: $packages"
-              )
-            )
-      } yield ()
+  )(implicit ec: ExecutionContext): Future[Unit] =
+    VisibilityWait("ledger.unvetting", metrics) { () =>
+      listPackages(packages, onParticipantUid, "").map { vettedPackages =>
+        Either.cond(
+          packages.forall(!vettedPackages.contains(_)),
+          (),
+          s"Not all packages on participant $onParticipantUid have been unvetted: $packages",
+        )
+      }
     }
-  }
 
   private def listPackages(
       packages: Iterable[ScriptLedgerClient.ReadablePackageId],
       onParticipantUid: String,
       pageToken: String,
   )(implicit ec: ExecutionContext): Future[Seq[ScriptLedgerClient.ReadablePackageId]] = for {
-    response <- grpcClient.packageService
-      .listVettedPackages(
-        ListVettedPackagesRequest.of(
-          packageMetadataFilter = Some(
-            PackageMetadataFilter
-              .of(packageIds = Seq.empty, packageNamePrefixes = packages.map(_.name).toSeq)
-          ),
-          topologyStateFilter = Some(
-            TopologyStateFilter
-              .of(participantIds = Seq(onParticipantUid), synchronizerIds = Seq.empty)
-          ),
-          pageToken = pageToken,
-          pageSize = 0,
+    response <- ledgerCall("listVettedPackages") { implicit ec =>
+      grpcClient.packageService
+        .listVettedPackages(
+          ListVettedPackagesRequest.of(
+            packageMetadataFilter = Some(
+              PackageMetadataFilter
+                .of(packageIds = Seq.empty, packageNamePrefixes = packages.map(_.name).toSeq)
+            ),
+            topologyStateFilter = Some(
+              TopologyStateFilter
+                .of(participantIds = Seq(onParticipantUid), synchronizerIds = Seq.empty)
+            ),
+            pageToken = pageToken,
+            pageSize = 0,
+          )
         )
-      )
+    }
     tail <-
       if (response.nextPageToken.isEmpty) Future.successful(Nil)
       else listPackages(packages, onParticipantUid, response.nextPageToken)
@@ -912,7 +986,7 @@ class GrpcLedgerClient(
         "Attempted to use waitUntilHostingVisible without specifying a adminPort"
       )
     )
-    adminClient.waitUntilHostingVisible(party, onParticipantUids)
+    adminClient.waitUntilHostingVisible(party, onParticipantUids, metrics)
   }
 
   override def getParticipantUid: String = oAdminClient
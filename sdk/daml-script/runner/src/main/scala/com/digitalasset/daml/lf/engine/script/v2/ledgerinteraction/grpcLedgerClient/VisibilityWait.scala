@@ -0,0 +1,95 @@
+// Copyright (c) 2026 Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.digitalasset.daml.lf.engine.script.v2.ledgerinteraction
+package grpcLedgerClient
+
+import com.daml.timer.Delayed
+import com.digitalasset.daml.lf.engine.script.ScriptMetrics
+
+import java.util.concurrent.{ThreadLocalRandom, TimeoutException}
+import scala.concurrent.duration.{Duration, DurationInt, FiniteDuration}
+import scala.concurrent.{ExecutionContext, Future}
+import scala.util.{Failure, Success}
+
+/** Waits until a change made through the ledger or admin API (vetting, unvetting, party
+  * hosting) becomes visible on a participant.
+  *
+  * Neither the ledger API nor the admin API stubs used by daml-script expose a subscription
+  * to topology changes, so visibility is observed by polling. Polling starts with a short
+  * interval, as most changes become visible almost immediately, and then backs off
+  * exponentially up to a cap. A random jitter is applied to every interval so that scripts
+  * running in parallel against the same participant do not poll in lockstep.
+  */
+object VisibilityWait {
+
+  /** @param initialInterval delay before the second poll, the first one is immediate
+    * @param maxInterval upper bound on the delay between two polls
+    * @param timeout overall time after which the wait fails
+    * @param jitter fraction by which each delay is randomly shortened or lengthened
+    */
+  final case class Config(
+      initialInterval: FiniteDuration,
+      maxInterval: FiniteDuration,
+      timeout: FiniteDuration,
+      jitter: Double,
+  )
+
+  val DefaultConfig: Config = Config(
+    initialInterval = 10.millis,
+    maxInterval = 500.millis,
+    timeout = 30.seconds,
+    jitter = 0.2,
+  )
+
+  /** Polls `check` until it returns `Right(())`.
+    *
+    * `check` returns `Left(reason)` while the change is not visible yet. A failed future is
+    * treated the same way, so transient API errors do not abort the wait. Once `timeout` is
+    * exceeded, the result fails with a [[java.util.concurrent.TimeoutException]] carrying the
+    * last reason.
+    *
+    * @param kind name under which the wait is recorded in `metrics`
+    */
+  def apply(kind: String, metrics: ScriptMetrics, config: Config = DefaultConfig)(
+      check: () => Future[Either[String, Unit]]
+  )(implicit ec: ExecutionContext): Future[Unit] = {
+    val t0 = System.nanoTime()
+    val deadline = t0 + config.timeout.toNanos
+
+    def poll(polls: Int, interval: FiniteDuration): Future[Unit] =
+      check().transform(Success(_)).flatMap { result =>
+        val reason = result match {
+          case Success(Right(())) => None
+          case Success(Left(reason)) => Some(reason)
+          // The message of an exception may be null.
+          case Failure(err) => Some(Option(err.getMessage).getOrElse(err.getClass.getName))
+        }
+        reason match {
+          case None =>
+            metrics.recordVisibilityWait(kind, polls, System.nanoTime() - t0, timedOut = false)
+            Future.unit
+          case Some(reason) =>
+            val now = System.nanoTime()
+            if (now >= deadline) {
+              metrics.recordVisibilityWait(kind, polls, now - t0, timedOut = true)
+              val elapsed = Duration.fromNanos(now - t0).toMillis
+              Future.failed(
+                new TimeoutException(s"$reason (gave up after $polls polls and ${elapsed}ms)")
+              )
+            } else {
+              val delay = jittered(interval, config.jitter).min(Duration.fromNanos(deadline - now))
+              val next = (interval * 2).min(config.maxInterval)
+              Delayed.Future.by(delay)(poll(polls + 1, next))
+            }
+        }
+      }
+
+    poll(1, config.initialInterval)
+  }
+
+  private def jittered(interval: FiniteDuration, jitter: Double): FiniteDuration = {
+    val factor = 1.0 + jitter * (2 * ThreadLocalRandom.current().nextDouble() - 1)
+    Duration.fromNanos((interval.toNanos * factor).toLong).max(1.milli)
+  }
+}
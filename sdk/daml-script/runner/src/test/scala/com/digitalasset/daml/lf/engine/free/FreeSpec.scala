@@ -0,0 +1,85 @@
+// Copyright (c) 2026 Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.digitalasset.daml.lf.engine.free
+
+import org.scalatest.freespec.AnyFreeSpec
+import org.scalatest.matchers.should.Matchers
+
+import java.util.concurrent.atomic.AtomicInteger
+import scala.concurrent.duration.DurationInt
+import scala.concurrent.{Await, ExecutionContext, Future}
+
+final class FreeSpec extends AnyFreeSpec with Matchers {
+
+  import Free.Result
+
+  // Asks for the successor of each number from 0 until it gets `n`.
+  private def countTo(n: Int): Result[Int, Int, Int] = {
+    def go(i: Int): Result[Int, Int, Int] =
+      if (i >= n) Result.successful(i)
+      else Result.Ask[Int, Int, Int](i, _.fold(Result.failed, go))
+    go(0)
+  }
+
+  private def successor(q: Int): Future[Result[Int, Int, Int]] =
+    Future.successful(Result.successful(q + 1))
+
+  // Counts the tasks scheduled on it.
+  private final class CountingEc extends ExecutionContext {
+    val scheduled = new AtomicInteger
+    override def execute(runnable: Runnable): Unit = {
+      scheduled.incrementAndGet()
+      ExecutionContext.global.execute(runnable)
+    }
+    override def reportFailure(cause: Throwable): Unit =
+      ExecutionContext.global.reportFailure(cause)
+  }
+
+  "Result.runF" - {
+    "consumes completed answers on the current thread" in {
+      val ec = new CountingEc
+      Await.result(countTo(100).runF(successor)(ec), 10.seconds) shouldBe 100
+      ec.scheduled.get shouldBe 0
+    }
+
+    "goes through the execution context once the inline steps are exhausted" in {
+      val ec = new CountingEc
+      Await.result(countTo(100).runF(successor, maxInlineSteps = 10)(ec), 10.seconds) shouldBe 100
+      // Every 11th answer, after 10 answers consumed inline.
+      ec.scheduled.get shouldBe 9
+    }
+
+    "does not grow the stack with the inline steps" in {
+      val ec = new CountingEc
+      val result = countTo(1000000).runF(successor, maxInlineSteps = Int.MaxValue)(ec)
+      Await.result(result, 10.seconds) shouldBe 1000000
+    }
+
+    "waits for answers that are not completed yet" in {
+      implicit val ec: ExecutionContext = ExecutionContext.global
+      val result = countTo(100).runF((q: Int) => Future(Result.successful(q + 1)))
+      Await.result(result, 10.seconds) shouldBe 100
+    }
+
+    "fails with a failed answer" in {
+      implicit val ec: ExecutionContext = ExecutionContext.global
+      val result = countTo(100).runF((q: Int) =>
+        if (q == 50) Future.failed(new RuntimeException("no answer")) else successor(q)
+      )
+      the[RuntimeException] thrownBy Await.result(result, 10.seconds) should have message
+        "no answer"
+    }
+  }
+
+  "FutureNowOps" - {
+    import Free.FutureNowOps
+
+    "applies its function right away to a completed future" in {
+      implicit val ec: CountingEc = new CountingEc
+      val result = Future.successful(1).mapNow(_ + 1).flatMapNow(x => Future.successful(x * 2))
+      result.value shouldBe Some(scala.util.Success(4))
+      ec.scheduled.get shouldBe 0
+    }
+  }
+}
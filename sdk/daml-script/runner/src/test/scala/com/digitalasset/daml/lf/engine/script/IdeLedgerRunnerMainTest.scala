@@ -64,6 +64,31 @@ final class IdeLedgerRunnerMainTest extends AsyncFreeSpec with RunnerMainTestBas
             }
         }
       }
+    "Runs a load test" in
+      testDamlScript(
+        dars(0),
+        Seq(
+          "--ide-ledger",
+          "--script-name",
+          "TestScript:myScript",
+          "--load-workers",
+          "2",
+          "--load-runs",
+          "4",
+        ),
+        Right(Seq("4 runs, 0 failed")),
+      )
+    "Fails a load test of several scripts" in
+      testDamlScript(
+        dars(0),
+        Seq(
+          "--ide-ledger",
+          "--all",
+          "--load-workers",
+          "2",
+        ),
+        Left(Seq("--all and --load-workers are incompatible")),
+      )
     "Fails trying to upload dar with --all" in
       testDamlScript(
         dars(0),
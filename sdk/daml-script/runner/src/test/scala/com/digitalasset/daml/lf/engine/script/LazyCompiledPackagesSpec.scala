@@ -0,0 +1,112 @@
+// Copyright (c) 2026 Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.digitalasset.daml.lf.engine.script
+
+import com.daml.bazeltools.BazelRunfiles
+import com.digitalasset.daml.lf.PureCompiledPackages
+import com.digitalasset.daml.lf.archive.DarDecoder
+import com.digitalasset.daml.lf.data.Ref.{Identifier, PackageId, QualifiedName}
+import com.digitalasset.daml.lf.engine.ScriptEngine.defaultCompilerConfig
+import com.digitalasset.daml.lf.language.{PackageInterface, Util => AstUtil}
+import com.digitalasset.daml.lf.speedy.{Compiler, SDefinition}
+import com.digitalasset.daml.lf.speedy.SExpr.{LfDefRef, SDefinitionRef}
+import org.scalatest.freespec.AnyFreeSpec
+import org.scalatest.matchers.should.Matchers
+
+import java.nio.file.Paths
+import java.util.concurrent.{Callable, CountDownLatch, Executors, TimeUnit}
+import scala.util.Random
+
+final class LazyCompiledPackagesSpec extends AnyFreeSpec with Matchers {
+
+  private val dar = DarDecoder.assertReadArchiveFromFile(
+    BazelRunfiles.rlocation(Paths.get("daml-script/runner/test-script1.dar")).toFile
+  )
+  private val packages = dar.all.toMap
+
+  // Validation is the same for both builds, so it is left out to compare compilation only.
+  private val config =
+    defaultCompilerConfig.copy(packageValidation = Compiler.NoPackageValidation)
+
+  private val eager = PureCompiledPackages.assertBuild(packages, config)
+  private val eagerRefs = eager.definitions.keySet
+
+  private def newLazy() = LazyCompiledPackages.assertBuild(packages, config, None)
+
+  private def id(pkgId: PackageId, name: String) =
+    Identifier(pkgId, QualifiedName.assertFromString(name))
+
+  "LazyCompiledPackages" - {
+    "defines the same references as the eager build" in {
+      val lzy = newLazy()
+      eagerRefs.foreach(ref => lzy.definitions.get(ref) shouldBe defined)
+      lzy.definitions.keySet shouldBe eagerRefs
+    }
+
+    "looks up unknown references as undefined" in {
+      val lzy = newLazy()
+      val mainId = dar.main._1
+      val unknownPkgId = PackageId.assertFromString("unknown-package")
+      Seq(
+        id(unknownPkgId, "TestScript:myScript"),
+        id(mainId, "UnknownModule:myScript"),
+        id(mainId, "TestScript:unknownScript"),
+      ).foreach { ref =>
+        lzy.definitions.get(LfDefRef(ref)) shouldBe None
+        eager.definitions.get(LfDefRef(ref)) shouldBe None
+      }
+      // Unknown references do not prevent the known ones from being compiled afterwards.
+      lzy.definitions.get(LfDefRef(id(mainId, "TestScript:myScript"))) shouldBe defined
+      lzy.definitions.keySet shouldBe eagerRefs
+    }
+
+    "compiles each module once when first looked up concurrently" in {
+      val lzy = newLazy()
+      // One definition per module, looked up in a different order by each thread.
+      val refs = eagerRefs.toSeq
+        .groupBy(ref => (ref.packageId, ref.ref.qualifiedName.module))
+        .values
+        .map(_.head)
+        .take(32)
+        .toSeq
+      val threads = 8
+      val start = new CountDownLatch(1)
+      val executor = Executors.newFixedThreadPool(threads)
+      try {
+        val lookups = (0 until threads).map { i =>
+          executor.submit(new Callable[Map[SDefinitionRef, SDefinition]] {
+            override def call(): Map[SDefinitionRef, SDefinition] = {
+              start.await()
+              new Random(i.toLong)
+                .shuffle(refs)
+                .map(ref => ref -> lzy.definitions.get(ref).getOrElse(fail(s"undefined $ref")))
+                .toMap
+            }
+          })
+        }
+        start.countDown()
+        val results = lookups.map(_.get(1, TimeUnit.MINUTES))
+        // A module compiled twice would give distinct instances of its definitions.
+        refs.foreach { ref =>
+          all(results.map(_(ref))) should be theSameInstanceAs results.head(ref)
+        }
+      } finally executor.shutdownNow()
+    }
+  }
+
+  "RunnerMain.getScriptTests" - {
+    "finds the same scripts from the signatures, the lazy and the eager builds" in {
+      val signatures = new PackageInterface(AstUtil.toSignatures(packages))
+      val scripts = RunnerMain.getScriptTests(dar, signatures)
+      scripts.map(_.qualifiedName.toString) should contain allOf (
+        "TestScript:myScript",
+        "TestScript:myOtherScript",
+      )
+      scripts.map(_.qualifiedName.toString) should not contain "TestScript:inputScript"
+      RunnerMain.getScriptTests(dar, newLazy().pkgInterface) should contain theSameElementsAs
+        scripts
+      RunnerMain.getScriptTests(dar, eager.pkgInterface) should contain theSameElementsAs scripts
+    }
+  }
+}
@@ -0,0 +1,77 @@
+// Copyright (c) 2026 Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.digitalasset.daml.lf.engine.script
+
+import com.daml.bazeltools.BazelRunfiles
+import com.digitalasset.daml.lf.archive.DarDecoder
+import com.digitalasset.daml.lf.language.{LanguageVersion, PackageInterface}
+import com.digitalasset.daml.lf.speedy.Compiler
+import org.scalatest.freespec.AnyFreeSpec
+import org.scalatest.matchers.should.Matchers
+
+import java.nio.charset.StandardCharsets
+import java.nio.file.{Files, Paths}
+
+final class PackageCacheSpec extends AnyFreeSpec with Matchers {
+
+  private val dar = DarDecoder.assertReadArchiveFromFile(
+    BazelRunfiles.rlocation(Paths.get("daml-script/runner/test-script1.dar")).toFile
+  )
+  private val packages = dar.all.toMap
+  private val mainId = dar.main._1
+  private val interface = PackageInterface(packages)
+  // Validating against an empty interface fails, as the packages reference each other, so a
+  // successful validation against it means the cache was hit.
+  private val emptyInterface = new PackageInterface(Map.empty)
+
+  private val config = Compiler.Config(
+    allowedLanguageVersions = LanguageVersion.allLfVersions,
+    packageValidation = Compiler.FullPackageValidation,
+    profiling = Compiler.NoProfile,
+    stacktracing = Compiler.FullStackTrace,
+  )
+
+  private def newCache() = new PackageCache(Files.createTempDirectory("package-cache"))
+
+  "PackageCache" - {
+    "validates the packages it misses" in {
+      val cache = newCache()
+      cache.isValidated(mainId, config) shouldBe false
+      cache.validatePackages(emptyInterface, packages, config) shouldBe a[Left[_, _]]
+      cache.isValidated(mainId, config) shouldBe false
+    }
+
+    "skips the validation of packages validated by a previous run" in {
+      val dir = newCache().dir
+      new PackageCache(dir).validatePackages(interface, packages, config) shouldBe Right(())
+
+      val cache = new PackageCache(dir)
+      packages.keys.foreach(cache.isValidated(_, config) shouldBe true)
+      cache.validatePackages(emptyInterface, packages, config) shouldBe Right(())
+    }
+
+    "does not hit entries of another configuration" in {
+      val cache = newCache()
+      cache.validatePackages(interface, packages, config) shouldBe Right(())
+      val other = config.copy(stacktracing = Compiler.NoStackTrace)
+      cache.isValidated(mainId, other) shouldBe false
+      cache.validatePackages(emptyInterface, packages, other) shouldBe a[Left[_, _]]
+    }
+
+    "treats a corrupted entry as a miss and rewrites it" in {
+      val cache = newCache()
+      cache.validatePackages(interface, packages, config) shouldBe Right(())
+      val entry = cache.entry(mainId, config)
+      val _ = Files.write(entry, "garbage".getBytes(StandardCharsets.UTF_8))
+
+      cache.isValidated(mainId, config) shouldBe false
+      cache.validatePackages(interface, packages, config) shouldBe Right(())
+      cache.isValidated(mainId, config) shouldBe true
+    }
+
+    "is not used unless asked for" in {
+      PackageCache.validatePackages(None, emptyInterface, packages, config) shouldBe a[Left[_, _]]
+    }
+  }
+}
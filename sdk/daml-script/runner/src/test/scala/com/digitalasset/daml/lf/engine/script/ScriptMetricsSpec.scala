@@ -0,0 +1,102 @@
+// Copyright (c) 2026 Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.digitalasset.daml.lf.engine.script
+
+import org.scalatest.freespec.AnyFreeSpec
+import org.scalatest.matchers.should.Matchers
+
+final class ScriptMetricsSpec extends AnyFreeSpec with Matchers {
+
+  private def millis(n: Long): Long = n * 1000000
+
+  "ScriptMetrics" - {
+    "aggregates commands by name" in {
+      val metrics = new ScriptMetrics
+      metrics.recordCommand("Submit", millis(2), failed = false, waitsOnLedger = true, bytes = 10)
+      metrics.recordCommand("Submit", millis(20), failed = true, waitsOnLedger = true, bytes = 5)
+      metrics.recordCommand("Catch", millis(30), failed = false, waitsOnLedger = false, bytes = 0)
+      metrics.recordInterpretation(millis(7))
+
+      val snapshot = metrics.snapshot
+      snapshot.commandCount shouldBe 3
+      snapshot.bytes shouldBe 15
+      snapshot.interpretationNanos shouldBe millis(7)
+      snapshot.ledgerWaitNanos shouldBe millis(22)
+
+      val submit = snapshot.commands("Submit")
+      submit.count shouldBe 2
+      submit.failures shouldBe 1
+      submit.maxNanos shouldBe millis(20)
+      submit.histogram.sum shouldBe 2
+    }
+
+    "reports quantiles as bucket bounds" in {
+      val metrics = new ScriptMetrics
+      (1 to 99).foreach(_ =>
+        metrics.recordCommand("QueryACS", 50000, failed = false, waitsOnLedger = true, bytes = 0)
+      )
+      metrics.recordCommand("QueryACS", millis(3), failed = false, waitsOnLedger = true, bytes = 0)
+
+      val stats = metrics.snapshot.commands("QueryACS")
+      stats.quantileMicros(0.5) shouldBe 100
+      stats.quantileMicros(0.99) shouldBe 100
+      stats.quantileMicros(1.0) shouldBe 5000
+    }
+
+    "puts latencies above the last bound in the overflow bucket" in {
+      val metrics = new ScriptMetrics
+      metrics.recordCommand(
+        "Sleep",
+        millis(60000),
+        failed = false,
+        waitsOnLedger = false,
+        bytes = 0,
+      )
+
+      val snapshot = metrics.snapshot
+      snapshot.ledgerWaitNanos shouldBe 0
+      val stats = snapshot.commands("Sleep")
+      stats.histogram.last shouldBe 1
+      stats.quantileMicros(0.5) shouldBe 60000000
+    }
+
+    "adds up the cache lookups of several runs" in {
+      val metrics = new ScriptMetrics
+      metrics.recordCacheLookups("choices", hits = 8, misses = 2)
+      metrics.recordCacheLookups("choices", hits = 10, misses = 0)
+
+      val stats = metrics.snapshot.caches("choices")
+      stats shouldBe ScriptMetrics.CacheStats(hits = 18, misses = 2)
+      stats.hitRatio shouldBe 0.9
+    }
+
+    "aggregates visibility waits by kind" in {
+      val metrics = new ScriptMetrics
+      metrics.recordVisibilityWait("ledger.vetting", polls = 1, millis(5), timedOut = false)
+      metrics.recordVisibilityWait("ledger.vetting", polls = 4, millis(40), timedOut = true)
+      metrics.recordVisibilityWait("admin.hosting", polls = 2, millis(10), timedOut = false)
+
+      val waits = metrics.snapshot.visibilityWaits
+      waits("ledger.vetting") shouldBe ScriptMetrics.WaitStats(
+        waits = 2,
+        timeouts = 1,
+        polls = 5,
+        totalNanos = millis(45),
+        maxNanos = millis(40),
+      )
+      waits("admin.hosting").polls shouldBe 2
+    }
+
+    "counts submissions by outcome" in {
+      val metrics = new ScriptMetrics
+      metrics.recordSubmission(committed = true)
+      metrics.recordSubmission(committed = true)
+      metrics.recordSubmission(committed = false)
+
+      val snapshot = metrics.snapshot
+      snapshot.committedSubmissions shouldBe 2
+      snapshot.rejectedSubmissions shouldBe 1
+    }
+  }
+}
@@ -0,0 +1,30 @@
+// Copyright (c) 2026 Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.digitalasset.daml.lf.engine.script
+package v2
+
+import org.scalatest.freespec.AnyFreeSpec
+import org.scalatest.matchers.should.Matchers
+
+final class RunnerSpec extends AnyFreeSpec with Matchers {
+
+  "Runner.waitsOnLedger" - {
+    "counts the commands answered by a participant" in {
+      Runner.waitsOnLedger(ScriptF.ListAllPackages(), ScriptTimeMode.WallClock) shouldBe true
+      Runner.waitsOnLedger(ScriptF.ListVettedPackages(), ScriptTimeMode.Static) shouldBe true
+    }
+
+    "does not count the commands answered locally" in {
+      Runner.waitsOnLedger(ScriptF.Sleep(1000), ScriptTimeMode.Static) shouldBe false
+      Runner.waitsOnLedger(ScriptF.Secp256k1Sign("", ""), ScriptTimeMode.Static) shouldBe false
+      Runner.waitsOnLedger(ScriptF.Secp256k1GenerateKeyPair(), ScriptTimeMode.Static) shouldBe false
+      Runner.waitsOnLedger(ScriptF.ValidateUserId("alice"), ScriptTimeMode.Static) shouldBe false
+    }
+
+    "only counts getTime in static time mode" in {
+      Runner.waitsOnLedger(ScriptF.GetTime(), ScriptTimeMode.Static) shouldBe true
+      Runner.waitsOnLedger(ScriptF.GetTime(), ScriptTimeMode.WallClock) shouldBe false
+    }
+  }
+}
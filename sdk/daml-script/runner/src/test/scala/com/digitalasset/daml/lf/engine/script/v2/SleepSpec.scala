@@ -0,0 +1,52 @@
+// Copyright (c) 2026 Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.digitalasset.daml.lf.engine.script.v2
+
+import org.scalatest.BeforeAndAfterAll
+import org.scalatest.freespec.AsyncFreeSpec
+import org.scalatest.matchers.should.Matchers
+
+import java.util.concurrent.{ExecutorService, Executors, TimeUnit}
+import scala.concurrent.{ExecutionContext, Future}
+
+final class SleepSpec extends AsyncFreeSpec with Matchers with BeforeAndAfterAll {
+
+  private val pool: ExecutorService = Executors.newFixedThreadPool(2)
+  private val poolEc: ExecutionContext = ExecutionContext.fromExecutorService(pool)
+
+  override def afterAll(): Unit = {
+    pool.shutdownNow()
+    super.afterAll()
+  }
+
+  private val sleepNanos = TimeUnit.MILLISECONDS.toNanos(200)
+
+  private def timedSleep(): Future[Long] = {
+    val t0 = System.nanoTime
+    ScriptF.Sleep.sleepAtLeast(sleepNanos).map(_ => System.nanoTime - t0)(poolEc)
+  }
+
+  "Sleep" - {
+    "sleeps at least the requested duration" in {
+      timedSleep().map(_ should be >= sleepNanos)
+    }
+
+    "does not block threads of the execution context" in {
+      val t0 = System.nanoTime
+      val sleepers = Future.traverse((1 to 1000).toList)(_ => timedSleep())
+      // the pool must remain available while all the scripts are sleeping
+      val probe = Future(System.nanoTime - t0)(poolEc)
+      for {
+        probeLatency <- probe
+        elapsed <- sleepers
+        total = System.nanoTime - t0
+      } yield {
+        probeLatency should be < sleepNanos
+        all(elapsed) should be >= sleepNanos
+        // with blocking sleeps this would take 1000 * 200ms / 2 threads
+        total should be < TimeUnit.SECONDS.toNanos(10)
+      }
+    }
+  }
+}
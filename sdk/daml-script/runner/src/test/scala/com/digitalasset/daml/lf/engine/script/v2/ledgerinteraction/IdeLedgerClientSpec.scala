@@ -0,0 +1,258 @@
+// Copyright (c) 2026 Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.digitalasset.daml.lf
+package engine
+package script
+package v2
+package ledgerinteraction
+
+import cats.data.NonEmptySet
+import com.daml.bazeltools.BazelRunfiles
+import com.daml.grpc.adapter.{ExecutionSequencerFactory, PekkoExecutionSequencerPool}
+import com.digitalasset.daml.lf.archive.DarDecoder
+import com.digitalasset.daml.lf.command.ApiCommand
+import com.digitalasset.daml.lf.data.ImmArray
+import com.digitalasset.daml.lf.data.Ref.{ChoiceName, Identifier, Party, QualifiedName}
+import com.digitalasset.daml.lf.engine.ScriptEngine.defaultCompilerConfig
+import com.digitalasset.daml.lf.engine.script.Converter.partyOrder
+import com.digitalasset.daml.lf.language.Ast
+import com.digitalasset.daml.lf.script.IdeLedger
+import com.digitalasset.daml.lf.value.Value.{ContractId, ValueInt64, ValueParty, ValueRecord}
+import org.apache.pekko.actor.ActorSystem
+import org.apache.pekko.stream.Materializer
+import org.scalatest.BeforeAndAfterAll
+import org.scalatest.freespec.AnyFreeSpec
+import org.scalatest.matchers.should.Matchers
+
+import java.nio.file.Paths
+import scala.concurrent.duration.DurationInt
+import scala.concurrent.{Await, ExecutionContext, Future}
+
+final class IdeLedgerClientSpec extends AnyFreeSpec with Matchers with BeforeAndAfterAll {
+
+  private implicit val ec: ExecutionContext = ExecutionContext.global
+  private val system = ActorSystem("IdeLedgerClientSpec")
+  private implicit val mat: Materializer = Materializer(system)
+  private implicit val esf: ExecutionSequencerFactory =
+    new PekkoExecutionSequencerPool("IdeLedgerClientSpecPool")(system)
+
+  override def afterAll(): Unit = {
+    esf.close()
+    val _ = Await.result(system.terminate(), 10.seconds)
+    super.afterAll()
+  }
+
+  private val dar = DarDecoder.assertReadArchiveFromFile(
+    BazelRunfiles.rlocation(Paths.get("daml-script/runner/ide-ledger-test.dar")).toFile
+  )
+  private val compiledPackages =
+    PureCompiledPackages.assertBuild(dar.all.toMap, defaultCompilerConfig)
+  private val assetId =
+    Identifier(dar.main._1, QualifiedName.assertFromString("IdeLedgerTest:Asset"))
+  private val ownedId =
+    Identifier(dar.main._1, QualifiedName.assertFromString("IdeLedgerTest:Owned"))
+  private val ownedViewType: Ast.Type =
+    Ast.TTyCon(Identifier(dar.main._1, QualifiedName.assertFromString("IdeLedgerTest:OwnedView")))
+
+  private def newClient() =
+    new IdeLedgerClient(compiledPackages, ScriptMachineLogger(), () => false)
+
+  private def submitCommand(client: IdeLedgerClient, owner: Party, command: ApiCommand) =
+    client.submit(
+      actAs = NonEmptySet.one(owner),
+      readAs = Set.empty,
+      disclosures = List.empty,
+      optPackagePreference = None,
+      commands = List(ScriptLedgerClient.CommandWithMeta(command, explicitPackageId = true)),
+      prefetchContractKeys = List.empty,
+      optLocation = None,
+      languageVersionLookup = _ => Left("unused"),
+      errorBehaviour = ScriptLedgerClient.SubmissionErrorBehaviour.MustSucceed,
+    )
+
+  private def submitAsset(client: IdeLedgerClient, owner: Party) =
+    submitCommand(
+      client,
+      owner,
+      ApiCommand.Create(
+        assetId.toRef,
+        ValueRecord(None, ImmArray(None -> ValueParty(owner), None -> ValueInt64(0))),
+      ),
+    )
+
+  private def exerciseAsset(
+      client: IdeLedgerClient,
+      owner: Party,
+      cid: ContractId,
+      choice: String,
+  ): Future[Unit] =
+    submitCommand(
+      client,
+      owner,
+      ApiCommand.Exercise(
+        assetId.toRef,
+        cid,
+        ChoiceName.assertFromString(choice),
+        ValueRecord(None, ImmArray.empty),
+      ),
+    ).map {
+      case Right(_) => ()
+      case Left(failure) => fail(s"Unexpected submission failure $failure")
+    }
+
+  private def createAsset(client: IdeLedgerClient, owner: Party): Future[ContractId] =
+    submitAsset(client, owner).map {
+      case Right((Seq(ScriptLedgerClient.CreateResult(cid)), _)) => cid
+      case other => fail(s"Unexpected submission result $other")
+    }
+
+  // Creates the same contract `n` times, one submission after the other or all at once.
+  private def createAssets(n: Int, concurrently: Boolean): Set[ContractId] = {
+    val client = newClient()
+    val cids = for {
+      alice <- client.allocateParty("alice")
+      cids <-
+        if (concurrently)
+          Future.traverse((1 to n).toList)(_ => createAsset(client, alice))
+        else
+          (1 to n).foldLeft(Future.successful(List.empty[ContractId]))((acc, _) =>
+            acc.flatMap(cids => createAsset(client, alice).map(_ :: cids))
+          )
+    } yield cids
+    Await.result(cids, 1.minute).toSet
+  }
+
+  "IdeLedgerClient.submit" - {
+    "draws one seed per submission when submissions conflict" in {
+      // Submissions retried after a conflict would draw extra seeds, and give other contract ids.
+      val sequential = createAssets(50, concurrently = false)
+      sequential should have size 50
+      createAssets(50, concurrently = true) shouldBe sequential
+    }
+  }
+
+  "IdeLedgerClient queries" - {
+    // The assets visible to the party, found by scanning the whole ACS of the ledger, which is
+    // what the index of the active contracts by template replaces.
+    def scannedAssets(client: IdeLedgerClient, party: Party): Set[ContractId] = {
+      val ledger = client.ledger
+      ledger.ledgerData.activeContracts
+        .map(cid =>
+          ledger.lookupGlobalContract(
+            actAs = Set.empty,
+            readAs = Set(party),
+            effectiveAt = ledger.currentTime,
+            coid = cid,
+          )
+        )
+        .collect {
+          case IdeLedger.LookupOk(contract)
+              if contract.templateId == assetId && contract.stakeholders.contains(party) =>
+            contract.contractId
+        }
+    }
+
+    // Checks that both query and queryInterface agree with a scan of the ACS, and returns the
+    // assets they found.
+    def queriedAssets(client: IdeLedgerClient, party: Party): Set[ContractId] = {
+      val result = for {
+        byTemplate <- client.query(NonEmptySet.one(party), assetId)
+        byInterface <- client.queryInterface(NonEmptySet.one(party), ownedId, ownedViewType)
+      } yield (byTemplate, byInterface)
+      val (byTemplate, byInterface) = Await.result(result, 1.minute)
+      val scanned = scannedAssets(client, party)
+      byTemplate.map(_.contractId) should contain theSameElementsAs scanned
+      byTemplate.foreach(_.templateId shouldBe assetId)
+      byInterface.map(_._1) should contain theSameElementsAs scanned
+      all(byInterface.map(_._2)) shouldBe defined
+      scanned
+    }
+
+    "follow the creations and archivals of the ledger" in {
+      val client = newClient()
+      val parties = for {
+        alice <- client.allocateParty("alice")
+        bob <- client.allocateParty("bob")
+      } yield (alice, bob)
+      val (alice, bob) = Await.result(parties, 1.minute)
+      queriedAssets(client, alice) shouldBe empty
+
+      val created = for {
+        first <- createAsset(client, alice)
+        second <- createAsset(client, alice)
+        other <- createAsset(client, bob)
+      } yield (first, second, other)
+      val (first, second, other) = Await.result(created, 1.minute)
+      queriedAssets(client, alice) shouldBe Set(first, second)
+      queriedAssets(client, bob) shouldBe Set(other)
+
+      Await.result(exerciseAsset(client, alice, first, "Archive"), 1.minute)
+      queriedAssets(client, alice) shouldBe Set(second)
+      queriedAssets(client, bob) shouldBe Set(other)
+      val archived = client.queryContractId(NonEmptySet.one(alice), assetId, first)
+      Await.result(archived, 1.minute) shouldBe None
+
+      Await.result(exerciseAsset(client, bob, other, "Archive"), 1.minute)
+      queriedAssets(client, bob) shouldBe empty
+    }
+
+    "ignore the contracts created in a rolled back subtree" in {
+      val client = newClient()
+      val result = for {
+        alice <- client.allocateParty("alice")
+        cid <- createAsset(client, alice)
+        _ <- exerciseAsset(client, alice, cid, "CreateRolledBack")
+      } yield (alice, cid)
+      val (alice, cid) = Await.result(result, 1.minute)
+      queriedAssets(client, alice) shouldBe Set(cid)
+    }
+  }
+
+  "IdeLedgerClient vetting" - {
+    "hides the definitions of unvetted packages" in {
+      val client = newClient()
+      val main = client.getPackageIdReverseMap()(dar.main._1)
+      val result = for {
+        alice <- client.allocateParty("alice")
+        _ <- client.unvetPackages(List(main))
+        unvetted <- submitAsset(client, alice)
+        _ <- client.vetPackages(List(main))
+        vetted <- submitAsset(client, alice)
+      } yield (unvetted, vetted)
+      val (unvetted, vetted) = Await.result(result, 1.minute)
+      unvetted shouldBe a[Left[_, _]]
+      vetted shouldBe a[Right[_, _]]
+    }
+
+    "keeps working once more views than the bound were built" in {
+      val client = newClient()
+      val main = client.getPackageIdReverseMap()(dar.main._1)
+      val others =
+        client.getPackageIdMap().keys.filter(_ != main).take(IdeLedgerClient.MaxPackageViews + 4)
+      val result = for {
+        alice <- client.allocateParty("alice")
+        _ <- others.foldLeft(Future.unit)((acc, pkg) =>
+          for {
+            _ <- acc
+            _ <- client.unvetPackages(List(pkg))
+            _ <- client.vetPackages(List(pkg))
+          } yield ()
+        )
+        cid <- createAsset(client, alice)
+      } yield cid
+      noException should be thrownBy Await.result(result, 1.minute)
+    }
+  }
+
+  "IdeLedgerClient.LruCache" - {
+    "evicts the least recently used entry" in {
+      val cache = new IdeLedgerClient.LruCache[Int, String](2)
+      cache.getOrElseUpdate(1, "a") shouldBe "a"
+      cache.getOrElseUpdate(2, "b") shouldBe "b"
+      cache.getOrElseUpdate(1, fail("1 is cached")) shouldBe "a"
+      cache.getOrElseUpdate(3, "c") shouldBe "c"
+      cache.keys shouldBe Set(1, 3)
+    }
+  }
+}
@@ -0,0 +1,54 @@
+// Copyright (c) 2026 Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.digitalasset.daml.lf.engine.script.v2.ledgerinteraction
+
+import com.digitalasset.daml.lf.data.Bytes
+import com.digitalasset.daml.lf.data.Ref.Identifier
+import com.digitalasset.daml.lf.value.Value.{ContractId, ValueUnit}
+import org.scalatest.Inside
+import org.scalatest.freespec.AnyFreeSpec
+import org.scalatest.matchers.should.Matchers
+
+import java.util.concurrent.atomic.AtomicInteger
+
+final class ScriptLedgerClientSpec extends AnyFreeSpec with Matchers with Inside {
+
+  import ScriptLedgerClient.Created
+
+  private val tplId = Identifier.assertFromString("pkg:Mod:T")
+  private val cid = ContractId.V1.assertFromString("00" + "00" * 32)
+  private val otherTplId = Identifier.assertFromString("pkg:Mod:U")
+  private val blob = Bytes.fromByteArray(Array[Byte](1, 2, 3))
+
+  "Created" - {
+    "only computes its blob when first used" in {
+      val computed = new AtomicInteger
+      val created = Created(tplId, cid, ValueUnit) { () =>
+        val _ = computed.incrementAndGet()
+        blob
+      }
+      computed.get shouldBe 0
+      created.blob shouldBe blob
+      created.blob shouldBe blob
+      computed.get shouldBe 1
+    }
+
+    "is compared and extracted without computing its blob" in {
+      val computed = new AtomicInteger
+      def created(bytes: Bytes) = Created(tplId, cid, ValueUnit) { () =>
+        val _ = computed.incrementAndGet()
+        bytes
+      }
+      created(blob) shouldBe created(Bytes.Empty)
+      created(blob).hashCode shouldBe created(Bytes.Empty).hashCode
+      created(blob) should not be Created(otherTplId, cid, ValueUnit, blob)
+      inside(created(blob)) { case Created(_, `cid`, _) => }
+      computed.get shouldBe 0
+    }
+
+    "exposes its blob explicitly" in {
+      Created(tplId, cid, ValueUnit, blob).blob shouldBe blob
+    }
+  }
+}
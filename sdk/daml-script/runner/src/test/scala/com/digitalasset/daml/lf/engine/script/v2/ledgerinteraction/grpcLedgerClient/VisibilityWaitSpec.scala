@@ -0,0 +1,76 @@
+// Copyright (c) 2026 Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.digitalasset.daml.lf.engine.script.v2.ledgerinteraction
+package grpcLedgerClient
+
+import com.digitalasset.daml.lf.engine.script.ScriptMetrics
+import org.scalatest.freespec.AsyncFreeSpec
+import org.scalatest.matchers.should.Matchers
+
+import java.util.concurrent.TimeoutException
+import java.util.concurrent.atomic.AtomicInteger
+import scala.concurrent.Future
+import scala.concurrent.duration.DurationInt
+
+final class VisibilityWaitSpec extends AsyncFreeSpec with Matchers {
+
+  private val config = VisibilityWait.Config(
+    initialInterval = 1.millis,
+    maxInterval = 5.millis,
+    timeout = 200.millis,
+    jitter = 0.2,
+  )
+
+  // Becomes visible on the n-th poll.
+  private def visibleAfter(n: Int): () => Future[Either[String, Unit]] = {
+    val polls = new AtomicInteger
+    () =>
+      Future.successful(if (polls.incrementAndGet() >= n) Right(()) else Left("not yet"))
+  }
+
+  "VisibilityWait" - {
+    "polls until the change is visible and records the polls" in {
+      val metrics = new ScriptMetrics
+      VisibilityWait("vetting", metrics, config)(visibleAfter(3)).map { _ =>
+        val stats = metrics.snapshot.visibilityWaits("vetting")
+        stats.waits shouldBe 1
+        stats.timeouts shouldBe 0
+        stats.polls shouldBe 3
+      }
+    }
+
+    "records the waits of each kind separately" in {
+      val metrics = new ScriptMetrics
+      for {
+        _ <- VisibilityWait("admin.vetting", metrics, config)(visibleAfter(1))
+        _ <- VisibilityWait("ledger.vetting", metrics, config)(visibleAfter(2))
+      } yield {
+        val waits = metrics.snapshot.visibilityWaits
+        waits.keySet shouldBe Set("admin.vetting", "ledger.vetting")
+        waits("admin.vetting").polls shouldBe 1
+        waits("ledger.vetting").polls shouldBe 2
+      }
+    }
+
+    "fails with the last reason and records the timeout" in {
+      val metrics = new ScriptMetrics
+      recoverToExceptionIf[TimeoutException](
+        VisibilityWait("hosting", metrics, config)(() => Future.successful(Left("not hosted")))
+      ).map { err =>
+        err.getMessage should startWith("not hosted (gave up after")
+        val stats = metrics.snapshot.visibilityWaits("hosting")
+        stats.waits shouldBe 1
+        stats.timeouts shouldBe 1
+        stats.totalNanos should be >= config.timeout.toNanos
+      }
+    }
+
+    "keeps polling through failures without a message" in {
+      val metrics = new ScriptMetrics
+      recoverToExceptionIf[TimeoutException](
+        VisibilityWait("hosting", metrics, config)(() => Future.failed(new RuntimeException()))
+      ).map(_.getMessage should startWith("java.lang.RuntimeException (gave up after"))
+    }
+  }
+}
@@ -6,7 +6,7 @@ package test
 
 import com.daml.bazeltools.BazelRunfiles.rlocation
 import com.daml.integrationtest.CantonConfig
-import com.daml.ports.LockedFreePort
+import com.daml.ports.PortBlock
 import com.digitalasset.daml.lf.data.Ref
 import com.digitalasset.daml.lf.engine.ScriptEngine.defaultCompilerConfig
 import com.sun.net.httpserver.HttpServer
@@ -30,7 +30,7 @@ final class ExternalCallDevIT extends AsyncWordSpec with AbstractScriptTest with
   )
   override lazy val dar: CompiledDar = CompiledDar.read(darPath, defaultCompilerConfig)
 
-  private val lockedPort = LockedFreePort.find()
+  private val portBlock = PortBlock.reserve(1)
 
   // An in-process stand-in for an extension service, up before Canton starts.
   private val server: HttpServer = {
@@ -40,7 +40,7 @@ final class ExternalCallDevIT extends AsyncWordSpec with AbstractScriptTest with
       exchange.getResponseBody.write(bytes)
       exchange.close()
     }
-    val server = HttpServer.create(new InetSocketAddress("127.0.0.1", lockedPort.port.value), 0)
+    val server = HttpServer.create(new InetSocketAddress("127.0.0.1", portBlock(0).value), 0)
     val _ = server.createContext(
       "/api/v1/version",
       exchange =>
@@ -68,14 +68,14 @@ final class ExternalCallDevIT extends AsyncWordSpec with AbstractScriptTest with
     CantonConfig.ExtensionService(
       extensionId = "test-extension",
       address = "127.0.0.1",
-      port = lockedPort.port,
+      port = portBlock(0),
       validateOnStartup = true,
     )
   )
 
   override protected def afterAll(): Unit = {
     server.stop(0)
-    lockedPort.unlock()
+    portBlock.release()
     super.afterAll()
   }
 
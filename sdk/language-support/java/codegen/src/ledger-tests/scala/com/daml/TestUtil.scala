@@ -38,6 +38,9 @@ trait TestLedger extends CantonFixture with SuiteResourceManagementAroundAll {
     BazelRunfiles.rlocation(Paths.get("language-support/java/codegen/ledger-tests-model.dar"))
   )
 
+  // The suites only use the parties they allocate, so they can share a ledger.
+  override protected lazy val shareCanton = true
+
   private var client: LedgerClient = _
 
   override protected def beforeAll(): scala.Unit = {
@@ -10,6 +10,8 @@ import java.util.concurrent.{Executors, ThreadFactory}
 import scala.collection.immutable.Map
 import scala.concurrent.{Await, ExecutionContext, ExecutionContextExecutorService, Future}
 import scala.concurrent.duration._
+import scala.jdk.CollectionConverters._
+import scala.util.Try
 
 import com.digitalasset.daml.lf.archive.DamlLf
 import com.digitalasset.daml.lf.archive.DarParser
@@ -27,50 +29,121 @@ private final class JsCodeGen(
     damlVersion: String,
     allPackages: Map[PackageId, Ast.PackageSignature],
 ) extends StrictLogging {
-  def writePackage(packageId: PackageId, packageSig: Ast.PackageSignature): Unit = {
-    // The directory into which we write this package e.g. '/path/to/daml2js/davl-0.0.4'
-    val packageDir = outputDirectory.resolve(packageSig.metadata.nameDashVersion)
+  // The directory into which we write this package e.g. '/path/to/daml2js/davl-0.0.4'
+  private def packageDir(packageSig: Ast.PackageSignature): Path =
+    outputDirectory.resolve(packageSig.metadata.nameDashVersion)
+
+  private def manifest(packageId: PackageId, files: Seq[String]): JsCodeGen.Manifest =
+    JsCodeGen.Manifest(packageId, damlVersion, npmScope, files)
+
+  /** Whether the output of a previous run for this package is still in place.
+    *
+    * The generated code only depends on the package, whose id is a content hash, and on the
+    * options of the codegen, so the output does not need to be generated again when the manifest
+    * of the package directory matches them and the files it lists still exist.
+    */
+  def isUpToDate(packageId: PackageId, packageSig: Ast.PackageSignature): Boolean = {
+    val dir = packageDir(packageSig)
+    JsCodeGen.Manifest.read(dir).exists { previous =>
+      previous == manifest(packageId, previous.files) &&
+      previous.files.forall(file => Files.isRegularFile(dir.resolve(file)))
+    }
+  }
+
+  def writePackage(packageId: PackageId, packageSig: Ast.PackageSignature)(implicit
+      ec: ExecutionContext
+  ): Future[Unit] = {
+    val packageDir = this.packageDir(packageSig)
     // Where the source files of this package are written e.g. '/path/to/daml2js/davl-0.0.4/lib'
     val srcDir = packageDir.resolve("lib")
     val packageName = packageSig.metadata.name
-    val moduleGens = packageSig.modules
+    val modules = packageSig.modules
       .filter { case (_, module) => !module.isUtilityModule }
       .toSeq
       .sortBy(_._1)
-      .map { case (moduleName, module) =>
-        genModule(ModuleId(packageId, moduleName), packageName, module)
-      }
 
     Files.createDirectories(srcDir)
-    moduleGens.foreach { module =>
-      val moduleDir = module.moduleName.segments.foldLeft(srcDir)(_.resolve(_))
-      Files.createDirectories(moduleDir)
-      Files.write(moduleDir.resolve("module.js"), module.renderJsSource.getBytes)
-      Files.write(moduleDir.resolve("module.d.ts"), module.renderTsExport.getBytes)
+    // Modules are generated independently of each other, so that large packages do not end up
+    // generated by a single thread.
+    Future
+      .traverse(modules) { case (moduleName, module) =>
+        Future {
+          val moduleGen = genModule(ModuleId(packageId, moduleName), packageName, module)
+          val moduleDir = moduleName.segments.foldLeft(srcDir)(_.resolve(_))
+          Files.createDirectories(moduleDir)
+          val files = Seq(
+            writeFile(moduleDir.resolve("module.js"), moduleGen.renderJsSource),
+            writeFile(moduleDir.resolve("module.d.ts"), moduleGen.renderTsExport),
+          )
+          moduleGen -> files
+        }
+      }
+      .map { generated =>
+        val moduleGens = generated.map(_._1)
+        val moduleTree =
+          moduleGens.foldLeft(ModuleTree.empty)((tree, module) => tree.add(module.moduleName))
+        val indexFiles = writeIndexFiles(srcDir, packageId, moduleTree)
+        val dependencies =
+          moduleGens.flatMap(_.externalImports).distinctBy(_._1).map(_._2).sortBy(_.name)
+        val packageFiles = Seq(
+          writeFile(packageDir.resolve("tsconfig.json"), tsConfig),
+          writeFile(
+            packageDir.resolve("package.json"),
+            renderPackageJson(packageSig.metadata, dependencies),
+          ),
+        )
+        val files = (generated.flatMap(_._2) ++ indexFiles ++ packageFiles)
+          .map(packageDir.relativize(_).toString)
+        removeStaleFiles(packageDir, files)
+        // The manifest is written last, so that an interrupted run is not mistaken for a complete
+        // one by the next run.
+        writeFile(JsCodeGen.Manifest.path(packageDir), manifest(packageId, files).render)
+        ()
+      }
+  }
+
+  // Files whose content did not change are left untouched, so that their modification time does
+  // not invalidate the caches of the tools processing the generated code.
+  private def writeFile(path: Path, content: String): Path = {
+    val bytes = content.getBytes
+    val unchanged = Files.isRegularFile(path) &&
+      Files.size(path) == bytes.length.toLong &&
+      java.util.Arrays.equals(Files.readAllBytes(path), bytes)
+    if (!unchanged) {
+      val _ = Files.write(path, bytes)
     }
-    val moduleTree =
-      moduleGens.foldLeft(ModuleTree.empty)((tree, module) => tree.add(module.moduleName))
-    writeIndexFiles(srcDir, packageId, moduleTree)
-    Files.write(packageDir.resolve("tsconfig.json"), tsConfig.getBytes)
-    val dependencies =
-      moduleGens.flatMap(_.externalImports).distinctBy(_._1).map(_._2).sortBy(_.name)
-    val _ = Files.write(
-      packageDir.resolve("package.json"),
-      renderPackageJson(packageSig.metadata, dependencies).getBytes,
-    )
+    path
   }
 
-  private def writeIndexFiles(srcDir: Path, packageId: PackageId, rootTree: ModuleTree): Unit = {
-    Files.write(srcDir.resolve("index.d.ts"), rootTree.renderTsExports(Some(packageId)).getBytes)
-    Files.write(srcDir.resolve("index.js"), rootTree.renderJsExports(Some(packageId)).getBytes)
-    def writeModuleIndex(dir: Path, moduleTree: ModuleTree): Unit = {
-      Files.write(dir.resolve("index.d.ts"), moduleTree.renderTsExports(packageId = None).getBytes)
-      Files.write(dir.resolve("index.js"), moduleTree.renderJsExports(packageId = None).getBytes)
-      moduleTree.childTrees
-        .foreach { case (name, tree) => writeModuleIndex(dir.resolve(name), tree) }
+  // Removes the files generated by a previous run for another version of the package, e.g. the
+  // ones of a module that no longer exists.
+  private def removeStaleFiles(packageDir: Path, files: Seq[String]): Unit =
+    JsCodeGen.Manifest.read(packageDir).foreach { previous =>
+      val current = files.toSet
+      previous.files.filterNot(current).foreach { file =>
+        logger.debug(s"Removing stale file $file from $packageDir")
+        val _ = Files.deleteIfExists(packageDir.resolve(file))
+      }
+    }
+
+  private def writeIndexFiles(
+      srcDir: Path,
+      packageId: PackageId,
+      rootTree: ModuleTree,
+  ): Seq[Path] = {
+    def writeModuleIndex(dir: Path, moduleTree: ModuleTree): Seq[Path] =
+      Seq(
+        writeFile(dir.resolve("index.d.ts"), moduleTree.renderTsExports(packageId = None)),
+        writeFile(dir.resolve("index.js"), moduleTree.renderJsExports(packageId = None)),
+      ) ++ moduleTree.childTrees.flatMap { case (name, tree) =>
+        writeModuleIndex(dir.resolve(name), tree)
+      }
+    Seq(
+      writeFile(srcDir.resolve("index.d.ts"), rootTree.renderTsExports(Some(packageId))),
+      writeFile(srcDir.resolve("index.js"), rootTree.renderJsExports(Some(packageId))),
+    ) ++ rootTree.childTrees.flatMap { case (name, tree) =>
+      writeModuleIndex(srcDir.resolve(name), tree)
     }
-    rootTree.childTrees
-      .foreach { case (name, tree) => writeModuleIndex(srcDir.resolve(name), tree) }
   }
 
   private def renderPackageJson(
@@ -296,6 +369,44 @@ private final class JsCodeGen(
 
 object JsCodeGen extends StrictLogging {
 
+  /** Records what the directory of a package was generated from, and the files generated in it,
+    * relative to the directory.
+    */
+  private[codegen] final case class Manifest(
+      packageId: String,
+      damlVersion: String,
+      npmScope: String,
+      files: Seq[String],
+  ) {
+    def render: String =
+      (Seq(
+        s"package-id: $packageId",
+        s"daml-version: $damlVersion",
+        s"npm-scope: $npmScope",
+      ) ++ files.map(file => s"file: $file")).mkString("", "\n", "\n")
+  }
+
+  private[codegen] object Manifest {
+    def path(packageDir: Path): Path = packageDir.resolve(".daml2js-manifest")
+
+    // Returns None when the manifest is missing or cannot be read, which forces the generation.
+    def read(packageDir: Path): Option[Manifest] = {
+      val manifestPath = path(packageDir)
+      if (!Files.isRegularFile(manifestPath)) None
+      else
+        Try(Files.readAllLines(manifestPath).asScala.toSeq).toOption.flatMap { lines =>
+          def fields(key: String) = lines.collect {
+            case line if line.startsWith(s"$key: ") => line.stripPrefix(s"$key: ")
+          }
+          for {
+            packageId <- fields("package-id").headOption
+            damlVersion <- fields("daml-version").headOption
+            npmScope <- fields("npm-scope").headOption
+          } yield Manifest(packageId, damlVersion, npmScope, fields("file"))
+        }
+    }
+  }
+
   def run(conf: JsCodeGenConf, damlVersion: String): Unit = {
     LoggerFactory
       .getLogger(Logger.ROOT_LOGGER_NAME)
@@ -338,9 +449,16 @@ object JsCodeGen extends StrictLogging {
       _ = assertNoDuplicateNameAndVersion(sortedPackages)
       codegen = new JsCodeGen(outputDir, npmScope, damlVersion, allPackages)
       _ <- Future.traverse(sortedPackages) { case (pkgId, pkg) =>
-        Future {
-          logger.info(s"Generating ${pkg.metadata.nameDashVersion} (hash: $pkgId)")
-          codegen.writePackage(pkgId, pkg)
+        Future(codegen.isUpToDate(pkgId, pkg)).flatMap { upToDate =>
+          if (upToDate) {
+            logger.info(
+              s"Skipping ${pkg.metadata.nameDashVersion} (hash: $pkgId) as its output is up to date"
+            )
+            Future.unit
+          } else {
+            logger.info(s"Generating ${pkg.metadata.nameDashVersion} (hash: $pkgId)")
+            codegen.writePackage(pkgId, pkg)
+          }
         }
       }
     } yield ()
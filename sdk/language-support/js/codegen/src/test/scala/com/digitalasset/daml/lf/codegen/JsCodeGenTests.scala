@@ -87,6 +87,38 @@ final class JsCodeGenTests extends AsyncWordSpec with Assertions {
       }
     }
 
+    "leave up to date and unchanged files untouched" in {
+      withTestDir { implicit testDir =>
+        val testDar = buildDar(
+          name = "test",
+          Seq(
+            "A.daml" -> "module A where data X = X",
+            "B.daml" -> "module B where data Y = Y",
+          ),
+        )
+        def modifiedTimes(outputDir: Path) = {
+          val libDir = outputDir.resolve("test-1.0.0/lib")
+          Seq("index.js", "A/module.js", "B/module.d.ts")
+            .map(file => file -> Files.getLastModifiedTime(libDir.resolve(file)))
+        }
+        for {
+          outputDir <- runGen(testDar)
+          firstTimes = modifiedTimes(outputDir)
+          // Skipped as the manifest matches.
+          _ <- runGen(testDar)
+          secondTimes = modifiedTimes(outputDir)
+          // Generated again, but with the same content.
+          _ = Files.delete(JsCodeGen.Manifest.path(outputDir.resolve("test-1.0.0")))
+          _ <- runGen(testDar)
+          thirdTimes = modifiedTimes(outputDir)
+        } yield {
+          assert(secondTimes == firstTimes)
+          assert(thirdTimes == firstTimes)
+          assert(Files.exists(JsCodeGen.Manifest.path(outputDir.resolve("test-1.0.0"))))
+        }
+      }
+    }
+
   }
 
   private def assertTsFilesExist(dir: Path)(fileNames: String*)(implicit
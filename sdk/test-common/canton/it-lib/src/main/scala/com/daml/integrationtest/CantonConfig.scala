@@ -162,10 +162,21 @@ final case class CantonConfig(
       ec: ExecutionContext,
       esf: ExecutionSequencerFactory,
       traceContext: TraceContext,
+  ): Future[LedgerClient] =
+    ledgerClient(channel(port, maxInboundMessageSize), token, userId)
+
+  def ledgerClient(
+      channel: ManagedChannel,
+      token: Option[String],
+      userId: Option[Ref.UserId],
+  )(implicit
+      ec: ExecutionContext,
+      esf: ExecutionSequencerFactory,
+      traceContext: TraceContext,
   ): Future[LedgerClient] = {
     import com.digitalasset.canton.ledger.client.configuration._
     LedgerClient(
-      channel = channel(port, maxInboundMessageSize),
+      channel = channel,
       config = LedgerClientConfiguration(
         userId = token.fold(userId.getOrElse(""))(_ => ""),
         commandClient = CommandClientConfiguration.default,
@@ -63,6 +63,10 @@ trait CantonFixtureWithResource[A]
     Some(Ref.UserId.assertFromString(getClass.getName))
   protected lazy val cantonJar: Path = CantonRunner.cantonPath
   protected lazy val targetScope: Option[String] = Option.empty
+  // When true, the suite leases a Canton instance from the CantonPool, shared with the other
+  // suites of the JVM with the same configuration, instead of starting its own. Such suites must
+  // only use fresh parties and users, see CantonPool.
+  protected lazy val shareCanton: Boolean = false
 
   // This flag setup some behavior to ease debugging tests.
   //  If `CantonFixtureDebugKeepTmpFiles` or `CantonFixtureDebugRemoveTmpFiles`
@@ -117,7 +121,9 @@ trait CantonFixtureWithResource[A]
     implicit val resourceContext: ResourceContext = ResourceContext(system.dispatcher)
     new OwnedResource[ResourceContext, (Vector[CantonFixture.LedgerPorts], A)](
       for {
-        ports <- CantonRunner.run(config, cantonTmpDir, logger, darFiles)
+        ports <-
+          if (shareCanton) CantonPool.leased(config, darFiles, logger)
+          else CantonRunner.run(config, cantonTmpDir, logger, darFiles)
         additional <- makeAdditionalResource(ports)
       } yield (ports, additional),
       acquisitionTimeout = 2.minute,
@@ -0,0 +1,217 @@
+// Copyright (c) 2026 Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.daml
+package integrationtest
+
+import com.daml.grpc.adapter.ExecutionSequencerFactory
+import com.daml.ledger.resources.{Resource, ResourceContext, ResourceOwner}
+import com.digitalasset.daml.lf.data.Ref
+import com.digitalasset.canton.ledger.client.LedgerClient
+import com.digitalasset.canton.tracing.TraceContext
+
+import scala.collection.mutable
+import scala.concurrent.{ExecutionContext, Future, Promise}
+import scala.util.{Failure, Success}
+import java.nio.file.{Files, Path}
+
+/** Canton instances shared by the suites of a test JVM.
+  *
+  * Starting Canton takes much longer than most suites run, so instead of starting its own, a suite
+  * may lease one from the pool. Up to [[size]] instances are started for each distinct
+  * configuration and set of DARs, the first time a suite asks for one, and run until the JVM
+  * exits. A suite waits for a lease while all of them are leased.
+  *
+  * Suites sharing an instance only see each other through the ledger, so they must allocate their
+  * parties with [[CantonFixture.freshParty]] and their users with [[CantonFixture.freshUserId]].
+  * The users a suite adds are deleted once it returns its lease, while those the instance was
+  * bootstrapped with are kept. Parties and contracts cannot be removed from a ledger, and stay.
+  */
+object CantonPool {
+
+  /** The number of instances per configuration, set with the `canton-fixture.pool-size` system
+    * property.
+    */
+  lazy val size: Int =
+    sys.props.get("canton-fixture.pool-size").fold(1)(_.toInt).max(1)
+
+  private final class Instance(
+      val config: CantonConfig,
+      val started: CantonRunner.Started,
+      val tmpDir: Path,
+      // The users on each participant once started, which the suites may rely on.
+      val bootstrapUsers: Vector[Set[Ref.UserId]],
+  ) {
+    def ports: Vector[CantonFixture.LedgerPorts] = started._2
+  }
+
+  private final case class Key(config: CantonConfig, darFiles: Seq[Path])
+
+  // Leases the instances of a single key, an instance at a time.
+  private final class Pool(key: Key, logger: org.slf4j.Logger) {
+    private[this] val idle = mutable.Queue.empty[Instance]
+    private[this] val waiting = mutable.Queue.empty[Promise[Instance]]
+    // The instances started or starting.
+    private[this] var started = 0
+
+    def lease()(implicit
+        esf: ExecutionSequencerFactory,
+        traceContext: TraceContext,
+    ): Future[Instance] = {
+      val leased = synchronized {
+        if (idle.nonEmpty) {
+          Some(Future.successful(idle.dequeue()))
+        } else if (started < size) {
+          started += 1
+          None
+        } else {
+          val p = Promise[Instance]()
+          waiting.enqueue(p)
+          Some(p.future)
+        }
+      }
+      leased.getOrElse(start())
+    }
+
+    def release(instance: Instance): Unit = {
+      val waiter = synchronized {
+        if (waiting.isEmpty) idle.enqueue(instance)
+        waiting.removeHeadOption()
+      }
+      waiter.foreach(_.success(instance))
+    }
+
+    // Stops an instance that cannot be leased again, and starts another one in its place if a
+    // suite is waiting for it.
+    def discard(instance: Instance)(implicit
+        esf: ExecutionSequencerFactory,
+        traceContext: TraceContext,
+    ): Unit = {
+      stop(instance)
+      val waiter = synchronized {
+        val waiter = waiting.removeHeadOption()
+        if (waiter.isEmpty) started -= 1
+        waiter
+      }
+      waiter.foreach(_.completeWith(start()))
+    }
+
+    private[this] def start()(implicit
+        esf: ExecutionSequencerFactory,
+        traceContext: TraceContext,
+    ): Future[Instance] = {
+      implicit val ec: ExecutionContext = poolEc
+      val tmpDir = Files.createTempDirectory("CantonPool")
+      val instance = for {
+        process <- CantonRunner.start(
+          key.config,
+          logger,
+          key.darFiles,
+          CantonRunner.CantonFiles(tmpDir),
+        )
+        bootstrapUsers <- Future
+          .traverse(process._2)(ports => withAdminClient(key.config, ports)(listUserIds(_)))
+          .recoverWith { case e => CantonRunner.stop(process).transform(_ => Failure(e)) }
+      } yield new Instance(key.config, process, tmpDir, bootstrapUsers.map(_.toSet))
+      instance.transform {
+        case Success(instance) =>
+          all.synchronized(all += instance)
+          Success(instance)
+        case Failure(e) =>
+          synchronized(started -= 1)
+          com.daml.fs.Utils.deleteRecursively(tmpDir)
+          Failure(e)
+      }
+    }
+  }
+
+  // Outlives the suites, whose own execution contexts stop with them.
+  private val poolEc: ExecutionContext = ExecutionContext.global
+
+  private[this] val pools = mutable.Map.empty[Key, Pool]
+  // All the instances started, stopped when the JVM exits.
+  private val all = mutable.ArrayBuffer.empty[Instance]
+
+  locally {
+    val _ = sys.addShutdownHook(all.synchronized(all.toList).foreach(stop))
+  }
+
+  private def stop(instance: Instance): Unit = {
+    all.synchronized(all -= instance)
+    val _ = CantonRunner.stop(instance.started)
+    com.daml.fs.Utils.deleteRecursively(instance.tmpDir)
+  }
+
+  /** Leases an instance for `config` with `darFiles` uploaded, for the lifetime of the resource. */
+  def leased(
+      config: CantonConfig,
+      darFiles: Seq[Path],
+      logger: org.slf4j.Logger,
+  )(implicit
+      esf: ExecutionSequencerFactory,
+      traceContext: TraceContext,
+  ): ResourceOwner[Vector[CantonFixture.LedgerPorts]] =
+    new ResourceOwner[Vector[CantonFixture.LedgerPorts]] {
+      override def acquire()(implicit
+          context: ResourceContext
+      ): Resource[Vector[CantonFixture.LedgerPorts]] = {
+        val key = Key(config, darFiles)
+        val pool = pools.synchronized(pools.getOrElseUpdate(key, new Pool(key, logger)))
+        Resource(pool.lease())(instance =>
+          cleanUp(instance).transform {
+            case Success(()) =>
+              Success(pool.release(instance))
+            case Failure(e) =>
+              logger.warn("Could not clean up a shared canton instance, stopping it", e)
+              Success(pool.discard(instance))
+          }(poolEc)
+        ).map(_.ports)
+      }
+    }
+
+  // Deletes the users the previous lease added on the participants.
+  private def cleanUp(instance: Instance)(implicit
+      esf: ExecutionSequencerFactory,
+      traceContext: TraceContext,
+  ): Future[Unit] = {
+    implicit val ec: ExecutionContext = poolEc
+    Future
+      .traverse(instance.ports.zip(instance.bootstrapUsers)) { case (ports, bootstrapUsers) =>
+        withAdminClient(instance.config, ports) { client =>
+          listUserIds(client).flatMap { ids =>
+            Future.traverse(ids.filterNot(bootstrapUsers))(
+              client.userManagementClient.deleteUser(_)
+            )
+          }
+        }
+      }
+      .map(_ => ())
+  }
+
+  // Runs `f` with a client of the participant admin.
+  private def withAdminClient[A](config: CantonConfig, ports: CantonFixture.LedgerPorts)(
+      f: LedgerClient => Future[A]
+  )(implicit
+      esf: ExecutionSequencerFactory,
+      traceContext: TraceContext,
+  ): Future[A] = {
+    implicit val ec: ExecutionContext = poolEc
+    val channel = config.channel(ports.ledgerPort)
+    config
+      .ledgerClient(channel, config.adminToken, None)
+      .flatMap(f)
+      .andThen { case _ => channel.shutdownNow() }
+  }
+
+  private def listUserIds(
+      client: LedgerClient,
+      pageToken: String = "",
+  )(implicit ec: ExecutionContext, traceContext: TraceContext): Future[List[Ref.UserId]] =
+    client.userManagementClient.listUsers(pageToken = pageToken, pageSize = 100).flatMap {
+      case (users, nextPageToken) =>
+        // The last page is the one without a next page token, whatever its size.
+        val ids = users.map(_.id).toList
+        if (nextPageToken == "") Future.successful(ids)
+        else listUserIds(client, nextPageToken).map(ids ++ _)
+    }
+}
@@ -14,7 +14,7 @@ import com.daml.jwt.{
 }
 import com.digitalasset.daml.lf.data.Ref
 import com.daml.ledger.resources.{Resource, ResourceContext, ResourceOwner}
-import com.daml.ports.{LockedFreePort, PortLock}
+import com.daml.ports.PortBlock
 import com.daml.timer.RetryStrategy
 import io.circe.Json
 
@@ -34,6 +34,9 @@ object CantonRunner {
 
   lazy val cantonPath = Paths.get(rlocation("canton/community_app_deploy.jar"))
 
+  /** The port blocks reserved for a running Canton, its participant ports and its process. */
+  type Started = (Vector[PortBlock], Vector[CantonFixture.LedgerPorts], Process)
+
   case class CantonFiles(
       bootstrapFile: Path,
       configFile: Path,
@@ -57,20 +60,22 @@ object CantonRunner {
       logger: org.slf4j.Logger,
       darFiles: Seq[Path],
       files: CantonFiles,
-  )(implicit ec: ExecutionContext): Future[
-    (
-        (PortLock.Locked, PortLock.Locked, PortLock.Locked),
-        Vector[(PortLock.Locked, PortLock.Locked)],
-        Process,
-    )
-  ] = {
+  )(implicit ec: ExecutionContext): Future[Started] = {
     def info(s: String) = if (config.debug) logger.info(s)
 
-    val ports =
-      Vector.fill(config.nParticipants)(LockedFreePort.find() -> LockedFreePort.find())
-    val sequencerPublicApi = LockedFreePort.find()
-    val sequencerAdminApi = LockedFreePort.find()
-    val mediatorAdminApi = LockedFreePort.find()
+    // The sequencer and mediator ports, followed by the admin and ledger API ports of every
+    // participant, reserved in as few blocks as possible.
+    val nPorts = 3 + 2 * config.nParticipants
+    val blocks = Vector.tabulate((nPorts + PortBlock.MaxSize - 1) / PortBlock.MaxSize) { i =>
+      PortBlock.reserve((nPorts - i * PortBlock.MaxSize).min(PortBlock.MaxSize))
+    }
+    def port(i: Int) = blocks(i / PortBlock.MaxSize)(i % PortBlock.MaxSize)
+    val sequencerPublicApi = port(0)
+    val sequencerAdminApi = port(1)
+    val mediatorAdminApi = port(2)
+    val ports = Vector.tabulate(config.nParticipants)(i =>
+      CantonFixture.LedgerPorts(ledgerPort = port(4 + 2 * i), adminPort = port(3 + 2 * i))
+    )
     val java = s"${System.getenv("JAVA_HOME")}/bin/java${exe}"
     val (timeType, clockType) = config.timeProviderType match {
       case TimeProviderType.Static => (Some("monotonic-time"), Some("sim-clock"))
@@ -108,16 +113,15 @@ object CantonRunner {
         .mkString("\n        ")
 
     def participantConfig(i: Int) = {
-      val (adminPort, ledgerApiPort) = ports(i)
       val participantId = config.participantIds(i)
       // TODO(https://github.com/DACH-NY/canton/issues/16458): once ProtocolVersion.latest
       //    is stable, revert dev-version-support and non-standard-config to
       //    devMode here and below.
       s"""${participantId} {
-         |      admin-api.port = ${adminPort.port}
+         |      admin-api.port = ${ports(i).adminPort.value}
          |      init.ledger-api.max-deduplication-duration = 0s
          |      ledger-api{
-         |        port = ${ledgerApiPort.port}
+         |        port = ${ports(i).ledgerPort.value}
          |        topology-aware-package-selection.enabled = true
          |        ${authConfig}
          |        ${tls}
@@ -149,8 +153,8 @@ object CantonRunner {
          |
          |  sequencers {
          |    sequencer1 {
-         |        admin-api.port = ${sequencerAdminApi.port}
-         |        public-api.port = ${sequencerPublicApi.port}
+         |        admin-api.port = ${sequencerAdminApi.value}
+         |        public-api.port = ${sequencerPublicApi.value}
          |        sequencer {
          |          config.storage.type = memory
          |          type = reference
@@ -161,7 +165,7 @@ object CantonRunner {
          |
          |  mediators {
          |    mediator1 {
-         |        admin-api.port = ${mediatorAdminApi.port}
+         |        admin-api.port = ${mediatorAdminApi.value}
          |    }
          |  }
          |
@@ -258,7 +262,7 @@ object CantonRunner {
           Future.successful(info(s"${darFiles.size} packages loaded to ${ports.size} participants"))
         else
           Future.failed(new Error("Canton failed expectedly with logs:\n" + outputBuffer))
-    } yield ((sequencerAdminApi, sequencerPublicApi, mediatorAdminApi), ports, proc)
+    } yield (blocks, ports, proc)
   }
 
   private def waitForFile(proc: Process, path: Path)(implicit
@@ -274,23 +278,11 @@ object CantonRunner {
       }
       .map(_ > 0)
 
-  def stop(
-      r: (
-          (PortLock.Locked, PortLock.Locked, PortLock.Locked),
-          Vector[(PortLock.Locked, PortLock.Locked)],
-          Process,
-      )
-  ): Future[Unit] = {
-    val ((sequencerAdminApi, sequencerPublicApi, mediatorAdminApi), ports, process) = r
+  def stop(r: Started): Future[Unit] = {
+    val (blocks, _, process) = r
     process.destroy()
     val _ = process.exitValue()
-    sequencerAdminApi.unlock()
-    sequencerPublicApi.unlock()
-    mediatorAdminApi.unlock()
-    ports.foreach { case (p1, p2) =>
-      p1.unlock()
-      p2.unlock()
-    }
+    blocks.foreach(_.release())
     Future.unit
   }
 
@@ -305,11 +297,7 @@ object CantonRunner {
           context: ResourceContext
       ): Resource[Vector[CantonFixture.LedgerPorts]] = {
         val files = CantonFiles(tmpDir)
-        Resource(start(config, logger, darFiles, files))(stop).map({ case (_, ports, _) =>
-          ports.map { case (adminPort, ledgerPort) =>
-            CantonFixture.LedgerPorts(ledgerPort.port, adminPort.port)
-          }
-        })
+        Resource(start(config, logger, darFiles, files))(stop).map { case (_, ports, _) => ports }
       }
     }
 
@@ -4,7 +4,7 @@
 package com.daml
 package integrationtest
 
-import com.daml.ports.LockedFreePort
+import com.daml.ports.PortBlock
 import com.sun.net.httpserver.HttpServer
 import org.scalatest.matchers.should.Matchers
 import org.scalatest.wordspec.AsyncWordSpec
@@ -18,12 +18,12 @@ final class CantonFixtureExtensionServiceTest
     with CantonFixture
     with Matchers {
 
-  private val lockedPort = LockedFreePort.find()
+  private val portBlock = PortBlock.reserve(1)
   private val versionRequests = new AtomicInteger(0)
 
   // An in-process stand-in for an extension service, up before Canton starts.
   private val server: HttpServer = {
-    val server = HttpServer.create(new InetSocketAddress("127.0.0.1", lockedPort.port.value), 0)
+    val server = HttpServer.create(new InetSocketAddress("127.0.0.1", portBlock(0).value), 0)
     server.createContext(
       "/api/v1/version",
       exchange => {
@@ -45,14 +45,14 @@ final class CantonFixtureExtensionServiceTest
     CantonConfig.ExtensionService(
       extensionId = "test-extension",
       address = "127.0.0.1",
-      port = lockedPort.port,
+      port = portBlock(0),
       validateOnStartup = true,
     )
   )
 
   override protected def afterAll(): Unit = {
     server.stop(0)
-    lockedPort.unlock()
+    portBlock.release()
     super.afterAll()
   }
 
@@ -0,0 +1,70 @@
+// Copyright (c) 2026 Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.daml
+package integrationtest
+
+import com.daml.ledger.resources.ResourceContext
+import com.daml.testing.utils.PekkoBeforeAndAfterAll
+import com.digitalasset.canton.ledger.client.LedgerClient
+import com.digitalasset.canton.tracing.TraceContext
+import com.digitalasset.canton.user.User
+import com.digitalasset.daml.lf.data.Ref
+import org.scalatest.matchers.should.Matchers
+import org.scalatest.wordspec.AsyncWordSpec
+
+import scala.concurrent.Future
+
+final class CantonPoolTest extends AsyncWordSpec with PekkoBeforeAndAfterAll with Matchers {
+
+  private implicit val traceContext: TraceContext = TraceContext.empty
+  private implicit val resourceContext: ResourceContext = ResourceContext(executionContext)
+
+  private val logger = org.slf4j.LoggerFactory.getLogger(getClass)
+  private val config = CantonConfig()
+
+  private def lease() = CantonPool.leased(config, Seq.empty, logger).acquire()
+
+  private def adminClient(ports: Vector[CantonFixture.LedgerPorts]): Future[LedgerClient] =
+    config.ledgerClient(ports.head.ledgerPort, config.adminToken, None)
+
+  private def userIds(client: LedgerClient): Future[Seq[Ref.UserId]] =
+    client.userManagementClient
+      .listUsers(pageToken = "", pageSize = 1000)
+      .map { case (users, _) => users.map(_.id) }
+
+  "CantonPool" should {
+    "lease the same instance again once it is released" in {
+      val first = lease()
+      for {
+        firstPorts <- first.asFuture
+        second = lease()
+        _ = second.asFuture.isCompleted shouldBe false
+        _ <- first.release()
+        secondPorts <- second.asFuture
+        _ <- second.release()
+      } yield secondPorts shouldBe firstPorts
+    }
+
+    "delete the users added by a lease, and only those, once it is released" in {
+      val added = CantonFixture.freshUserId()
+      val first = lease()
+      for {
+        ports <- first.asFuture
+        client <- adminClient(ports)
+        bootstrapUsers <- userIds(client)
+        _ <- client.userManagementClient.createUser(User(added, None), Seq.empty)
+        whileLeased <- userIds(client)
+        _ <- first.release()
+        second = lease()
+        _ <- second.asFuture
+        afterRelease <- userIds(client)
+        _ <- second.release()
+      } yield {
+        bootstrapUsers should contain(CantonRunner.adminUserId)
+        whileLeased should contain(added)
+        afterRelease should contain theSameElementsAs bootstrapUsers
+      }
+    }
+  }
+}
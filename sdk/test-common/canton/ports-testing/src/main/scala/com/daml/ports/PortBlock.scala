@@ -0,0 +1,162 @@
+// Copyright (c) 2026 Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.daml.ports
+
+import java.io.IOException
+import java.net.{InetAddress, ServerSocket}
+import java.nio.ByteBuffer
+import java.nio.channels.{FileChannel, FileLock, OverlappingFileLockException}
+import java.nio.charset.StandardCharsets
+import java.nio.file.{Files, Path, Paths, StandardOpenOption}
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicBoolean
+
+import scala.annotation.tailrec
+
+/** A block of contiguous ports reserved by this process.
+  *
+  * The ports outside of the dynamic port range (see [[FreePort]]) are split into blocks of
+  * [[PortBlock.MaxSize]] ports. A process reserves a block by locking its lock file, in a directory
+  * shared by all the processes of the machine, as [[PortLock]] does for a single port: at most one
+  * process holds a block at a time, and the OS releases the lock of a process that exits, however
+  * it exits, so that its blocks can be reserved again. The lock file holds the id of the last
+  * process to lock it, for debugging only.
+  *
+  * Note, like [[LockedFreePort]], this is a cooperative locking scheme: the ports of a block are
+  * checked to be free when reserving it, but nothing prevents another program to bind them later.
+  */
+final class PortBlock private (
+    val first: Port,
+    val size: Int,
+    channel: FileChannel,
+    lock: FileLock,
+) {
+
+  private[this] val released = new AtomicBoolean(false)
+
+  /** The `i`-th port of the block. */
+  def apply(i: Int): Port = {
+    if (i < 0 || i >= size)
+      throw new IndexOutOfBoundsException(s"Port $i of a block of $size ports")
+    Port(first.value + i)
+  }
+
+  def ports: Vector[Port] = Vector.tabulate(size)(apply)
+
+  /** Releases the block, so that other processes can reserve it. Done when the JVM exits otherwise.
+    */
+  def release(): Unit =
+    if (released.compareAndSet(false, true)) {
+      val _ = PortBlock.reserved.remove(this)
+      PortBlock.unlock(channel, lock)
+    }
+
+  override def toString: String = s"PortBlock(${first.value}-${first.value + size - 1})"
+}
+
+object PortBlock {
+
+  /** The number of ports of a block, enough for a Canton with a sequencer, a mediator and a few
+    * participants.
+    */
+  val MaxSize = 16
+
+  private val maxAttempts = 100
+
+  private val pidBytes = ProcessHandle.current().pid().toString.getBytes(StandardCharsets.UTF_8)
+
+  /** The directory shared by the processes reserving blocks, set with the `daml.port-blocks.dir`
+    * system property.
+    */
+  lazy val lockDir: Path = {
+    val dir = sys.props
+      .get("daml.port-blocks.dir")
+      .fold(Paths.get(sys.props("java.io.tmpdir"), "daml", "build", "port-blocks"))(Paths.get(_))
+    Files.createDirectories(dir)
+  }
+
+  // The first port of every block, outside of the dynamic port range.
+  private[ports] lazy val blockStarts: Vector[Int] = {
+    val (minPort, maxPort) = (1024, 65535)
+    val minExcl = Math.min(Math.max(minPort, FreePort.dynamicRange._1), maxPort)
+    val maxExcl = Math.min(Math.max(minExcl, FreePort.dynamicRange._2), maxPort)
+    def blocks(from: Int, until: Int) = Vector.range(from, until - MaxSize + 1, MaxSize)
+    blocks(minPort, minExcl) ++ blocks(maxExcl + 1, maxPort + 1)
+  }
+
+  // Also keeps the channels of the blocks from being collected, which would release their lock.
+  private val reserved = ConcurrentHashMap.newKeySet[PortBlock]()
+
+  locally {
+    val _ = sys.addShutdownHook(reserved.forEach(_.release()))
+  }
+
+  /** Reserves a block of `size` contiguous free ports.
+    *
+    * Picks blocks at random until one is neither held by another process nor has a port in use.
+    */
+  def reserve(size: Int): PortBlock = {
+    require(size > 0 && size <= MaxSize, s"A block has between 1 and $MaxSize ports, not $size")
+    @tailrec
+    def go(attempts: Int): PortBlock = {
+      if (attempts <= 0) throw FreePort.NoFreePortException
+      val start = blockStarts(scala.util.Random.nextInt(blockStarts.size))
+      tryLock(start) match {
+        case Some((channel, lock)) if (start until start + size).forall(isFree) =>
+          val block = new PortBlock(Port(start), size, channel, lock)
+          val _ = reserved.add(block)
+          block
+        case Some((channel, lock)) =>
+          unlock(channel, lock)
+          go(attempts - 1)
+        case None =>
+          go(attempts - 1)
+      }
+    }
+    go(maxAttempts)
+  }
+
+  private[ports] def lockFileOf(start: Int): Path = lockDir.resolve(s"$start.lock")
+
+  // Locks the lock file of the block, unless another process, or this one, holds it. The file is
+  // never deleted: a process could otherwise lock a new file while another one still holds the
+  // lock of the deleted one.
+  private def tryLock(start: Int): Option[(FileChannel, FileLock)] = {
+    val channel = FileChannel.open(
+      lockFileOf(start),
+      StandardOpenOption.CREATE,
+      StandardOpenOption.WRITE,
+    )
+    val lock =
+      try Option(channel.tryLock())
+      catch {
+        case _: OverlappingFileLockException => None
+        case e: IOException =>
+          channel.close()
+          throw e
+      }
+    lock match {
+      case Some(lock) =>
+        val _ = channel.truncate(0).write(ByteBuffer.wrap(pidBytes))
+        Some((channel, lock))
+      case None =>
+        channel.close()
+        None
+    }
+  }
+
+  private def unlock(channel: FileChannel, lock: FileLock): Unit = {
+    lock.release()
+    channel.close()
+  }
+
+  private def isFree(port: Int): Boolean =
+    try {
+      val socket = new ServerSocket(port, 0, InetAddress.getLoopbackAddress)
+      socket.close()
+      true
+    } catch {
+      case _: IOException => false
+    }
+}
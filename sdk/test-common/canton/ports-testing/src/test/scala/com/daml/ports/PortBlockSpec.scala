@@ -0,0 +1,95 @@
+// Copyright (c) 2026 Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.daml.ports
+
+import java.net.{InetAddress, ServerSocket}
+import java.nio.channels.{FileChannel, OverlappingFileLockException}
+import java.nio.charset.StandardCharsets
+import java.nio.file.{Files, StandardOpenOption}
+import java.util.concurrent.{Callable, Executors, TimeUnit}
+
+import org.scalatest.matchers.should.Matchers
+import org.scalatest.wordspec.AnyWordSpec
+
+import scala.jdk.CollectionConverters._
+import scala.util.{Try, Using}
+
+final class PortBlockSpec extends AnyWordSpec with Matchers {
+
+  // A lock directory of its own, so that the blocks the spec sees are only those it reserves.
+  locally {
+    val _ = sys.props.put(
+      "daml.port-blocks.dir",
+      Files.createTempDirectory("port-blocks").toString,
+    )
+  }
+
+  private def isLocked(block: PortBlock): Boolean =
+    Using.resource(
+      FileChannel.open(PortBlock.lockFileOf(block.first.value), StandardOpenOption.WRITE)
+    ) { channel =>
+      // The blocks are reserved by this process, in which locking them again throws.
+      val lock =
+        try Option(channel.tryLock())
+        catch { case _: OverlappingFileLockException => None }
+      lock.foreach(_.release())
+      lock.isEmpty
+    }
+
+  "PortBlock.reserve" should {
+    "reserve a block of contiguous free ports" in {
+      val block = PortBlock.reserve(5)
+      try {
+        block.size shouldBe 5
+        block.ports shouldBe (0 until 5).map(i => Port(block.first.value + i))
+        PortBlock.blockStarts should contain(block.first.value)
+        all(block.ports.map { port =>
+          Try(new ServerSocket(port.value, 0, InetAddress.getLoopbackAddress).close()).isSuccess
+        }) shouldBe true
+        an[IndexOutOfBoundsException] should be thrownBy block(5)
+      } finally block.release()
+    }
+
+    "refuse blocks of more than MaxSize ports" in {
+      an[IllegalArgumentException] should be thrownBy PortBlock.reserve(PortBlock.MaxSize + 1)
+    }
+
+    "never reserve the same block twice at a time" in {
+      val executor = Executors.newFixedThreadPool(8)
+      try {
+        val blocks = executor
+          .invokeAll(Seq.fill(64)(new Callable[PortBlock] {
+            override def call(): PortBlock = PortBlock.reserve(1)
+          }).asJava)
+          .asScala
+          .map(_.get(30, TimeUnit.SECONDS))
+          .toSeq
+        try blocks.map(_.first).distinct should have size 64
+        finally blocks.foreach(_.release())
+      } finally executor.shutdownNow()
+    }
+
+    "hold the lock of a block until it is released" in {
+      val block = PortBlock.reserve(1)
+      isLocked(block) shouldBe true
+      block.release()
+      isLocked(block) shouldBe false
+      // Releasing twice is harmless.
+      block.release()
+      isLocked(block) shouldBe false
+    }
+
+    "reclaim the blocks left by processes that exited" in {
+      // What a process that exited leaves: the lock files of its blocks, which no one locks, and
+      // which hold the id of a process that is gone.
+      val stale = "999999999".getBytes(StandardCharsets.UTF_8)
+      PortBlock.blockStarts.foreach { start =>
+        val _ = Files.write(PortBlock.lockFileOf(start), stale)
+      }
+      val block = PortBlock.reserve(1)
+      try isLocked(block) shouldBe true
+      finally block.release()
+    }
+  }
+}
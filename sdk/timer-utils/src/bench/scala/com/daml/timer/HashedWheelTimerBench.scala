@@ -0,0 +1,93 @@
+// Copyright (c) 2026 Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.daml.timer
+
+import java.util.TimerTask
+import java.util.concurrent.{CountDownLatch, TimeUnit}
+import org.openjdk.jmh.annotations._
+
+import scala.concurrent.ExecutionContext
+import scala.concurrent.duration.DurationInt
+
+// Schedules 10^6 timeouts, spread over 100ms, from a few threads at once, as when many retries
+// and timeouts are pending together, and compares the hashed wheel with a single
+// java.util.Timer.
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.SingleShotTime)) @OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 3)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+class HashedWheelTimerBench {
+
+  @Param(Array("1000000"))
+  var timeouts: Int = _
+
+  @Param(Array("4"))
+  var threads: Int = _
+
+  private[this] var wheelTimer: HashedWheelTimer = _
+  private[this] var javaTimer: java.util.Timer = _
+
+  @Setup(Level.Trial)
+  def setup(): Unit = {
+    wheelTimer = new HashedWheelTimer("bench-wheel-timer")
+    javaTimer = new java.util.Timer("bench-java-timer", true)
+  }
+
+  @TearDown(Level.Trial)
+  def tearDown(): Unit = {
+    wheelTimer.close()
+    javaTimer.cancel()
+  }
+
+  // Schedules `timeouts` tasks from `threads` threads, and waits for them to run.
+  private[this] def scheduleAll(schedule: (Int, Runnable) => Unit): Unit = {
+    val done = new CountDownLatch(timeouts)
+    val countDown: Runnable = () => done.countDown()
+    val schedulers = (0 until threads).map { t =>
+      new Thread(() => (t until timeouts by threads).foreach(i => schedule(i % 100, countDown)))
+    }
+    schedulers.foreach(_.start())
+    schedulers.foreach(_.join())
+    done.await()
+  }
+
+  @Benchmark
+  def wheelScheduleAndExpire(): Unit =
+    scheduleAll { (delayMillis, task) =>
+      val _ = wheelTimer.schedule(delayMillis.millis)(task.run())(ExecutionContext.parasitic)
+    }
+
+  @Benchmark
+  def javaTimerScheduleAndExpire(): Unit =
+    scheduleAll { (delayMillis, task) =>
+      javaTimer.schedule(
+        new TimerTask {
+          override def run(): Unit = task.run()
+        },
+        delayMillis.toLong,
+      )
+    }
+
+  // Timeouts that do not expire, as most request timeouts: schedules and cancels them.
+  @Benchmark
+  def wheelScheduleAndCancel(): Unit =
+    scheduleAll { (_, task) =>
+      val _ = wheelTimer.schedule(1.minute)(())(ExecutionContext.parasitic).cancel()
+      task.run()
+    }
+
+  @Benchmark
+  def javaTimerScheduleAndCancel(): Unit = {
+    scheduleAll { (_, task) =>
+      val timerTask = new TimerTask {
+        override def run(): Unit = ()
+      }
+      javaTimer.schedule(timerTask, 60000L)
+      val _ = timerTask.cancel()
+      task.run()
+    }
+    val _ = javaTimer.purge()
+  }
+}
@@ -0,0 +1,28 @@
+// Copyright (c) 2026 Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.daml.timer
+
+import scala.concurrent.{ExecutionContext, Future, Promise}
+
+/** Tells some work that its result is no longer needed.
+  *
+  * The work registers what stopping it takes with [[onCancel]], e.g. cancelling a gRPC context or
+  * closing a stream. A cancellation happens at most once, and carries its cause.
+  */
+final class Cancellation {
+
+  private[this] val cause = Promise[Throwable]()
+
+  /** Cancels the work, returns false if it was already cancelled. */
+  def cancel(cause: Throwable): Boolean = this.cause.trySuccess(cause)
+
+  def isCancelled: Boolean = cause.isCompleted
+
+  /** Completes with the cause of the cancellation, never if the work is not cancelled. */
+  def cancelled: Future[Throwable] = cause.future
+
+  /** Runs `callback` once cancelled, right away if already cancelled. */
+  def onCancel(callback: Throwable => Unit): Unit =
+    cause.future.foreach(callback)(ExecutionContext.parasitic)
+}
@@ -13,20 +13,27 @@ import scala.util.control.NonFatal
 object Delayed {
 
   def by[T](t: Duration)(value: => T)(implicit ec: ExecutionContext): ScalaFuture[T] =
-    Future.by(t)(ScalaFuture(value))
+    // The value is computed on `ec` either way, as the timer runs the delayed task on `ec`.
+    if (t.isFinite && t.length < 1) ScalaFuture(value)
+    else delay(t, ec)(ScalaFuture(value)(ExecutionContext.parasitic))
 
   object Future {
     def by[T](t: Duration)(value: => ScalaFuture[T]): ScalaFuture[T] =
-      if (!t.isFinite) {
-        ScalaFuture.failed(new IllegalArgumentException(s"A task cannot be postponed indefinitely"))
-      } else if (t.length < 1) {
-        try value
-        catch { case NonFatal(e) => ScalaFuture.failed(e) }
-      } else {
-        val task = new PromiseTask(value)
-        Timer.schedule(task, t.toMillis)
-        task.future
-      }
+      delay(t, Timer.callbacks)(value)
   }
 
+  private def delay[T](t: Duration, ec: ExecutionContext)(
+      value: => ScalaFuture[T]
+  ): ScalaFuture[T] =
+    if (!t.isFinite) {
+      ScalaFuture.failed(new IllegalArgumentException(s"A task cannot be postponed indefinitely"))
+    } else if (t.length < 1) {
+      try value
+      catch { case NonFatal(e) => ScalaFuture.failed(e) }
+    } else {
+      val task = new PromiseTask(value)
+      Timer.schedule(t)(task.run())(ec)
+      task.future
+    }
+
 }
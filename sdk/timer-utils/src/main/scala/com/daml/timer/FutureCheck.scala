@@ -6,7 +6,6 @@
 
 package com.daml.timer
 
-import java.util.TimerTask
 import scala.concurrent.Future
 import scala.concurrent.duration.Duration
 
@@ -22,12 +21,22 @@ object FutureCheck {
     */
   def check[T](delay: Duration, period: Duration)(
       f: Future[T]
-  )(onDeadlineExceeded: => Unit): Unit =
-    Timer.scheduleAtFixedRate(
-      task(f, onDeadlineExceeded),
-      delay.toMillis,
-      period.toMillis,
-    )
+  )(onDeadlineExceeded: => Unit): Unit = {
+    // Checks at a fixed rate: each check is scheduled relative to the first one, rather than to
+    // the previous one, so that slow callbacks do not make the checks drift.
+    val firstCheckNanos = System.nanoTime() + delay.toNanos
+    def scheduleCheck(n: Long): Unit = {
+      val _ = Timer.schedule(
+        Duration.fromNanos(firstCheckNanos + n * period.toNanos - System.nanoTime())
+      ) {
+        if (!f.isCompleted) {
+          onDeadlineExceeded
+          scheduleCheck(n + 1)
+        }
+      }(Timer.callbacks)
+    }
+    scheduleCheck(0)
+  }
 
   /** Creates a special checker task around passed future to check if it was completed or not after delay.
     * If it was not completed - a passed closure is being called.
@@ -38,20 +47,11 @@ object FutureCheck {
     */
   def check[T](delay: Duration)(
       f: Future[T]
-  )(onDeadlineExceeded: => Unit): Unit = Timer.schedule(
-    task(f, onDeadlineExceeded),
-    delay.toMillis,
-  )
-
-  private def task[T](f: Future[T], onDeadlineExceeded: => Unit): TimerTask =
-    new TimerTask {
-      override def run(): Unit =
-        if (!f.isCompleted) {
-          onDeadlineExceeded
-        } else {
-          val _ = cancel()
-        }
-    }
+  )(onDeadlineExceeded: => Unit): Unit = {
+    val _ = Timer.schedule(delay) {
+      if (!f.isCompleted) onDeadlineExceeded
+    }(Timer.callbacks)
+  }
 
   implicit class FutureTimeoutOps[T](val f: Future[T]) extends AnyVal {
     def checkIfComplete(delay: Duration)(onDeadlineExceeded: => Unit): Future[T] = {
@@ -0,0 +1,241 @@
+// Copyright (c) 2026 Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.daml.timer
+
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.atomic.{AtomicInteger, AtomicLong}
+import java.util.concurrent.locks.LockSupport
+
+import scala.concurrent.ExecutionContext
+import scala.concurrent.duration.{Duration, DurationInt, FiniteDuration}
+import scala.util.control.NonFatal
+
+/** A timer keeping its timeouts in a hashed wheel.
+  *
+  * The wheel is an array of buckets, one per tick, that the worker thread goes through in turn. A
+  * timeout is kept in the bucket of the tick of its deadline, along with the number of rotations
+  * of the wheel it still has to wait for. Scheduling and cancelling a timeout are O(1): both only
+  * queue the timeout, and the worker moves it in or out of its bucket at the next tick.
+  *
+  * The worker thread only keeps time: expired timeouts run on the execution context given when
+  * scheduling them, so that a slow callback does not delay the others.
+  *
+  * A timeout expires at the end of the tick of its deadline, so never before its deadline, and at
+  * most one tick after it as long as the worker keeps up. The worker thread parks while there is
+  * no timeout to wait for.
+  *
+  * @param name The name of the worker thread.
+  * @param tick The time covered by a bucket.
+  * @param wheelSize The number of buckets, must be a power of two.
+  */
+class HashedWheelTimer(
+    name: String,
+    tick: FiniteDuration = HashedWheelTimer.DefaultTick,
+    wheelSize: Int = HashedWheelTimer.DefaultWheelSize,
+) extends AutoCloseable {
+
+  import HashedWheelTimer._
+
+  require(tick.toNanos > 0, s"The tick of timer $name must be positive")
+  require(
+    wheelSize > 0 && (wheelSize & (wheelSize - 1)) == 0,
+    s"The wheel size of timer $name must be a power of two",
+  )
+
+  private[this] val tickNanos = tick.toNanos
+  private[this] val mask = wheelSize.toLong - 1
+  private[this] val wheel = Array.fill(wheelSize)(new Bucket)
+  private[this] val startNanos = System.nanoTime()
+
+  private[this] val pending = new ConcurrentLinkedQueue[Timeout]
+  private[timer] val cancelled = new ConcurrentLinkedQueue[Timeout]
+  // Timeouts scheduled and not yet dropped by the worker, i.e. expired or removed once cancelled.
+  private[this] val active = new AtomicLong(0)
+
+  @volatile private[this] var running = true
+
+  private[this] val worker = {
+    val thread = new Thread(() => run(), name)
+    thread.setDaemon(true)
+    thread.start()
+    thread
+  }
+
+  /** Schedules `task` to run on `ec` once `delay` has elapsed.
+    *
+    * @param delay The delay before running the task, expired when not positive.
+    * @return The timeout, which allows to cancel the task before it runs.
+    */
+  def schedule(delay: Duration)(task: => Unit)(implicit ec: ExecutionContext): Timeout = {
+    if (!delay.isFinite)
+      throw new IllegalArgumentException(s"A task cannot be postponed indefinitely")
+    if (!running)
+      throw new IllegalStateException(s"Timer $name is closed")
+    // Capped so that the deadline cannot overflow.
+    val delayNanos = delay.toNanos.max(0L).min(MaxDelayNanos)
+    val timeout = new Timeout(this, System.nanoTime() - startNanos + delayNanos, () => task, ec)
+    // Counted before being queued, so that the worker never sees the count drop to zero while
+    // some timeouts are still in their bucket.
+    val wasIdle = active.getAndIncrement() == 0
+    pending.add(timeout)
+    if (wasIdle) LockSupport.unpark(worker)
+    timeout
+  }
+
+  /** Stops the worker thread. The timeouts not expired yet never will. */
+  override def close(): Unit = {
+    running = false
+    LockSupport.unpark(worker)
+  }
+
+  private[this] def elapsedNanos(): Long = System.nanoTime() - startNanos
+
+  private[this] def run(): Unit = {
+    var currentTick = 0L
+    while (running) {
+      if (active.get() == 0) {
+        LockSupport.park(this)
+        // The buckets are all empty, so the ticks elapsed while parked can be skipped.
+        currentTick = elapsedNanos() / tickNanos
+      } else {
+        val endOfTick = (currentTick + 1) * tickNanos
+        var sleepNanos = endOfTick - elapsedNanos()
+        while (sleepNanos > 0 && running) {
+          LockSupport.parkNanos(this, sleepNanos)
+          sleepNanos = endOfTick - elapsedNanos()
+        }
+        removeCancelled()
+        addPending(currentTick)
+        active.addAndGet(-wheel((currentTick & mask).toInt).expire().toLong)
+        currentTick += 1
+      }
+    }
+  }
+
+  private[this] def removeCancelled(): Unit = {
+    var timeout = cancelled.poll()
+    while (timeout != null) {
+      // Timeouts still pending are dropped by addPending, and the ones already removed from their
+      // bucket on expiry need no removal.
+      val bucket = timeout.bucket
+      if (bucket != null) {
+        bucket.remove(timeout)
+        active.decrementAndGet()
+      }
+      timeout = cancelled.poll()
+    }
+  }
+
+  private[this] def addPending(currentTick: Long): Unit = {
+    // Bounded, so that a burst of timeouts does not delay the expiry of the scheduled ones.
+    var remaining = MaxAddedPerTick
+    var timeout = pending.poll()
+    while (timeout != null) {
+      if (timeout.isCancelled) {
+        active.decrementAndGet()
+      } else {
+        val deadlineTick = timeout.deadlineNanos / tickNanos
+        timeout.remainingRounds = (deadlineTick - currentTick) / wheelSize
+        // Timeouts whose tick already passed expire at the current one.
+        wheel((deadlineTick.max(currentTick) & mask).toInt).add(timeout)
+      }
+      remaining -= 1
+      timeout = if (remaining > 0) pending.poll() else null
+    }
+  }
+}
+
+object HashedWheelTimer {
+
+  val DefaultTick: FiniteDuration = 1.millis
+
+  // About a second per rotation with the default tick.
+  val DefaultWheelSize: Int = 1024
+
+  private val MaxAddedPerTick = 100000
+
+  private val MaxDelayNanos = Long.MaxValue / 4
+
+  private final val Scheduled = 0
+  private final val Cancelled = 1
+  private final val Expired = 2
+
+  /** A task scheduled by a [[HashedWheelTimer]]. */
+  final class Timeout private[timer] (
+      timer: HashedWheelTimer,
+      private[timer] val deadlineNanos: Long,
+      task: Runnable,
+      ec: ExecutionContext,
+  ) {
+    private[this] val state = new AtomicInteger(Scheduled)
+
+    // Only accessed by the worker thread.
+    private[timer] var remainingRounds: Long = 0
+    private[timer] var bucket: Bucket = _
+    private[timer] var prev: Timeout = _
+    private[timer] var next: Timeout = _
+
+    /** Prevents the task from running.
+      *
+      * @return false if the task already ran or the timeout was already cancelled.
+      */
+    def cancel(): Boolean =
+      state.compareAndSet(Scheduled, Cancelled) && timer.cancelled.add(this)
+
+    def isCancelled: Boolean = state.get() == Cancelled
+
+    def isExpired: Boolean = state.get() == Expired
+
+    private[timer] def expire(): Unit =
+      if (state.compareAndSet(Scheduled, Expired))
+        try ec.execute(task)
+        catch { case NonFatal(e) => ec.reportFailure(e) }
+  }
+
+  // A doubly-linked list of timeouts, only accessed by the worker thread.
+  private[timer] final class Bucket {
+    private[this] var head: Timeout = _
+    private[this] var tail: Timeout = _
+
+    def add(timeout: Timeout): Unit = {
+      timeout.bucket = this
+      if (head == null) {
+        head = timeout
+      } else {
+        tail.next = timeout
+        timeout.prev = tail
+      }
+      tail = timeout
+    }
+
+    def remove(timeout: Timeout): Unit = {
+      if (timeout.prev == null) head = timeout.next else timeout.prev.next = timeout.next
+      if (timeout.next == null) tail = timeout.prev else timeout.next.prev = timeout.prev
+      timeout.prev = null
+      timeout.next = null
+      timeout.bucket = null
+    }
+
+    // Expires the timeouts due in the current rotation, and returns the number of timeouts removed.
+    def expire(): Int = {
+      var removed = 0
+      var timeout = head
+      while (timeout != null) {
+        val next = timeout.next
+        if (timeout.remainingRounds <= 0) {
+          remove(timeout)
+          timeout.expire()
+          removed += 1
+        } else if (timeout.isCancelled) {
+          remove(timeout)
+          removed += 1
+        } else {
+          timeout.remainingRounds -= 1
+        }
+        timeout = next
+      }
+      removed
+    }
+  }
+}
@@ -6,13 +6,11 @@
 
 package com.daml.timer
 
-import java.util.TimerTask
-
 import scala.concurrent.{Future, Promise}
 import scala.util.Try
 import scala.util.control.NonFatal
 
-private class PromiseTask[A](value: => Future[A]) extends TimerTask with Promise[A] {
+private class PromiseTask[A](value: => Future[A]) extends Runnable with Promise[A] {
 
   private val p = Promise[A]()
 
@@ -3,10 +3,11 @@
 
 package com.daml.timer
 
-import java.util.TimerTask
+import java.util.concurrent.TimeoutException
 
-import scala.concurrent.{Future, Promise}
+import scala.concurrent.{ExecutionContext, Future, Promise}
 import scala.concurrent.duration.Duration
+import scala.util.control.NonFatal
 
 object Timeout {
 
@@ -24,29 +25,80 @@ object Timeout {
     *         If onTimeout is computed, it will be the result as well.
     */
   def apply[T](duration: Duration)(onTimeout: => T)(f: Future[T]): Future[T] =
+    apply(duration, Timer.callbacks)(onTimeout)(f)
+
+  /** Same as [[apply]], with `ec` running onTimeout and the callbacks of the resulting Future,
+    * rather than the execution context shared by the timer utilities.
+    */
+  def apply[T](duration: Duration, ec: ExecutionContext)(onTimeout: => T)(
+      f: Future[T]
+  ): Future[T] =
     if (duration.isFinite) {
+      implicit val executionContext: ExecutionContext = ec
       val p = Promise[Option[T]]()
-      val timeoutTask = new TimerTask {
-        override def run(): Unit = {
-          p.trySuccess(None)
-          ()
-        }
+      val timeoutTask = Timer.schedule(duration) {
+        p.trySuccess(None)
+        ()
       }
-      Timer.schedule(timeoutTask, duration.toMillis)
+      // Only releases the timer entry, which is cheap enough to run on the completing thread.
       f.onComplete { result =>
         if (p.tryComplete(result.map(Some(_)))) timeoutTask.cancel()
         ()
-      }(scala.concurrent.ExecutionContext.parasitic)
+      }(ExecutionContext.parasitic)
       p.future.map {
         case None => onTimeout
         case Some(result) => result
-      }(scala.concurrent.ExecutionContext.parasitic)
+      }
     } else {
       f
     }
 
+  /** Same as [[apply]], except that the work is stopped once the timeout is reached.
+    *
+    * The work is given a [[Cancellation]], which is cancelled with a [[TimeoutException]] when
+    * the timeout is reached, and which it uses to stop, e.g. by cancelling its gRPC calls. The
+    * caller may cancel the work as well through `cancellation`, in which case the resulting
+    * Future fails right away with the cause of the cancellation. In all cases, the timer entry is
+    * released as soon as the result is known, rather than when the timeout is reached.
+    *
+    * @param duration The timeout duration: if infinite, the work is only stopped by the caller.
+    * @param cancellation The cancellation passed to the work, which the caller may cancel.
+    * @param onTimeout A computation resulting in a value of type T or an exception, which
+    *                  determines the result once the timeout is reached.
+    * @param work The work, started right away.
+    * @param ec Runs onTimeout, the cancellation callbacks of the work on timeout, and the
+    *           callbacks of the resulting Future, rather than the thread of the timer.
+    */
+  def cancellable[T](duration: Duration, cancellation: Cancellation = new Cancellation)(
+      onTimeout: => T
+  )(work: Cancellation => Future[T])(implicit ec: ExecutionContext): Future[T] = {
+    val p = Promise[Option[T]]()
+    val timeoutTask = Option.when(duration.isFinite)(Timer.schedule(duration) {
+      if (p.trySuccess(None))
+        cancellation.cancel(new TimeoutException(s"Timed out after $duration"))
+      ()
+    })
+    def release(): Unit = timeoutTask.foreach(_.cancel())
+    cancellation.onCancel { cause =>
+      if (p.tryFailure(cause)) release()
+    }
+    val f =
+      try work(cancellation)
+      catch { case NonFatal(e) => Future.failed(e) }
+    f.onComplete { result =>
+      if (p.tryComplete(result.map(Some(_)))) release()
+    }(ExecutionContext.parasitic)
+    p.future.map {
+      case None => onTimeout
+      case Some(result) => result
+    }
+  }
+
   implicit class FutureTimeoutOps[T](val f: Future[T]) extends AnyVal {
     def withTimeout(duration: Duration)(onTimeout: => T): Future[T] =
       Timeout(duration)(onTimeout)(f)
+
+    def withTimeout(duration: Duration, ec: ExecutionContext)(onTimeout: => T): Future[T] =
+      Timeout(duration, ec)(onTimeout)(f)
   }
 }
@@ -6,4 +6,11 @@
 
 package com.daml.timer
 
-private[timer] object Timer extends java.util.Timer("timer-utils", true)
+import scala.concurrent.ExecutionContext
+
+private[timer] object Timer extends HashedWheelTimer("timer-utils") {
+
+  // Runs the callbacks of the utilities that are not given an execution context, so that they
+  // do not run on the thread of the timer.
+  val callbacks: ExecutionContext = ExecutionContext.global
+}
@@ -0,0 +1,45 @@
+// Copyright (c) 2026 Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.daml.timer
+
+import java.util.concurrent.ConcurrentLinkedQueue
+
+import org.scalatest.matchers.should.Matchers
+import org.scalatest.wordspec.AnyWordSpec
+
+import scala.jdk.CollectionConverters._
+
+final class CancellationSpec extends AnyWordSpec with Matchers {
+
+  "a cancellation" should {
+    "not be cancelled until cancel is called" in {
+      val cancellation = new Cancellation
+      cancellation.isCancelled shouldBe false
+      cancellation.cancelled.isCompleted shouldBe false
+    }
+
+    "only be cancelled once, with the first cause" in {
+      val cancellation = new Cancellation
+      val first = new RuntimeException("first")
+      cancellation.cancel(first) shouldBe true
+      cancellation.cancel(new RuntimeException("second")) shouldBe false
+      cancellation.isCancelled shouldBe true
+      cancellation.cancelled.value.flatMap(_.toOption) shouldBe Some(first)
+    }
+
+    "run the callbacks registered before and after it is cancelled, once each" in {
+      val cancellation = new Cancellation
+      val causes = new ConcurrentLinkedQueue[String]
+      cancellation.onCancel { cause =>
+        val _ = causes.add(s"before: ${cause.getMessage}")
+      }
+      cancellation.cancel(new RuntimeException("stop"))
+      cancellation.cancel(new RuntimeException("again"))
+      cancellation.onCancel { cause =>
+        val _ = causes.add(s"after: ${cause.getMessage}")
+      }
+      causes.asScala.toSeq shouldBe Seq("before: stop", "after: stop")
+    }
+  }
+}
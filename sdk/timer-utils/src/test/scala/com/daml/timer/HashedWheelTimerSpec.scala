@@ -0,0 +1,133 @@
+// Copyright (c) 2026 Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.daml.timer
+
+import java.util.concurrent.{ConcurrentLinkedQueue, CountDownLatch, Executors, TimeUnit}
+
+import org.scalatest.{Assertion, BeforeAndAfterAll}
+import org.scalatest.matchers.should.Matchers
+import org.scalatest.wordspec.AnyWordSpec
+
+import scala.concurrent.ExecutionContext
+import scala.concurrent.duration.{DurationInt, FiniteDuration}
+import scala.jdk.CollectionConverters._
+
+final class HashedWheelTimerSpec extends AnyWordSpec with Matchers with BeforeAndAfterAll {
+
+  private val executor = Executors.newSingleThreadExecutor { runnable =>
+    val thread = new Thread(runnable, "timer-spec-callbacks")
+    thread.setDaemon(true)
+    thread
+  }
+  private implicit val ec: ExecutionContext = ExecutionContext.fromExecutor(executor)
+
+  override protected def afterAll(): Unit = {
+    executor.shutdownNow()
+    super.afterAll()
+  }
+
+  private def withTimer[A](tick: FiniteDuration = 1.millis, wheelSize: Int = 8)(
+      f: HashedWheelTimer => A
+  ): A = {
+    val timer = new HashedWheelTimer("timer-spec", tick, wheelSize)
+    try f(timer)
+    finally timer.close()
+  }
+
+  private def await(latch: CountDownLatch): Assertion =
+    latch.await(10, TimeUnit.SECONDS) shouldBe true
+
+  "a hashed wheel timer" should {
+    "run timeouts in the order of their deadlines" in withTimer() { timer =>
+      val delays = Seq(50, 10, 40, 20, 30).map(_.millis)
+      val ran = new ConcurrentLinkedQueue[FiniteDuration]
+      val done = new CountDownLatch(delays.size)
+      delays.foreach { delay =>
+        timer.schedule(delay) {
+          ran.add(delay)
+          done.countDown()
+        }
+      }
+      await(done)
+      ran.asScala.toSeq shouldBe delays.sorted
+    }
+
+    "never run a timeout before its deadline" in withTimer() { timer =>
+      val delays = Seq(1, 5, 13, 30).map(_.millis)
+      val late = new ConcurrentLinkedQueue[Boolean]
+      val done = new CountDownLatch(delays.size)
+      delays.foreach { delay =>
+        val scheduledAt = System.nanoTime()
+        timer.schedule(delay) {
+          late.add(System.nanoTime() - scheduledAt >= delay.toNanos)
+          done.countDown()
+        }
+      }
+      await(done)
+      late.asScala.toSeq shouldBe Seq.fill(delays.size)(true)
+    }
+
+    "run timeouts due after several rotations of the wheel" in withTimer(wheelSize = 4) { timer =>
+      // With 4 buckets of 1ms, a rotation takes 4ms, so these land in the same buckets as
+      // timeouts due in the current rotation, and must wait for the right one.
+      val delays = Seq(42, 2, 21, 10).map(_.millis)
+      val ran = new ConcurrentLinkedQueue[FiniteDuration]
+      val done = new CountDownLatch(delays.size)
+      delays.foreach { delay =>
+        val scheduledAt = System.nanoTime()
+        timer.schedule(delay) {
+          if (System.nanoTime() - scheduledAt >= delay.toNanos) ran.add(delay)
+          done.countDown()
+        }
+      }
+      await(done)
+      ran.asScala.toSeq shouldBe delays.sorted
+    }
+
+    "not run cancelled timeouts" in withTimer() { timer =>
+      val ran = new ConcurrentLinkedQueue[String]
+      val done = new CountDownLatch(1)
+      val cancelled = timer.schedule(20.millis) {
+        ran.add("cancelled")
+        ()
+      }
+      timer.schedule(50.millis) {
+        ran.add("kept")
+        done.countDown()
+      }
+      cancelled.cancel() shouldBe true
+      cancelled.cancel() shouldBe false
+      await(done)
+      cancelled.isCancelled shouldBe true
+      cancelled.isExpired shouldBe false
+      ran.asScala.toSeq shouldBe Seq("kept")
+    }
+
+    "not cancel timeouts that already ran" in withTimer() { timer =>
+      val done = new CountDownLatch(1)
+      val timeout = timer.schedule(1.millis)(done.countDown())
+      await(done)
+      timeout.isExpired shouldBe true
+      timeout.cancel() shouldBe false
+      timeout.isCancelled shouldBe false
+    }
+
+    "run tasks on the given execution context" in withTimer() { timer =>
+      val thread = new ConcurrentLinkedQueue[String]
+      val done = new CountDownLatch(1)
+      timer.schedule(1.millis) {
+        thread.add(Thread.currentThread.getName)
+        done.countDown()
+      }
+      await(done)
+      thread.asScala.toSeq shouldBe Seq("timer-spec-callbacks")
+    }
+
+    "refuse timeouts once closed" in {
+      val timer = new HashedWheelTimer("timer-spec")
+      timer.close()
+      an[IllegalStateException] should be thrownBy timer.schedule(1.millis)(())
+    }
+  }
+}
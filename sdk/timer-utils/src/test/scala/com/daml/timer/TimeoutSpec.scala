@@ -0,0 +1,125 @@
+// Copyright (c) 2026 Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.daml.timer
+
+import java.util.concurrent.{Executors, TimeoutException}
+
+import org.scalatest.BeforeAndAfterAll
+import org.scalatest.matchers.should.Matchers
+import org.scalatest.wordspec.AsyncWordSpec
+
+import scala.concurrent.{ExecutionContext, Future}
+import scala.concurrent.duration.{Duration, DurationInt}
+
+final class TimeoutSpec extends AsyncWordSpec with Matchers with BeforeAndAfterAll {
+
+  private val executor = Executors.newCachedThreadPool { runnable =>
+    val thread = new Thread(runnable, "timeout-spec-callbacks")
+    thread.setDaemon(true)
+    thread
+  }
+  private val callbacks: ExecutionContext = ExecutionContext.fromExecutor(executor)
+
+  override protected def afterAll(): Unit = {
+    executor.shutdownNow()
+    super.afterAll()
+  }
+
+  private def currentThread(): String = Thread.currentThread.getName
+
+  "Timeout" should {
+    "complete with the result of the future if it completes in time" in {
+      Timeout(10.seconds, callbacks)("timed out")(Future.successful("done")).map(_ shouldBe "done")
+    }
+
+    "compute onTimeout on the given execution context, not the thread of the timer" in {
+      Timeout(10.millis, callbacks)(currentThread())(Future.never)
+        .map(_ shouldBe "timeout-spec-callbacks")
+    }
+
+    "compute onTimeout off the thread of the timer when not given an execution context" in {
+      Timeout(10.millis)(currentThread())(Future.never).map(_ should not be "timer-utils")
+    }
+
+    "time out futures through its syntax, with and without an execution context" in {
+      import Timeout.FutureTimeoutOps
+      for {
+        shared <- Future.never[String].withTimeout(10.millis)("timed out")
+        provided <- Future.never[String].withTimeout(10.millis, callbacks)(currentThread())
+      } yield {
+        shared shouldBe "timed out"
+        provided shouldBe "timeout-spec-callbacks"
+      }
+    }
+
+    "fail with the exception thrown by onTimeout" in {
+      recoverToSucceededIf[TimeoutException] {
+        Timeout(10.millis, callbacks)(throw new TimeoutException("timed out"))(Future.never[Unit])
+      }
+    }
+
+    "not time out when the duration is infinite" in {
+      val f = Future.successful(42)
+      Timeout(Duration.Inf)(0)(f) shouldBe theSameInstanceAs(f)
+      Timeout(Duration.Inf, callbacks)(0)(f) shouldBe theSameInstanceAs(f)
+    }
+  }
+
+  "Timeout.cancellable" should {
+    "complete with the result of the work, without cancelling it, if it completes in time" in {
+      val cancellation = new Cancellation
+      for {
+        result <- Timeout
+          .cancellable(50.millis, cancellation)("timed out")(_ => Future.successful("done"))(
+            callbacks
+          )
+        // Past the timeout, which must have been released along with the result.
+        _ <- Delayed.by(100.millis)(())(callbacks)
+      } yield {
+        result shouldBe "done"
+        cancellation.isCancelled shouldBe false
+      }
+    }
+
+    "cancel the work with a TimeoutException once the timeout is reached" in {
+      val cancellation = new Cancellation
+      for {
+        result <- Timeout
+          .cancellable(10.millis, cancellation)(currentThread())(_ => Future.never)(callbacks)
+        cause <- cancellation.cancelled
+      } yield {
+        result shouldBe "timeout-spec-callbacks"
+        cause shouldBe a[TimeoutException]
+      }
+    }
+
+    "fail right away with the cause of a cancellation by the caller" in {
+      val cancellation = new Cancellation
+      val result =
+        Timeout.cancellable(10.seconds, cancellation)(0)(_ => Future.never)(callbacks)
+      cancellation.cancel(new IllegalStateException("no longer needed")) shouldBe true
+      recoverToExceptionIf[IllegalStateException](result)
+        .map(_.getMessage shouldBe "no longer needed")
+    }
+
+    "fail with the exception thrown by the work" in {
+      recoverToSucceededIf[IllegalArgumentException] {
+        Timeout.cancellable[Int](10.seconds)(0)(_ => throw new IllegalArgumentException)(
+          callbacks
+        )
+      }
+    }
+
+    "only be stopped by the caller when the duration is infinite" in {
+      val cancellation = new Cancellation
+      val result =
+        Timeout.cancellable(Duration.Inf, cancellation)(0)(_ => Future.never)(callbacks)
+      Delayed.by(50.millis)(())(callbacks).flatMap { _ =>
+        result.isCompleted shouldBe false
+        cancellation.cancel(new IllegalStateException("stop"))
+        recoverToSucceededIf[IllegalStateException](result)
+      }
+    }
+  }
+}